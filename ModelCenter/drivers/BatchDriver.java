@@ -0,0 +1,37 @@
+
+import com.phoenix_int.aserver.*;
+
+/**
+ * A driver that can hand out several cases at once. ModelCenter still
+ * runs such a driver one case per startIteration()/endIteration() pair;
+ * a BatchExecutor instead asks it for whole batches of design points,
+ * evaluates them concurrently and returns the responses in case order.
+ *
+ * Points and responses are exchanged as flat row-major arrays: case k
+ * occupies inputs[k*getNumInputs() ..] and outputs[k*getNumOutputs() ..].
+ */
+public interface BatchDriver extends IPHXDriver
+{
+   /**
+    * number of design variables per case; valid after initializeIterations()
+    */
+   int getNumInputs();
+
+   /**
+    * number of responses per case; valid after initializeIterations()
+    */
+   int getNumOutputs();
+
+   /**
+    * generates up to maxCases design points into inputs and returns how
+    * many were generated, 0 once the driver has nothing more to run
+    */
+   int nextBatch( double[] inputs, int maxCases ) throws Exception;
+
+   /**
+    * folds the responses of the numCases cases of the last batch back into
+    * the driver, in the order they were generated. Returns false when the
+    * driver is done.
+    */
+   boolean acceptBatch( double[] outputs, int numCases ) throws Exception;
+}
@@ -0,0 +1,217 @@
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a BatchDriver in-process against an Evaluator, evaluating the cases
+ * of each batch concurrently.
+ *
+ * The executor uses a fixed pool of daemon threads, or one virtual thread
+ * per worker when virtualThreads is set and the JVM supports them. Within
+ * a batch the workers claim cases from a counter of that batch, so uneven
+ * case run times are balanced automatically, and each response is written
+ * to the row of its case, so the driver always sees results in case order.
+ *
+ * evaluate() may be called from several threads at once; their batches
+ * then share the pool. A batch runs at most getThreads() cases at a time,
+ * with virtual threads too, which only change what carries the workers.
+ * The fixed pool is sized by the thread count when the first batch runs;
+ * setThreads() after that changes the workers per batch but not the pool,
+ * so set it, and virtualThreads, before evaluating.
+ */
+public class BatchExecutor implements AutoCloseable
+{
+   private int threads = Runtime.getRuntime().availableProcessors();
+   private boolean virtualThreads = false;
+   private int batchSize = 0;
+
+   private ExecutorService pool;
+
+   public BatchExecutor()
+   {
+   }
+
+   public BatchExecutor( int threads )
+   {
+      setThreads( threads );
+   }
+
+   public void setThreads( int v ) { threads = Math.max( 1, v ); }
+   public int getThreads() { return threads; }
+   public void setVirtualThreads( boolean v ) { virtualThreads = v; }
+   public boolean getVirtualThreads() { return virtualThreads; }
+   public void setBatchSize( int v ) { batchSize = v; }
+
+   /**
+    * number of cases requested from the driver per batch; defaults to a
+    * few cases per thread so that the workers stay busy
+    */
+   public int getBatchSize() { return batchSize > 0 ? batchSize : 4*threads; }
+
+   /**
+    * runs the driver to completion: initializeIterations(), then batches
+    * until the driver stops, then end()
+    */
+   public void run( BatchDriver driver, Evaluator model ) throws Exception
+   {
+      driver.initializeIterations();
+      try
+      {
+         int numInputs = driver.getNumInputs();
+         int numOutputs = driver.getNumOutputs();
+         int maxCases = getBatchSize();
+         double[] inputs = new double[maxCases*numInputs];
+         double[] outputs = new double[maxCases*numOutputs];
+
+         boolean more = true;
+         while ( more )
+         {
+            int n = driver.nextBatch( inputs, maxCases );
+            if ( n == 0 )
+               break;
+
+            evaluate( model, inputs, numInputs, outputs, numOutputs, n );
+            more = driver.acceptBatch( outputs, n );
+         }
+      }
+      finally
+      {
+         driver.end();
+      }
+   }
+
+   /**
+    * evaluates numCases row-major design points concurrently and blocks
+    * until all responses are in. The first evaluation failure aborts the
+    * remaining cases of the batch and is rethrown.
+    */
+   public void evaluate( Evaluator model, double[] inputs, int numInputs,
+                         double[] outputs, int numOutputs, int numCases )
+      throws Exception
+   {
+      if ( numCases == 0 )
+         return;
+
+      int numTasks = Math.min( threads, numCases );
+      if ( numTasks == 1 )
+      {
+         for ( int k = 0; k < numCases; k++ )
+         {
+            model.evaluate( inputs, k*numInputs, outputs, k*numOutputs );
+         }
+         return;
+      }
+
+      // every worker of the batch runs the same Batch, which holds the
+      // case counter
+      Batch batch = new Batch( model, inputs, numInputs, outputs, numOutputs, numCases );
+      List<Future<Void>> done = getPool().invokeAll( Collections.nCopies( numTasks, batch ) );
+      for ( Future<Void> f : done )
+      {
+         try
+         {
+            f.get();
+         }
+         catch ( ExecutionException e )
+         {
+            Throwable cause = e.getCause();
+            if ( cause instanceof Exception )
+               throw (Exception)cause;
+            throw e;
+         }
+      }
+   }
+
+   public synchronized void close()
+   {
+      if ( pool != null )
+      {
+         pool.shutdownNow();
+         pool = null;
+      }
+   }
+
+   private synchronized ExecutorService getPool()
+   {
+      if ( pool == null )
+      {
+         if ( virtualThreads )
+            pool = newVirtualThreadPool();
+         if ( pool == null )
+         {
+            pool = Executors.newFixedThreadPool( threads, new ThreadFactory()
+            {
+               private int count = 0;
+
+               public synchronized Thread newThread( Runnable r )
+               {
+                  Thread t = new Thread( r, "batch-evaluator-" + (++count) );
+                  t.setDaemon( true );
+                  return t;
+               }
+            } );
+         }
+      }
+      return pool;
+   }
+
+   /**
+    * virtual threads only exist on Java 21 and later; fall back to the
+    * fixed pool on older runtimes
+    */
+   private static ExecutorService newVirtualThreadPool()
+   {
+      try
+      {
+         Method m = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+         return (ExecutorService)m.invoke( null );
+      }
+      catch ( Exception e )
+      {
+         return null;
+      }
+   }
+
+   private static class Batch implements Callable<Void>
+   {
+      private final Evaluator model;
+      private final double[] inputs;
+      private final double[] outputs;
+      private final int numInputs;
+      private final int numOutputs;
+      private final int numCases;
+      private final AtomicInteger nextCase = new AtomicInteger();
+
+      Batch( Evaluator model, double[] inputs, int numInputs,
+             double[] outputs, int numOutputs, int numCases )
+      {
+         this.model = model;
+         this.inputs = inputs;
+         this.numInputs = numInputs;
+         this.outputs = outputs;
+         this.numOutputs = numOutputs;
+         this.numCases = numCases;
+      }
+
+      public Void call() throws Exception
+      {
+         int k;
+         while ( (k = nextCase.getAndIncrement()) < numCases )
+         {
+            try
+            {
+               model.evaluate( inputs, k*numInputs, outputs, k*numOutputs );
+            }
+            catch ( Exception e )
+            {
+               // stop the other workers from picking up further cases
+               nextCase.set( numCases );
+               throw e;
+            }
+         }
+         return null;
+      }
+   }
+}
@@ -0,0 +1,149 @@
+
+/**
+ * Analytic stand-in models for exercising the optimizer drivers without
+ * ModelCenter or the Analysis Server. Run a driver against one with a
+ * BatchExecutor; the known optima tell whether it found them.
+ *
+ * Single objective, any number of inputs, minimum 0:
+ *   Sphere     - sum x_i^2, minimum at 0
+ *   Rosenbrock - sum 100 (x_i+1 - x_i^2)^2 + (1 - x_i)^2, minimum at 1
+ *   Rastrigin  - 10 n + sum x_i^2 - 10 cos(2 pi x_i), minimum at 0
+ *
+ * Two objectives, inputs in [0,1] (Zitzler, Deb and Thiele):
+ *   ZDT1 - convex front f2 = 1 - sqrt(f1)
+ *   ZDT2 - concave front f2 = 1 - f1^2
+ *   ZDT3 - front in five disconnected pieces
+ *
+ * Any number of objectives, inputs in [0,1]:
+ *   DTLZ2 - the front is the positive part of the unit sphere
+ *
+ * The models keep no state and may be shared by all workers.
+ */
+public class BenchmarkProblem implements Evaluator
+{
+   public static final String TYPES = "Sphere,Rosenbrock,Rastrigin,ZDT1,ZDT2,ZDT3,DTLZ2";
+
+   // index of the type in TYPES, so that evaluate() compares no strings
+   private static final int SPHERE = 0;
+   private static final int ROSENBROCK = 1;
+   private static final int RASTRIGIN = 2;
+   private static final int ZDT1 = 3;
+   private static final int ZDT2 = 4;
+   private static final int ZDT3 = 5;
+
+   private final String type;
+   private final int kind;
+   private final int numInputs;
+   private final int numObjectives;
+
+   public BenchmarkProblem( String type, int numInputs )
+   {
+      this( type, numInputs, type.startsWith( "ZDT" ) ? 2 : 1 );
+   }
+
+   /**
+    * @param numObjectives used by DTLZ2 only
+    */
+   public BenchmarkProblem( String type, int numInputs, int numObjectives )
+   {
+      if ( !("," + TYPES + ",").contains( "," + type + "," ) )
+      {
+         String msg = "unsupported benchmark problem: " + type;
+         throw new IllegalArgumentException( msg );
+      }
+      if ( type.startsWith( "ZDT" ) )
+         numObjectives = 2;
+      else if ( !type.equals( "DTLZ2" ) )
+         numObjectives = 1;
+      if ( numInputs < numObjectives )
+      {
+         String msg = type + " needs at least " + numObjectives + " inputs";
+         throw new IllegalArgumentException( msg );
+      }
+
+      this.type = type;
+      this.kind = java.util.Arrays.asList( TYPES.split( "," ) ).indexOf( type );
+      this.numInputs = numInputs;
+      this.numObjectives = numObjectives;
+   }
+
+   public String getType() { return type; }
+   public int getNumInputs() { return numInputs; }
+   public int getNumObjectives() { return numObjectives; }
+
+   public void evaluate( double[] in, int inOff, double[] out, int outOff )
+   {
+      int n = numInputs;
+      if ( kind == SPHERE )
+      {
+         double s = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            s += in[inOff+i]*in[inOff+i];
+         }
+         out[outOff] = s;
+      }
+      else if ( kind == ROSENBROCK )
+      {
+         double s = 0;
+         for ( int i = 0; i < n-1; i++ )
+         {
+            double a = in[inOff+i+1] - in[inOff+i]*in[inOff+i];
+            double b = 1 - in[inOff+i];
+            s += 100*a*a + b*b;
+         }
+         out[outOff] = s;
+      }
+      else if ( kind == RASTRIGIN )
+      {
+         double s = 10*n;
+         for ( int i = 0; i < n; i++ )
+         {
+            double v = in[inOff+i];
+            s += v*v - 10*Math.cos( 2*Math.PI*v );
+         }
+         out[outOff] = s;
+      }
+      else if ( kind >= ZDT1 && kind <= ZDT3 )
+      {
+         double f1 = in[inOff];
+         double g = 0;
+         for ( int i = 1; i < n; i++ )
+         {
+            g += in[inOff+i];
+         }
+         g = 1 + 9*g/Math.max( 1, n-1 );
+
+         double h;
+         if ( kind == ZDT1 )
+            h = 1 - Math.sqrt( f1/g );
+         else if ( kind == ZDT2 )
+            h = 1 - (f1/g)*(f1/g);
+         else
+            h = 1 - Math.sqrt( f1/g ) - (f1/g)*Math.sin( 10*Math.PI*f1 );
+         out[outOff] = f1;
+         out[outOff+1] = g*h;
+      }
+      else
+      {
+         int m = numObjectives;
+         double g = 0;
+         for ( int i = m-1; i < n; i++ )
+         {
+            double d = in[inOff+i] - 0.5;
+            g += d*d;
+         }
+         for ( int j = 0; j < m; j++ )
+         {
+            double v = 1 + g;
+            for ( int i = 0; i < m-1-j; i++ )
+            {
+               v *= Math.cos( 0.5*Math.PI*in[inOff+i] );
+            }
+            if ( j > 0 )
+               v *= Math.sin( 0.5*Math.PI*in[inOff+m-1-j] );
+            out[outOff+j] = v;
+         }
+      }
+   }
+}
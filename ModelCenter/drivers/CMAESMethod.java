@@ -0,0 +1,286 @@
+import java.util.Arrays;
+
+/**
+ * Covariance matrix adaptation evolution strategy (Hansen), on the first
+ * objective of the problem.
+ *
+ * Each generation draws lambda points from a normal distribution around
+ * the mean, ranks them and moves the mean to the weighted average of the
+ * best mu. The covariance matrix learns from the evolution path (rank-one
+ * update) and from the spread of the selected points (rank-mu update),
+ * and the step size follows the length of the conjugate evolution path.
+ * Defaults follow Hansen's tutorial: lambda = 4 + 3 ln n, mu = lambda/2.
+ *
+ * Bounds are handled by repair and penalty: a point is evaluated where
+ * it is moved onto the bounds, and ranked by that value plus the squared
+ * distance it was moved, in steps, times the spread of the generation's
+ * values. The mean is thereby pulled back inside without biasing the
+ * distribution.
+ *
+ * The method starts from the problem's starting point with step size
+ * initialStep and has converged once the steps are below the tolerance in
+ * every direction, or the generation's values agree to the tolerance.
+ */
+class CMAESMethod extends PopulationMethod
+{
+   public void run( PopulationProblem problem, RandomSource rng ) throws Exception
+   {
+      int n = problem.getDimension();
+      int m = problem.getNumObjectives();
+      int lambda = populationSize > 0 ? Math.max( 2, populationSize )
+                                      : 4 + (int)(3*Math.log( n ));
+      int mu = lambda/2;
+
+      double[] weights = new double[mu];
+      double sum = 0;
+      for ( int k = 0; k < mu; k++ )
+      {
+         weights[k] = Math.log( mu + 0.5 ) - Math.log( k + 1 );
+         sum += weights[k];
+      }
+      double sumSq = 0;
+      for ( int k = 0; k < mu; k++ )
+      {
+         weights[k] /= sum;
+         sumSq += weights[k]*weights[k];
+      }
+      double mueff = 1/sumSq;
+
+      double cc = (4 + mueff/n)/(n + 4 + 2*mueff/n);
+      double cs = (mueff + 2)/(n + mueff + 5);
+      double c1 = 2/((n + 1.3)*(n + 1.3) + mueff);
+      double cmu = Math.min( 1 - c1, 2*(mueff - 2 + 1/mueff)/((n + 2)*(n + 2) + mueff) );
+      double damps = 1 + 2*Math.max( 0, Math.sqrt( (mueff - 1)/(n + 1) ) - 1 ) + cs;
+      double chiN = Math.sqrt( n )*(1 - 1.0/(4*n) + 1.0/(21.0*n*n));
+
+      double[] mean = problem.getStart();
+      double sigma = initialStep;
+      double[] pc = new double[n];
+      double[] ps = new double[n];
+      double[][] C = new double[n][n];
+      double[][] B = new double[n][n];
+      double[] D = new double[n];
+      for ( int i = 0; i < n; i++ )
+      {
+         C[i][i] = 1;
+         B[i][i] = 1;
+         D[i] = 1;
+      }
+
+      double[] z = new double[lambda*n];
+      double[] y = new double[lambda*n];
+      double[] x = new double[lambda*n];
+      double[] values = new double[lambda*m];
+      double[] rankValue = new double[lambda];
+      Integer[] order = new Integer[lambda];
+      double[] yw = new double[n];
+      double[] zw = new double[n];
+      double[] bz = new double[n];
+
+      converged = false;
+      int generation = 0;
+
+      // the first generation is the initial population, which is
+      // evaluated even with no generations to spare, as DE and NSGA-II
+      // evaluate theirs
+      while ( generation == 0 || !problem.isExhausted() )
+      {
+         for ( int k = 0; k < lambda; k++ )
+         {
+            for ( int i = 0; i < n; i++ )
+            {
+               z[k*n+i] = gaussian( rng );
+            }
+            for ( int i = 0; i < n; i++ )
+            {
+               double v = 0;
+               for ( int j = 0; j < n; j++ )
+               {
+                  v += B[i][j]*D[j]*z[k*n+j];
+               }
+               y[k*n+i] = v;
+               x[k*n+i] = mean[i] + sigma*v;
+            }
+         }
+
+         problem.evaluate( x, values, lambda );
+         generation++;
+
+         double lo = Double.POSITIVE_INFINITY;
+         double hi = Double.NEGATIVE_INFINITY;
+         for ( int k = 0; k < lambda; k++ )
+         {
+            double v = values[k*m];
+            if ( v != Double.POSITIVE_INFINITY )
+            {
+               lo = Math.min( lo, v );
+               hi = Math.max( hi, v );
+            }
+         }
+         double spread = hi > lo ? hi - lo : 1;
+         for ( int k = 0; k < lambda; k++ )
+         {
+            double moved = 0;
+            for ( int i = 0; i < n; i++ )
+            {
+               double d = x[k*n+i] - problem.clip( i, x[k*n+i] );
+               moved += d*d;
+            }
+            rankValue[k] = values[k*m] + spread*moved/(sigma*sigma);
+            order[k] = k;
+         }
+         final double[] r = rankValue;
+         Arrays.sort( order, ( a, b ) -> Double.compare( r[a], r[b] ) );
+
+         // recombination
+         Arrays.fill( yw, 0 );
+         Arrays.fill( zw, 0 );
+         for ( int k = 0; k < mu; k++ )
+         {
+            int s = order[k];
+            for ( int i = 0; i < n; i++ )
+            {
+               yw[i] += weights[k]*y[s*n+i];
+               zw[i] += weights[k]*z[s*n+i];
+            }
+         }
+         for ( int i = 0; i < n; i++ )
+         {
+            mean[i] += sigma*yw[i];
+         }
+
+         // evolution paths; C^-1/2 yw = B zw
+         double psNorm = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            double v = 0;
+            for ( int j = 0; j < n; j++ )
+            {
+               v += B[i][j]*zw[j];
+            }
+            bz[i] = v;
+         }
+         for ( int i = 0; i < n; i++ )
+         {
+            ps[i] = (1 - cs)*ps[i] + Math.sqrt( cs*(2 - cs)*mueff )*bz[i];
+            psNorm += ps[i]*ps[i];
+         }
+         psNorm = Math.sqrt( psNorm );
+         boolean hsig = psNorm/Math.sqrt( 1 - Math.pow( 1 - cs, 2*generation ) )/chiN
+                        < 1.4 + 2.0/(n + 1);
+         for ( int i = 0; i < n; i++ )
+         {
+            pc[i] = (1 - cc)*pc[i] + (hsig ? Math.sqrt( cc*(2 - cc)*mueff )*yw[i] : 0);
+         }
+
+         // covariance: rank-one and rank-mu updates
+         double keep = 1 - c1 - cmu + (hsig ? 0 : c1*cc*(2 - cc));
+         for ( int i = 0; i < n; i++ )
+         {
+            for ( int j = 0; j <= i; j++ )
+            {
+               double v = keep*C[i][j] + c1*pc[i]*pc[j];
+               for ( int k = 0; k < mu; k++ )
+               {
+                  int s = order[k];
+                  v += cmu*weights[k]*y[s*n+i]*y[s*n+j];
+               }
+               C[i][j] = v;
+               C[j][i] = v;
+            }
+         }
+
+         sigma *= Math.exp( (cs/damps)*(psNorm/chiN - 1) );
+
+         if ( !eigen( C, B, D, n ) )
+            break;
+
+         double widest = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            widest = Math.max( widest, sigma*Math.sqrt( C[i][i] ) );
+         }
+         if ( widest < tolerance ||
+              hi - lo <= tolerance*(1 + Math.abs( lo )) && generation > 1 )
+         {
+            converged = true;
+            break;
+         }
+      }
+   }
+
+   /**
+    * eigen-decomposition C = B diag(D^2) B^T by cyclic Jacobi rotations;
+    * false if C has lost positive definiteness
+    */
+   private static boolean eigen( double[][] C, double[][] B, double[] D, int n )
+   {
+      double[][] a = new double[n][n];
+      for ( int i = 0; i < n; i++ )
+      {
+         System.arraycopy( C[i], 0, a[i], 0, n );
+         Arrays.fill( B[i], 0 );
+         B[i][i] = 1;
+      }
+
+      for ( int sweep = 0; sweep < 50; sweep++ )
+      {
+         double off = 0;
+         double diag = 0;
+         for ( int p = 0; p < n; p++ )
+         {
+            diag += a[p][p]*a[p][p];
+            for ( int q = p+1; q < n; q++ )
+            {
+               off += a[p][q]*a[p][q];
+            }
+         }
+         if ( off <= 1e-30*diag )
+            break;
+
+         for ( int p = 0; p < n; p++ )
+         {
+            for ( int q = p+1; q < n; q++ )
+            {
+               if ( a[p][q] == 0 )
+                  continue;
+               double theta = (a[q][q] - a[p][p])/(2*a[p][q]);
+               double t = Math.signum( theta )/(Math.abs( theta ) + Math.sqrt( theta*theta + 1 ));
+               if ( theta == 0 )
+                  t = 1;
+               double c = 1/Math.sqrt( t*t + 1 );
+               double s = t*c;
+               for ( int k = 0; k < n; k++ )
+               {
+                  double akp = a[k][p];
+                  double akq = a[k][q];
+                  a[k][p] = c*akp - s*akq;
+                  a[k][q] = s*akp + c*akq;
+               }
+               for ( int k = 0; k < n; k++ )
+               {
+                  double apk = a[p][k];
+                  double aqk = a[q][k];
+                  a[p][k] = c*apk - s*aqk;
+                  a[q][k] = s*apk + c*aqk;
+               }
+               for ( int k = 0; k < n; k++ )
+               {
+                  double bkp = B[k][p];
+                  double bkq = B[k][q];
+                  B[k][p] = c*bkp - s*bkq;
+                  B[k][q] = s*bkp + c*bkq;
+               }
+            }
+         }
+      }
+
+      for ( int i = 0; i < n; i++ )
+      {
+         if ( !(a[i][i] > 0) )
+            return false;
+         D[i] = Math.sqrt( a[i][i] );
+      }
+      return true;
+   }
+}
@@ -0,0 +1,209 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Disk tier of an EvaluationCache: an append-only file of evaluated
+ * design points.
+ *
+ *   header: magic, number of inputs, number of outputs, quantum, CRC
+ *   record: the quantized inputs, the outputs, CRC
+ *
+ * Records all have the same size. On open the file is read once to build
+ * an index from key to record position; a torn record at the end, left
+ * by a process that died while writing it, is cut off. Lookups read the
+ * record at its position and appends reserve their position atomically,
+ * so both run concurrently without locking. A record is only entered in
+ * the index once it is written.
+ */
+class CacheFile implements Closeable
+{
+   private static final long FILE_MAGIC = 0x5048584d454d3031L;   // "PHXMEM01"
+   private static final int HEADER_SIZE = 32;
+
+   private final FileChannel channel;
+   private final int numInputs;
+   private final int numOutputs;
+   private final int recordSize;
+   private final ConcurrentHashMap<EvaluationCache.Key,Long> index =
+      new ConcurrentHashMap<EvaluationCache.Key,Long>();
+   private final AtomicLong end = new AtomicLong();
+
+   private CacheFile( FileChannel channel, int numInputs, int numOutputs )
+   {
+      this.channel = channel;
+      this.numInputs = numInputs;
+      this.numOutputs = numOutputs;
+      recordSize = 8*numInputs + 8*numOutputs + 4;
+   }
+
+   /**
+    * opens or creates the cache file at path
+    */
+   public static CacheFile open( String path, int numInputs, int numOutputs,
+                                 double quantum ) throws IOException
+   {
+      FileChannel channel = FileChannel.open( new File( path.trim() ).toPath(),
+                                              StandardOpenOption.CREATE,
+                                              StandardOpenOption.READ,
+                                              StandardOpenOption.WRITE );
+      try
+      {
+         CacheFile file = new CacheFile( channel, numInputs, numOutputs );
+         file.load( quantum, path );
+         return file;
+      }
+      catch ( IOException e )
+      {
+         channel.close();
+         throw e;
+      }
+   }
+
+   public int size() { return index.size(); }
+
+   /**
+    * the outputs stored for key, or null
+    */
+   public double[] get( EvaluationCache.Key key ) throws IOException
+   {
+      Long position = index.get( key );
+      if ( position == null )
+         return null;
+
+      ByteBuffer outputs = ByteBuffer.allocate( 8*numOutputs );
+      read( outputs, position + 8*numInputs );
+      double[] v = new double[numOutputs];
+      for ( int j = 0; j < numOutputs; j++ )
+      {
+         v[j] = outputs.getDouble( 8*j );
+      }
+      return v;
+   }
+
+   /**
+    * appends the outputs of key, unless the key is already stored
+    */
+   public void put( EvaluationCache.Key key, double[] v ) throws IOException
+   {
+      if ( index.containsKey( key ) )
+         return;
+
+      ByteBuffer record = ByteBuffer.allocate( recordSize );
+      for ( int i = 0; i < numInputs; i++ )
+      {
+         record.putLong( key.q[i] );
+      }
+      for ( int j = 0; j < numOutputs; j++ )
+      {
+         record.putDouble( v[j] );
+      }
+      CRC32 crc = new CRC32();
+      crc.update( record.array(), 0, record.position() );
+      record.putInt( (int)crc.getValue() );
+      record.flip();
+
+      long position = end.getAndAdd( recordSize );
+      write( record, position );
+      index.putIfAbsent( key, position );
+   }
+
+   public void close() throws IOException
+   {
+      channel.close();
+   }
+
+   private void load( double quantum, String path ) throws IOException
+   {
+      long size = channel.size();
+      ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+      CRC32 crc = new CRC32();
+
+      if ( size < HEADER_SIZE )
+      {
+         header.putLong( FILE_MAGIC );
+         header.putInt( numInputs );
+         header.putInt( numOutputs );
+         header.putDouble( quantum );
+         crc.update( header.array(), 0, header.position() );
+         header.putInt( (int)crc.getValue() );
+         header.clear();
+
+         channel.truncate( 0 );
+         write( header, 0 );
+         end.set( HEADER_SIZE );
+         return;
+      }
+
+      read( header, 0 );
+      crc.update( header.array(), 0, 24 );
+      if ( header.getLong( 0 ) != FILE_MAGIC || header.getInt( 24 ) != (int)crc.getValue() )
+         throw new IOException( path + " is not an evaluation cache file" );
+      if ( header.getInt( 8 ) != numInputs || header.getInt( 12 ) != numOutputs ||
+           Double.compare( header.getDouble( 16 ), quantum ) != 0 )
+      {
+         String msg = path + " caches a model with different inputs, outputs or quantum; " +
+            "delete it or choose another file";
+         throw new IOException( msg );
+      }
+
+      // read the records in large chunks
+      int perChunk = Math.max( 1, (1 << 20)/recordSize );
+      ByteBuffer chunk = ByteBuffer.allocate( perChunk*recordSize );
+      long position = HEADER_SIZE;
+      boolean torn = false;
+      while ( !torn && position + recordSize <= size )
+      {
+         int count = (int)Math.min( perChunk, (size - position)/recordSize );
+         chunk.clear();
+         chunk.limit( count*recordSize );
+         read( chunk, position );
+
+         for ( int k = 0; k < count; k++ )
+         {
+            int off = k*recordSize;
+            crc.reset();
+            crc.update( chunk.array(), off, recordSize - 4 );
+            if ( chunk.getInt( off + recordSize - 4 ) != (int)crc.getValue() )
+            {
+               torn = true;
+               break;
+            }
+            long[] q = new long[numInputs];
+            for ( int i = 0; i < numInputs; i++ )
+            {
+               q[i] = chunk.getLong( off + 8*i );
+            }
+            index.put( new EvaluationCache.Key( q ), position );
+            position += recordSize;
+         }
+      }
+
+      if ( position < size )
+         channel.truncate( position );
+      end.set( position );
+   }
+
+   private void write( ByteBuffer buffer, long position ) throws IOException
+   {
+      while ( buffer.hasRemaining() )
+      {
+         position += channel.write( buffer, position );
+      }
+   }
+
+   private void read( ByteBuffer buffer, long position ) throws IOException
+   {
+      while ( buffer.hasRemaining() )
+      {
+         int n = channel.read( buffer, position );
+         if ( n < 0 )
+            throw new EOFException();
+         position += n;
+      }
+   }
+}
@@ -0,0 +1,102 @@
+
+/**
+ * Differential evolution, DE/rand/1/bin (Storn and Price), on the first
+ * objective of a bounded problem.
+ *
+ * Every member of the population is challenged by a trial point: three
+ * other members r0, r1, r2 give the mutant r0 + F (r1 - r2), and the
+ * trial takes each variable from the mutant with probability CR (and at
+ * least one). The whole set of trials is one generation; a trial replaces
+ * its member if it is no worse. A mutant variable outside the bounds is
+ * put halfway between the member and the bound it crossed.
+ *
+ * The population defaults to ten members per variable, at least 20. The
+ * method has converged once the spread of the objective over the
+ * population is within the tolerance.
+ */
+class DifferentialEvolutionMethod extends PopulationMethod
+{
+   private static final double F = 0.5;
+   private static final double CR = 0.9;
+
+   public void run( PopulationProblem problem, RandomSource rng ) throws Exception
+   {
+      requireBounds( problem, "DE" );
+
+      int n = problem.getDimension();
+      int m = problem.getNumObjectives();
+      int size = populationSize > 0 ? Math.max( 4, populationSize ) : Math.max( 20, 10*n );
+
+      double[] pop = new double[size*n];
+      double[] fit = new double[size];
+      double[] trial = new double[size*n];
+      double[] values = new double[size*m];
+
+      // the starting point and uniform random points
+      double[] x0 = problem.getStart();
+      System.arraycopy( x0, 0, pop, 0, n );
+      for ( int k = n; k < size*n; k++ )
+      {
+         pop[k] = rng.nextDouble();
+      }
+      problem.evaluate( pop, values, size );
+      for ( int k = 0; k < size; k++ )
+      {
+         fit[k] = values[k*m];
+      }
+
+      converged = false;
+      while ( !problem.isExhausted() )
+      {
+         for ( int k = 0; k < size; k++ )
+         {
+            int r0, r1, r2;
+            do { r0 = pick( rng, size ); } while ( r0 == k );
+            do { r1 = pick( rng, size ); } while ( r1 == k || r1 == r0 );
+            do { r2 = pick( rng, size ); } while ( r2 == k || r2 == r0 || r2 == r1 );
+
+            int forced = pick( rng, n );
+            for ( int i = 0; i < n; i++ )
+            {
+               double own = pop[k*n+i];
+               double v = own;
+               if ( i == forced || rng.nextDouble() < CR )
+               {
+                  v = pop[r0*n+i] + F*(pop[r1*n+i] - pop[r2*n+i]);
+                  if ( v < problem.getLower( i ) )
+                     v = 0.5*(own + problem.getLower( i ));
+                  else if ( v > problem.getUpper( i ) )
+                     v = 0.5*(own + problem.getUpper( i ));
+               }
+               trial[k*n+i] = v;
+            }
+         }
+
+         problem.evaluate( trial, values, size );
+
+         double lo = Double.POSITIVE_INFINITY;
+         double hi = Double.NEGATIVE_INFINITY;
+         for ( int k = 0; k < size; k++ )
+         {
+            if ( values[k*m] <= fit[k] )
+            {
+               fit[k] = values[k*m];
+               System.arraycopy( trial, k*n, pop, k*n, n );
+            }
+            lo = Math.min( lo, fit[k] );
+            hi = Math.max( hi, fit[k] );
+         }
+
+         if ( hi - lo <= tolerance*(1 + Math.abs( lo )) )
+         {
+            converged = true;
+            break;
+         }
+      }
+   }
+
+   private static int pick( RandomSource rng, int n )
+   {
+      return Math.min( n-1, (int)(rng.nextDouble()*n) );
+   }
+}
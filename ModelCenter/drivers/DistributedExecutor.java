@@ -0,0 +1,757 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a BatchDriver against worker processes on other hosts, or on this
+ * one: the coordinator of a distributed study. The driver and its
+ * statistics stay here; the model runs in the StudyWorkers that connect
+ * to the coordinator's port.
+ *
+ * The driver's cases are split into leases of leaseSize consecutive
+ * cases, and each lease goes out whole, design points and all, in one
+ * message. Every worker is kept window leases deep so that it never waits
+ * for the network between two leases. Workers that run dry take work from
+ * the others: first the waiting (not yet started) lease at the back of the
+ * longest queue, then, once nothing is left waiting anywhere, a second
+ * copy of the oldest lease still out, which is what holds up the merge
+ * when a worker is slow; the first copy back is used and the other
+ * cancelled.
+ *
+ * A worker that drops its connection, or sends nothing for leaseTimeout
+ * seconds while it holds leases, is given up on and its leases are
+ * handed to the others again. An evaluation that fails on a worker fails
+ * the study, as it would under a BatchExecutor.
+ *
+ * The responses are merged back into whole batches of batchSize cases,
+ * and acceptBatch() sees the batches in the order nextBatch() handed them
+ * out, so the driver's statistics stream in trial order. Since neither
+ * the batch nor the lease boundaries depend on the number of workers, and
+ * the values travel as raw IEEE 754 bits, a study gives the same results
+ * bit for bit whatever the number of workers and however the leases are
+ * spread among them. Only an IndexedBatchDriver is asked for batches
+ * ahead of the one being merged; any other driver runs one batch at a
+ * time.
+ *
+ * The coordinator listens on the loopback interface unless it is given
+ * another address to bind, see setBindAddress(). There is no
+ * authentication: whoever can reach the port can join as a worker, is
+ * sent design points and can return made-up responses. Bind to another
+ * interface only on a network where every host is trusted.
+ *
+ * The protocol, all integers big-endian; a worker opens with
+ *
+ *   int MAGIC, int VERSION
+ *
+ * and the coordinator answers with SETUP before the first lease:
+ *
+ *   SETUP   byte, int numInputs, int numOutputs, int leaseSize
+ *   LEASE   byte, long lease, int numCases, numCases*numInputs doubles
+ *   CANCEL  byte, long lease
+ *   DONE    byte
+ *   RESULT  byte, long lease, int n, n = numCases*numOutputs doubles
+ *   FAILED  byte, long lease, UTF message
+ *
+ * RESULT and FAILED come from the worker, the others from the coordinator.
+ * Either side checks every count against SETUP before it allocates for
+ * it; a worker that breaks the protocol is treated as lost.
+ */
+public class DistributedExecutor implements AutoCloseable
+{
+   static final int MAGIC = 0x4d434457;   // "MCDW"
+   static final int VERSION = 2;
+
+   static final byte SETUP = 1;
+   static final byte LEASE = 2;
+   static final byte CANCEL = 3;
+   static final byte DONE = 4;
+   static final byte RESULT = 5;
+   static final byte FAILED = 6;
+
+   private static final long POLL_MILLIS = 100;
+
+   private int port = 0;
+   private String bindAddress = null;
+   private int leaseSize = 256;
+   private int batchSize = 4096;
+   private int window = 2;
+   private double leaseTimeout = 600;
+
+   private ServerSocket server;
+   private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+   private final List<Worker> workers = new ArrayList<Worker>();
+   private long nextLeaseId = 0;
+
+   // the study being run
+   private BatchDriver driver;
+   private int numInputs;
+   private int numOutputs;
+   private volatile long maxResponses;
+   private boolean indexed;
+   private boolean exhausted;
+   private boolean stopped;
+   private final ArrayDeque<Batch> batches = new ArrayDeque<Batch>();
+   private final ArrayDeque<Batch> spare = new ArrayDeque<Batch>();
+   private final TreeMap<Long, Lease> live = new TreeMap<Long, Lease>();
+   private final TreeMap<Long, Lease> pending = new TreeMap<Long, Lease>();
+   private long queuedCases;
+   private long generatedCases;
+   private long leases;
+   private long released;
+   private long stolen;
+   private long backups;
+
+   public DistributedExecutor()
+   {
+   }
+
+   public DistributedExecutor( int port )
+   {
+      setPort( port );
+   }
+
+   /**
+    * port the coordinator listens on; 0 picks a free one, see getPort()
+    */
+   public void setPort( int v ) { port = v; }
+   public int getPort() { return server != null ? server.getLocalPort() : port; }
+
+   /**
+    * address of the interface to listen on, "*" for all of them; by
+    * default only the loopback interface, for workers on this host
+    */
+   public void setBindAddress( String v ) { bindAddress = v; }
+   public String getBindAddress() { return bindAddress; }
+
+   /**
+    * the address a worker on this host connects to
+    */
+   public String getLocalAddress()
+   {
+      InetAddress a = server != null ? server.getInetAddress() : null;
+      if ( a == null || a.isAnyLocalAddress() )
+         a = InetAddress.getLoopbackAddress();
+      return a.getHostAddress();
+   }
+
+   /**
+    * cases per lease, the unit of work sent to a worker
+    */
+   public void setLeaseSize( int v ) { leaseSize = Math.max( 1, v ); }
+   public int getLeaseSize() { return leaseSize; }
+
+   /**
+    * cases per nextBatch()/acceptBatch() of the driver
+    */
+   public void setBatchSize( int v ) { batchSize = Math.max( 1, v ); }
+   public int getBatchSize() { return batchSize; }
+
+   /**
+    * leases each worker holds at once
+    */
+   public void setWindow( int v ) { window = Math.max( 1, v ); }
+   public int getWindow() { return window; }
+
+   /**
+    * seconds a worker holding leases may stay silent before its leases
+    * go to the others; also how long a study waits with no workers
+    */
+   public void setLeaseTimeout( double v ) { leaseTimeout = v; }
+   public double getLeaseTimeout() { return leaseTimeout; }
+
+   /**
+    * workers connected at the moment
+    */
+   public synchronized int getWorkers() { return workers.size(); }
+
+   /**
+    * leases handed out by the last study: in all, again after a worker
+    * was lost, moved from one worker to another, and sent as second copies
+    */
+   public long getLeases() { return leases; }
+   public long getReleased() { return released; }
+   public long getStolen() { return stolen; }
+   public long getBackups() { return backups; }
+
+   /**
+    * starts listening for workers; run() does this if it has not been
+    * done, but workers can only connect once it has
+    */
+   public void open() throws IOException
+   {
+      if ( server != null )
+         return;
+
+      InetAddress address;
+      if ( bindAddress == null || bindAddress.length() == 0 )
+         address = InetAddress.getLoopbackAddress();
+      else if ( bindAddress.equals( "*" ) )
+         address = null;
+      else
+         address = InetAddress.getByName( bindAddress );
+      server = new ServerSocket( port, 50, address );
+      Thread acceptor = new Thread( new Runnable()
+      {
+         public void run()
+         {
+            accept();
+         }
+      }, "study-coordinator-" + server.getLocalPort() );
+      acceptor.setDaemon( true );
+      acceptor.start();
+   }
+
+   /**
+    * runs the driver to completion: initializeIterations(), then batches
+    * until the driver stops, then end()
+    */
+   public void run( BatchDriver driver ) throws Exception
+   {
+      open();
+      driver.initializeIterations();
+      try
+      {
+         this.driver = driver;
+         numInputs = driver.getNumInputs();
+         numOutputs = driver.getNumOutputs();
+         maxResponses = (long)leaseSize*numOutputs;
+         indexed = driver instanceof IndexedBatchDriver;
+         exhausted = false;
+         stopped = false;
+         spare.clear();
+         queuedCases = 0;
+         generatedCases = 0;
+         leases = released = stolen = backups = 0;
+         for ( Worker w : snapshot() )
+         {
+            setup( w );
+         }
+         study();
+      }
+      finally
+      {
+         stop();
+         this.driver = null;
+         driver.end();
+      }
+   }
+
+   private void study() throws Exception
+   {
+      long idleSince = System.nanoTime();
+      while ( true )
+      {
+         generate();
+         dispatch();
+         if ( batches.isEmpty() )
+            break;
+
+         Event e = events.poll( POLL_MILLIS, TimeUnit.MILLISECONDS );
+         if ( e != null )
+            handle( e );
+
+         long now = System.nanoTime();
+         for ( Worker w : snapshot() )
+         {
+            if ( !w.assigned.isEmpty() && (now - w.lastHeard)/1e9 > leaseTimeout )
+               lost( w );
+         }
+         if ( getWorkers() > 0 )
+            idleSince = now;
+         else if ( (now - idleSince)/1e9 > leaseTimeout )
+         {
+            String msg = "no workers connected for " + leaseTimeout + " s";
+            throw new IllegalStateException( msg );
+         }
+      }
+   }
+
+   /**
+    * asks the driver for batches, as far ahead as it allows, and splits
+    * them into leases
+    */
+   private void generate() throws Exception
+   {
+      long ahead = Math.max( batchSize, 2L*window*leaseSize*Math.max( 1, getWorkers() ) );
+      while ( !exhausted && !stopped &&
+              (batches.isEmpty() || indexed && queuedCases < ahead) )
+      {
+         Batch b = spare.isEmpty() ? new Batch( batchSize*numInputs, batchSize*numOutputs )
+                                   : spare.poll();
+         int n = driver.nextBatch( b.inputs, batchSize );
+         if ( n == 0 )
+         {
+            exhausted = true;
+            break;
+         }
+
+         b.first = generatedCases;
+         b.numCases = n;
+         b.remaining = 0;
+         for ( int offset = 0; offset < n; offset += leaseSize )
+         {
+            Lease l = new Lease( nextLeaseId++, b, offset, Math.min( leaseSize, n - offset ) );
+            live.put( l.id, l );
+            pending.put( l.id, l );
+            b.remaining++;
+         }
+         batches.add( b );
+         queuedCases += n;
+         generatedCases += n;
+      }
+   }
+
+   /**
+    * tops up every worker's window, oldest leases first
+    */
+   private void dispatch()
+   {
+      for ( Worker w : snapshot() )
+      {
+         while ( w.ready && w.alive && w.assigned.size() < window )
+         {
+            Lease l = pending.isEmpty() ? steal( w ) : pending.pollFirstEntry().getValue();
+            if ( l == null )
+               break;
+            send( w, l );
+         }
+      }
+   }
+
+   private Lease steal( Worker thief )
+   {
+      // the first lease of a queue is being evaluated, the others wait
+      Worker victim = null;
+      for ( Worker w : snapshot() )
+      {
+         if ( w != thief && w.assigned.size() > thief.assigned.size() + 1 &&
+              (victim == null || w.assigned.size() > victim.assigned.size()) )
+            victim = w;
+      }
+      if ( victim != null )
+      {
+         Lease l = victim.assigned.pollLast();
+         l.holders.remove( victim );
+         cancel( victim, l );
+         stolen++;
+         return l;
+      }
+
+      if ( !thief.assigned.isEmpty() )
+         return null;
+      for ( Lease l : live.values() )
+      {
+         if ( l.holders.size() == 1 && !l.holders.contains( thief ) )
+         {
+            backups++;
+            return l;
+         }
+      }
+      return null;
+   }
+
+   private void handle( Event e ) throws Exception
+   {
+      Worker w = e.worker;
+      switch ( e.kind )
+      {
+         case Event.JOINED:
+            if ( !w.ready )
+               setup( w );
+            break;
+
+         case Event.RESULT:
+            w.lastHeard = System.nanoTime();
+            finish( w, e.lease, e.values );
+            break;
+
+         case Event.FAILED:
+            Lease l = live.get( e.lease );
+            if ( l != null )
+            {
+               String msg = "cases " + l.first() + " to " + (l.first() + l.numCases - 1) +
+                  " failed on " + w.name + ": " + e.message;
+               throw new IllegalStateException( msg );
+            }
+            break;
+
+         case Event.LOST:
+            lost( w );
+            break;
+      }
+   }
+
+   /**
+    * files the responses of a lease, from whichever worker sent them
+    * first, and hands every batch that is complete to the driver
+    */
+   private void finish( Worker from, long id, double[] values ) throws Exception
+   {
+      Lease l = live.get( id );
+      if ( l == null )
+         return;
+      if ( values.length != l.numCases*numOutputs )
+      {
+         // a protocol violation, which the others can make up for
+         lost( from );
+         return;
+      }
+
+      live.remove( id );
+      pending.remove( id );
+      System.arraycopy( values, 0, l.batch.outputs, l.offset*numOutputs, values.length );
+      for ( Worker h : l.holders )
+      {
+         h.assigned.remove( l );
+         if ( h != from )
+            cancel( h, l );
+      }
+      l.holders.clear();
+      l.batch.remaining--;
+
+      while ( !stopped && !batches.isEmpty() && batches.peek().remaining == 0 )
+      {
+         Batch b = batches.poll();
+         queuedCases -= b.numCases;
+         if ( !driver.acceptBatch( b.outputs, b.numCases ) )
+            stop();
+         spare.add( b );
+      }
+   }
+
+   /**
+    * drops whatever is still out once the driver is done
+    */
+   private void stop()
+   {
+      stopped = true;
+      for ( Lease l : live.values() )
+      {
+         for ( Worker h : l.holders )
+         {
+            cancel( h, l );
+         }
+      }
+      for ( Worker w : snapshot() )
+      {
+         w.assigned.clear();
+      }
+      live.clear();
+      pending.clear();
+      batches.clear();
+   }
+
+   /**
+    * gives up on a worker and returns its leases to the pending ones
+    */
+   private void lost( Worker w )
+   {
+      if ( !w.alive )
+         return;
+
+      w.alive = false;
+      synchronized ( this )
+      {
+         workers.remove( w );
+      }
+      closeQuietly( w.socket );
+      for ( Lease l : w.assigned )
+      {
+         l.holders.remove( w );
+         if ( l.holders.isEmpty() && live.containsKey( l.id ) )
+         {
+            pending.put( l.id, l );
+            released++;
+         }
+      }
+      w.assigned.clear();
+   }
+
+   private void setup( Worker w )
+   {
+      w.ready = true;
+      try
+      {
+         w.out.writeByte( SETUP );
+         w.out.writeInt( numInputs );
+         w.out.writeInt( numOutputs );
+         w.out.writeInt( leaseSize );
+         w.out.flush();
+      }
+      catch ( IOException e )
+      {
+         lost( w );
+      }
+   }
+
+   private void send( Worker w, Lease l )
+   {
+      if ( w.assigned.isEmpty() )
+         w.lastHeard = System.nanoTime();
+      w.assigned.add( l );
+      l.holders.add( w );
+      leases++;
+      try
+      {
+         w.out.writeByte( LEASE );
+         w.out.writeLong( l.id );
+         w.out.writeInt( l.numCases );
+         writeDoubles( w.out, l.batch.inputs, l.offset*numInputs, l.numCases*numInputs );
+         w.out.flush();
+      }
+      catch ( IOException e )
+      {
+         lost( w );
+      }
+   }
+
+   private void cancel( Worker w, Lease l )
+   {
+      if ( !w.alive )
+         return;
+      try
+      {
+         w.out.writeByte( CANCEL );
+         w.out.writeLong( l.id );
+         w.out.flush();
+      }
+      catch ( IOException e )
+      {
+         lost( w );
+      }
+   }
+
+   private synchronized List<Worker> snapshot()
+   {
+      return new ArrayList<Worker>( workers );
+   }
+
+   /**
+    * tells the workers the coordinator is done and stops listening
+    */
+   public void close()
+   {
+      for ( Worker w : snapshot() )
+      {
+         try
+         {
+            w.out.writeByte( DONE );
+            w.out.flush();
+         }
+         catch ( IOException e )
+         {
+            // gone already
+         }
+         w.alive = false;
+         closeQuietly( w.socket );
+      }
+      synchronized ( this )
+      {
+         workers.clear();
+      }
+      if ( server != null )
+      {
+         closeQuietly( server );
+         server = null;
+      }
+   }
+
+   // ----- the connections
+
+   private void accept()
+   {
+      ServerSocket s = server;
+      while ( !s.isClosed() )
+      {
+         try
+         {
+            final Socket socket = s.accept();
+            Thread reader = new Thread( new Runnable()
+            {
+               public void run()
+               {
+                  read( socket );
+               }
+            }, "study-coordinator-" + socket.getRemoteSocketAddress() );
+            reader.setDaemon( true );
+            reader.start();
+         }
+         catch ( IOException e )
+         {
+            // closed
+         }
+      }
+   }
+
+   /**
+    * reads one worker's messages and queues them for the study loop
+    */
+   private void read( Socket socket )
+   {
+      Worker w = null;
+      try
+      {
+         socket.setTcpNoDelay( true );
+         DataInputStream in = new DataInputStream(
+            new BufferedInputStream( socket.getInputStream() ) );
+         if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+         {
+            closeQuietly( socket );
+            return;
+         }
+         w = new Worker( socket );
+         synchronized ( this )
+         {
+            workers.add( w );
+         }
+         events.add( new Event( Event.JOINED, w, 0, null, null ) );
+
+         while ( true )
+         {
+            byte type = in.readByte();
+            long id = in.readLong();
+            if ( type == RESULT )
+            {
+               int n = in.readInt();
+               if ( n < 0 || n > maxResponses )
+                  throw new ProtocolException( n + " responses in one lease" );
+               double[] values = new double[n];
+               readDoubles( in, values, 0, values.length );
+               events.add( new Event( Event.RESULT, w, id, values, null ) );
+            }
+            else if ( type == FAILED )
+               events.add( new Event( Event.FAILED, w, id, null, in.readUTF() ) );
+            else
+               throw new IOException( "unexpected message " + type );
+         }
+      }
+      catch ( IOException e )
+      {
+         gone( w, socket );
+      }
+      catch ( RuntimeException e )
+      {
+         gone( w, socket );
+      }
+   }
+
+   private void gone( Worker w, Socket socket )
+   {
+      if ( w != null )
+         events.add( new Event( Event.LOST, w, 0, null, null ) );
+      else
+         closeQuietly( socket );
+   }
+
+   /**
+    * writes doubles as their raw IEEE 754 bits
+    */
+   static void writeDoubles( DataOutputStream out, double[] v, int offset, int length )
+      throws IOException
+   {
+      ByteBuffer b = ByteBuffer.allocate( 8*length );
+      b.asDoubleBuffer().put( v, offset, length );
+      out.write( b.array() );
+   }
+
+   static void readDoubles( DataInputStream in, double[] v, int offset, int length )
+      throws IOException
+   {
+      byte[] bytes = new byte[8*length];
+      in.readFully( bytes );
+      ByteBuffer.wrap( bytes ).asDoubleBuffer().get( v, offset, length );
+   }
+
+   static void closeQuietly( Closeable c )
+   {
+      try
+      {
+         c.close();
+      }
+      catch ( IOException e )
+      {
+         // nothing to do
+      }
+   }
+
+   /**
+    * a worker as the coordinator sees it; only the study loop touches
+    * its leases
+    */
+   private static class Worker
+   {
+      final Socket socket;
+      final DataOutputStream out;
+      final String name;
+      final ArrayDeque<Lease> assigned = new ArrayDeque<Lease>();
+      long lastHeard = System.nanoTime();
+      boolean ready;   // has been sent SETUP for the current study
+      boolean alive = true;
+
+      Worker( Socket socket ) throws IOException
+      {
+         this.socket = socket;
+         this.out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+         this.name = String.valueOf( socket.getRemoteSocketAddress() );
+      }
+   }
+
+   private static class Batch
+   {
+      final double[] inputs;
+      final double[] outputs;
+      long first;      // case number of inputs[0]
+      int numCases;
+      int remaining;   // leases not back yet
+
+      Batch( int numInputs, int numOutputs )
+      {
+         inputs = new double[numInputs];
+         outputs = new double[numOutputs];
+      }
+   }
+
+   private static class Lease
+   {
+      final long id;
+      final Batch batch;
+      final int offset;   // first case within the batch
+      final int numCases;
+      final List<Worker> holders = new ArrayList<Worker>( 2 );
+
+      Lease( long id, Batch batch, int offset, int numCases )
+      {
+         this.id = id;
+         this.batch = batch;
+         this.offset = offset;
+         this.numCases = numCases;
+      }
+
+      long first() { return batch.first + offset; }
+   }
+
+   private static class Event
+   {
+      static final int JOINED = 0;
+      static final int RESULT = 1;
+      static final int FAILED = 2;
+      static final int LOST = 3;
+
+      final int kind;
+      final Worker worker;
+      final long lease;
+      final double[] values;
+      final String message;
+
+      Event( int kind, Worker worker, long lease, double[] values, String message )
+      {
+         this.kind = kind;
+         this.worker = worker;
+         this.lease = lease;
+         this.values = values;
+         this.message = message;
+      }
+   }
+}
@@ -0,0 +1,848 @@
+
+import com.phoenix_int.aserver.types.*;
+import java.io.IOException;
+
+/**
+ * Inverse-CDF samplers for the design variable distributions of the
+ * sampling drivers. A sampler is created once per design variable, with
+ * all parameter-dependent constants worked out up front, and then maps
+ * uniforms to samples without any per-call dispatch or allocation.
+ *
+ * logDensity() gives the density of each distribution, for the
+ * likelihood ratios of importance sampling.
+ *
+ * The bulk quantile() methods transform a strided run of uniforms in one
+ * tight loop. Input and output may be the same array, which lets a driver
+ * turn a row-major block of uniforms into a block of design points in
+ * place, one column at a time.
+ *
+ * Supported types and their parameters (parm1, parm2, parm3):
+ *   Normal       mean, standard deviation
+ *   Uniform      low, high
+ *   Triangular   low, peak, high
+ *   Exponential  mean
+ *   Weibull      scale, shape
+ *   Lognormal    mean and standard deviation of the underlying normal
+ *   Beta         alpha, beta (on [0,1])
+ *   Gamma        shape, scale
+ *   PERT         low, most likely, high
+ *   Empirical    none; the CDF comes from the table named by the
+ *                design variable's "table" ref-prop (see EmpiricalTable)
+ */
+abstract class DistributionSampler
+{
+   public static final String TYPES =
+      "Normal,Uniform,Triangular,Exponential,Weibull,Lognormal,Beta,Gamma,PERT,Empirical";
+
+   /**
+    * the value with cumulative probability u
+    */
+   public abstract double quantile( double u );
+
+   /**
+    * log of the probability density at x; -infinity outside the support
+    */
+   public abstract double logDensity( double x );
+
+   public void quantile( double[] u, double[] out )
+   {
+      quantile( u, 0, out, 0, u.length, 1 );
+   }
+
+   /**
+    * out[outOffset + k*stride] = quantile( u[uOffset + k*stride] ) for
+    * k = 0 .. count-1
+    */
+   public void quantile( double[] u, int uOffset, double[] out, int outOffset,
+                         int count, int stride )
+   {
+      for ( int k = 0; k < count; k++ )
+      {
+         out[outOffset + k*stride] = quantile( u[uOffset + k*stride] );
+      }
+   }
+
+   /**
+    * creates the sampler for one of the parametric distribution types
+    */
+   public static DistributionSampler create( String type, double parm1,
+                                             double parm2, double parm3 )
+   {
+      try
+      {
+         return create( type, parm1, parm2, parm3, null );
+      }
+      catch ( IOException e )
+      {
+         // only tables are read from disk
+         throw new IllegalArgumentException( e.getMessage() );
+      }
+   }
+
+   /**
+    * creates the sampler for one distribution type; table names the CDF
+    * table of the Empirical type and is ignored by the others
+    */
+   public static DistributionSampler create( String type, double parm1,
+                                             double parm2, double parm3,
+                                             String table ) throws IOException
+   {
+      if ( type.equals( "Normal" ) )
+         return new NormalSampler( parm1, parm2 );
+      else if ( type.equals( "Uniform" ) )
+         return new UniformSampler( parm1, parm2 );
+      else if ( type.equals( "Triangular" ) )
+         return new TriangularSampler( parm1, parm2, parm3 );
+      else if ( type.equals( "Exponential" ) )
+         return new ExponentialSampler( parm1 );
+      else if ( type.equals( "Weibull" ) )
+         return new WeibullSampler( parm1, parm2 );
+      else if ( type.equals( "Lognormal" ) )
+         return new LognormalSampler( parm1, parm2 );
+      else if ( type.equals( "Beta" ) )
+         return new BetaSampler( parm1, parm2, 0, 1 );
+      else if ( type.equals( "Gamma" ) )
+         return new GammaSampler( parm1, parm2 );
+      else if ( type.equals( "PERT" ) )
+         return BetaSampler.pert( parm1, parm2, parm3 );
+      else if ( type.equals( "Empirical" ) )
+         return EmpiricalTable.sampler( table );
+      else
+      {
+         String msg = "unsupported distribution type: " + type;
+         throw new IllegalArgumentException( msg );
+      }
+   }
+
+   /**
+    * creates the sampler of a tabulated CDF through the points (x[i], p[i])
+    */
+   public static DistributionSampler empirical( double[] x, double[] p )
+   {
+      return new EmpiricalSampler( x, p );
+   }
+
+   /**
+    * resolves the distributionType/parm1..parm3/table ref-props of every
+    * design variable to its sampler; the drivers call this once per study
+    */
+   public static DistributionSampler[] compile( PHXReferenceArray designVars )
+      throws PHXTypeMismatchException, IOException
+   {
+      DistributionSampler[] samplers = new DistributionSampler[designVars.getLength()];
+      for ( int i = 0; i < samplers.length; i++ )
+      {
+         String type = designVars.getRefPropValueString( "distributionType", i );
+         double parm1 = designVars.getRefPropValueDouble( "parm1", i );
+         double parm2 = designVars.getRefPropValueDouble( "parm2", i );
+         double parm3 = designVars.getRefPropValueDouble( "parm3", i );
+         String table = null;
+         if ( type.equals( "Empirical" ) )
+            table = designVars.getRefPropValueString( "table", i );
+         samplers[i] = create( type, parm1, parm2, parm3, table );
+      }
+      return samplers;
+   }
+
+   /**
+    * maps a row-major block of uniforms (count rows of samplers.length
+    * columns starting at offset) to design points, in place
+    */
+   public static void transform( DistributionSampler[] samplers, double[] x,
+                                 int offset, int count )
+   {
+      int dimension = samplers.length;
+      for ( int i = 0; i < dimension; i++ )
+      {
+         samplers[i].quantile( x, offset+i, x, offset+i, count, dimension );
+      }
+   }
+
+   static void checkProbability( double u )
+   {
+      if ( !(u >= 0 && u <= 1) )
+         throw new IllegalArgumentException( "probability out of range: " + u );
+   }
+
+   // ----- inverse standard normal
+
+   private static final double[] ACKLAM_A = {
+      -3.969683028665376e+01,  2.209460984245205e+02,
+      -2.759285104469687e+02,  1.383577518672690e+02,
+      -3.066479806614716e+01,  2.506628277459239e+00 };
+   private static final double[] ACKLAM_B = {
+      -5.447609879822406e+01,  1.615858368580409e+02,
+      -1.556989798598866e+02,  6.680131188771972e+01,
+      -1.328068155288572e+01 };
+   private static final double[] ACKLAM_C = {
+      -7.784894002430293e-03, -3.223964580411365e-01,
+      -2.400758277161838e+00, -2.549732539343734e+00,
+       4.374664141464968e+00,  2.938163982698783e+00 };
+   private static final double[] ACKLAM_D = {
+       7.784695709041462e-03,  3.224671290700398e-01,
+       2.445134137142996e+00,  3.754408661907416e+00 };
+   private static final double P_LOW = 0.02425;
+   private static final double SQRT_2PI = Math.sqrt( 2*Math.PI );
+   static final double LOG_SQRT_2PI = Math.log( SQRT_2PI );
+
+   /**
+    * inverse of the standard normal CDF: Acklam's rational approximation
+    * (relative error 1.15e-9) polished by one Halley step, which brings it
+    * to within a few ulps
+    */
+   static double normalQuantile( double p )
+   {
+      checkProbability( p );
+      if ( p == 0 )
+         return Double.NEGATIVE_INFINITY;
+      if ( p == 1 )
+         return Double.POSITIVE_INFINITY;
+
+      // work in the lower half, where the tail probability is exact
+      boolean upper = p > 0.5;
+      double q = upper ? 1 - p : p;
+
+      double x;
+      if ( q < P_LOW )
+      {
+         double t = Math.sqrt( -2*Math.log( q ) );
+         x = (((((ACKLAM_C[0]*t+ACKLAM_C[1])*t+ACKLAM_C[2])*t+ACKLAM_C[3])*t+ACKLAM_C[4])*t+ACKLAM_C[5])/
+             ((((ACKLAM_D[0]*t+ACKLAM_D[1])*t+ACKLAM_D[2])*t+ACKLAM_D[3])*t+1);
+      }
+      else
+      {
+         double t = q - 0.5;
+         double r = t*t;
+         x = (((((ACKLAM_A[0]*r+ACKLAM_A[1])*r+ACKLAM_A[2])*r+ACKLAM_A[3])*r+ACKLAM_A[4])*r+ACKLAM_A[5])*t/
+             (((((ACKLAM_B[0]*r+ACKLAM_B[1])*r+ACKLAM_B[2])*r+ACKLAM_B[3])*r+ACKLAM_B[4])*r+1);
+      }
+
+      // Halley refinement
+      double e = normalCdfLower( x ) - q;
+      double u = e*SQRT_2PI*Math.exp( 0.5*x*x );
+      x = x - u/(1 + 0.5*x*u);
+
+      return upper ? -x : x;
+   }
+
+   /**
+    * standard normal CDF for x <= 0, accurate in relative terms far into
+    * the tail: Hart's rational approximation (algorithm 5666, as given by
+    * West, 2005) near the centre, the Laplace continued fraction for the
+    * Mills ratio beyond three standard deviations
+    */
+   static double normalCdfLower( double x )
+   {
+      if ( x > 0 )
+         return 1 - normalCdfLower( -x );
+
+      double t = -x;
+      double e = Math.exp( -0.5*t*t );
+      if ( t < 3 )
+      {
+         double num = ((((((HART_P[0]*t+HART_P[1])*t+HART_P[2])*t+HART_P[3])*t+
+                          HART_P[4])*t+HART_P[5])*t+HART_P[6]);
+         double den = (((((((HART_Q[0]*t+HART_Q[1])*t+HART_Q[2])*t+HART_Q[3])*t+
+                           HART_Q[4])*t+HART_Q[5])*t+HART_Q[6])*t+HART_Q[7]);
+         return e*num/den;
+      }
+      else
+      {
+         double f = t;
+         for ( int k = 40; k >= 1; k-- )
+         {
+            f = t + k/f;
+         }
+         return e/(SQRT_2PI*f);
+      }
+   }
+
+   private static final double[] HART_P = {
+      3.52624965998911e-02, 0.700383064443688, 6.37396220353165,
+      33.912866078383, 112.079291497871, 221.213596169931,
+      220.206867912376 };
+   private static final double[] HART_Q = {
+      8.83883476483184e-02, 1.75566716318264, 16.064177579207,
+      86.7807322029461, 296.564248779674, 637.333633378831,
+      793.826512519948, 440.413735824752 };
+
+   // ----- special functions for the gamma and beta families
+
+   private static final double[] LANCZOS = {
+      0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+      771.32342877765313, -176.61502916214059, 12.507343278686905,
+      -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7 };
+
+   /**
+    * log of the gamma function for x > 0 (Lanczos, g = 7)
+    */
+   static double logGamma( double x )
+   {
+      if ( x < 0.5 )
+         return Math.log( Math.PI/Math.abs( Math.sin( Math.PI*x ) ) ) - logGamma( 1 - x );
+
+      x -= 1;
+      double a = LANCZOS[0];
+      double t = x + 7.5;
+      for ( int i = 1; i < 9; i++ )
+      {
+         a += LANCZOS[i]/(x + i);
+      }
+      return 0.5*Math.log( 2*Math.PI ) + (x + 0.5)*Math.log( t ) - t + Math.log( a );
+   }
+}
+
+class NormalSampler extends DistributionSampler
+{
+   private final double mean;
+   private final double std;
+
+   NormalSampler( double mean, double std )
+   {
+      this.mean = mean;
+      this.std = std;
+   }
+
+   public double quantile( double u )
+   {
+      return mean + std*normalQuantile( u );
+   }
+
+   public double logDensity( double x )
+   {
+      double z = (x - mean)/std;
+      return -0.5*z*z - Math.log( std ) - LOG_SQRT_2PI;
+   }
+}
+
+class UniformSampler extends DistributionSampler
+{
+   private final double low;
+   private final double width;
+
+   UniformSampler( double low, double high )
+   {
+      this.low = low;
+      this.width = high - low;
+   }
+
+   public double quantile( double u )
+   {
+      checkProbability( u );
+      return low + width*u;
+   }
+
+   public double logDensity( double x )
+   {
+      return x >= low && x <= low + width ? -Math.log( width ) : Double.NEGATIVE_INFINITY;
+   }
+
+   public void quantile( double[] u, int uOffset, double[] out, int outOffset,
+                         int count, int stride )
+   {
+      for ( int k = 0; k < count; k++ )
+      {
+         double v = u[uOffset + k*stride];
+         checkProbability( v );
+         out[outOffset + k*stride] = low + width*v;
+      }
+   }
+}
+
+class TriangularSampler extends DistributionSampler
+{
+   private final double low;
+   private final double peak;
+   private final double high;
+   private final double split;
+   private final double lowScale;
+   private final double highScale;
+
+   TriangularSampler( double low, double peak, double high )
+   {
+      this.low = low;
+      this.peak = peak;
+      this.high = high;
+      this.split = (peak-low)/(high-low);
+      this.lowScale = (peak-low)*(high-low);
+      this.highScale = (high-peak)*(high-low);
+   }
+
+   public double quantile( double u )
+   {
+      checkProbability( u );
+      if ( u < split )
+         return low + Math.sqrt( u*lowScale );
+      else
+         return high - Math.sqrt( (1-u)*highScale );
+   }
+
+   public double logDensity( double x )
+   {
+      if ( !(x >= low && x <= high) )
+         return Double.NEGATIVE_INFINITY;
+
+      // at the peak, where the side whose width is zero when the peak is
+      // at low or high would give 0/0
+      if ( x == peak )
+         return Math.log( 2/(high - low) );
+      if ( x < low + split*(high - low) )
+         return Math.log( 2*(x - low)/lowScale );
+      else
+         return Math.log( 2*(high - x)/highScale );
+   }
+}
+
+class ExponentialSampler extends DistributionSampler
+{
+   private final double mean;
+
+   ExponentialSampler( double mean )
+   {
+      this.mean = mean;
+   }
+
+   public double quantile( double u )
+   {
+      checkProbability( u );
+      return -mean*Math.log1p( -u );
+   }
+
+   public double logDensity( double x )
+   {
+      return x >= 0 ? -Math.log( mean ) - x/mean : Double.NEGATIVE_INFINITY;
+   }
+
+   public void quantile( double[] u, int uOffset, double[] out, int outOffset,
+                         int count, int stride )
+   {
+      for ( int k = 0; k < count; k++ )
+      {
+         double v = u[uOffset + k*stride];
+         checkProbability( v );
+         out[outOffset + k*stride] = -mean*Math.log1p( -v );
+      }
+   }
+}
+
+class WeibullSampler extends DistributionSampler
+{
+   private final double scale;
+   private final double invShape;
+
+   WeibullSampler( double scale, double shape )
+   {
+      this.scale = scale;
+      this.invShape = 1/shape;
+   }
+
+   public double quantile( double u )
+   {
+      checkProbability( u );
+      return scale*Math.pow( -Math.log1p( -u ), invShape );
+   }
+
+   public double logDensity( double x )
+   {
+      if ( !(x >= 0) )
+         return Double.NEGATIVE_INFINITY;
+      double shape = 1/invShape;
+      double t = x/scale;
+      return Math.log( shape/scale ) + (shape - 1)*Math.log( t ) - Math.pow( t, shape );
+   }
+}
+
+class LognormalSampler extends DistributionSampler
+{
+   private final double mu;
+   private final double sigma;
+
+   LognormalSampler( double mu, double sigma )
+   {
+      this.mu = mu;
+      this.sigma = sigma;
+   }
+
+   public double quantile( double u )
+   {
+      return Math.exp( mu + sigma*normalQuantile( u ) );
+   }
+
+   public double logDensity( double x )
+   {
+      if ( !(x > 0) )
+         return Double.NEGATIVE_INFINITY;
+      double lx = Math.log( x );
+      double z = (lx - mu)/sigma;
+      return -0.5*z*z - lx - Math.log( sigma ) - LOG_SQRT_2PI;
+   }
+}
+
+/**
+ * gamma(shape, scale): Newton/Halley iteration on the regularized lower
+ * incomplete gamma function P(a,x), started from the Wilson-Hilferty
+ * approximation (Numerical Recipes, 3rd ed., 6.2.1)
+ */
+class GammaSampler extends DistributionSampler
+{
+   private final double a;
+   private final double scale;
+   private final double logGammaA;
+   private final double a1;
+   private final double lna1;
+   private final double afac;
+
+   GammaSampler( double shape, double scale )
+   {
+      if ( !(shape > 0) || !(scale > 0) )
+         throw new IllegalArgumentException( "gamma shape and scale must be positive" );
+      this.a = shape;
+      this.scale = scale;
+      this.logGammaA = logGamma( shape );
+      this.a1 = shape - 1;
+      this.lna1 = shape > 1 ? Math.log( a1 ) : 0;
+      this.afac = shape > 1 ? Math.exp( a1*(lna1 - 1) - logGammaA ) : 0;
+   }
+
+   public double quantile( double p )
+   {
+      checkProbability( p );
+      if ( p == 0 )
+         return 0;
+      if ( p == 1 )
+         return Double.POSITIVE_INFINITY;
+
+      double x;
+      if ( a > 1 )
+      {
+         double pp = p < 0.5 ? p : 1 - p;
+         double t = Math.sqrt( -2*Math.log( pp ) );
+         x = (2.30753 + t*0.27061)/(1 + t*(0.99229 + t*0.04481)) - t;
+         if ( p < 0.5 )
+            x = -x;
+         x = Math.max( 1e-3, a*Math.pow( 1 - 1/(9*a) - x/(3*Math.sqrt( a )), 3 ) );
+      }
+      else
+      {
+         double t = 1 - a*(0.253 + a*0.12);
+         if ( p < t )
+            x = Math.pow( p/t, 1/a );
+         else
+            x = 1 - Math.log( 1 - (p-t)/(1-t) );
+      }
+
+      for ( int j = 0; j < 20; j++ )
+      {
+         if ( x <= 0 )
+            return 0;
+         double err = regularizedGammaP( x ) - p;
+         double t;
+         if ( a > 1 )
+            t = afac*Math.exp( -(x-a1) + a1*(Math.log( x ) - lna1) );
+         else
+            t = Math.exp( -x + a1*Math.log( x ) - logGammaA );
+         if ( t == 0 )
+            break;
+         double u = err/t;
+         double step = u/(1 - 0.5*Math.min( 1, u*((a-1)/x - 1) ));
+         x -= step;
+         if ( x <= 0 )
+            x = 0.5*(x + step);
+         if ( Math.abs( step ) < 1e-14*x )
+            break;
+      }
+      return scale*x;
+   }
+
+   public double logDensity( double x )
+   {
+      if ( !(x >= 0) )
+         return Double.NEGATIVE_INFINITY;
+      double t = x/scale;
+      return a1*Math.log( t ) - t - logGammaA - Math.log( scale );
+   }
+
+   /**
+    * P(a,x) by its series for x < a+1 and by the continued fraction of
+    * Q(a,x) otherwise
+    */
+   double regularizedGammaP( double x )
+   {
+      double logPrefix = -x + a*Math.log( x ) - logGammaA;
+      if ( x < a + 1 )
+      {
+         double ap = a;
+         double del = 1/a;
+         double sum = del;
+         for ( int n = 0; n < 1000; n++ )
+         {
+            ap += 1;
+            del *= x/ap;
+            sum += del;
+            if ( Math.abs( del ) < Math.abs( sum )*1e-16 )
+               break;
+         }
+         return sum*Math.exp( logPrefix );
+      }
+      else
+      {
+         // modified Lentz
+         double tiny = 1e-300;
+         double b = x + 1 - a;
+         double c = 1/tiny;
+         double d = 1/b;
+         double h = d;
+         for ( int i = 1; i < 1000; i++ )
+         {
+            double an = -i*(i - a);
+            b += 2;
+            d = an*d + b;
+            if ( Math.abs( d ) < tiny )
+               d = tiny;
+            c = b + an/c;
+            if ( Math.abs( c ) < tiny )
+               c = tiny;
+            d = 1/d;
+            double del = d*c;
+            h *= del;
+            if ( Math.abs( del - 1 ) < 1e-16 )
+               break;
+         }
+         return 1 - Math.exp( logPrefix )*h;
+      }
+   }
+}
+
+/**
+ * beta(alpha, beta) scaled to [low, high]: Halley iteration on the
+ * regularized incomplete beta function I_x(a,b) (Numerical Recipes, 3rd
+ * ed., 6.4)
+ */
+class BetaSampler extends DistributionSampler
+{
+   private final double a;
+   private final double b;
+   private final double low;
+   private final double width;
+   private final double logBeta;
+
+   BetaSampler( double alpha, double beta, double low, double high )
+   {
+      if ( !(alpha > 0) || !(beta > 0) )
+         throw new IllegalArgumentException( "beta parameters must be positive" );
+      this.a = alpha;
+      this.b = beta;
+      this.low = low;
+      this.width = high - low;
+      this.logBeta = logGamma( alpha ) + logGamma( beta ) - logGamma( alpha + beta );
+   }
+
+   /**
+    * the PERT distribution: a beta on [low, high] with shape parameters
+    * chosen so that its mode is the most likely value
+    */
+   static BetaSampler pert( double low, double mode, double high )
+   {
+      double range = high - low;
+      if ( !(range > 0) || mode < low || mode > high )
+         throw new IllegalArgumentException( "PERT needs low <= most likely <= high" );
+      double alpha = 1 + 4*(mode - low)/range;
+      double beta = 1 + 4*(high - mode)/range;
+      return new BetaSampler( alpha, beta, low, high );
+   }
+
+   public double quantile( double p )
+   {
+      checkProbability( p );
+      if ( p == 0 )
+         return low;
+      if ( p == 1 )
+         return low + width;
+
+      double x;
+      if ( a >= 1 && b >= 1 )
+      {
+         double pp = p < 0.5 ? p : 1 - p;
+         double t = Math.sqrt( -2*Math.log( pp ) );
+         x = (2.30753 + t*0.27061)/(1 + t*(0.99229 + t*0.04481)) - t;
+         if ( p < 0.5 )
+            x = -x;
+         double al = (x*x - 3)/6;
+         double h = 2/(1/(2*a - 1) + 1/(2*b - 1));
+         double w = x*Math.sqrt( al + h )/h -
+            (1/(2*b - 1) - 1/(2*a - 1))*(al + 5.0/6 - 2/(3*h));
+         x = a/(a + b*Math.exp( 2*w ));
+      }
+      else
+      {
+         double lna = Math.log( a/(a + b) );
+         double lnb = Math.log( b/(a + b) );
+         double t = Math.exp( a*lna )/a;
+         double u = Math.exp( b*lnb )/b;
+         double w = t + u;
+         if ( p < t/w )
+            x = Math.pow( a*w*p, 1/a );
+         else
+            x = 1 - Math.pow( b*w*(1 - p), 1/b );
+      }
+
+      double a1 = a - 1;
+      double b1 = b - 1;
+      for ( int j = 0; j < 20; j++ )
+      {
+         if ( x <= 0 || x >= 1 )
+            break;
+         double err = regularizedBeta( x ) - p;
+         double t = Math.exp( a1*Math.log( x ) + b1*Math.log1p( -x ) - logBeta );
+         if ( t == 0 )
+            break;
+         double u = err/t;
+         double step = u/(1 - 0.5*Math.min( 1, u*(a1/x - b1/(1 - x)) ));
+         x -= step;
+         if ( x <= 0 )
+            x = 0.5*(x + step);
+         if ( x >= 1 )
+            x = 0.5*(x + step + 1);
+         if ( Math.abs( step ) < 1e-14*x && j > 0 )
+            break;
+      }
+      return low + width*x;
+   }
+
+   public double logDensity( double x )
+   {
+      double t = (x - low)/width;
+      if ( !(t >= 0 && t <= 1) )
+         return Double.NEGATIVE_INFINITY;
+      return (a - 1)*Math.log( t ) + (b - 1)*Math.log1p( -t ) - logBeta - Math.log( width );
+   }
+
+   double regularizedBeta( double x )
+   {
+      double front = Math.exp( a*Math.log( x ) + b*Math.log1p( -x ) - logBeta );
+      if ( x < (a + 1)/(a + b + 2) )
+         return front*continuedFraction( a, b, x )/a;
+      else
+         return 1 - front*continuedFraction( b, a, 1 - x )/b;
+   }
+
+   private static double continuedFraction( double a, double b, double x )
+   {
+      double tiny = 1e-300;
+      double qab = a + b;
+      double qap = a + 1;
+      double qam = a - 1;
+      double c = 1;
+      double d = 1 - qab*x/qap;
+      if ( Math.abs( d ) < tiny )
+         d = tiny;
+      d = 1/d;
+      double h = d;
+      for ( int m = 1; m < 1000; m++ )
+      {
+         int m2 = 2*m;
+         double aa = m*(b - m)*x/((qam + m2)*(a + m2));
+         d = 1 + aa*d;
+         if ( Math.abs( d ) < tiny )
+            d = tiny;
+         c = 1 + aa/c;
+         if ( Math.abs( c ) < tiny )
+            c = tiny;
+         d = 1/d;
+         h *= d*c;
+         aa = -(a + m)*(qab + m)*x/((a + m2)*(qap + m2));
+         d = 1 + aa*d;
+         if ( Math.abs( d ) < tiny )
+            d = tiny;
+         c = 1 + aa/c;
+         if ( Math.abs( c ) < tiny )
+            c = tiny;
+         d = 1/d;
+         double del = d*c;
+         h *= del;
+         if ( Math.abs( del - 1 ) < 1e-16 )
+            break;
+      }
+      return h;
+   }
+}
+
+/**
+ * a tabulated distribution: the inverse of the piecewise linear CDF
+ * through the points (x[i], p[i]).
+ *
+ * A guide table (Chen and Asau) over equal probability cells records
+ * the first CDF segment of each cell, so a lookup starts at most a few
+ * segments away from its target. Each draw is O(1) on average whatever
+ * the size of the table, and is still exact.
+ */
+class EmpiricalSampler extends DistributionSampler
+{
+   private final double[] x;
+   private final double[] p;
+   private final int[] guide;
+
+   /**
+    * @param x increasing values
+    * @param p their cumulative probabilities, non-decreasing from 0 to 1
+    */
+   EmpiricalSampler( double[] x, double[] p )
+   {
+      if ( x.length != p.length || x.length < 2 )
+         throw new IllegalArgumentException( "an empirical CDF needs at least two points" );
+      for ( int i = 1; i < x.length; i++ )
+      {
+         if ( x[i] < x[i-1] || p[i] < p[i-1] )
+            throw new IllegalArgumentException( "empirical CDF must be non-decreasing" );
+      }
+      if ( Math.abs( p[0] ) > 1e-9 || Math.abs( p[p.length-1] - 1 ) > 1e-9 )
+         throw new IllegalArgumentException( "empirical CDF must run from 0 to 1" );
+
+      this.x = x.clone();
+      this.p = p.clone();
+      this.p[0] = 0;
+      this.p[p.length-1] = 1;
+
+      int cells = Math.max( 1024, 4*x.length );
+      guide = new int[cells];
+      int k = 0;
+      for ( int i = 0; i < cells; i++ )
+      {
+         double lower = (double)i/cells;
+         while ( k < x.length - 2 && this.p[k+1] < lower )
+            k++;
+         guide[i] = k;
+      }
+   }
+
+   public double quantile( double u )
+   {
+      checkProbability( u );
+
+      // first segment whose upper end reaches u
+      int cell = Math.min( (int)(u*guide.length), guide.length - 1 );
+      int k = guide[cell];
+      while ( k < x.length - 2 && p[k+1] < u )
+         k++;
+
+      double dp = p[k+1] - p[k];
+      if ( dp <= 0 )
+         return x[k+1];
+      return x[k] + (x[k+1] - x[k])*(u - p[k])/dp;
+   }
+
+   /**
+    * the slope of the CDF segment holding x
+    */
+   public double logDensity( double x )
+   {
+      if ( !(x >= this.x[0] && x <= this.x[this.x.length-1]) )
+         return Double.NEGATIVE_INFINITY;
+      int k = java.util.Arrays.binarySearch( this.x, x );
+      if ( k < 0 )
+         k = -k - 2;
+      k = Math.min( k, this.x.length - 2 );
+      double dx = this.x[k+1] - this.x[k];
+      return dx > 0 ? Math.log( (p[k+1] - p[k])/dx ) : Double.NEGATIVE_INFINITY;
+   }
+}
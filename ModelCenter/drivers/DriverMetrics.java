@@ -0,0 +1,474 @@
+import com.phoenix_int.aserver.types.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Instrumentation of a driver's life cycle, to tell where the time of a
+ * slow study goes. The driver brackets each of its IPHXDriver and
+ * BatchDriver calls with enter() and exit(); the metrics then hold the
+ * latency of every phase:
+ *
+ *   initializeIterations, startIteration, endIteration, nextBatch,
+ *   acceptBatch, end   the driver's own work in that call
+ *   model              from the end of startIteration() to the start of
+ *                      endIteration(): ModelCenter transferring the values
+ *                      and running the model
+ *   evaluate           from the end of nextBatch() to the start of
+ *                      acceptBatch(): the BatchExecutor evaluating the
+ *                      batch
+ *
+ * along with the number of trials, their rate and the number of failed
+ * ones: trials with a response that is not a finite number (how a failed
+ * run usually comes back) and trials sent out but never returned before
+ * end() (an evaluation error that aborted the study).
+ *
+ * Latencies go into HDR-style histograms: exact below 64 ns and in 32
+ * linear buckets per power of two above, so every quantile is within 3%
+ * and recording one is a few instructions with no allocation. With JFR
+ * recording, every trial commits a ModelCenter.DriverTrial event and every
+ * batch a ModelCenter.DriverBatch event; they cost nothing otherwise.
+ * With a snapshot file set, the metrics are written to it every
+ * snapshotInterval seconds (when a trial or batch completes) and at
+ * end(), replacing the previous snapshot.
+ *
+ * A driver is called by one thread at a time, so the metrics take no
+ * locks; the getters may be called from other threads and then see a
+ * recent state.
+ */
+class DriverMetrics
+{
+   static final int INITIALIZE = 0;
+   static final int START_ITERATION = 1;
+   static final int MODEL = 2;
+   static final int END_ITERATION = 3;
+   static final int NEXT_BATCH = 4;
+   static final int EVALUATE = 5;
+   static final int ACCEPT_BATCH = 6;
+   static final int END = 7;
+   public static final String PHASES =
+      "initializeIterations,startIteration,model,endIteration,nextBatch,evaluate,acceptBatch,end";
+   public static final String COLUMNS = "count,mean,p50,p90,p99,max";
+
+   private static final int NUM_PHASES = 8;
+   private static final int SUB_BUCKETS = 32;
+   private static final int BUCKETS = 60*SUB_BUCKETS;
+   private static final boolean JFR = jfrAvailable();
+
+   private final String driver;
+   private boolean enabled = true;
+   private String snapshotFile = "";
+   private double snapshotInterval = 10;
+
+   private final long[] counts = new long[NUM_PHASES*BUCKETS];
+   private final long[] phaseCount = new long[NUM_PHASES];
+   private final long[] phaseTotal = new long[NUM_PHASES];
+   private final long[] phaseMax = new long[NUM_PHASES];
+   private long trials;
+   private long failures;
+   private long startedAt;
+   private long stoppedAt;
+   private long nextSnapshot;
+
+   // the cases sent out by startIteration() or nextBatch() and not back yet
+   private int pending;
+   private long pendingSince;
+
+   // JFR events of the trial or batch in progress; null unless recording
+   private DriverTrialEvent trialEvent;
+   private DriverBatchEvent batchEvent;
+
+   private final PHXDoubleArray phaseTimes = new PHXDoubleArray();
+   private long phaseTimesAt = Long.MIN_VALUE;
+
+   DriverMetrics( String driver )
+   {
+      this.driver = driver;
+      phaseTimes.resize( new int[] {NUM_PHASES, 6} );
+   }
+
+   public void setEnabled( boolean v ) { enabled = v; }
+   public boolean isEnabled() { return enabled; }
+   public void setSnapshotFile( String v ) { snapshotFile = v == null ? "" : v.trim(); }
+   public String getSnapshotFile() { return snapshotFile; }
+   public void setSnapshotInterval( double v ) { snapshotInterval = v; }
+   public double getSnapshotInterval() { return snapshotInterval; }
+
+   /**
+    * called on entering initializeIterations(): clears the metrics of
+    * the previous run
+    */
+   public long begin()
+   {
+      java.util.Arrays.fill( counts, 0 );
+      java.util.Arrays.fill( phaseCount, 0 );
+      java.util.Arrays.fill( phaseTotal, 0 );
+      java.util.Arrays.fill( phaseMax, 0 );
+      trials = 0;
+      failures = 0;
+      pending = 0;
+      trialEvent = null;
+      batchEvent = null;
+      startedAt = System.nanoTime();
+      stoppedAt = 0;
+      nextSnapshot = startedAt + (long)(snapshotInterval*1e9);
+      phaseTimesAt = Long.MIN_VALUE;
+      return enabled ? startedAt : 0;
+   }
+
+   /**
+    * called on entering any other driver call; the time to pass to exit()
+    */
+   public long enter()
+   {
+      return enabled ? System.nanoTime() : 0;
+   }
+
+   /**
+    * called on leaving initializeIterations(), startIteration() (which
+    * sends out one case) or end()
+    */
+   public void exit( int phase, long start )
+   {
+      exit( phase, start, phase == START_ITERATION ? 1 : 0 );
+   }
+
+   /**
+    * called on leaving nextBatch(), which sent out numCases cases
+    */
+   public void exit( int phase, long start, int numCases )
+   {
+      if ( !enabled )
+         return;
+
+      long now = System.nanoTime();
+      record( phase, now - start );
+      if ( phase == END )
+      {
+         // cases that never came back were aborted by a failure
+         failures += pending;
+         pending = 0;
+         stoppedAt = now;
+         snapshot();
+      }
+      else if ( numCases > 0 )
+      {
+         pending = numCases;
+         pendingSince = now;
+         if ( JFR )
+            beginEvent( phase, start, numCases );
+      }
+   }
+
+   /**
+    * called on leaving endIteration() (one case) or acceptBatch(), with
+    * the responses of the cases, numOutputs per case; vals may be null
+    * if the driver has no responses to check
+    */
+   public void exit( int phase, long start, double[] vals, int numCases, int numOutputs )
+   {
+      if ( !enabled )
+         return;
+
+      long now = System.nanoTime();
+      long wait = pending > 0 ? start - pendingSince : 0;
+      if ( pending > 0 )
+         record( phase == END_ITERATION ? MODEL : EVALUATE, wait );
+      record( phase, now - start );
+      pending = 0;
+
+      int failed = 0;
+      if ( vals != null )
+      {
+         for ( int k = 0; k < numCases; k++ )
+         {
+            for ( int i = k*numOutputs; i < (k+1)*numOutputs; i++ )
+            {
+               // NaN and both infinities
+               if ( !(Math.abs( vals[i] ) <= Double.MAX_VALUE) )
+               {
+                  failed++;
+                  break;
+               }
+            }
+         }
+      }
+      trials += numCases;
+      failures += failed;
+
+      if ( JFR )
+         commitEvent( phase, now - start, wait, numCases, failed );
+      if ( snapshotFile.length() > 0 && now - nextSnapshot >= 0 )
+      {
+         nextSnapshot = now + (long)(snapshotInterval*1e9);
+         snapshot();
+      }
+   }
+
+   private void record( int phase, long nanos )
+   {
+      int bucket = bucket( Math.max( 0, nanos ) );
+      counts[phase*BUCKETS+bucket]++;
+      phaseCount[phase]++;
+      phaseTotal[phase] += nanos;
+      if ( nanos > phaseMax[phase] )
+         phaseMax[phase] = nanos;
+   }
+
+   /**
+    * values below 2*SUB_BUCKETS have a bucket each; above, each power of
+    * two [2^e, 2^(e+1)) is split into SUB_BUCKETS equal buckets
+    */
+   static int bucket( long v )
+   {
+      if ( v < 2*SUB_BUCKETS )
+         return (int)v;
+      int shift = 63 - Long.numberOfLeadingZeros( v ) - 5;
+      return (shift + 1)*SUB_BUCKETS + (int)(v >>> shift) - SUB_BUCKETS;
+   }
+
+   /**
+    * the middle of a bucket's range
+    */
+   static long bucketValue( int bucket )
+   {
+      if ( bucket < 2*SUB_BUCKETS )
+         return bucket;
+      int shift = bucket/SUB_BUCKETS - 1;
+      long low = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+      return low + ((1L << shift) - 1)/2;
+   }
+
+   /**
+    * the q-quantile of a phase's latencies in nanoseconds, 0 if it has
+    * none
+    */
+   public long getQuantile( int phase, double q )
+   {
+      long n = phaseCount[phase];
+      if ( n == 0 )
+         return 0;
+      long rank = Math.max( 1, (long)Math.ceil( q*n ) );
+      long seen = 0;
+      for ( int b = 0; b < BUCKETS; b++ )
+      {
+         seen += counts[phase*BUCKETS+b];
+         if ( seen >= rank )
+            return Math.min( bucketValue( b ), phaseMax[phase] );
+      }
+      return phaseMax[phase];
+   }
+
+   public long getCount( int phase ) { return phaseCount[phase]; }
+   public long getTrials() { return trials; }
+   public long getFailedTrials() { return failures; }
+
+   /**
+    * completed trials per second since initializeIterations(), up to
+    * end() once the study is over
+    */
+   public double getTrialsPerSecond()
+   {
+      if ( startedAt == 0 )
+         return 0;
+      long now = stoppedAt != 0 ? stoppedAt : System.nanoTime();
+      return now > startedAt ? trials*1e9/(now - startedAt) : 0;
+   }
+
+   /**
+    * a row per phase (in PHASES order) with the columns of COLUMNS: the
+    * number of calls and the mean, 50th, 90th and 99th percentile and
+    * largest latency in microseconds. Brought up to date at most once a
+    * second while the study runs.
+    */
+   public PHXDoubleArray getPhaseTimes()
+   {
+      long now = System.nanoTime();
+      if ( stoppedAt != 0 || now - phaseTimesAt > 1000000000L )
+      {
+         phaseTimesAt = now;
+         int[] index = new int[2];
+         for ( int p = 0; p < NUM_PHASES; p++ )
+         {
+            index[0] = p;
+            double[] row = phaseRow( p );
+            for ( int c = 0; c < row.length; c++ )
+            {
+               index[1] = c;
+               phaseTimes.setValue( index, row[c] );
+            }
+         }
+      }
+      return phaseTimes;
+   }
+
+   private double[] phaseRow( int p )
+   {
+      long n = phaseCount[p];
+      return new double[] { n, n > 0 ? phaseTotal[p]/1e3/n : 0,
+                            getQuantile( p, 0.5 )/1e3, getQuantile( p, 0.9 )/1e3,
+                            getQuantile( p, 0.99 )/1e3, phaseMax[p]/1e3 };
+   }
+
+   /**
+    * writes the metrics to the snapshot file, if any, through a temporary
+    * file so that a reader never sees half a snapshot
+    */
+   public void snapshot()
+   {
+      if ( snapshotFile.length() == 0 )
+         return;
+
+      StringBuilder s = new StringBuilder();
+      s.append( "driver," ).append( driver ).append( '\n' );
+      s.append( "time," ).append( System.currentTimeMillis() ).append( '\n' );
+      s.append( "running," ).append( stoppedAt == 0 ).append( '\n' );
+      s.append( "trials," ).append( trials ).append( '\n' );
+      s.append( "failedTrials," ).append( failures ).append( '\n' );
+      s.append( "trialsPerSecond," ).append( getTrialsPerSecond() ).append( '\n' );
+      s.append( '\n' );
+      s.append( "phase,count,mean_us,p50_us,p90_us,p99_us,max_us\n" );
+      String[] names = PHASES.split( "," );
+      for ( int p = 0; p < NUM_PHASES; p++ )
+      {
+         s.append( names[p] );
+         for ( double v : phaseRow( p ) )
+         {
+            s.append( ',' ).append( v );
+         }
+         s.append( '\n' );
+      }
+
+      try
+      {
+         File target = new File( snapshotFile );
+         File temp = new File( snapshotFile + ".tmp" );
+         Files.write( temp.toPath(), s.toString().getBytes( StandardCharsets.UTF_8 ) );
+         Files.move( temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+      catch ( IOException e )
+      {
+         throw new UncheckedIOException( e );
+      }
+   }
+
+   // ----- JFR; the event classes are only loaded when JFR is present
+
+   private static boolean jfrAvailable()
+   {
+      try
+      {
+         Class.forName( "jdk.jfr.Event" );
+         return true;
+      }
+      catch ( Throwable e )
+      {
+         return false;
+      }
+   }
+
+   private void beginEvent( int phase, long start, int numCases )
+   {
+      if ( phase == START_ITERATION && DriverTrialEvent.TYPE.isEnabled() )
+      {
+         trialEvent = new DriverTrialEvent();
+         trialEvent.begin();
+         trialEvent.driver = driver;
+         trialEvent.trial = trials + 1;
+         trialEvent.startIteration = System.nanoTime() - start;
+      }
+      else if ( phase == NEXT_BATCH && DriverBatchEvent.TYPE.isEnabled() )
+      {
+         batchEvent = new DriverBatchEvent();
+         batchEvent.begin();
+         batchEvent.driver = driver;
+         batchEvent.firstTrial = trials + 1;
+         batchEvent.cases = numCases;
+         batchEvent.nextBatch = System.nanoTime() - start;
+      }
+   }
+
+   private void commitEvent( int phase, long nanos, long wait, int numCases, int failed )
+   {
+      if ( phase == END_ITERATION && trialEvent != null )
+      {
+         trialEvent.model = wait;
+         trialEvent.endIteration = nanos;
+         trialEvent.failed = failed > 0;
+         trialEvent.commit();
+         trialEvent = null;
+      }
+      else if ( phase == ACCEPT_BATCH && batchEvent != null )
+      {
+         batchEvent.evaluate = wait;
+         batchEvent.acceptBatch = nanos;
+         batchEvent.failed = failed;
+         batchEvent.commit();
+         batchEvent = null;
+      }
+   }
+}
+
+@jdk.jfr.Name( "ModelCenter.DriverTrial" )
+@jdk.jfr.Label( "Driver Trial" )
+@jdk.jfr.Category( { "ModelCenter", "Drivers" } )
+@jdk.jfr.Description( "One trial of a driver run by ModelCenter, from startIteration() to the end of endIteration()" )
+class DriverTrialEvent extends jdk.jfr.Event
+{
+   static final jdk.jfr.EventType TYPE = jdk.jfr.EventType.getEventType( DriverTrialEvent.class );
+
+   @jdk.jfr.Label( "Driver" )
+   String driver;
+
+   @jdk.jfr.Label( "Trial" )
+   long trial;
+
+   @jdk.jfr.Label( "startIteration" )
+   @jdk.jfr.Timespan
+   long startIteration;
+
+   @jdk.jfr.Label( "Model" )
+   @jdk.jfr.Timespan
+   long model;
+
+   @jdk.jfr.Label( "endIteration" )
+   @jdk.jfr.Timespan
+   long endIteration;
+
+   @jdk.jfr.Label( "Failed" )
+   boolean failed;
+}
+
+@jdk.jfr.Name( "ModelCenter.DriverBatch" )
+@jdk.jfr.Label( "Driver Batch" )
+@jdk.jfr.Category( { "ModelCenter", "Drivers" } )
+@jdk.jfr.Description( "One batch of a driver run by a BatchExecutor, from nextBatch() to the end of acceptBatch()" )
+class DriverBatchEvent extends jdk.jfr.Event
+{
+   static final jdk.jfr.EventType TYPE = jdk.jfr.EventType.getEventType( DriverBatchEvent.class );
+
+   @jdk.jfr.Label( "Driver" )
+   String driver;
+
+   @jdk.jfr.Label( "First Trial" )
+   long firstTrial;
+
+   @jdk.jfr.Label( "Cases" )
+   int cases;
+
+   @jdk.jfr.Label( "nextBatch" )
+   @jdk.jfr.Timespan
+   long nextBatch;
+
+   @jdk.jfr.Label( "Evaluate" )
+   @jdk.jfr.Timespan
+   long evaluate;
+
+   @jdk.jfr.Label( "acceptBatch" )
+   @jdk.jfr.Timespan
+   long acceptBatch;
+
+   @jdk.jfr.Label( "Failed Cases" )
+   int failed;
+}
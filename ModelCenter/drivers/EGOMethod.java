@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Efficient global optimization (Jones, Schonlau and Welch, 1998) for
+ * models that are too slow to run more than a few dozen times.
+ *
+ * The method starts from a maximin Latin Hypercube design made by
+ * LatinHypercubeSampling.generateDesign() and LHSDesignOptimizer, fits a
+ * KrigingSurrogate to the points evaluated so far and runs next the
+ * points where the expected improvement over the best value is largest.
+ * Each round proposes q points for concurrent evaluation with the
+ * Kriging believer heuristic: after a point is chosen, the surrogate is
+ * told that the model returned its own prediction there, which removes
+ * the point's uncertainty, and the next point is chosen on that updated
+ * surrogate. The believed values are dropped when the real ones come in
+ * and the surrogate is refitted.
+ *
+ * The expected improvement is maximized on the surrogate only, in
+ * parallel: it is scored at a few thousand candidates (random points,
+ * and points near the best ones evaluated), and the best candidates are
+ * refined by a compass search each.
+ *
+ * A response that is not a number, or infinite, is fitted as the worst
+ * finite value seen. The method has converged once the largest expected
+ * improvement falls below the tolerance times the range of the values.
+ * It needs bounds on every variable.
+ */
+class EGOMethod extends OptimizationMethod
+{
+   private static final int REFINED = 8;
+
+   private int initialPoints = 0;
+   private int pointsPerRound = 4;
+   private RandomSource rng = RandomSource.create( "SplitMix64", 1 );
+   private double expectedImprovement = 0;
+
+   /**
+    * size of the initial design; 0 picks 5 points per variable, at least 6
+    */
+   public void setInitialPoints( int v ) { initialPoints = v; }
+
+   /**
+    * points proposed per round, all evaluated concurrently
+    */
+   public void setPointsPerRound( int v ) { pointsPerRound = Math.max( 1, v ); }
+
+   public void setRandomSource( RandomSource r ) { rng = r; }
+
+   /**
+    * the largest expected improvement of the last round
+    */
+   public double getExpectedImprovement() { return expectedImprovement; }
+
+   public void minimize( OptimizationProblem problem ) throws Exception
+   {
+      int n = problem.getDimension();
+      for ( int i = 0; i < n; i++ )
+      {
+         if ( problem.getUpper( i ) == Double.POSITIVE_INFINITY )
+            throw new IllegalArgumentException( "EGO needs lower and upper bounds on every design variable" );
+      }
+
+      int n0 = initialPoints > 0 ? initialPoints : Math.max( 6, 5*n );
+      n0 = Math.min( n0, problem.getMaxEvaluations() );
+
+      RandomSource designSource = rng.copy();
+      designSource.reset( -1 );
+      double[] design = LatinHypercubeSampling.generateDesign( n0, n, designSource );
+      if ( n0 > 2 )
+         new LHSDesignOptimizer( design, n0, n ).optimize( 20, false, designSource );
+
+      double[] xs = design;
+      double[] ys = new double[n0];
+      problem.evaluate( design, ys, n0 );
+      int count = n0;
+
+      converged = false;
+      long stream = 0;
+      while ( !problem.isExhausted() )
+      {
+         problem.nextIteration();
+         KrigingSurrogate model = new KrigingSurrogate();
+         double[] fitted = fittedValues( ys, count );
+         model.fit( xs, fitted, count, n );
+
+         double best = Double.POSITIVE_INFINITY;
+         double worst = Double.NEGATIVE_INFINITY;
+         int bestIndex = 0;
+         for ( int k = 0; k < count; k++ )
+         {
+            if ( fitted[k] < best )
+            {
+               best = fitted[k];
+               bestIndex = k;
+            }
+            worst = Math.max( worst, fitted[k] );
+         }
+
+         int q = Math.min( pointsPerRound, problem.getMaxEvaluations() - problem.getEvaluations() );
+         double[] batch = new double[q*n];
+         for ( int j = 0; j < q; j++ )
+         {
+            RandomSource r = rng.copy();
+            r.reset( stream++ );
+            double ei = maximize( model, best, xs, fitted, count, bestIndex, problem, r,
+                                  batch, j*n );
+            if ( j == 0 )
+            {
+               expectedImprovement = ei;
+               if ( ei <= tolerance*Math.max( worst - best, 1e-300 ) )
+               {
+                  converged = true;
+                  return;
+               }
+            }
+
+            // Kriging believer: pretend the model returned the prediction
+            if ( j < q-1 )
+               model.add( batch, j*n, model.predict( batch, j*n ) );
+         }
+
+         double[] values = new double[q];
+         problem.evaluate( batch, values, q );
+
+         xs = Arrays.copyOf( xs, (count+q)*n );
+         ys = Arrays.copyOf( ys, count+q );
+         System.arraycopy( batch, 0, xs, count*n, q*n );
+         System.arraycopy( values, 0, ys, count, q );
+         count += q;
+      }
+   }
+
+   /**
+    * the responses with failed (non-finite) ones replaced by the worst
+    * finite one
+    */
+   private static double[] fittedValues( double[] ys, int count )
+   {
+      double worst = Double.NEGATIVE_INFINITY;
+      for ( int k = 0; k < count; k++ )
+      {
+         if ( Double.isFinite( ys[k] ) )
+            worst = Math.max( worst, ys[k] );
+      }
+      if ( worst == Double.NEGATIVE_INFINITY )
+         worst = 0;
+
+      double[] f = new double[count];
+      for ( int k = 0; k < count; k++ )
+      {
+         f[k] = Double.isFinite( ys[k] ) ? ys[k] : worst;
+      }
+      return f;
+   }
+
+   /**
+    * maximizes the expected improvement on the surrogate, writes the
+    * point to out[off ..] and returns its expected improvement
+    */
+   private double maximize( final KrigingSurrogate model, final double best,
+                            double[] xs, double[] ys, int count, int bestIndex,
+                            OptimizationProblem problem, RandomSource r,
+                            double[] out, int off )
+   {
+      final int n = problem.getDimension();
+      int random = 500 + 200*n;
+      int local = random/4;
+      final int candidates = random + local;
+
+      // random points, and points near the best evaluated
+      final double[] c = new double[candidates*n];
+      r.fill( c, 0, random*n );
+      for ( int k = 0; k < local; k++ )
+      {
+         int from = k % 2 == 0 ? bestIndex : (int)(r.nextDouble()*count);
+         double step = 0.1*Math.pow( 0.1, k % 3 );
+         for ( int i = 0; i < n; i++ )
+         {
+            double v = xs[from*n+i] + step*DistributionSampler.normalQuantile( r.nextDouble() );
+            c[(random+k)*n+i] = Math.min( 1, Math.max( 0, v ) );
+         }
+      }
+
+      final double[] score = new double[candidates];
+      IntStream.range( 0, candidates ).parallel().forEach( k ->
+         score[k] = expectedImprovement( model, c, k*n, best ) );
+
+      // refine the best candidates
+      Integer[] order = new Integer[candidates];
+      for ( int k = 0; k < candidates; k++ )
+      {
+         order[k] = k;
+      }
+      Arrays.sort( order, ( a, b ) -> Double.compare( score[b], score[a] ) );
+      final int refined = Math.min( REFINED, candidates );
+      final double[] start = new double[refined*n];
+      for ( int k = 0; k < refined; k++ )
+      {
+         System.arraycopy( c, order[k]*n, start, k*n, n );
+      }
+      final double[] refinedScore = new double[refined];
+      IntStream.range( 0, refined ).parallel().forEach( k ->
+         refinedScore[k] = refine( model, best, start, k*n, n ) );
+
+      int winner = 0;
+      for ( int k = 1; k < refined; k++ )
+      {
+         if ( refinedScore[k] > refinedScore[winner] )
+            winner = k;
+      }
+      System.arraycopy( start, winner*n, out, off, n );
+      return refinedScore[winner];
+   }
+
+   /**
+    * compass search for a larger expected improvement from the point
+    * u[off ..], in place; returns the expected improvement reached
+    */
+   private static double refine( KrigingSurrogate model, double best,
+                                 double[] u, int off, int n )
+   {
+      double value = expectedImprovement( model, u, off, best );
+      int evaluations = 0;
+      for ( double step = 0.05; step > 1e-4 && evaluations < 50*n; )
+      {
+         boolean improved = false;
+         for ( int i = 0; i < n && !improved; i++ )
+         {
+            double old = u[off+i];
+            for ( int sign = -1; sign <= 1; sign += 2 )
+            {
+               u[off+i] = Math.min( 1, Math.max( 0, old + sign*step ) );
+               double v = expectedImprovement( model, u, off, best );
+               evaluations++;
+               if ( v > value )
+               {
+                  value = v;
+                  improved = true;
+                  break;
+               }
+               u[off+i] = old;
+            }
+         }
+         if ( !improved )
+            step /= 2;
+      }
+      return value;
+   }
+
+   /**
+    * E[max(best - Y(u), 0)] for the Kriging prediction Y(u)
+    */
+   static double expectedImprovement( KrigingSurrogate model, double[] u, int off,
+                                      double best )
+   {
+      double s = Math.sqrt( model.predictVariance( u, off ) );
+      double d = best - model.predict( u, off );
+      if ( !(s > 0) )
+         return Math.max( d, 0 );
+      double z = d/s;
+      return d*DistributionSampler.normalCdfLower( z ) +
+             s*Math.exp( -0.5*z*z )/Math.sqrt( 2*Math.PI );
+   }
+}
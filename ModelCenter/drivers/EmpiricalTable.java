@@ -0,0 +1,162 @@
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads tabulated CDFs for the "Empirical" distribution type, such as the
+ * CSV exports of the cost CDF sheets in the Uncertainties model.
+ *
+ * A table is named by a spec of the form "file.csv" or "file.csv#column".
+ * Without a column the file must have "value" and "prob" columns, or else
+ * its first two columns are taken as values and probabilities. With a
+ * column, the values come from that column and the probabilities from
+ * "column_prob" (or "prob"), which matches the layout of
+ * Uncertainties/uncertainties.csv.
+ *
+ * Each table is parsed once into primitive arrays and its sampler is
+ * shared by every driver instance in the JVM. The cache entry is reloaded
+ * when the file's size or modification time changes.
+ */
+class EmpiricalTable
+{
+   private static final Map<String,EmpiricalTable> cache =
+      new ConcurrentHashMap<String,EmpiricalTable>();
+
+   private final long lastModified;
+   private final long length;
+   private final DistributionSampler sampler;
+
+   private EmpiricalTable( long lastModified, long length, DistributionSampler sampler )
+   {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.sampler = sampler;
+   }
+
+   /**
+    * the sampler of the table named by spec, from the cache if the file
+    * has not changed since it was read
+    */
+   public static DistributionSampler sampler( String spec ) throws IOException
+   {
+      if ( spec == null || spec.trim().length() == 0 )
+         throw new IllegalArgumentException( "Empirical distribution needs a table" );
+
+      String path = spec.trim();
+      String column = null;
+      int hash = path.lastIndexOf( '#' );
+      if ( hash >= 0 )
+      {
+         column = path.substring( hash+1 ).trim();
+         path = path.substring( 0, hash ).trim();
+      }
+
+      File file = new File( path ).getCanonicalFile();
+      String key = file.getPath() + "#" + (column == null ? "" : column);
+      long modified = file.lastModified();
+      long size = file.length();
+
+      EmpiricalTable table = cache.get( key );
+      if ( table == null || table.lastModified != modified || table.length != size )
+      {
+         table = new EmpiricalTable( modified, size, read( file, column ) );
+         cache.put( key, table );
+      }
+      return table.sampler;
+   }
+
+   private static DistributionSampler read( File file, String column ) throws IOException
+   {
+      BufferedReader in = new BufferedReader( new FileReader( file ) );
+      try
+      {
+         String line = in.readLine();
+         if ( line == null )
+            throw new IOException( file + " is empty" );
+         String[] header = split( line );
+
+         int valueCol;
+         int probCol;
+         if ( column != null && column.length() > 0 )
+         {
+            valueCol = indexOf( header, column );
+            probCol = indexOf( header, column + "_prob" );
+            if ( probCol < 0 )
+               probCol = indexOf( header, "prob" );
+            if ( valueCol < 0 || probCol < 0 )
+               throw new IOException( file + " has no columns " + column + " and " + column + "_prob" );
+         }
+         else
+         {
+            valueCol = indexOf( header, "value" );
+            probCol = indexOf( header, "prob" );
+            if ( valueCol < 0 || probCol < 0 )
+            {
+               valueCol = 0;
+               probCol = 1;
+            }
+         }
+
+         double[] x = new double[64];
+         double[] p = new double[64];
+         int n = 0;
+         int lineNumber = 1;
+         while ( (line = in.readLine()) != null )
+         {
+            lineNumber++;
+            if ( line.trim().length() == 0 )
+               continue;
+            String[] fields = split( line );
+            if ( fields.length <= Math.max( valueCol, probCol ) ||
+                 fields[valueCol].length() == 0 )
+               continue;
+
+            if ( n == x.length )
+            {
+               x = Arrays.copyOf( x, 2*n );
+               p = Arrays.copyOf( p, 2*n );
+            }
+            try
+            {
+               x[n] = Double.parseDouble( fields[valueCol] );
+               p[n] = Double.parseDouble( fields[probCol] );
+            }
+            catch ( NumberFormatException e )
+            {
+               throw new IOException( file + ":" + lineNumber + ": " + e.getMessage() );
+            }
+            n++;
+         }
+
+         return DistributionSampler.empirical( Arrays.copyOf( x, n ), Arrays.copyOf( p, n ) );
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   private static String[] split( String line )
+   {
+      String[] fields = line.split( "," );
+      for ( int i = 0; i < fields.length; i++ )
+      {
+         String f = fields[i].trim();
+         if ( f.length() >= 2 && f.startsWith( "\"" ) && f.endsWith( "\"" ) )
+            f = f.substring( 1, f.length()-1 );
+         fields[i] = f;
+      }
+      return fields;
+   }
+
+   private static int indexOf( String[] header, String name )
+   {
+      for ( int i = 0; i < header.length; i++ )
+      {
+         if ( header[i].equalsIgnoreCase( name ) )
+            return i;
+      }
+      return -1;
+   }
+}
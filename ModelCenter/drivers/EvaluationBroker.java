@@ -0,0 +1,196 @@
+
+/**
+ * Lets an algorithm that is written as ordinary code calling f(x) run
+ * inside a driver, which has to hand out one case or one batch of cases
+ * at a time and is then called back with the responses.
+ *
+ * The algorithm runs in a thread of its own. Each call it makes to
+ * evaluate() posts a request of one or more points and blocks; the driver
+ * hands the points out through next() and passes the responses back
+ * through accept(). Once all responses of a request are in, the
+ * algorithm continues until it posts its next request or returns. The
+ * two threads never run at the same time, so the algorithm and the
+ * driver can share state without further locking.
+ *
+ * All points of a request are independent, so under a BatchExecutor they
+ * are evaluated concurrently; an algorithm should therefore ask for as
+ * many points at once as it can (simplex vertices, finite difference
+ * stencils, a whole generation).
+ */
+class EvaluationBroker
+{
+   /**
+    * the algorithm run by the broker
+    */
+   interface Task
+   {
+      void run( EvaluationBroker broker ) throws Exception;
+   }
+
+   /**
+    * thrown in the algorithm thread when the driver stops before the
+    * algorithm is done
+    */
+   static class Cancelled extends RuntimeException
+   {
+      private static final long serialVersionUID = 1L;
+
+      Cancelled()
+      {
+         super( "evaluation cancelled" );
+      }
+   }
+
+   private final int numInputs;
+   private final int numOutputs;
+   private Thread thread;
+   private double[] points;
+   private double[] values;
+   private int count;
+   private int handedOut;
+   private int received;
+   private boolean finished;
+   private boolean cancelled;
+   private Throwable failure;
+
+   EvaluationBroker( int numInputs, int numOutputs )
+   {
+      this.numInputs = numInputs;
+      this.numOutputs = numOutputs;
+   }
+
+   public int getNumInputs() { return numInputs; }
+   public int getNumOutputs() { return numOutputs; }
+
+   /**
+    * starts the algorithm in its own thread
+    */
+   public synchronized void start( final Task task, String name )
+   {
+      thread = new Thread( new Runnable()
+      {
+         public void run()
+         {
+            Throwable error = null;
+            try
+            {
+               task.run( EvaluationBroker.this );
+            }
+            catch ( Cancelled e )
+            {
+            }
+            catch ( Throwable e )
+            {
+               error = e;
+            }
+            finish( error );
+         }
+      }, name );
+      thread.setDaemon( true );
+      thread.start();
+   }
+
+   /**
+    * algorithm side: evaluates count points, stored row-major in x, and
+    * writes their responses row-major to f. Blocks until all are in.
+    */
+   public synchronized void evaluate( double[] x, double[] f, int count )
+      throws InterruptedException
+   {
+      if ( count == 0 )
+         return;
+
+      points = x;
+      values = f;
+      this.count = count;
+      handedOut = 0;
+      received = 0;
+      notifyAll();
+
+      while ( received < count && !cancelled )
+      {
+         wait();
+      }
+      points = null;
+      values = null;
+      if ( cancelled )
+         throw new Cancelled();
+   }
+
+   /**
+    * driver side: copies up to maxCases points of the current request to
+    * inputs and returns how many, 0 once the algorithm is done
+    */
+   public synchronized int next( double[] inputs, int maxCases ) throws Exception
+   {
+      while ( !finished && (points == null || handedOut == count) )
+      {
+         wait();
+      }
+      if ( finished )
+      {
+         rethrow();
+         return 0;
+      }
+
+      int n = Math.min( maxCases, count - handedOut );
+      System.arraycopy( points, handedOut*numInputs, inputs, 0, n*numInputs );
+      handedOut += n;
+      return n;
+   }
+
+   /**
+    * driver side: hands back the responses of the numCases points of the
+    * last next(). Returns false once the algorithm is done.
+    */
+   public synchronized boolean accept( double[] outputs, int numCases ) throws Exception
+   {
+      System.arraycopy( outputs, 0, values, received*numOutputs, numCases*numOutputs );
+      received += numCases;
+      if ( received == count )
+      {
+         // let the algorithm go on until it wants more points or is done
+         points = null;
+         notifyAll();
+         while ( !finished && points == null )
+         {
+            wait();
+         }
+      }
+
+      if ( finished )
+         rethrow();
+      return !finished;
+   }
+
+   /**
+    * stops the algorithm if it is still running
+    */
+   public void cancel() throws InterruptedException
+   {
+      Thread t;
+      synchronized ( this )
+      {
+         cancelled = true;
+         notifyAll();
+         t = thread;
+      }
+      if ( t != null )
+         t.join();
+   }
+
+   private synchronized void finish( Throwable error )
+   {
+      finished = true;
+      failure = error;
+      notifyAll();
+   }
+
+   private void rethrow() throws Exception
+   {
+      if ( failure instanceof Exception )
+         throw (Exception)failure;
+      else if ( failure instanceof Error )
+         throw (Error)failure;
+   }
+}
@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoizes an Evaluator: a design point that has been evaluated before is
+ * answered from the cache instead of running the model again. Wrap the
+ * model with it and hand the cache to a BatchExecutor in its place, as
+ * StudyRunner -cache does.
+ *
+ * Points are keyed by their inputs. With a quantum of 0 inputs must match
+ * exactly; with a quantum q > 0 each input is rounded to a multiple of q
+ * first, so points closer than q in every input share one evaluation
+ * (the first of them to be run).
+ *
+ * The memory tier holds up to capacity points in W-TinyLFU order: new
+ * points enter a small LRU window, and a point leaving the window only
+ * displaces the least recently used point of the main LRU if a frequency
+ * sketch says it has been asked for more often. One-off points (random
+ * samples) therefore cannot flush the points a study keeps coming back
+ * to. The tier is split into independently locked stripes picked by the
+ * key hash, so the workers of a BatchExecutor rarely wait on each other.
+ *
+ * The optional disk tier, see open(), keeps every point evaluated and
+ * survives the process, so a study that is run again or restarted gets
+ * its earlier points back without rerunning the model.
+ *
+ * The model is called outside all locks. Two workers asking for the same
+ * new point at the same time both run it.
+ */
+public class EvaluationCache implements Evaluator, AutoCloseable
+{
+   /**
+    * the quantized inputs of a design point
+    */
+   static final class Key
+   {
+      final long[] q;
+      final long hash;
+
+      Key( long[] q )
+      {
+         this.q = q;
+         long h = 0;
+         for ( long v : q )
+         {
+            h = RandomSource.mix64( h + v );
+         }
+         hash = h;
+      }
+
+      public int hashCode() { return (int)(hash ^ (hash >>> 32)); }
+
+      public boolean equals( Object o )
+      {
+         return o instanceof Key && ((Key)o).hash == hash && Arrays.equals( ((Key)o).q, q );
+      }
+   }
+
+   /**
+    * one independently locked part of the memory tier
+    */
+   private final class Stripe
+   {
+      private final LinkedHashMap<Key,double[]> window;
+      private final LinkedHashMap<Key,double[]> main;
+      private final int windowSize;
+      private final int mainSize;
+      private final FrequencySketch sketch;
+
+      Stripe( int capacity )
+      {
+         windowSize = Math.max( 1, capacity/100 );
+         mainSize = Math.max( 1, capacity - windowSize );
+         window = new LinkedHashMap<Key,double[]>( 2*windowSize, 0.75f, true );
+         main = new LinkedHashMap<Key,double[]>( 2*mainSize, 0.75f, true );
+         sketch = new FrequencySketch( capacity );
+      }
+
+      synchronized double[] get( Key key )
+      {
+         sketch.increment( key.hash );
+         double[] v = window.get( key );
+         return v != null ? v : main.get( key );
+      }
+
+      synchronized void put( Key key, double[] v )
+      {
+         if ( main.containsKey( key ) )
+         {
+            main.put( key, v );
+            return;
+         }
+         window.put( key, v );
+         if ( window.size() <= windowSize )
+            return;
+
+         Iterator<Map.Entry<Key,double[]>> it = window.entrySet().iterator();
+         Map.Entry<Key,double[]> candidate = it.next();
+         it.remove();
+         if ( main.size() < mainSize )
+         {
+            main.put( candidate.getKey(), candidate.getValue() );
+            return;
+         }
+
+         it = main.entrySet().iterator();
+         Key victim = it.next().getKey();
+         if ( sketch.frequency( candidate.getKey().hash ) > sketch.frequency( victim.hash ) )
+         {
+            it.remove();
+            main.put( candidate.getKey(), candidate.getValue() );
+         }
+         evictions.increment();
+      }
+
+      synchronized int size()
+      {
+         return window.size() + main.size();
+      }
+
+      synchronized void clear()
+      {
+         window.clear();
+         main.clear();
+      }
+   }
+
+   private final Evaluator model;
+   private final int numInputs;
+   private final int numOutputs;
+   private final int capacity;
+   private final double quantum;
+   private final Stripe[] stripes;
+   private final int stripeShift;
+   private volatile CacheFile file;
+
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder diskHits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder evictions = new LongAdder();
+
+   /**
+    * @param capacity number of points held in memory
+    * @param quantum spacing to which inputs are rounded, 0 for exact keys
+    */
+   public EvaluationCache( Evaluator model, int numInputs, int numOutputs,
+                           int capacity, double quantum )
+   {
+      this.model = model;
+      this.numInputs = numInputs;
+      this.numOutputs = numOutputs;
+      this.capacity = Math.max( 1, capacity );
+      this.quantum = quantum > 0 ? quantum : 0;
+
+      // a few stripes per processor, but not so many that a stripe holds
+      // too few points for its LRU order to mean anything
+      int n = Integer.highestOneBit( 4*Runtime.getRuntime().availableProcessors() );
+      while ( n > 1 && this.capacity/n < 64 )
+      {
+         n >>= 1;
+      }
+      stripes = new Stripe[n];
+      for ( int i = 0; i < n; i++ )
+      {
+         stripes[i] = new Stripe( (this.capacity + n - 1)/n );
+      }
+      stripeShift = 64 - Integer.numberOfTrailingZeros( n );
+   }
+
+   /**
+    * adds the disk tier, kept in path; points already in the file are
+    * served from it. The file must have been written for the same number
+    * of inputs and outputs and the same quantum.
+    */
+   public synchronized void open( String path ) throws IOException
+   {
+      close();
+      file = CacheFile.open( path, numInputs, numOutputs, quantum );
+   }
+
+   public int getNumInputs() { return numInputs; }
+   public int getNumOutputs() { return numOutputs; }
+   public int getCapacity() { return capacity; }
+   public double getQuantum() { return quantum; }
+
+   // metrics
+   public long getHits() { return hits.sum(); }
+   public long getDiskHits() { return diskHits.sum(); }
+   public long getMisses() { return misses.sum(); }
+   public long getEvictions() { return evictions.sum(); }
+
+   /**
+    * fraction of lookups answered without running the model
+    */
+   public double getHitRate()
+   {
+      long h = hits.sum() + diskHits.sum();
+      long total = h + misses.sum();
+      return total > 0 ? (double)h/total : 0;
+   }
+
+   /**
+    * number of points in the memory tier
+    */
+   public int getSize()
+   {
+      int size = 0;
+      for ( Stripe s : stripes )
+      {
+         size += s.size();
+      }
+      return size;
+   }
+
+   /**
+    * number of points in the disk tier
+    */
+   public int getDiskSize()
+   {
+      CacheFile f = file;
+      return f != null ? f.size() : 0;
+   }
+
+   public void evaluate( double[] inputs, int inputOffset,
+                         double[] outputs, int outputOffset ) throws Exception
+   {
+      Key key = key( inputs, inputOffset );
+      Stripe stripe = stripes[(int)(key.hash >>> stripeShift) & (stripes.length - 1)];
+
+      double[] v = stripe.get( key );
+      if ( v != null )
+      {
+         hits.increment();
+         System.arraycopy( v, 0, outputs, outputOffset, numOutputs );
+         return;
+      }
+
+      CacheFile f = file;
+      if ( f != null )
+      {
+         v = f.get( key );
+         if ( v != null )
+         {
+            diskHits.increment();
+            stripe.put( key, v );
+            System.arraycopy( v, 0, outputs, outputOffset, numOutputs );
+            return;
+         }
+      }
+
+      misses.increment();
+      model.evaluate( inputs, inputOffset, outputs, outputOffset );
+      v = Arrays.copyOfRange( outputs, outputOffset, outputOffset + numOutputs );
+      stripe.put( key, v );
+      if ( f != null )
+         f.put( key, v );
+   }
+
+   /**
+    * empties the memory tier and zeroes the metrics; the disk tier is kept
+    */
+   public void clear()
+   {
+      for ( Stripe s : stripes )
+      {
+         s.clear();
+      }
+      hits.reset();
+      diskHits.reset();
+      misses.reset();
+      evictions.reset();
+   }
+
+   /**
+    * closes the disk tier, if any
+    */
+   public synchronized void close() throws IOException
+   {
+      if ( file != null )
+      {
+         CacheFile f = file;
+         file = null;
+         f.close();
+      }
+   }
+
+   public String toString()
+   {
+      return "hits " + getHits() + ", disk hits " + getDiskHits() +
+         ", misses " + getMisses() + ", evictions " + getEvictions() +
+         ", size " + getSize();
+   }
+
+   private Key key( double[] inputs, int offset )
+   {
+      long[] q = new long[numInputs];
+      for ( int i = 0; i < numInputs; i++ )
+      {
+         double x = inputs[offset+i];
+         if ( quantum > 0 )
+            q[i] = Math.round( x/quantum );
+         else
+            q[i] = Double.doubleToLongBits( x + 0.0 );   // -0 keys as 0
+      }
+      return new Key( q );
+   }
+}
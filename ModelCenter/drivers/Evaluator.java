@@ -0,0 +1,20 @@
+
+/**
+ * An in-process model that maps one design point to its responses. This
+ * is what the batch driver mode evaluates in place of the Analysis Server
+ * round trip, so a Java stand-in (an analytic test function, a
+ * surrogate, ...) can take the place of the real model.
+ *
+ * Implementations are called concurrently from the worker threads of a
+ * BatchExecutor and must therefore be thread-safe; the easiest way is to
+ * keep no mutable state between calls.
+ */
+public interface Evaluator
+{
+   /**
+    * reads the design point from inputs[inputOffset ..] and writes the
+    * responses to outputs[outputOffset ..]
+    */
+   void evaluate( double[] inputs, int inputOffset,
+                  double[] outputs, int outputOffset ) throws Exception;
+}
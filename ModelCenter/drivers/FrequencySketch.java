@@ -0,0 +1,74 @@
+
+/**
+ * Approximate access counts for the TinyLFU admission of EvaluationCache:
+ * a count-min sketch of 4-bit counters, sixteen to a long. An item is
+ * counted in four counters picked from its hash and its frequency is the
+ * smallest of them. Once the number of increments reaches ten times the
+ * capacity all counters are halved, so the sketch follows recent use
+ * rather than all-time counts.
+ *
+ * Not thread-safe; each cache stripe owns a sketch.
+ */
+class FrequencySketch
+{
+   private static final long RESET_MASK = 0x7777777777777777L;
+
+   private final long[] table;
+   private final int mask;
+   private final int sampleSize;
+   private int additions = 0;
+
+   FrequencySketch( int capacity )
+   {
+      int words = Integer.highestOneBit( Math.max( 2, capacity ) - 1 ) << 1;
+      table = new long[Math.max( 8, words )];
+      mask = table.length - 1;
+      sampleSize = 10*Math.max( 1, capacity );
+   }
+
+   /**
+    * estimated number of recent accesses of the item, at most 15
+    */
+   public int frequency( long hash )
+   {
+      int min = 15;
+      for ( int k = 0; k < 4; k++ )
+      {
+         long h = hash*(0x9E3779B97F4A7C15L + 2L*k);
+         int word = (int)(h >>> 40) & mask;
+         int shift = (int)(h >>> 60) << 2;
+         min = Math.min( min, (int)((table[word] >>> shift) & 0xF) );
+      }
+      return min;
+   }
+
+   /**
+    * counts one access of the item
+    */
+   public void increment( long hash )
+   {
+      boolean added = false;
+      for ( int k = 0; k < 4; k++ )
+      {
+         long h = hash*(0x9E3779B97F4A7C15L + 2L*k);
+         int word = (int)(h >>> 40) & mask;
+         int shift = (int)(h >>> 60) << 2;
+         if ( ((table[word] >>> shift) & 0xF) != 0xF )
+         {
+            table[word] += 1L << shift;
+            added = true;
+         }
+      }
+      if ( added && ++additions == sampleSize )
+         reset();
+   }
+
+   private void reset()
+   {
+      for ( int i = 0; i < table.length; i++ )
+      {
+         table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions /= 2;
+   }
+}
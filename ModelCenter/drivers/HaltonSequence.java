@@ -0,0 +1,131 @@
+
+/**
+ * Halton sequence: coordinate j is the radical inverse of the point index
+ * in the j-th prime base.
+ *
+ * Scrambling applies a random linear permutation d -> (a*d + b) mod base
+ * (a != 0) to every digit, with its own a and b per coordinate and digit
+ * position (Matousek's linear scrambling). It breaks up the correlation
+ * between coordinates with large bases that makes the plain Halton
+ * sequence a poor choice beyond a few dozen dimensions. "DigitalShift"
+ * uses a = 1; "Owen" draws both a and b. Digits are generated down to
+ * double precision, so a scrambled point is a full-precision value rather
+ * than a finite base-b fraction.
+ */
+class HaltonSequence extends LowDiscrepancySequence
+{
+   private final int[] bases;
+   private final int[] digits;
+   private final int[] offsets;
+   private final int[] mult;
+   private final int[] add;
+   private final boolean scrambled;
+
+   HaltonSequence( int dimension, String scrambling, long seed )
+   {
+      super( dimension );
+
+      boolean digitalShift = "DigitalShift".equals( scrambling );
+      boolean owen = "Owen".equals( scrambling );
+      if ( !digitalShift && !owen && scrambling != null &&
+           scrambling.length() > 0 && !scrambling.equals( "None" ) )
+      {
+         String msg = "unsupported scrambling: " + scrambling;
+         throw new IllegalArgumentException( msg );
+      }
+      scrambled = digitalShift || owen;
+
+      bases = primes( dimension );
+      digits = new int[dimension];
+      offsets = new int[dimension+1];
+      for ( int j = 0; j < dimension; j++ )
+      {
+         // enough digits to resolve 2^-53
+         digits[j] = (int)Math.ceil( 53*Math.log( 2 )/Math.log( bases[j] ) );
+         offsets[j+1] = offsets[j] + digits[j];
+      }
+
+      mult = new int[offsets[dimension]];
+      add = new int[offsets[dimension]];
+      java.util.Arrays.fill( mult, 1 );
+      if ( scrambled )
+      {
+         RandomSource r = RandomSource.create( "SplitMix64", seed );
+         for ( int j = 0; j < dimension; j++ )
+         {
+            int b = bases[j];
+            for ( int k = offsets[j]; k < offsets[j+1]; k++ )
+            {
+               if ( owen )
+                  mult[k] = 1 + (int)(r.nextDouble()*(b-1));
+               add[k] = (int)(r.nextDouble()*b);
+            }
+         }
+      }
+   }
+
+   public void point( long index, double[] x, int offset )
+   {
+      if ( index < 0 )
+         throw new IllegalArgumentException( "Halton index out of range: " + index );
+
+      // index 0 would give the origin, so the sequence starts at 1
+      long n = index + 1;
+      for ( int j = 0; j < dimension; j++ )
+      {
+         int b = bases[j];
+         double inv = 1.0/b;
+         double scale = inv;
+         double value = 0;
+         long m = n;
+
+         if ( scrambled )
+         {
+            for ( int k = offsets[j]; k < offsets[j+1]; k++ )
+            {
+               int d = (int)(m % b);
+               m /= b;
+               value += ((mult[k]*(long)d + add[k]) % b)*scale;
+               scale *= inv;
+            }
+         }
+         else
+         {
+            while ( m > 0 )
+            {
+               value += (m % b)*scale;
+               m /= b;
+               scale *= inv;
+            }
+         }
+
+         // keep coordinates strictly inside (0,1)
+         if ( value <= 0 )
+            value = 0x1.0p-54;
+         else if ( value >= 1 )
+            value = 1 - 0x1.0p-53;
+         x[offset+j] = value;
+      }
+   }
+
+   static int[] primes( int count )
+   {
+      int[] p = new int[count];
+      int found = 0;
+      for ( int c = 2; found < count; c++ )
+      {
+         boolean prime = true;
+         for ( int i = 0; i < found && p[i]*p[i] <= c; i++ )
+         {
+            if ( c % p[i] == 0 )
+            {
+               prime = false;
+               break;
+            }
+         }
+         if ( prime )
+            p[found++] = c;
+      }
+      return p;
+   }
+}
@@ -0,0 +1,13 @@
+/**
+ * A BatchDriver whose case k is fixed by its settings (and seed) and k
+ * alone, never by the responses of earlier cases: the sampling drivers
+ * and parametric studies, but not the optimizers.
+ *
+ * Such a driver may be asked for further batches before the earlier ones
+ * are accepted, as long as acceptBatch() still sees the batches in the
+ * order nextBatch() handed them out; a DistributedExecutor relies on this
+ * to keep its workers busy while it waits for a slow lease.
+ */
+public interface IndexedBatchDriver extends BatchDriver
+{
+}
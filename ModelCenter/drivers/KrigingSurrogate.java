@@ -0,0 +1,307 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Ordinary Kriging, a Gaussian process with a constant mean and the
+ * correlation R(a,b) = exp(-sum theta_i (a_i - b_i)^2) of the
+ * standardized inputs. The theta_i are fitted by maximizing the
+ * concentrated likelihood: a common theta is chosen from a grid, then
+ * each is refined by a pattern search in log space. A small nugget is
+ * added to the diagonal to keep R positive definite; raise it to smooth
+ * noisy data instead of interpolating it.
+ *
+ * The fit keeps the Cholesky factor L of R. add() extends L by one row in
+ * O(n^2) rather than refactoring it in O(n^3), with theta held fixed, so
+ * an optimizer that adds its evaluations one by one (EGO) stays cheap;
+ * refit with fit() now and then to update theta.
+ *
+ * Besides the prediction, predictVariance() gives the Kriging variance,
+ * the mean squared error of the prediction.
+ */
+class KrigingSurrogate extends Surrogate
+{
+   private double nugget = 1e-8;
+   private double[] theta = new double[0];
+   private double[] metric = new double[0];
+   private double[] L = new double[0];
+   private double[] alpha = new double[0];
+   private double[] rInvOne = new double[0];
+   private double oneRInvOne = 1;
+   private double mu = 0;
+   private double sigma2 = 1;
+
+   public String getType() { return "Kriging"; }
+
+   /**
+    * relative noise added to the correlation diagonal; takes effect at
+    * the next fit
+    */
+   public void setNugget( double v ) { nugget = Math.max( 0, v ); }
+   public double getNugget() { return nugget; }
+
+   /**
+    * correlation parameter of input i, on standardized inputs
+    */
+   public double getTheta( int i ) { return theta[i]; }
+
+   /**
+    * process variance of the fit, in output units squared
+    */
+   public double getProcessVariance() { return sigma2*outputScale*outputScale; }
+
+   protected void train()
+   {
+      int d = numInputs;
+      double[] t = new double[d];
+      double best = Double.NEGATIVE_INFINITY;
+      double bestLog = 0;
+
+      // a common theta first ...
+      for ( double lg = -3; lg <= 2.001; lg += 0.25 )
+      {
+         Arrays.fill( t, Math.pow( 10, lg ) );
+         double like = likelihood( t );
+         if ( like > best )
+         {
+            best = like;
+            bestLog = lg;
+         }
+      }
+      double[] logTheta = new double[d];
+      Arrays.fill( logTheta, bestLog );
+
+      // ... then one per input
+      if ( d > 1 )
+      {
+         for ( double step = 0.5; step >= 0.02; step /= 2 )
+         {
+            boolean improved = true;
+            while ( improved )
+            {
+               improved = false;
+               for ( int i = 0; i < d; i++ )
+               {
+                  for ( int sign = -1; sign <= 1; sign += 2 )
+                  {
+                     double old = logTheta[i];
+                     logTheta[i] = Math.max( -4, Math.min( 3, old + sign*step ) );
+                     for ( int j = 0; j < d; j++ )
+                     {
+                        t[j] = Math.pow( 10, logTheta[j] );
+                     }
+                     double like = likelihood( t );
+                     if ( like > best + 1e-9 )
+                     {
+                        best = like;
+                        improved = true;
+                        break;
+                     }
+                     logTheta[i] = old;
+                  }
+               }
+            }
+         }
+      }
+
+      theta = new double[d];
+      for ( int i = 0; i < d; i++ )
+      {
+         theta[i] = Math.pow( 10, logTheta[i] );
+      }
+      factor();
+   }
+
+   /**
+    * the concentrated log-likelihood of theta t, -infinity if R is not
+    * positive definite
+    */
+   private double likelihood( double[] t )
+   {
+      theta = t;
+      if ( !factor() )
+         return Double.NEGATIVE_INFINITY;
+
+      double logDet = 0;
+      for ( int k = 0; k < numPoints; k++ )
+      {
+         logDet += 2*Math.log( L[k*numPoints+k] );
+      }
+      return -0.5*numPoints*Math.log( Math.max( sigma2, 1e-300 ) ) - 0.5*logDet;
+   }
+
+   /**
+    * factors R for the current theta and solves for the mean and the
+    * weights; false if R is not positive definite
+    */
+   private boolean factor()
+   {
+      int n = numPoints;
+      int d = numInputs;
+      makeMetric();
+
+      L = new double[n*n];
+      for ( int k = 0; k < n; k++ )
+      {
+         for ( int j = 0; j < k; j++ )
+         {
+            L[k*n+j] = Math.exp( -distanceSquared( x, j*d, k, metric ) );
+         }
+         L[k*n+k] = 1 + nugget;
+      }
+      if ( !LinearAlgebra.cholesky( L, n ) )
+         return false;
+      solveWeights();
+      return true;
+   }
+
+   /**
+    * mu, sigma2, alpha = R^-1 (y - mu) and R^-1 1 from the factor L
+    */
+   private void solveWeights()
+   {
+      int n = numPoints;
+      rInvOne = new double[n];
+      Arrays.fill( rInvOne, 1 );
+      LinearAlgebra.solveLower( L, n, n, rInvOne );
+      LinearAlgebra.solveLowerTransposed( L, n, n, rInvOne );
+
+      double[] v = new double[n];
+      for ( int k = 0; k < n; k++ )
+      {
+         v[k] = standardizedOutput( k );
+      }
+      double[] rInvY = v.clone();
+      LinearAlgebra.solveLower( L, n, n, rInvY );
+      LinearAlgebra.solveLowerTransposed( L, n, n, rInvY );
+
+      oneRInvOne = 0;
+      double oneRInvY = 0;
+      for ( int k = 0; k < n; k++ )
+      {
+         oneRInvOne += rInvOne[k];
+         oneRInvY += rInvY[k];
+      }
+      mu = oneRInvY/oneRInvOne;
+
+      alpha = new double[n];
+      double q = 0;
+      for ( int k = 0; k < n; k++ )
+      {
+         alpha[k] = rInvY[k] - mu*rInvOne[k];
+         q += (v[k] - mu)*alpha[k];
+      }
+      sigma2 = Math.max( 0, q/n );
+   }
+
+   /**
+    * adds a point by extending the Cholesky factor by one row, theta
+    * fixed; a point that makes R singular (a duplicate, say) triggers a
+    * full refactorization
+    */
+   public void add( double[] point, int offset, double value )
+   {
+      int n = numPoints;
+      int d = numInputs;
+      x = Arrays.copyOf( x, (n+1)*d );
+      y = Arrays.copyOf( y, n+1 );
+      System.arraycopy( point, offset, x, n*d, d );
+      y[n] = value;
+
+      double[] row = new double[n];
+      for ( int k = 0; k < n; k++ )
+      {
+         row[k] = Math.exp( -distanceSquared( x, n*d, k, metric ) );
+      }
+      LinearAlgebra.solveLower( L, n, n, row );
+      double diag = 1 + nugget;
+      for ( int k = 0; k < n; k++ )
+      {
+         diag -= row[k]*row[k];
+      }
+
+      numPoints = n+1;
+      if ( !(diag > 1e-12) )
+      {
+         factor();
+         return;
+      }
+
+      double[] grown = new double[(n+1)*(n+1)];
+      for ( int k = 0; k < n; k++ )
+      {
+         System.arraycopy( L, k*n, grown, k*(n+1), k+1 );
+      }
+      System.arraycopy( row, 0, grown, n*(n+1), n );
+      grown[n*(n+1)+n] = Math.sqrt( diag );
+      L = grown;
+      solveWeights();
+   }
+
+   protected double predictStandardized( double[] x, int offset )
+   {
+      double s = mu;
+      for ( int k = 0; k < numPoints; k++ )
+      {
+         s += alpha[k]*Math.exp( -distanceSquared( x, offset, k, metric ) );
+      }
+      return s;
+   }
+
+   /**
+    * Kriging variance of the prediction at x[offset ..], in output units
+    * squared; zero at the training points
+    */
+   public double predictVariance( double[] x, int offset )
+   {
+      int n = numPoints;
+      double[] r = new double[n];
+      for ( int k = 0; k < n; k++ )
+      {
+         r[k] = Math.exp( -distanceSquared( x, offset, k, metric ) );
+      }
+      double oneRInvR = 0;
+      for ( int k = 0; k < n; k++ )
+      {
+         oneRInvR += rInvOne[k]*r[k];
+      }
+      LinearAlgebra.solveLower( L, n, n, r );
+      double rRInvR = 0;
+      for ( int k = 0; k < n; k++ )
+      {
+         rRInvR += r[k]*r[k];
+      }
+      double u = 1 - oneRInvR;
+      double s2 = sigma2*(1 + nugget - rRInvR + u*u/oneRInvOne);
+      return Math.max( 0, s2 )*outputScale*outputScale;
+   }
+
+   private void makeMetric()
+   {
+      metric = new double[numInputs];
+      for ( int i = 0; i < numInputs; i++ )
+      {
+         metric[i] = theta[i]/(inputScale[i]*inputScale[i]);
+      }
+   }
+
+   protected void writeModel( DataOutputStream out ) throws IOException
+   {
+      out.writeDouble( nugget );
+      for ( double t : theta )
+      {
+         out.writeDouble( t );
+      }
+   }
+
+   protected void readModel( DataInputStream in ) throws IOException
+   {
+      nugget = in.readDouble();
+      theta = new double[numInputs];
+      for ( int i = 0; i < numInputs; i++ )
+      {
+         theta[i] = in.readDouble();
+      }
+      if ( !factor() )
+         throw new IOException( "corrupt Kriging surrogate" );
+   }
+}
@@ -0,0 +1,245 @@
+
+/**
+ * Limited-memory BFGS for bound constraints, with gradients by finite
+ * differences.
+ *
+ * This is the projected variant of L-BFGS-B: variables that sit on a
+ * bound with the gradient pushing them outwards are held fixed, the
+ * two-loop recursion gives the quasi-Newton direction in the others, and
+ * a backtracking Armijo search runs along the projection of that
+ * direction onto the box. It does without the generalized Cauchy point
+ * of Byrd, Lu, Nocedal and Zhu, which matters little for the handful of
+ * box-bounded variables a driver works with.
+ *
+ * The n (or 2n for central differences) perturbed points of a gradient
+ * are evaluated as one batch, so with a BatchExecutor a gradient costs
+ * about one model run of wall time.
+ */
+class LBFGSBMethod extends OptimizationMethod
+{
+   private static final int MEMORY = 10;
+   private static final double ARMIJO = 1e-4;
+   private static final int MAX_BACKTRACKS = 30;
+
+   public void minimize( OptimizationProblem problem ) throws Exception
+   {
+      int n = problem.getDimension();
+      double[] x = problem.getStart();
+      double[] g = new double[n];
+      double[] d = new double[n];
+      double[] xt = new double[n];
+      double[] gt = new double[n];
+      double[] q = new double[n];
+      boolean[] free = new boolean[n];
+
+      double[][] s = new double[MEMORY][n];
+      double[][] y = new double[MEMORY][n];
+      double[] rho = new double[MEMORY];
+      double[] a = new double[MEMORY];
+      int stored = 0;
+      int newest = -1;
+
+      double f = problem.evaluate( x );
+      gradient( problem, x, f, g );
+
+      while ( !problem.isExhausted() )
+      {
+         problem.nextIteration();
+
+         // variables held on their bounds, and the projected gradient
+         double pg = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            free[i] = !(x[i] <= problem.getLower( i ) && g[i] > 0) &&
+                      !(x[i] >= problem.getUpper( i ) && g[i] < 0);
+            if ( free[i] )
+               pg = Math.max( pg, Math.abs( g[i] ) );
+         }
+         if ( pg <= tolerance )
+         {
+            converged = true;
+            return;
+         }
+
+         // two-loop recursion over the free variables
+         for ( int i = 0; i < n; i++ )
+         {
+            q[i] = free[i] ? g[i] : 0;
+         }
+         for ( int k = 0, m = newest; k < stored; k++, m = (m + MEMORY - 1) % MEMORY )
+         {
+            a[m] = rho[m]*dot( s[m], q, free );
+            axpy( -a[m], y[m], q, free );
+         }
+         double gammaScale = 1;
+         if ( stored > 0 )
+            gammaScale = 1/(rho[newest]*dot( y[newest], y[newest], free ) + 1e-300);
+         for ( int i = 0; i < n; i++ )
+         {
+            q[i] *= gammaScale;
+         }
+         for ( int k = 0, m = (newest - stored + 1 + MEMORY) % MEMORY; k < stored; k++, m = (m + 1) % MEMORY )
+         {
+            double b = rho[m]*dot( y[m], q, free );
+            axpy( a[m] - b, s[m], q, free );
+         }
+
+         double slope = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            d[i] = free[i] ? -q[i] : 0;
+            slope += d[i]*g[i];
+         }
+         if ( !(slope < 0) || stored == 0 )
+         {
+            // no usable curvature yet: steepest descent of initialStep
+            stored = 0;
+            double norm = 0;
+            for ( int i = 0; i < n; i++ )
+            {
+               d[i] = free[i] ? -g[i] : 0;
+               norm = Math.max( norm, Math.abs( d[i] ) );
+            }
+            for ( int i = 0; i < n; i++ )
+            {
+               d[i] *= initialStep/norm;
+            }
+         }
+
+         // backtracking along the projected path
+         double step = 1;
+         double ft = f;
+         boolean accepted = false;
+         for ( int k = 0; k < MAX_BACKTRACKS && !problem.isExhausted(); k++ )
+         {
+            double decrease = 0;
+            double moved = 0;
+            for ( int i = 0; i < n; i++ )
+            {
+               xt[i] = problem.clip( i, x[i] + step*d[i] );
+               decrease += g[i]*(xt[i] - x[i]);
+               moved = Math.max( moved, Math.abs( xt[i] - x[i] ) );
+            }
+            if ( moved <= 1e-3*tolerance )
+               break;
+
+            ft = problem.evaluate( xt );
+            if ( ft <= f + ARMIJO*decrease )
+            {
+               accepted = true;
+               break;
+            }
+            step *= 0.5;
+         }
+
+         if ( !accepted )
+         {
+            // no decrease along the quasi-Newton direction: start over
+            // from steepest descent, or stop if that failed as well
+            if ( stored == 0 )
+            {
+               converged = true;
+               return;
+            }
+            stored = 0;
+            continue;
+         }
+
+         double change = (f - ft)/Math.max( 1, Math.max( Math.abs( f ), Math.abs( ft ) ) );
+         gradient( problem, xt, ft, gt );
+
+         // keep the pair if it has positive curvature
+         newest = (newest + 1) % MEMORY;
+         double sy = 0;
+         double yy = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            s[newest][i] = xt[i] - x[i];
+            y[newest][i] = gt[i] - g[i];
+            sy += s[newest][i]*y[newest][i];
+            yy += y[newest][i]*y[newest][i];
+         }
+         if ( sy > 1e-10*yy )
+         {
+            rho[newest] = 1/sy;
+            stored = Math.min( stored + 1, MEMORY );
+         }
+         else
+         {
+            newest = (newest + MEMORY - 1) % MEMORY;
+         }
+
+         System.arraycopy( xt, 0, x, 0, n );
+         System.arraycopy( gt, 0, g, 0, n );
+         f = ft;
+
+         if ( change <= tolerance )
+         {
+            converged = true;
+            return;
+         }
+      }
+   }
+
+   /**
+    * finite difference gradient at x, where the objective is fx; all
+    * perturbed points go out as one batch
+    */
+   private void gradient( OptimizationProblem problem, double[] x, double fx,
+                          double[] g ) throws Exception
+   {
+      int n = x.length;
+      int points = centralDifferences ? 2*n : n;
+      double[] u = new double[points*n];
+      double[] f = new double[points];
+      double[] h = new double[n];
+
+      for ( int i = 0; i < n; i++ )
+      {
+         // step away from a bound that is too close
+         h[i] = gradientStep*Math.max( 1, Math.abs( x[i] ) );
+         if ( x[i] + h[i] > problem.getUpper( i ) )
+            h[i] = -h[i];
+
+         System.arraycopy( x, 0, u, i*n, n );
+         u[i*n+i] = x[i] + h[i];
+         if ( centralDifferences )
+         {
+            System.arraycopy( x, 0, u, (n+i)*n, n );
+            u[(n+i)*n+i] = x[i] - h[i];
+         }
+      }
+
+      problem.evaluate( u, f, points );
+
+      for ( int i = 0; i < n; i++ )
+      {
+         boolean central = centralDifferences &&
+            x[i] - h[i] >= problem.getLower( i ) && x[i] - h[i] <= problem.getUpper( i );
+         if ( central )
+            g[i] = (f[i] - f[n+i])/(2*h[i]);
+         else
+            g[i] = (f[i] - fx)/h[i];
+      }
+   }
+
+   private static double dot( double[] a, double[] b, boolean[] mask )
+   {
+      double sum = 0;
+      for ( int i = 0; i < a.length; i++ )
+      {
+         if ( mask[i] )
+            sum += a[i]*b[i];
+      }
+      return sum;
+   }
+
+   private static void axpy( double alpha, double[] x, double[] y, boolean[] mask )
+   {
+      for ( int i = 0; i < x.length; i++ )
+      {
+         if ( mask[i] )
+            y[i] += alpha*x[i];
+      }
+   }
+}
@@ -0,0 +1,521 @@
+
+import java.util.stream.IntStream;
+
+/**
+ * Improves the space-filling or the correlation structure of a uniform
+ * Latin Hypercube design produced by LatinHypercubeSampling.generateDesign().
+ * Every transformation only permutes values within a column, so each
+ * column keeps exactly one sample per stratum.
+ *
+ * optimize() minimizes the phi_p criterion (Morris and Mitchell), a smooth
+ * stand-in for maximizing the smallest inter-point distance, with the
+ * enhanced stochastic evolutionary algorithm of Jin, Chen and Sudjianto
+ * (2005). A candidate swap of two entries of a column only changes the
+ * distances from the two swapped rows, so it is scored in O(numTrials)
+ * against a cached squared-distance matrix; the candidates of an inner
+ * iteration are scored in parallel. With a zero acceptance threshold the
+ * same search reduces to a greedy maximin descent.
+ *
+ * The cache holds two numTrials x numTrials matrices of doubles, 16 n^2
+ * bytes (64 MB at CACHE_LIMIT = 2000 trials, 400 MB at 5000). Above
+ * CACHE_LIMIT it is not kept and the distances from the two rows are
+ * recomputed for every candidate instead, O(numTrials*dimension) per
+ * swap, which is slower but takes no memory beyond the design.
+ *
+ * imposeCorrelation() rearranges the columns so that their rank
+ * correlation matches a target matrix (Iman and Conover, 1982).
+ */
+class LHSDesignOptimizer
+{
+   private static final int P = 50;
+   private static final int CANDIDATES = 50;
+   private static final int MAX_INNER_ITERATIONS = 100;
+   private static final int MAX_TRIALS = 5000;
+   static final int CACHE_LIMIT = 2000;
+
+   private final double[] design;
+   private final int n;
+   private final int dimension;
+   private final boolean cached;
+   private final double[] dist2;    // n x n, empty when not cached
+   private final double[] terms;
+   private double scale2;
+
+   // per-candidate scratch, written by the parallel scoring step
+   private final int[] candRow1 = new int[CANDIDATES];
+   private final int[] candRow2 = new int[CANDIDATES];
+   private final double[] candSum = new double[CANDIDATES];
+
+   private double sum;
+
+   LHSDesignOptimizer( double[] design, int numTrials, int dimension )
+   {
+      this.design = design;
+      this.n = numTrials;
+      this.dimension = dimension;
+      this.cached = numTrials <= CACHE_LIMIT;
+      this.dist2 = new double[cached ? n*n : 0];
+      this.terms = new double[dist2.length];
+   }
+
+   /**
+    * runs the optimizer in place on the design.
+    *
+    * @param outerIterations number of ESE outer iterations
+    * @param exploring false gives a greedy maximin descent (only
+    *                  improving swaps are accepted), true the full ESE
+    *                  threshold-accepting search
+    */
+   public void optimize( int outerIterations, boolean exploring, RandomSource r )
+   {
+      if ( n < 3 || dimension < 1 )
+         return;
+      if ( n > MAX_TRIALS )
+      {
+         String msg = "space-filling optimization is limited to " + MAX_TRIALS + " trials";
+         throw new IllegalArgumentException( msg );
+      }
+
+      computeDistances();
+      sum = phiSum();
+      double phi = Math.pow( sum, 1.0/P );
+
+      double[] best = design.clone();
+      double bestPhi = phi;
+
+      long pairs = (long)n*(n-1)/2;
+      int numCand = (int)Math.min( CANDIDATES, Math.max( 1, pairs/5 ) );
+      int inner = (int)Math.max( 1, Math.min( MAX_INNER_ITERATIONS, 2*pairs*dimension/numCand ) );
+      double threshold = exploring ? 0.005*phi : 0;
+
+      for ( int outer = 0; outer < outerIterations; outer++ )
+      {
+         double phiOld = bestPhi;
+         int accepted = 0;
+         int improvements = 0;
+
+         for ( int it = 0; it < inner; it++ )
+         {
+            int col = (outer*inner + it) % dimension;
+
+            for ( int c = 0; c < numCand; c++ )
+            {
+               int i1 = (int)(r.nextDouble()*n);
+               int i2 = (int)(r.nextDouble()*(n-1));
+               if ( i2 >= i1 )
+                  i2++;
+               candRow1[c] = i1;
+               candRow2[c] = i2;
+            }
+
+            final int k = col;
+            IntStream.range( 0, numCand ).parallel().forEach( c ->
+               candSum[c] = swappedSum( k, candRow1[c], candRow2[c] ) );
+
+            int pick = 0;
+            for ( int c = 1; c < numCand; c++ )
+            {
+               if ( candSum[c] < candSum[pick] )
+                  pick = c;
+            }
+
+            double phiTry = Math.pow( candSum[pick], 1.0/P );
+            if ( phiTry - phi <= threshold*r.nextDouble() )
+            {
+               swap( col, candRow1[pick], candRow2[pick] );
+               sum = candSum[pick];
+               phi = phiTry;
+               accepted++;
+
+               if ( phi < bestPhi )
+               {
+                  System.arraycopy( design, 0, best, 0, design.length );
+                  bestPhi = phi;
+                  improvements++;
+               }
+            }
+         }
+
+         // guard against drift of the incrementally updated sum
+         sum = phiSum();
+         phi = Math.pow( sum, 1.0/P );
+
+         if ( !exploring )
+         {
+            if ( improvements == 0 )
+               break;
+            continue;
+         }
+
+         // adjust the threshold: tighten while improving, widen to
+         // escape when the search has stalled
+         double ratio = (double)accepted/inner;
+         if ( bestPhi < phiOld )
+         {
+            if ( ratio < 0.1 )
+               threshold *= 0.8;
+            else if ( ratio > 0.8 )
+               threshold /= 0.8;
+         }
+         else
+         {
+            if ( ratio < 0.1 )
+               threshold /= 0.7;
+            else if ( ratio > 0.8 )
+               threshold *= 0.9;
+         }
+      }
+
+      System.arraycopy( best, 0, design, 0, design.length );
+   }
+
+   /**
+    * smallest pairwise distance of the design, for reporting
+    */
+   public double minDistance()
+   {
+      double min = Double.POSITIVE_INFINITY;
+      for ( int i = 0; i < n; i++ )
+      {
+         for ( int j = i+1; j < n; j++ )
+         {
+            min = Math.min( min, rowDistance2( i, j ) );
+         }
+      }
+      return Math.sqrt( min );
+   }
+
+   private void computeDistances()
+   {
+      // scale the distances by the current smallest one so that d^-p
+      // stays well inside the range of a double
+      double[] rowMin = new double[n];
+      IntStream.range( 0, n ).parallel().forEach( i ->
+      {
+         double min = Double.POSITIVE_INFINITY;
+         for ( int j = 0; j < n; j++ )
+         {
+            double d = i == j ? 0 : rowDistance2( i, j );
+            if ( cached )
+               dist2[i*n+j] = d;
+            if ( j > i )
+               min = Math.min( min, d );
+         }
+         rowMin[i] = min;
+      } );
+
+      double min = Double.POSITIVE_INFINITY;
+      for ( int i = 0; i < n; i++ )
+      {
+         min = Math.min( min, rowMin[i] );
+      }
+      scale2 = min > 0 ? min : 1e-12;
+
+      for ( int i = 0; i < terms.length; i++ )
+      {
+         terms[i] = term( dist2[i] );
+      }
+   }
+
+   private double rowDistance2( int i, int j )
+   {
+      double s = 0;
+      for ( int k = 0; k < dimension; k++ )
+      {
+         double d = design[i*dimension+k] - design[j*dimension+k];
+         s += d*d;
+      }
+      return s;
+   }
+
+   /**
+    * (d/dmin)^-P for P = 50, by repeated squaring; Math.pow would
+    * dominate the cost of scoring a swap
+    */
+   private double term( double d2 )
+   {
+      double x = Math.max( d2/scale2, 1e-10 );
+      double x2 = x*x;
+      double x4 = x2*x2;
+      double x8 = x4*x4;
+      double x16 = x8*x8;
+      return 1/(x16*x8*x);
+   }
+
+   private double phiSum()
+   {
+      if ( cached )
+      {
+         double s = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            for ( int j = i+1; j < n; j++ )
+            {
+               s += terms[i*n+j];
+            }
+         }
+         return s;
+      }
+
+      // row sums in parallel, added up in row order so the result does
+      // not depend on the number of threads
+      double[] rowSum = new double[n];
+      IntStream.range( 0, n ).parallel().forEach( i ->
+      {
+         double s = 0;
+         for ( int j = i+1; j < n; j++ )
+         {
+            s += term( rowDistance2( i, j ) );
+         }
+         rowSum[i] = s;
+      } );
+      double s = 0;
+      for ( int i = 0; i < n; i++ )
+      {
+         s += rowSum[i];
+      }
+      return s;
+   }
+
+   /**
+    * the phi_p sum after swapping column k of rows i1 and i2, without
+    * changing the design
+    */
+   private double swappedSum( int k, int i1, int i2 )
+   {
+      double a = design[i1*dimension+k];
+      double b = design[i2*dimension+k];
+      double s = sum;
+      for ( int j = 0; j < n; j++ )
+      {
+         if ( j == i1 || j == i2 )
+            continue;
+         double x = design[j*dimension+k];
+         double da = (a-x)*(a-x);
+         double db = (b-x)*(b-x);
+         if ( cached )
+         {
+            s += term( dist2[i1*n+j] - da + db ) - terms[i1*n+j] +
+                 term( dist2[i2*n+j] - db + da ) - terms[i2*n+j];
+         }
+         else
+         {
+            double d1 = rowDistance2( i1, j );
+            double d2 = rowDistance2( i2, j );
+            s += term( d1 - da + db ) - term( d1 ) + term( d2 - db + da ) - term( d2 );
+         }
+      }
+      return s;
+   }
+
+   private void swap( int k, int i1, int i2 )
+   {
+      double a = design[i1*dimension+k];
+      double b = design[i2*dimension+k];
+      for ( int j = 0; cached && j < n; j++ )
+      {
+         if ( j == i1 || j == i2 )
+            continue;
+         double x = design[j*dimension+k];
+         double da = (a-x)*(a-x);
+         double db = (b-x)*(b-x);
+         double d1 = dist2[i1*n+j] - da + db;
+         double d2 = dist2[i2*n+j] - db + da;
+         dist2[i1*n+j] = d1;
+         dist2[j*n+i1] = d1;
+         dist2[i2*n+j] = d2;
+         dist2[j*n+i2] = d2;
+         double t1 = term( d1 );
+         double t2 = term( d2 );
+         terms[i1*n+j] = t1;
+         terms[j*n+i1] = t1;
+         terms[i2*n+j] = t2;
+         terms[j*n+i2] = t2;
+      }
+      design[i1*dimension+k] = b;
+      design[i2*dimension+k] = a;
+   }
+
+   /**
+    * rearranges the columns of a uniform design so that its rank
+    * correlation approximates target (dimension x dimension, symmetric
+    * positive definite). The marginals of the design are unchanged.
+    */
+   static void imposeCorrelation( double[] design, int n, int dimension,
+                                  double[][] target, RandomSource r )
+   {
+      if ( target.length != dimension )
+      {
+         String msg = "target correlation must be " + dimension + " x " + dimension;
+         throw new IllegalArgumentException( msg );
+      }
+
+      // van der Waerden scores in a random order for each column
+      double[] scores = new double[n*dimension];
+      double[] column = new double[n];
+      for ( int i = 0; i < n; i++ )
+      {
+         column[i] = DistributionSampler.normalQuantile( (i+1.0)/(n+1) );
+      }
+      for ( int k = 0; k < dimension; k++ )
+      {
+         for ( int i = n-1; i > 0; i-- )
+         {
+            int j = (int)(r.nextDouble()*(i+1));
+            double tmp = column[i];
+            column[i] = column[j];
+            column[j] = tmp;
+         }
+         for ( int i = 0; i < n; i++ )
+         {
+            scores[i*dimension+k] = column[i];
+         }
+      }
+
+      // S* = S (P Q^-1)^T where target = P P^T and corr(S) = Q Q^T
+      double[][] p = cholesky( target );
+      double[][] q = cholesky( correlation( scores, n, dimension ) );
+      double[][] t = multiply( p, invertLower( q ) );
+
+      double[] adjusted = new double[n*dimension];
+      for ( int i = 0; i < n; i++ )
+      {
+         for ( int a = 0; a < dimension; a++ )
+         {
+            double s = 0;
+            for ( int b = 0; b <= a; b++ )
+            {
+               s += scores[i*dimension+b]*t[a][b];
+            }
+            adjusted[i*dimension+a] = s;
+         }
+      }
+
+      // give each design column the rank order of its adjusted scores
+      Integer[] order = new Integer[n];
+      double[] sorted = new double[n];
+      for ( int k = 0; k < dimension; k++ )
+      {
+         for ( int i = 0; i < n; i++ )
+         {
+            order[i] = i;
+            sorted[i] = design[i*dimension+k];
+         }
+         java.util.Arrays.sort( sorted );
+         final int col = k;
+         java.util.Arrays.sort( order, (x, y) ->
+            Double.compare( adjusted[x*dimension+col], adjusted[y*dimension+col] ) );
+         for ( int rank = 0; rank < n; rank++ )
+         {
+            design[order[rank]*dimension+k] = sorted[rank];
+         }
+      }
+   }
+
+   static double[][] correlation( double[] x, int n, int dimension )
+   {
+      double[] mean = new double[dimension];
+      for ( int i = 0; i < n; i++ )
+      {
+         for ( int k = 0; k < dimension; k++ )
+         {
+            mean[k] += x[i*dimension+k]/n;
+         }
+      }
+
+      double[][] c = new double[dimension][dimension];
+      for ( int i = 0; i < n; i++ )
+      {
+         for ( int a = 0; a < dimension; a++ )
+         {
+            double da = x[i*dimension+a] - mean[a];
+            for ( int b = 0; b <= a; b++ )
+            {
+               c[a][b] += da*(x[i*dimension+b] - mean[b]);
+            }
+         }
+      }
+      for ( int a = 0; a < dimension; a++ )
+      {
+         for ( int b = 0; b < a; b++ )
+         {
+            c[a][b] /= Math.sqrt( c[a][a]*c[b][b] );
+            c[b][a] = c[a][b];
+         }
+      }
+      for ( int a = 0; a < dimension; a++ )
+      {
+         c[a][a] = 1;
+      }
+      return c;
+   }
+
+   /**
+    * lower triangular L with L L^T = a
+    */
+   static double[][] cholesky( double[][] a )
+   {
+      int d = a.length;
+      double[][] l = new double[d][d];
+      for ( int i = 0; i < d; i++ )
+      {
+         for ( int j = 0; j <= i; j++ )
+         {
+            double s = a[i][j];
+            for ( int k = 0; k < j; k++ )
+            {
+               s -= l[i][k]*l[j][k];
+            }
+            if ( i == j )
+            {
+               if ( s <= 0 )
+                  throw new IllegalArgumentException( "correlation matrix is not positive definite" );
+               l[i][i] = Math.sqrt( s );
+            }
+            else
+               l[i][j] = s/l[j][j];
+         }
+      }
+      return l;
+   }
+
+   private static double[][] invertLower( double[][] l )
+   {
+      int d = l.length;
+      double[][] inv = new double[d][d];
+      for ( int j = 0; j < d; j++ )
+      {
+         inv[j][j] = 1/l[j][j];
+         for ( int i = j+1; i < d; i++ )
+         {
+            double s = 0;
+            for ( int k = j; k < i; k++ )
+            {
+               s -= l[i][k]*inv[k][j];
+            }
+            inv[i][j] = s/l[i][i];
+         }
+      }
+      return inv;
+   }
+
+   private static double[][] multiply( double[][] a, double[][] b )
+   {
+      int d = a.length;
+      double[][] c = new double[d][d];
+      for ( int i = 0; i < d; i++ )
+      {
+         for ( int k = 0; k < d; k++ )
+         {
+            double aik = a[i][k];
+            if ( aik == 0 )
+               continue;
+            for ( int j = 0; j < d; j++ )
+            {
+               c[i][j] += aik*b[k][j];
+            }
+         }
+      }
+      return c;
+   }
+}
@@ -10,18 +10,41 @@ import java.util.*;
  *
  * @author Woyak, 9/99
  */
-public class LatinHypercubeSampling implements IPHXDriver
+public class LatinHypercubeSampling implements IndexedBatchDriver
 {
    private PHXReferenceArray designVars = new PHXReferenceArray();
    private PHXReferenceArray outputs = new PHXReferenceArray();
-   private double[][] values = new double[0][0];
-   private double[][] samples = new double[0][0];
+   private StreamingStatistics stats = new StreamingStatistics();
+   private boolean collectResults = false;
+   private PHXDoubleArray results = new PHXDoubleArray();
+   private PHXDoubleArray histogram = new PHXDoubleArray();
+   private int histogramBins = 20;
+   private double[] histogramCounts = new double[0];
+   private int[] histogramIndex = new int[2];
+   private int statisticsInterval = 1000;
+   private double confidenceLevel = 0.95;
+   private int[] resultIndex = new int[2];
+   private double[] samples = new double[0];
+   private DistributionSampler[] samplers = new DistributionSampler[0];
    private int trial = 0;
+   private int generated = 0;
    private int numTrials = 50;
    private boolean reinitialize = true;
-   private Random r = new Random();
+   private long seed = 0;
+   private long seedUsed = 0;
+   private String randomGenerator = "SplitMix64";
+   private RandomSource r = RandomSource.create( randomGenerator, 1 );
+   private String designType = "Random";
+   private int optimizationIterations = 20;
+   private PHXDoubleArray targetCorrelation = new PHXDoubleArray();
    private int oldDimension = 0;
    private int oldNumTrials = 0;
+   private String checkpointFile = "";
+   private int checkpointInterval = 1000;
+   private StudyCheckpoint checkpoint = null;
+   private String resultFile = "";
+   private ResultStore store = null;
+   private DriverMetrics metrics = new DriverMetrics( "LatinHypercubeSampling" );
 
    public LatinHypercubeSampling()
    {
@@ -31,7 +54,7 @@ public class LatinHypercubeSampling implements IPHXDriver
       designVars.setAutoGrow( true );
       
       prop = designVars.createRefProp( "distributionType", "string" );
-      prop.enumValuesFromString( "Normal,Uniform,Triangular,Exponential,Weibull" );
+      prop.enumValuesFromString( DistributionSampler.TYPES );
       prop.setTitle( "Distribution Type" );
 
       prop = designVars.createRefProp( "parm1", "double" );
@@ -46,6 +69,10 @@ public class LatinHypercubeSampling implements IPHXDriver
       prop.setTitle( "Param #3" );
       prop.setDescription( "distribution parameter three" );
 
+      prop = designVars.createRefProp( "table", "string" );
+      prop.setTitle( "CDF Table" );
+      prop.setDescription( "CSV file (file.csv or file.csv#column) of an Empirical distribution" );
+
       // ----- output setup
       outputs.setAutoGrow( true );
 
@@ -58,6 +85,55 @@ public class LatinHypercubeSampling implements IPHXDriver
       prop.setInput( false );
       prop.setTitle( "Standard Deviation" );
       prop.setDescription( "standard deviation" );
+
+      prop = outputs.createRefProp( "min", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Minimum" );
+      prop.setDescription( "smallest value observed" );
+
+      prop = outputs.createRefProp( "max", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Maximum" );
+      prop.setDescription( "largest value observed" );
+
+      prop = outputs.createRefProp( "skewness", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Skewness" );
+      prop.setDescription( "sample skewness" );
+
+      prop = outputs.createRefProp( "kurtosis", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Kurtosis" );
+      prop.setDescription( "sample excess kurtosis" );
+
+      prop = outputs.createRefProp( "p5", "double" );
+      prop.setInput( false );
+      prop.setTitle( "5th Percentile" );
+      prop.setDescription( "5th percentile, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "p50", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Median" );
+      prop.setDescription( "median, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "p95", "double" );
+      prop.setInput( false );
+      prop.setTitle( "95th Percentile" );
+      prop.setDescription( "95th percentile, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "stdError", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Standard Error" );
+      prop.setDescription( "standard error of the average" );
+
+      prop = outputs.createRefProp( "ciHalfWidth", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Confidence Interval Half Width" );
+      prop.setDescription( "half width of the confidence interval of the average at confidenceLevel" );
+
+      results.resize( new int[] {0,0} );
+      histogram.resize( new int[] {0,0} );
+      targetCorrelation.resize( new int[] {0,0} );
    }
 
    public PHXReferenceArray getDesignVars() { return designVars; }
@@ -68,17 +144,81 @@ public class LatinHypercubeSampling implements IPHXDriver
    public void setReinitializeSample( boolean v ) { reinitialize = v; }
    public boolean getReinitializeSample() { return reinitialize; }
    public int getTrial() { return trial; }
+   public void setDesignType( String v ) { designType = v; }
+   public String getDesignType() { return designType; }
+
+   /**
+    * outer iterations of the Maximin and ESE searches. Up to 2000 trials
+    * they keep a distance cache of 16*numTrials^2 bytes (64 MB at 2000);
+    * larger designs, up to 5000 trials, recompute distances instead and
+    * take no extra memory but more time per iteration
+    */
+   public void setOptimizationIterations( int v ) { optimizationIterations = v; }
+   public int getOptimizationIterations() { return optimizationIterations; }
+   public void setTargetCorrelation( PHXDoubleArray v ) { targetCorrelation = v; }
+   public PHXDoubleArray getTargetCorrelation() { return targetCorrelation; }
+   public void setSeed( long v ) { seed = v; }
+   public long getSeed() { return seed; }
+   public long getSeedUsed() { return seedUsed; }
+   public void setRandomGenerator( String v ) { randomGenerator = v; }
+   public String getRandomGenerator() { return randomGenerator; }
+   public void setCheckpointFile( String v ) { checkpointFile = v; }
+   public String getCheckpointFile() { return checkpointFile; }
+   public void setCheckpointInterval( int v ) { checkpointInterval = v; }
+   public int getCheckpointInterval() { return checkpointInterval; }
+   public void setResultFile( String v ) { resultFile = v; }
+   public String getResultFile() { return resultFile; }
+   public boolean getCollectResults() { return collectResults; }
+   public void setCollectResults( boolean cr ) { collectResults = cr; }
+   public PHXDoubleArray getResults() { return results; }
+   public void setConfidenceLevel( double v ) { confidenceLevel = v; }
+   public double getConfidenceLevel() { return confidenceLevel; }
+   public void setHistogramBins( int v ) { histogramBins = Math.max( 1, v ); }
+   public int getHistogramBins() { return histogramBins; }
+
+   /**
+    * trials between updates of the quantiles and the histogram, which
+    * sort the quantile sketches, while the study runs a trial at a time;
+    * the other statistics follow every trial, and all of them every batch
+    * and the end of the study
+    */
+   public void setStatisticsInterval( int v ) { statisticsInterval = Math.max( 1, v ); }
+   public int getStatisticsInterval() { return statisticsInterval; }
+
+   /**
+    * sample counts per output (rows) in histogramBins equal bins between
+    * its min and max (columns), estimated from the quantile sketch
+    */
+   public PHXDoubleArray getHistogram() { return histogram; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
 
    /**
     * this function is called before we begin iterating with the driver
     */
-   public void initializeIterations()
+   public void initializeIterations() throws Exception
    {
+      long t = metrics.begin();
       // reset the run number
       trial = 0;
+      generated = 0;
 
-      // allocate the array to store values in
-      values = new double[numTrials][outputs.getLength()];
+      // reset the running statistics; the raw values are only kept
+      // when they have been asked for
+      stats.reset( outputs.getLength() );
+      if ( collectResults )
+         results.resize( new int[] {outputs.getLength(), numTrials} );
+      else
+         results.resize( new int[] {outputs.getLength(), 0} );
 
       //
       // create the uniform Latin Hypercube Samples only if the size of the
@@ -87,42 +227,55 @@ public class LatinHypercubeSampling implements IPHXDriver
       int dimension = designVars.getLength();
 
       // only recompute the samples if the number of variables has changed
-      if (dimension != oldDimension || numTrials!=oldNumTrials || reinitialize)
+      boolean regenerate = dimension != oldDimension || numTrials != oldNumTrials || reinitialize;
+
+      // a seed of zero asks for a different design on every run; the
+      // seed actually used is reported so that the design can be repeated
+      long designSeed = seedUsed;
+      if ( regenerate )
+         designSeed = seed != 0 ? seed : RandomSource.randomSeed();
+
+      // continue an earlier run of the same study that did not finish; its
+      // design is rebuilt from the seed it was made with
+      closeFiles();
+      long fingerprint = StudyCheckpoint.fingerprint( designVars, outputs.getLength(),
+         "LatinHypercubeSampling", randomGenerator, seed, numTrials, designType,
+         optimizationIterations, targetCorrelation );
+      checkpoint = StudyCheckpoint.open( checkpointFile, checkpointInterval, fingerprint,
+         designSeed, numTrials, stats, collectResults ? results : null );
+      if ( checkpoint != null && checkpoint.isResumed() )
+      {
+         if ( checkpoint.getSeed() != seedUsed )
+            regenerate = true;
+         designSeed = checkpoint.getSeed();
+         trial = checkpoint.getTrials();
+         generated = trial;
+      }
+
+      // the design point and responses of every trial, if asked for
+      store = ResultStore.create( resultFile,
+         ResultStore.columnNames( designVars.getLength(), outputs.getLength() ), trial > 0 );
+      if ( store != null )
+         store.setNumRows( trial );
+
+      if ( regenerate )
       {
 	  oldDimension = dimension;
         oldNumTrials = numTrials;
 
-	  // allocate memory for samples
-	  samples = new double[numTrials][dimension];
-
-	  // fill in the matrix with uniform stratified samples for each dimension
-	  int[] perm = new int[numTrials];
-	  for ( int j = 0; j < dimension; j++)
-	      {
-		  // reset the permutation vector
-		  for ( int i = 0; i < numTrials; i++)
-		      {
-			  perm[i] = 0;
-		      }
-
-		  for ( int i = 0; i < numTrials; i++)
-		      {
-			  // randomly generate the next position
-			  // (not the most elegant way, but efficiency is not really an issue here)
-			  int rank = r.nextInt(numTrials-i)+1;
-			  int pos;
-			  for ( pos = 0 ; rank > 0; pos++)
-			      {
-				  if (perm[pos] == 0)
-				      rank--;
-			      }
-			  perm[--pos] = 1;
-
-			  // store the sample for the current stratum in position pos
-			  samples[pos][j] = (i + r.nextDouble())/numTrials;
-		      }
-	      }
+	  seedUsed = designSeed;
+	  r = RandomSource.create( randomGenerator, seedUsed );
+
+	  samples = generateDesign( numTrials, dimension, r );
+	  improveDesign( samples, numTrials, dimension );
       } // end if (initialize)
+
+      // resolve the distribution of every design variable once
+      samplers = DistributionSampler.compile( designVars );
+
+      if ( trial > 0 )
+         computeStatistics();
+      metrics.exit( DriverMetrics.INITIALIZE, t );
    }
 
    /**
@@ -132,186 +285,341 @@ public class LatinHypercubeSampling implements IPHXDriver
     */
    public void startIteration() throws Exception
    {
-      for ( int i = 0; i < designVars.getLength(); i++ )
-      {
-         String type = designVars.getRefPropValueString( "distributionType", i );
-         double parm1 = designVars.getRefPropValueDouble( "parm1", i );
-         double parm2 = designVars.getRefPropValueDouble( "parm2", i );
-         double parm3 = designVars.getRefPropValueDouble( "parm3", i );
-
-         double value;
-         if ( type.equals( "Normal" ) )
-            value = LHSDistribution.getNormal( parm1, parm2, samples[trial][i] );
-         else if ( type.equals( "Uniform" ) )
-            value = LHSDistribution.getUniform( parm1, parm2, samples[trial][i] );
-         else if ( type.equals( "Triangular" ) )
-            value = LHSDistribution.getTriangular( parm1, parm2, parm3, samples[trial][i] );
-         else if ( type.equals( "Exponential" ) )
-            value = LHSDistribution.getExponential( parm1, samples[trial][i] );
-         else if ( type.equals( "Weibull" ) )
-            value = LHSDistribution.getWeibull( parm1, parm2, samples[trial][i] );
-         else
-         {
-            String msg = "unsupported distribution type: " + type;
-            throw new IllegalArgumentException( msg );
-         }
-
-         designVars.getValues()[i] = value;
-      }
+      long t = metrics.enter();
+      sample( trial, designVars.getValues(), 0 );
 
       // increment the trial number
-      trial++;   }
+      trial++;
+      generated = trial;
+      metrics.exit( DriverMetrics.START_ITERATION, t );
+   }
 
    /**
     * this function is called after the client application (ModelCenter)
     * has had a chance to run the case. At this point, this component
     * will have updated values for all of it's input variables
     */
-   public boolean endIteration() throws PHXTypeMismatchException
+   public boolean endIteration() throws Exception
    {
-      for ( int i = 0; i < outputs.getLength(); i++ )
-      {
-         values[trial-1][i] = outputs.getValues()[i];
-      }
-
-      computeStatistics();
-
+      long t = metrics.enter();
+      double[] vals = outputs.getValues();
+      collect( trial, vals, 0 );
+
+      stats.add( vals );
+      if ( checkpoint != null )
+         checkpoint.add( vals, 0 );
+      computeMoments();
+      if ( trial == numTrials || trial % statisticsInterval == 0 )
+         computeDistribution();
+
+      metrics.exit( DriverMetrics.END_ITERATION, t, outputs.getValues(), 1, outputs.getLength() );
       if ( trial == numTrials )
          return false;
       else
          return true;
    }
 
-   void computeStatistics() throws PHXTypeMismatchException
+   public int getNumInputs() { return designVars.getLength(); }
+   public int getNumOutputs() { return outputs.getLength(); }
+
+   /**
+    * batch mode: generates the next cases without waiting for the
+    * results of the previous ones
+    */
+   public int nextBatch( double[] inputs, int maxCases ) throws Exception
    {
-      for ( int var = 0; var < outputs.getLength(); var++ )
+      long t = metrics.enter();
+      int dimension = designVars.getLength();
+      int n = Math.min( maxCases, numTrials - generated );
+      System.arraycopy( samples, generated*dimension, inputs, 0, n*dimension );
+      DistributionSampler.transform( samplers, inputs, 0, n );
+      if ( store != null )
       {
-         double sum = 0;
-         double avg;
-         double std;
-
-         // compute the average value
-         for ( int j = 0; j < trial; j++ )
+         for ( int k = 0; k < n; k++ )
          {
-            sum += values[j][var];
+            store.write( generated+k, 0, inputs, k*dimension, dimension );
          }
-         avg = sum/trial;
+      }
+      generated += n;
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
 
-         // compute the standard deviation
-         sum = 0;
-         for ( int j = 0; j < trial; j++ )
-         {
-            sum += Math.pow(values[j][var]-avg, 2);
-         }
+   /**
+    * batch mode: folds in the results of the cases from nextBatch()
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int numOutputs = outputs.getLength();
+      for ( int k = 0; k < numCases; k++ )
+      {
+         trial++;
+         collect( trial, vals, k*numOutputs );
+         stats.add( vals, k*numOutputs );
+         if ( checkpoint != null )
+            checkpoint.add( vals, k*numOutputs );
+      }
 
-         if ( trial > 1 )
-            std = Math.sqrt( (1.0/(trial-1))*sum );
-         else
-            std = 0;
+      computeStatistics();
 
-         // load the values into the reference variables so that
-         // ModelCenter can get them
-         outputs.setRefPropValue( "avg", var, avg );
-         outputs.setRefPropValue( "std", var, std );
-      }
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return trial < numTrials;
    }
 
-   public void end()
+   /**
+    * maps row t of the uniform design to the design variable
+    * distributions, writing the point to x[offset ..]
+    */
+   private void sample( int t, double[] x, int offset ) throws java.io.IOException
    {
-   }
+      int dimension = samplers.length;
+      System.arraycopy( samples, t*dimension, x, offset, dimension );
+      DistributionSampler.transform( samplers, x, offset, 1 );
 
-   public static String getAuthor() { return "Phoenix Integration -- modified by Chris Paredis"; }
-   public static String getVersion() { return "DEMO"; }
-   public static String getDescription() { return "Performs Stratified Lating Hypercube Sampling"; }
-   public static String getHelpURL() { return "www.srl.gatech.edu/Eductation/ME8813"; }
-}
+      if ( store != null )
+         store.write( t, 0, x, offset, samplers.length );
+   }
 
-class LHSDistribution
-{
-   public static double getNormal( double avg, double std, double uniformSample )
+   /**
+    * keeps the raw outputs of trial number t if they have been asked for
+    */
+   private void collect( int t, double[] vals, int offset ) throws java.io.IOException
    {
-      double z = -Math.sqrt(2)*erfcinv(2*uniformSample);
-      return avg + z*std;
+      if ( store != null )
+         store.write( t-1, designVars.getLength(), vals, offset, outputs.getLength() );
+
+      if ( collectResults )
+      {
+         resultIndex[1] = t-1;
+         for ( int i = 0; i < outputs.getLength(); i++ )
+         {
+            resultIndex[0] = i;
+            results.setValue( resultIndex, vals[offset+i] );
+         }
+      }
    }
 
-   public static double getUniform( double low, double high, double uniformSample )
+   /**
+    * creates a uniform Latin Hypercube design on [0,1)^dimension, stored
+    * row-major in one flat array (row t starts at t*dimension).
+    *
+    * Each column is a Fisher-Yates shuffle of the numTrials strata with
+    * one jittered sample per stratum, drawn from the column's own stream
+    * of the random source. The columns are therefore independent of each
+    * other and are generated in parallel; the design only depends on the
+    * seed, not on the number of threads.
+    */
+   static double[] generateDesign( final int numTrials, final int dimension,
+                                   final RandomSource r )
    {
-      return low + (high-low)*uniformSample;
+      final double[] design = new double[numTrials*dimension];
+
+      java.util.stream.IntStream.range( 0, dimension ).parallel().forEach( j ->
+      {
+         RandomSource column = r.copy();
+         column.reset( j );
+
+         int[] perm = new int[numTrials];
+         for ( int i = 0; i < numTrials; i++ )
+         {
+            perm[i] = i;
+         }
+         for ( int i = numTrials - 1; i > 0; i-- )
+         {
+            int k = (int)(column.nextDouble()*(i+1));
+            int tmp = perm[i];
+            perm[i] = perm[k];
+            perm[k] = tmp;
+         }
+
+         // stratum perm[t] goes to row t; in the top stratum the sum can
+         // round up to 1, where an unbounded inverse CDF is infinite
+         for ( int t = 0; t < numTrials; t++ )
+         {
+            design[t*dimension+j] = Math.min( (perm[t] + column.nextDouble())/numTrials,
+                                              Math.nextDown( 1.0 ) );
+         }
+      } );
+
+      return design;
    }
 
-   public static double getTriangular( double low, double peak, double high, double uniformSample )
+   /**
+    * applies the selected design type to a random design:
+    *   Random      - leave the design as generated
+    *   Maximin     - greedy column-swap descent on the maximin criterion
+    *   ESE         - enhanced stochastic evolutionary search on the
+    *                 same criterion, which can escape local optima
+    *   ImanConover - impose the rank correlation in targetCorrelation
+    */
+   private void improveDesign( double[] design, int numTrials, int dimension )
+      throws Exception
    {
-      double d = (peak-low)/(high-low);
+      if ( designType == null || designType.length() == 0 ||
+           designType.equals( "Random" ) )
+         return;
+
+      RandomSource opt = r.copy();
+      opt.reset( -1 );
+
+      if ( designType.equals( "Maximin" ) || designType.equals( "ESE" ) )
+      {
+         LHSDesignOptimizer optimizer = new LHSDesignOptimizer( design, numTrials, dimension );
+         optimizer.optimize( optimizationIterations, designType.equals( "ESE" ), opt );
+      }
+      else if ( designType.equals( "ImanConover" ) )
+      {
+         int[] dims = targetCorrelation.getDimensions();
+         if ( dims.length != 2 || dims[0] != dimension || dims[1] != dimension )
+         {
+            String msg = "targetCorrelation must be a " + dimension + " x " +
+               dimension + " array";
+            throw new IllegalArgumentException( msg );
+         }
 
-      if ( uniformSample < d )
-         return low + Math.sqrt(uniformSample*(peak-low)*(high-low));
+         double[][] target = new double[dimension][dimension];
+         int[] index = new int[2];
+         for ( int a = 0; a < dimension; a++ )
+         {
+            for ( int b = 0; b < dimension; b++ )
+            {
+               index[0] = a;
+               index[1] = b;
+               target[a][b] = targetCorrelation.getValue( index );
+            }
+         }
+         LHSDesignOptimizer.imposeCorrelation( design, numTrials, dimension, target, opt );
+      }
       else
-         return high - Math.sqrt((1-uniformSample)*(high-peak)*(high-low));
+      {
+         String msg = "unsupported design type: " + designType;
+         throw new IllegalArgumentException( msg );
+      }
    }
 
-   public static double getExponential( double mean, double uniformSample )
+   void computeStatistics() throws PHXTypeMismatchException
+   {
+      computeMoments();
+      computeDistribution();
+   }
+
+   /**
+    * the statistics that cost the same whatever the number of trials
+    */
+   private void computeMoments() throws PHXTypeMismatchException
    {
-      return -mean*Math.log(1-uniformSample);
+      for ( int var = 0; var < outputs.getLength(); var++ )
+      {
+         // load the values into the reference variables so that
+         // ModelCenter can get them
+         outputs.setRefPropValue( "avg", var, stats.getMean( var ) );
+         outputs.setRefPropValue( "std", var, stats.getStandardDeviation( var ) );
+         outputs.setRefPropValue( "min", var, stats.getMin( var ) );
+         outputs.setRefPropValue( "max", var, stats.getMax( var ) );
+         outputs.setRefPropValue( "skewness", var, stats.getSkewness( var ) );
+         outputs.setRefPropValue( "kurtosis", var, stats.getKurtosis( var ) );
+         outputs.setRefPropValue( "stdError", var, stats.getStandardError( var ) );
+         outputs.setRefPropValue( "ciHalfWidth", var,
+                                  stats.getConfidenceHalfWidth( var, confidenceLevel ) );
+      }
    }
 
-   public static double getWeibull( double theta, double beta, double uniformSample )
+   /**
+    * the quantiles and the histogram, from the quantile sketches
+    */
+   private void computeDistribution() throws PHXTypeMismatchException
    {
-      return theta*Math.pow(-Math.log(1-uniformSample),1/beta);
+      for ( int var = 0; var < outputs.getLength(); var++ )
+      {
+         outputs.setRefPropValue( "p5", var, stats.getQuantile( var, 0.05 ) );
+         outputs.setRefPropValue( "p50", var, stats.getQuantile( var, 0.5 ) );
+         outputs.setRefPropValue( "p95", var, stats.getQuantile( var, 0.95 ) );
+      }
+      copyHistogram();
    }
 
-   private static double erfcinv( double y )
+   private void copyHistogram()
    {
-      // implements the inverse complementary error function
-      // code adapted from Matlab
-
-      double x = 0; // the output
-
-      // Coefficients in rational approximations
-      double a[] = {1.370600482778535e-02, -3.051415712357203e-01,
-                     1.524304069216834e+00, -3.057303267970988e+00,
-                     2.710410832036097e+00, -8.862269264526915e-01};
-      double b[] = {-5.319931523264068e-02,  6.311946752267222e-01,
-                     -2.432796560310728e+00,  4.175081992982483e+00,
-                     -3.320170388221430e+00};
-      double c[] = {5.504751339936943e-03,  2.279687217114118e-01,
-                     1.697592457770869e+00,  1.802933168781950e+00,
-                     -3.093354679843504e+00, -2.077595676404383e+00};
-      double d[] = {7.784695709041462e-03,  3.224671290700398e-01,
-                     2.445134137142996e+00,  3.754408661907416e+00};
-
-      // Define break-points.
-      double ylow  = 0.0485;
-      double yhigh = 1.9515;
-
-      // Rational approximation for central region
-      if (ylow <= y && y <= yhigh)
+      int numOutputs = outputs.getLength();
+      int[] dims = histogram.getDimensions();
+      if ( dims.length != 2 || dims[0] != numOutputs || dims[1] != histogramBins )
+         histogram.resize( new int[] {numOutputs, histogramBins} );
+
+      if ( histogramCounts.length != histogramBins )
+         histogramCounts = new double[histogramBins];
+      double[] counts = histogramCounts;
+      int[] index = histogramIndex;
+      for ( int var = 0; var < numOutputs; var++ )
       {
-         double q = y-1;
-         double r = q*q;
-         x = (((((a[0]*r+a[1])*r+a[2])*r+a[3])*r+a[4])*r+a[5])*q/
-             (((((b[0]*r+b[1])*r+b[2])*r+b[3])*r+b[4])*r+1);
+         stats.getHistogram( var, histogramBins, counts, 0 );
+         index[0] = var;
+         for ( int b = 0; b < histogramBins; b++ )
+         {
+            index[1] = b;
+            histogram.setValue( index, counts[b] );
+         }
       }
+   }
 
-      // Rational approximation for lower region
-      else if (0.0 < y && y < ylow)
+   public void end()
+   {
+      long t = metrics.enter();
+      try
+      {
+         // a study stopped between updates still leaves all its statistics
+         if ( trial > 0 )
+            computeDistribution();
+      }
+      catch ( PHXTypeMismatchException e )
+      {
+         throw new IllegalStateException( "cannot set the statistics of outputs", e );
+      }
+      finally
       {
-         double q  = Math.sqrt(-2*Math.log(y/2));
-         x = (((((c[0]*q+c[1])*q+c[2])*q+c[3])*q+c[4])*q+c[5])/
-              ((((d[0]*q+d[1])*q+d[2])*q+d[3])*q+1);
+         closeFiles();
       }
+      metrics.exit( DriverMetrics.END, t );
+   }
 
-      // Rational approximation for upper region
-      else if (yhigh < y & y < 2)
+   /**
+    * writes the trials completed since the last checkpoint and closes the
+    * checkpoint and result files, if there are any
+    */
+   private void closeFiles()
+   {
+      java.io.IOException failure = null;
+      if ( checkpoint != null )
       {
-         double q  = Math.sqrt(-2*Math.log(1-y/2));
-         x = -(((((c[0]*q+c[1])*q+c[2])*q+c[3])*q+c[4])*q+c[5])/
-               ((((d[0]*q+d[1])*q+d[2])*q+d[3])*q+1);
+         try
+         {
+            checkpoint.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            failure = e;
+         }
+         checkpoint = null;
       }
-      else
-	  {
-	      // should throw some error here... fix later.
-	      x = 0;
-	  }
-      return x;
+      if ( store != null )
+      {
+         try
+         {
+            store.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            if ( failure == null )
+               failure = e;
+         }
+         store = null;
+      }
+      if ( failure != null )
+         throw new java.io.UncheckedIOException( failure );
    }
+
+   public static String getAuthor() { return "Phoenix Integration -- modified by Chris Paredis"; }
+   public static String getVersion() { return "DEMO"; }
+   public static String getDescription() { return "Performs Stratified Lating Hypercube Sampling"; }
+   public static String getHelpURL() { return "www.srl.gatech.edu/Eductation/ME8813"; }
 }
@@ -0,0 +1,209 @@
+
+/**
+ * The few dense linear algebra routines the surrogates need. Matrices are
+ * row-major double[] of n*n (or rows*cols) elements and are overwritten
+ * by their factors.
+ */
+class LinearAlgebra
+{
+   private LinearAlgebra()
+   {
+   }
+
+   /**
+    * Cholesky factor of the symmetric positive definite a, in place: the
+    * lower triangle becomes L with a = L L^T, the upper is zeroed. False
+    * if a is not positive definite.
+    */
+   static boolean cholesky( double[] a, int n )
+   {
+      for ( int j = 0; j < n; j++ )
+      {
+         double d = a[j*n+j];
+         for ( int k = 0; k < j; k++ )
+         {
+            d -= a[j*n+k]*a[j*n+k];
+         }
+         if ( !(d > 0) )
+            return false;
+         d = Math.sqrt( d );
+         a[j*n+j] = d;
+
+         for ( int i = j+1; i < n; i++ )
+         {
+            double s = a[i*n+j];
+            for ( int k = 0; k < j; k++ )
+            {
+               s -= a[i*n+k]*a[j*n+k];
+            }
+            a[i*n+j] = s/d;
+            a[j*n+i] = 0;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * solves L x = b in place, L lower triangular with leading dimension ld
+    */
+   static void solveLower( double[] L, int ld, int n, double[] b )
+   {
+      for ( int i = 0; i < n; i++ )
+      {
+         double s = b[i];
+         for ( int k = 0; k < i; k++ )
+         {
+            s -= L[i*ld+k]*b[k];
+         }
+         b[i] = s/L[i*ld+i];
+      }
+   }
+
+   /**
+    * solves L^T x = b in place, L lower triangular with leading dimension ld
+    */
+   static void solveLowerTransposed( double[] L, int ld, int n, double[] b )
+   {
+      for ( int i = n-1; i >= 0; i-- )
+      {
+         double s = b[i];
+         for ( int k = i+1; k < n; k++ )
+         {
+            s -= L[k*ld+i]*b[k];
+         }
+         b[i] = s/L[i*ld+i];
+      }
+   }
+
+   /**
+    * solves a x = b in place by LU with partial pivoting; a is destroyed
+    */
+   static void solve( double[] a, int n, double[] b )
+   {
+      for ( int j = 0; j < n; j++ )
+      {
+         int p = j;
+         for ( int i = j+1; i < n; i++ )
+         {
+            if ( Math.abs( a[i*n+j] ) > Math.abs( a[p*n+j] ) )
+               p = i;
+         }
+         if ( a[p*n+j] == 0 )
+            throw new ArithmeticException( "singular linear system" );
+         if ( p != j )
+         {
+            for ( int k = 0; k < n; k++ )
+            {
+               double t = a[j*n+k];
+               a[j*n+k] = a[p*n+k];
+               a[p*n+k] = t;
+            }
+            double t = b[j];
+            b[j] = b[p];
+            b[p] = t;
+         }
+
+         for ( int i = j+1; i < n; i++ )
+         {
+            double f = a[i*n+j]/a[j*n+j];
+            if ( f == 0 )
+               continue;
+            for ( int k = j+1; k < n; k++ )
+            {
+               a[i*n+k] -= f*a[j*n+k];
+            }
+            b[i] -= f*b[j];
+         }
+      }
+      for ( int i = n-1; i >= 0; i-- )
+      {
+         double s = b[i];
+         for ( int k = i+1; k < n; k++ )
+         {
+            s -= a[i*n+k]*b[k];
+         }
+         b[i] = s/a[i*n+i];
+      }
+   }
+
+   /**
+    * least squares solution of a x = b, a of rows x cols with rows >=
+    * cols, by Householder QR; a and b are destroyed. Columns that are
+    * numerically dependent on earlier ones get a zero coefficient.
+    */
+   static double[] leastSquares( double[] a, int rows, int cols, double[] b )
+   {
+      // column j is reduced below pivot row r, the number of independent
+      // columns before it
+      double[] diag = new double[cols];
+      int[] pivot = new int[cols];
+      double largest = 0;
+      int r = 0;
+      for ( int j = 0; j < cols; j++ )
+      {
+         pivot[j] = -1;
+         if ( r == rows )
+            continue;
+
+         double norm = 0;
+         for ( int i = r; i < rows; i++ )
+         {
+            norm += a[i*cols+j]*a[i*cols+j];
+         }
+         norm = Math.sqrt( norm );
+         largest = Math.max( largest, norm );
+         if ( norm == 0 || norm <= 1e-12*largest )
+            continue;
+
+         double alpha = a[r*cols+j] > 0 ? -norm : norm;
+         a[r*cols+j] -= alpha;
+         double vv = 0;
+         for ( int i = r; i < rows; i++ )
+         {
+            vv += a[i*cols+j]*a[i*cols+j];
+         }
+
+         // reflect the remaining columns and b
+         for ( int k = j+1; k < cols; k++ )
+         {
+            double s = 0;
+            for ( int i = r; i < rows; i++ )
+            {
+               s += a[i*cols+j]*a[i*cols+k];
+            }
+            s *= 2/vv;
+            for ( int i = r; i < rows; i++ )
+            {
+               a[i*cols+k] -= s*a[i*cols+j];
+            }
+         }
+         double s = 0;
+         for ( int i = r; i < rows; i++ )
+         {
+            s += a[i*cols+j]*b[i];
+         }
+         s *= 2/vv;
+         for ( int i = r; i < rows; i++ )
+         {
+            b[i] -= s*a[i*cols+j];
+         }
+         diag[j] = alpha;
+         pivot[j] = r++;
+      }
+
+      double[] x = new double[cols];
+      for ( int j = cols-1; j >= 0; j-- )
+      {
+         if ( pivot[j] < 0 )
+            continue;
+         int row = pivot[j];
+         double s = b[row];
+         for ( int k = j+1; k < cols; k++ )
+         {
+            s -= a[row*cols+k]*x[k];
+         }
+         x[j] = s/diag[j];
+      }
+      return x;
+   }
+}
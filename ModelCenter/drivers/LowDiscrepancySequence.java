@@ -0,0 +1,51 @@
+
+/**
+ * A low-discrepancy (quasi-random) point set on the unit hypercube.
+ *
+ * Points are addressed by index, so any point can be generated without
+ * producing the ones before it. That is what allows a study to skip
+ * ahead, and different workers to generate disjoint index ranges of the
+ * same sequence independently. Generating a point does not allocate.
+ *
+ * Coordinates lie in the open interval (0,1), so they can be passed to an
+ * inverse CDF directly.
+ */
+abstract class LowDiscrepancySequence
+{
+   public static final String TYPES = "Sobol,Halton";
+   public static final String SCRAMBLINGS = "None,DigitalShift,Owen";
+
+   protected final int dimension;
+
+   protected LowDiscrepancySequence( int dimension )
+   {
+      this.dimension = dimension;
+   }
+
+   /**
+    * creates a sequence by name
+    *
+    * @param scrambling "None", "DigitalShift" or "Owen"
+    * @param seed seed of the scrambling, unused without scrambling
+    */
+   public static LowDiscrepancySequence create( String type, int dimension,
+                                                String scrambling, long seed )
+   {
+      if ( type == null || type.length() == 0 || type.equals( "Sobol" ) )
+         return new SobolSequence( dimension, scrambling, seed );
+      else if ( type.equals( "Halton" ) )
+         return new HaltonSequence( dimension, scrambling, seed );
+      else
+      {
+         String msg = "unsupported sequence type: " + type;
+         throw new IllegalArgumentException( msg );
+      }
+   }
+
+   public int getDimension() { return dimension; }
+
+   /**
+    * writes point number index to x[offset] .. x[offset+dimension-1]
+    */
+   public abstract void point( long index, double[] x, int offset );
+}
@@ -0,0 +1,355 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Estimator of the mean of every output of a MonteCarlo study, and of
+ * its standard error, for each of the driver's variance reduction modes:
+ *
+ *   None                the sample mean
+ *   Antithetic          trials come in pairs whose uniforms are u and
+ *                       1-u; the mean and its error come from the pair
+ *                       averages, which vary less than single trials
+ *                       when the output is monotone in the inputs. An
+ *                       unpaired last trial is left out.
+ *   ControlVariates     outputs with a known mean (a cheap model or a
+ *                       surrogate run beside the real one) are controls:
+ *                       each other output's mean is corrected by
+ *                       beta*(known mean - sample mean of the controls),
+ *                       with beta the regression coefficients of the
+ *                       output on the controls, estimated from all the
+ *                       trials so far. The error is that of the
+ *                       regression residual.
+ *   ImportanceSampling  trials are drawn from a proposal and come with
+ *                       the likelihood ratio w = p(x)/q(x); the mean is
+ *                       the average of w*y, which is unbiased, and the
+ *                       standard deviation the w-weighted one.
+ *
+ * Like StreamingStatistics, the estimator keeps running moments only
+ * (Welford updates; West's weighted form for the weighted variance),
+ * adds a trial in O(outputs) or O(outputs^2) for control variates, and
+ * saves to a fixed number of bytes for the study checkpoint. Trials must
+ * be added in trial order, which keeps batched runs repeatable. The
+ * control variate moments cover all the outputs, so which outputs are
+ * controls may change between runs of a resumed study.
+ */
+class MeanEstimator
+{
+   public static final String MODES = "None,Antithetic,ControlVariates,ImportanceSampling";
+
+   static final int NONE = 0;
+   static final int ANTITHETIC = 1;
+   static final int CONTROL_VARIATES = 2;
+   static final int IMPORTANCE_SAMPLING = 3;
+
+   private final int mode;
+   private int numVars = 0;
+
+   // moments of the values averaged: the outputs, the pair averages or
+   // the weighted outputs w*y
+   private long count = 0;
+   private double[] mean = new double[0];
+   private double[] m2 = new double[0];
+
+   // antithetic: the first trial of the pair in progress
+   private double[] half = new double[0];
+   private boolean halfFull = false;
+
+   // control variates: co-moments of all the outputs, numVars^2
+   private double[] comoment = new double[0];
+   private boolean[] control = new boolean[0];
+   private double[] controlMean = new double[0];
+   private double[] adjustedMean = new double[0];
+   private double[] residualVariance = new double[0];
+   private boolean solved = false;
+
+   // importance sampling: the weights and the weighted moments of y
+   private double sumWeight = 0;
+   private double sumWeight2 = 0;
+   private double[] weightedMean = new double[0];
+   private double[] weightedM2 = new double[0];
+
+   public MeanEstimator( String mode )
+   {
+      int m = Arrays.asList( MODES.split( "," ) ).indexOf( mode );
+      if ( m < 0 )
+         throw new IllegalArgumentException( "unsupported variance reduction: " + mode );
+      this.mode = m;
+   }
+
+   public int getMode() { return mode; }
+   public boolean isWeighted() { return mode == IMPORTANCE_SAMPLING; }
+
+   /**
+    * clears the estimator for numVars outputs
+    */
+   public void reset( int numVars )
+   {
+      this.numVars = numVars;
+      count = 0;
+      mean = new double[numVars];
+      m2 = new double[numVars];
+      half = new double[mode == ANTITHETIC ? numVars : 0];
+      halfFull = false;
+      comoment = new double[mode == CONTROL_VARIATES ? numVars*numVars : 0];
+      if ( control.length != numVars )
+      {
+         control = new boolean[numVars];
+         controlMean = new double[numVars];
+      }
+      adjustedMean = new double[numVars];
+      residualVariance = new double[numVars];
+      solved = false;
+      sumWeight = 0;
+      sumWeight2 = 0;
+      weightedMean = new double[mode == IMPORTANCE_SAMPLING ? numVars : 0];
+      weightedM2 = new double[weightedMean.length];
+   }
+
+   /**
+    * makes output var a control variate with the given known mean, or
+    * an ordinary output; only used by ControlVariates
+    */
+   public void setControl( int var, boolean isControl, double knownMean )
+   {
+      control[var] = isControl;
+      controlMean[var] = knownMean;
+      solved = false;
+   }
+
+   /**
+    * adds the outputs of the next trial, read from y[offset ..], with its
+    * likelihood ratio (1 unless importance sampling)
+    */
+   public void add( double[] y, int offset, double weight )
+   {
+      switch ( mode )
+      {
+         case ANTITHETIC:
+            if ( !halfFull )
+            {
+               System.arraycopy( y, offset, half, 0, numVars );
+               halfFull = true;
+               return;
+            }
+            halfFull = false;
+            count++;
+            for ( int i = 0; i < numVars; i++ )
+            {
+               welford( i, 0.5*(half[i] + y[offset+i]) );
+            }
+            return;
+
+         case CONTROL_VARIATES:
+            count++;
+            solved = false;
+            double n = count;
+            for ( int i = 0; i < numVars; i++ )
+            {
+               double delta = y[offset+i] - mean[i];
+               mean[i] += delta/n;
+               // C_ij += (y_i - old mean_i)(y_j - new mean_j)
+               for ( int j = 0; j < numVars; j++ )
+               {
+                  double after = j <= i ? y[offset+j] - mean[j]
+                                        : (y[offset+j] - mean[j])*(n-1)/n;
+                  comoment[i*numVars+j] += delta*after;
+               }
+            }
+            return;
+
+         case IMPORTANCE_SAMPLING:
+            count++;
+            sumWeight += weight;
+            sumWeight2 += weight*weight;
+            for ( int i = 0; i < numVars; i++ )
+            {
+               double v = y[offset+i];
+               welford( i, weight*v );
+               if ( weight > 0 )
+               {
+                  double delta = v - weightedMean[i];
+                  weightedMean[i] += delta*weight/sumWeight;
+                  weightedM2[i] += weight*delta*(v - weightedMean[i]);
+               }
+            }
+            return;
+
+         default:
+            count++;
+            for ( int i = 0; i < numVars; i++ )
+            {
+               welford( i, y[offset+i] );
+            }
+      }
+   }
+
+   private void welford( int i, double v )
+   {
+      double delta = v - mean[i];
+      mean[i] += delta/count;
+      m2[i] += delta*(v - mean[i]);
+   }
+
+   /**
+    * number of values averaged: trials, or pairs of them
+    */
+   public long getCount() { return count; }
+
+   public double getMean( int var )
+   {
+      if ( count == 0 )
+         return 0;
+      if ( mode == CONTROL_VARIATES )
+      {
+         solve();
+         return adjustedMean[var];
+      }
+      return mean[var];
+   }
+
+   /**
+    * standard error of getMean(); 0 until there are enough trials
+    */
+   public double getStandardError( int var )
+   {
+      if ( mode == CONTROL_VARIATES )
+      {
+         solve();
+         return residualVariance[var] > 0 ? Math.sqrt( residualVariance[var]/count ) : 0;
+      }
+      return count < 2 ? 0 : Math.sqrt( m2[var]/(count - 1)/count );
+   }
+
+   /**
+    * the weighted standard deviation of an output; only for importance
+    * sampling, where the trials' own spread is that of the proposal
+    */
+   public double getStandardDeviation( int var )
+   {
+      if ( !(sumWeight > 0) || count < 2 )
+         return 0;
+      return Math.sqrt( weightedM2[var]/sumWeight*count/(count - 1) );
+   }
+
+   /**
+    * Kish's effective sample size of the weights, (sum w)^2/sum w^2: the
+    * number of plain trials that would give about the same precision.
+    * The number of trials except for importance sampling.
+    */
+   public double getEffectiveSampleSize()
+   {
+      if ( mode != IMPORTANCE_SAMPLING )
+         return mode == ANTITHETIC ? 2*count : count;
+      return sumWeight2 > 0 ? sumWeight*sumWeight/sumWeight2 : 0;
+   }
+
+   /**
+    * the control-adjusted means and residual variances of all outputs,
+    * from one Cholesky factorization of the controls' co-moments
+    */
+   private void solve()
+   {
+      if ( solved )
+         return;
+      solved = true;
+
+      int m = numVars;
+      int[] controls = new int[m];
+      int q = 0;
+      for ( int i = 0; i < m; i++ )
+      {
+         if ( control[i] )
+            controls[q++] = i;
+      }
+
+      double[] factor = new double[q*q];
+      for ( int a = 0; a < q; a++ )
+      {
+         for ( int b = 0; b < q; b++ )
+         {
+            factor[a*q+b] = comoment[controls[a]*m+controls[b]];
+         }
+      }
+      boolean regress = q > 0 && count > q + 1 && LinearAlgebra.cholesky( factor, q );
+
+      double[] beta = new double[q];
+      for ( int j = 0; j < m; j++ )
+      {
+         double ss = comoment[j*m+j];
+         double adjusted = mean[j];
+         int dof = (int)Math.min( count - 1, Integer.MAX_VALUE );
+         if ( control[j] )
+         {
+            adjusted = controlMean[j];
+            ss = 0;
+         }
+         else if ( regress )
+         {
+            for ( int a = 0; a < q; a++ )
+            {
+               beta[a] = comoment[controls[a]*m+j];
+            }
+            LinearAlgebra.solveLower( factor, q, q, beta );
+            double explained = 0;
+            for ( int a = 0; a < q; a++ )
+            {
+               explained += beta[a]*beta[a];
+            }
+            LinearAlgebra.solveLowerTransposed( factor, q, q, beta );
+            for ( int a = 0; a < q; a++ )
+            {
+               adjusted += beta[a]*(controlMean[controls[a]] - mean[controls[a]]);
+            }
+            ss = Math.max( 0, ss - explained );
+            dof -= q;
+         }
+         adjustedMean[j] = adjusted;
+         residualVariance[j] = dof > 0 ? ss/dof : 0;
+      }
+   }
+
+   /**
+    * number of bytes written by save() for numVars outputs
+    */
+   public int getStateSize()
+   {
+      return 8 + 1 + 16 + 8*(2*numVars + half.length + comoment.length +
+                             2*weightedMean.length);
+   }
+
+   public void save( ByteBuffer out )
+   {
+      out.putLong( count );
+      out.put( (byte)(halfFull ? 1 : 0) );
+      out.putDouble( sumWeight );
+      out.putDouble( sumWeight2 );
+      for ( double[] a : state() )
+      {
+         for ( double v : a )
+         {
+            out.putDouble( v );
+         }
+      }
+   }
+
+   public void restore( ByteBuffer in )
+   {
+      count = in.getLong();
+      halfFull = in.get() != 0;
+      sumWeight = in.getDouble();
+      sumWeight2 = in.getDouble();
+      for ( double[] a : state() )
+      {
+         for ( int i = 0; i < a.length; i++ )
+         {
+            a[i] = in.getDouble();
+         }
+      }
+      solved = false;
+   }
+
+   private double[][] state()
+   {
+      return new double[][] { mean, m2, half, comoment, weightedMean, weightedM2 };
+   }
+}
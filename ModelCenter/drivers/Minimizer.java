@@ -21,6 +21,7 @@ public class Minimizer implements IPHXDriver
 
    private double       lastY;
    private double       step;
+   private DriverMetrics metrics = new DriverMetrics( "Minimizer" );
 
    public Minimizer()
    {
@@ -41,11 +42,23 @@ public class Minimizer implements IPHXDriver
    public int getIterations() { return iterations; }
    public double getStep() { return step; }
 
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
+
    /**
     * this function is called before we begin iterating with the driver
     */
    public void initializeIterations()
    {
+      long t = metrics.begin();
       // reset the iteration count
       iterations = 0;
 
@@ -54,6 +67,7 @@ public class Minimizer implements IPHXDriver
 
       // and record the starting value for Y
       lastY = valueToMinimize.getValue();
+      metrics.exit( DriverMetrics.INITIALIZE, t );
    }
 
    /**
@@ -63,6 +77,7 @@ public class Minimizer implements IPHXDriver
     */
    public void startIteration() throws Exception
    {
+      long t = metrics.enter();
       // increment the iteration cound
       iterations++;
 
@@ -76,6 +91,7 @@ public class Minimizer implements IPHXDriver
       // plus some step increment
       double X = valueToSet.getValue() + step;
       valueToSet.setValue( X );
+      metrics.exit( DriverMetrics.START_ITERATION, t );
    }
 
    /**
@@ -85,6 +101,7 @@ public class Minimizer implements IPHXDriver
     */
    public boolean endIteration()
    {
+      long t = metrics.enter();
       double Y = valueToMinimize.getValue();
 
       // if the difference between the last value and the current value
@@ -92,6 +109,7 @@ public class Minimizer implements IPHXDriver
       if ( Math.abs( lastY-Y ) < tolerance )
       {
          // we're done
+         metrics.exit( DriverMetrics.END_ITERATION, t, null, 1, 0 );
          return false;
       }
 
@@ -106,11 +124,14 @@ public class Minimizer implements IPHXDriver
       lastY = Y;
 
       // try another iteration
+      metrics.exit( DriverMetrics.END_ITERATION, t, null, 1, 0 );
       return true;
    }
 
    public void end()
    {
+      long t = metrics.enter();
+      metrics.exit( DriverMetrics.END, t );
    }
 
    public static String getAuthor() { return "Phoenix Integration"; }
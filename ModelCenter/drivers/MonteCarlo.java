@@ -8,15 +8,73 @@ import java.util.*;
  * Analysis Server. This component performs a basic Monte Carlo 
  * analysis
  *
+ * With a relativeTarget or absoluteTarget set on some outputs, the study
+ * stops as soon as the confidence interval of the average of every such
+ * output is narrow enough: its half width at confidenceLevel is at most
+ * the absolute target, or the relative target times the magnitude of the
+ * average, whichever is larger. numTrials is then the most trials to
+ * run and minTrials the fewest. The rule is only checked at minTrials
+ * and from there on each time the trial count has grown by 5%, on the
+ * statistics of trials 1 .. n in trial order; the study therefore stops
+ * at the same trial however the cases are batched or spread over
+ * workers, and the few looks keep the coverage close to the nominal
+ * level (Chow and Robbins, 1965). In batch mode the cases of the last
+ * batch past the stopping trial are discarded.
+ *
+ * varianceReduction picks how the trials are drawn and averaged (see
+ * MeanEstimator): Antithetic runs trials in pairs on uniforms u and 1-u;
+ * ControlVariates corrects each output by the outputs marked control,
+ * whose mean (controlMean) is known; ImportanceSampling draws every
+ * design variable that has a proposalType from that proposal instead and
+ * weights the trials by their likelihood ratio, for the tails of an
+ * output. avg, stdError and ciHalfWidth, and so the confidence targets,
+ * come from the chosen estimator. The other statistics are those of the
+ * trials themselves, which under importance sampling follow the proposal,
+ * so there the quantiles, skewness, kurtosis and histogram are NaN and
+ * std is the weighted one. The probability of a tail is the avg of an
+ * output that is 1 in the tail and 0 elsewhere.
+ *
  * @author Woyak, 9/99
  */
-public class MonteCarlo implements IPHXDriver
+public class MonteCarlo implements IndexedBatchDriver
 {
    private PHXReferenceArray designVars = new PHXReferenceArray();
    private PHXReferenceArray outputs = new PHXReferenceArray();
-   private double[][] values = new double[0][0];
+   private StreamingStatistics stats = new StreamingStatistics();
+   private String varianceReduction = "None";
+   private MeanEstimator estimator = new MeanEstimator( varianceReduction );
+   private boolean collectResults = false;
+   private PHXDoubleArray results = new PHXDoubleArray();
+   private PHXDoubleArray histogram = new PHXDoubleArray();
+   private int histogramBins = 20;
+   private double[] histogramCounts = new double[0];
+   private int[] histogramIndex = new int[2];
+   private int statisticsInterval = 1000;
+   private double confidenceLevel = 0.95;
+   private int[] resultIndex = new int[2];
    private int trial = 0;
+   private int generated = 0;
    private int numTrials = 50;
+   private int minTrials = 100;
+   private int nextLook = 0;
+   private boolean targetsMet = false;
+   private int savedTrials = 0;
+   private double[] relativeTargets = new double[0];
+   private double[] absoluteTargets = new double[0];
+   private long seed = 0;
+   private long seedUsed = 0;
+   private String randomGenerator = "SplitMix64";
+   private RandomSource rng = RandomSource.create( randomGenerator, 1 );
+   private DistributionSampler[] samplers = new DistributionSampler[0];
+   private DistributionSampler[] proposals = new DistributionSampler[0];
+   private DistributionSampler[] drawn = new DistributionSampler[0];
+   private double[] point = new double[0];
+   private String checkpointFile = "";
+   private int checkpointInterval = 1000;
+   private StudyCheckpoint checkpoint = null;
+   private String resultFile = "";
+   private ResultStore store = null;
+   private DriverMetrics metrics = new DriverMetrics( "MonteCarlo" );
 
    public MonteCarlo()
    {
@@ -26,7 +84,7 @@ public class MonteCarlo implements IPHXDriver
       designVars.setAutoGrow( true );
       
       prop = designVars.createRefProp( "distributionType", "string" );
-      prop.enumValuesFromString( "Normal,Uniform,Triangular,Exponential,Weibull" );
+      prop.enumValuesFromString( DistributionSampler.TYPES );
       prop.setTitle( "Distribution Type" );
 
       prop = designVars.createRefProp( "parm1", "double" );
@@ -41,9 +99,45 @@ public class MonteCarlo implements IPHXDriver
       prop.setTitle( "Param #3" );
       prop.setDescription( "distribution parameter three" );
 
+      prop = designVars.createRefProp( "table", "string" );
+      prop.setTitle( "CDF Table" );
+      prop.setDescription( "CSV file (file.csv or file.csv#column) of an Empirical distribution" );
+
+      prop = designVars.createRefProp( "proposalType", "string" );
+      prop.setTitle( "Proposal Type" );
+      prop.setDescription( "distribution drawn from under ImportanceSampling, empty for the design variable's own" );
+
+      prop = designVars.createRefProp( "proposalParm1", "double" );
+      prop.setTitle( "Proposal Param #1" );
+      prop.setDescription( "proposal parameter one" );
+
+      prop = designVars.createRefProp( "proposalParm2", "double" );
+      prop.setTitle( "Proposal Param #2" );
+      prop.setDescription( "proposal parameter two" );
+
+      prop = designVars.createRefProp( "proposalParm3", "double" );
+      prop.setTitle( "Proposal Param #3" );
+      prop.setDescription( "proposal parameter three" );
+
       // ----- output setup
       outputs.setAutoGrow( true );
 
+      prop = outputs.createRefProp( "relativeTarget", "double" );
+      prop.setTitle( "Relative Target" );
+      prop.setDescription( "stop once ciHalfWidth is at most this fraction of |avg|, 0 for none" );
+
+      prop = outputs.createRefProp( "absoluteTarget", "double" );
+      prop.setTitle( "Absolute Target" );
+      prop.setDescription( "stop once ciHalfWidth is at most this, 0 for none" );
+
+      prop = outputs.createRefProp( "control", "boolean" );
+      prop.setTitle( "Control Variate" );
+      prop.setDescription( "under ControlVariates, use this output, of known mean, as a control" );
+
+      prop = outputs.createRefProp( "controlMean", "double" );
+      prop.setTitle( "Control Mean" );
+      prop.setDescription( "the known mean of a control output" );
+
       prop = outputs.createRefProp( "avg", "double" );
       prop.setInput( false );
       prop.setDescription( "Average" );
@@ -53,6 +147,54 @@ public class MonteCarlo implements IPHXDriver
       prop.setInput( false );
       prop.setTitle( "Standard Deviation" );
       prop.setDescription( "standard deviation" );
+
+      prop = outputs.createRefProp( "min", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Minimum" );
+      prop.setDescription( "smallest value observed" );
+
+      prop = outputs.createRefProp( "max", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Maximum" );
+      prop.setDescription( "largest value observed" );
+
+      prop = outputs.createRefProp( "skewness", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Skewness" );
+      prop.setDescription( "sample skewness" );
+
+      prop = outputs.createRefProp( "kurtosis", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Kurtosis" );
+      prop.setDescription( "sample excess kurtosis" );
+
+      prop = outputs.createRefProp( "p5", "double" );
+      prop.setInput( false );
+      prop.setTitle( "5th Percentile" );
+      prop.setDescription( "5th percentile, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "p50", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Median" );
+      prop.setDescription( "median, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "p95", "double" );
+      prop.setInput( false );
+      prop.setTitle( "95th Percentile" );
+      prop.setDescription( "95th percentile, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "stdError", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Standard Error" );
+      prop.setDescription( "standard error of the average" );
+
+      prop = outputs.createRefProp( "ciHalfWidth", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Confidence Interval Half Width" );
+      prop.setDescription( "half width of the confidence interval of the average at confidenceLevel" );
+
+      results.resize( new int[] {0,0} );
+      histogram.resize( new int[] {0,0} );
    }
 
    public PHXReferenceArray getDesignVars() { return designVars; }
@@ -62,16 +204,138 @@ public class MonteCarlo implements IPHXDriver
    public int getNumTrials() { return numTrials; }
    public int getTrial() { return trial; }
 
+   /**
+    * fewest trials before the confidence targets may stop the study
+    */
+   public void setMinTrials( int v ) { minTrials = v; }
+   public int getMinTrials() { return minTrials; }
+
+   /**
+    * whether the confidence targets were met, which stops the study
+    */
+   public boolean getTargetsMet() { return targetsMet; }
+
+   /**
+    * trials of numTrials left unrun because the targets were met
+    */
+   public int getSavedTrials() { return savedTrials; }
+
+   public void setVarianceReduction( String v ) { varianceReduction = v; }
+   public String getVarianceReduction() { return varianceReduction; }
+
+   /**
+    * the number of plain trials worth of information in the importance
+    * sampling weights; the number of trials otherwise
+    */
+   public double getEffectiveSampleSize() { return estimator.getEffectiveSampleSize(); }
+
+   public void setSeed( long v ) { seed = v; }
+   public long getSeed() { return seed; }
+   public long getSeedUsed() { return seedUsed; }
+   public void setRandomGenerator( String v ) { randomGenerator = v; }
+   public String getRandomGenerator() { return randomGenerator; }
+   public void setCheckpointFile( String v ) { checkpointFile = v; }
+   public String getCheckpointFile() { return checkpointFile; }
+   public void setCheckpointInterval( int v ) { checkpointInterval = v; }
+   public int getCheckpointInterval() { return checkpointInterval; }
+   public void setResultFile( String v ) { resultFile = v; }
+   public String getResultFile() { return resultFile; }
+   public boolean getCollectResults() { return collectResults; }
+   public void setCollectResults( boolean cr ) { collectResults = cr; }
+   public PHXDoubleArray getResults() { return results; }
+   public void setConfidenceLevel( double v ) { confidenceLevel = v; }
+   public double getConfidenceLevel() { return confidenceLevel; }
+   public void setHistogramBins( int v ) { histogramBins = Math.max( 1, v ); }
+   public int getHistogramBins() { return histogramBins; }
+
+   /**
+    * trials between updates of the quantiles and the histogram, which
+    * sort the quantile sketches, while the study runs a trial at a time;
+    * the other statistics follow every trial, and all of them every batch
+    * and the end of the study
+    */
+   public void setStatisticsInterval( int v ) { statisticsInterval = Math.max( 1, v ); }
+   public int getStatisticsInterval() { return statisticsInterval; }
+
+   /**
+    * sample counts per output (rows) in histogramBins equal bins between
+    * its min and max (columns), estimated from the quantile sketch
+    */
+   public PHXDoubleArray getHistogram() { return histogram; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
+
    /**
     * this function is called before we begin iterating with the driver
     */
-   public void initializeIterations()
+   public void initializeIterations() throws Exception
    {
+      long t0 = metrics.begin();
       // reset the run number
       trial = 0;
+      generated = 0;
+      targetsMet = false;
+      savedTrials = 0;
+
+      // a seed of zero asks for a different sequence on every run; the
+      // seed actually used is reported so that the run can be repeated
+      seedUsed = seed != 0 ? seed : RandomSource.randomSeed();
+
+      // resolve the distribution of every design variable once
+      samplers = DistributionSampler.compile( designVars );
+      estimator = new MeanEstimator( varianceReduction );
+      estimator.reset( outputs.getLength() );
+      compileProposals();
+      compileTargets();
+
+      // reset the running statistics; the raw values are only kept
+      // when they have been asked for
+      stats.reset( outputs.getLength() );
+      if ( collectResults )
+         results.resize( new int[] {outputs.getLength(), numTrials} );
+      else
+         results.resize( new int[] {outputs.getLength(), 0} );
+
+      // continue an earlier run of the same study that did not finish
+      closeFiles();
+      long fingerprint = StudyCheckpoint.fingerprint( designVars, outputs.getLength(),
+         "MonteCarlo", randomGenerator, seed, varianceReduction, proposalSettings() );
+      checkpoint = StudyCheckpoint.open( checkpointFile, checkpointInterval, fingerprint,
+         seedUsed, numTrials, stats, estimator, collectResults ? results : null );
+      if ( checkpoint != null && checkpoint.isResumed() )
+      {
+         // a study that stopped on its targets has finished, and is
+         // run again from the start
+         int t = checkpoint.getTrials();
+         if ( look( t ) == t && meetsTargets() )
+            checkpoint.restart( seedUsed );
+         else
+         {
+            seedUsed = checkpoint.getSeed();
+            trial = t;
+            generated = trial;
+            computeStatistics();
+         }
+      }
+      nextLook = look( trial+1 );
+
+      // the design point and responses of every trial, if asked for
+      store = ResultStore.create( resultFile,
+         ResultStore.columnNames( designVars.getLength(), outputs.getLength() ), trial > 0 );
+      if ( store != null )
+         store.setNumRows( trial );
 
-      // allocate the array to store values in
-      values = new double[numTrials][outputs.getLength()];
+      rng = RandomSource.create( randomGenerator, seedUsed );
+      metrics.exit( DriverMetrics.INITIALIZE, t0 );
    }
 
    /**
@@ -81,35 +345,13 @@ public class MonteCarlo implements IPHXDriver
     */
    public void startIteration() throws Exception
    {
+      long t = metrics.enter();
       // increment the trial number
       trial++;
+      generated = trial;
 
-      for ( int i = 0; i < designVars.getLength(); i++ )
-      {
-         String type = designVars.getRefPropValueString( "distributionType", i );
-         double parm1 = designVars.getRefPropValueDouble( "parm1", i );
-         double parm2 = designVars.getRefPropValueDouble( "parm2", i );
-         double parm3 = designVars.getRefPropValueDouble( "parm3", i );
-
-         double value;
-         if ( type.equals( "Normal" ) )
-            value = Distribution.getNormal( parm1, parm2 );
-         else if ( type.equals( "Uniform" ) )
-            value = Distribution.getUniform( parm1, parm2 );
-         else if ( type.equals( "Triangular" ) )
-            value = Distribution.getTriangular( parm1, parm2, parm3 );
-         else if ( type.equals( "Exponential" ) )
-            value = Distribution.getExponential( parm1 );
-         else if ( type.equals( "Weibull" ) )
-            value = Distribution.getWeibull( parm1, parm2 );
-         else
-         {
-            String msg = "unsupported distribution type: " + type;
-            throw new IllegalArgumentException( msg );
-         }
-
-         designVars.getValues()[i] = value;
-      }
+      sample( trial, designVars.getValues(), 0 );
+      metrics.exit( DriverMetrics.START_ITERATION, t );
    }
 
    /**
@@ -117,103 +359,414 @@ public class MonteCarlo implements IPHXDriver
     * has had a chance to run the case. At this point, this component
     * will have updated values for all of it's input variables
     */
-   public boolean endIteration() throws PHXTypeMismatchException
+   public boolean endIteration() throws Exception
+   {
+      long t = metrics.enter();
+      double[] vals = outputs.getValues();
+      collect( trial, vals, 0 );
+
+      stats.add( vals );
+      estimator.add( vals, 0, weight( trial ) );
+      if ( checkpoint != null )
+         checkpoint.add( vals, 0 );
+      checkTargets();
+      computeMoments();
+      if ( trial == numTrials || targetsMet || trial % statisticsInterval == 0 )
+         computeDistribution();
+
+      metrics.exit( DriverMetrics.END_ITERATION, t, outputs.getValues(), 1, outputs.getLength() );
+      if ( trial == numTrials || targetsMet )
+         return false;
+      else
+         return true;
+   }
+
+   public int getNumInputs() { return designVars.getLength(); }
+   public int getNumOutputs() { return outputs.getLength(); }
+
+   /**
+    * batch mode: generates the next cases without waiting for the
+    * results of the previous ones
+    */
+   public int nextBatch( double[] inputs, int maxCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int dimension = designVars.getLength();
+      int n = Math.min( maxCases, numTrials - generated );
+      for ( int k = 0; k < n; k++ )
+      {
+         generated++;
+         uniforms( generated, inputs, k*dimension );
+      }
+      DistributionSampler.transform( drawn, inputs, 0, n );
+      if ( store != null )
+      {
+         for ( int k = 0; k < n; k++ )
+         {
+            store.write( generated-n+k, 0, inputs, k*dimension, dimension );
+         }
+      }
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
+
+   /**
+    * batch mode: folds in the results of the cases from nextBatch()
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
    {
-      for ( int i = 0; i < outputs.getLength(); i++ )
+      long t = metrics.enter();
+      int numOutputs = outputs.getLength();
+      for ( int k = 0; k < numCases; k++ )
       {
-         values[trial-1][i] = outputs.getValues()[i];
+         trial++;
+         collect( trial, vals, k*numOutputs );
+         stats.add( vals, k*numOutputs );
+         estimator.add( vals, k*numOutputs, weight( trial ) );
+         if ( checkpoint != null )
+            checkpoint.add( vals, k*numOutputs );
+         if ( checkTargets() )
+            break;
       }
 
       computeStatistics();
 
-      if ( trial == numTrials )
-         return false;
-      else
-         return true;
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return trial < numTrials && !targetsMet;
    }
 
-   void computeStatistics() throws PHXTypeMismatchException
+   /**
+    * reads the confidence targets and the control variates of the outputs
+    */
+   private void compileTargets() throws PHXTypeMismatchException
    {
-      for ( int var = 0; var < outputs.getLength(); var++ )
+      int numOutputs = outputs.getLength();
+      relativeTargets = new double[numOutputs];
+      absoluteTargets = new double[numOutputs];
+      for ( int i = 0; i < numOutputs; i++ )
+      {
+         relativeTargets[i] = outputs.getRefPropValueDouble( "relativeTarget", i );
+         absoluteTargets[i] = outputs.getRefPropValueDouble( "absoluteTarget", i );
+         estimator.setControl( i, outputs.getRefPropValueBoolean( "control", i ),
+                               outputs.getRefPropValueDouble( "controlMean", i ) );
+      }
+   }
+
+   /**
+    * resolves the importance sampling proposals; drawn holds the sampler
+    * each design variable is drawn from
+    */
+   private void compileProposals() throws PHXTypeMismatchException
+   {
+      proposals = new DistributionSampler[samplers.length];
+      drawn = samplers.clone();
+      point = new double[samplers.length];
+      if ( !estimator.isWeighted() )
+         return;
+
+      for ( int i = 0; i < samplers.length; i++ )
       {
-         double sum = 0;
-         double avg;
-         double std;
+         String type = designVars.getRefPropValueString( "proposalType", i ).trim();
+         if ( type.length() == 0 )
+            continue;
+         if ( type.equals( "Empirical" ) )
+            throw new IllegalArgumentException( "an Empirical proposal is not supported" );
+         proposals[i] = DistributionSampler.create( type,
+            designVars.getRefPropValueDouble( "proposalParm1", i ),
+            designVars.getRefPropValueDouble( "proposalParm2", i ),
+            designVars.getRefPropValueDouble( "proposalParm3", i ) );
+         drawn[i] = proposals[i];
+      }
+   }
 
-         // compute the average value
-         for ( int j = 0; j < trial; j++ )
+   /**
+    * the proposals, for the checkpoint fingerprint
+    */
+   private String proposalSettings() throws PHXTypeMismatchException
+   {
+      StringBuilder b = new StringBuilder();
+      for ( int i = 0; i < proposals.length; i++ )
+      {
+         if ( proposals[i] == null )
+            continue;
+         b.append( i ).append( ':' ).append( designVars.getRefPropValueString( "proposalType", i ) );
+         for ( int k = 1; k <= 3; k++ )
          {
-            sum += values[j][var];
+            b.append( ',' ).append( designVars.getRefPropValueDouble( "proposalParm" + k, i ) );
          }
-         avg = sum/trial;
+         b.append( ';' );
+      }
+      return b.toString();
+   }
+
+   /**
+    * the likelihood ratio p(x)/q(x) of trial number t under importance
+    * sampling, found by drawing its design point again; 1 otherwise
+    */
+   private double weight( int t )
+   {
+      if ( !estimator.isWeighted() )
+         return 1;
+
+      uniforms( t, point, 0 );
+      DistributionSampler.transform( drawn, point, 0, 1 );
+      double logRatio = 0;
+      for ( int i = 0; i < proposals.length; i++ )
+      {
+         if ( proposals[i] != null )
+            logRatio += samplers[i].logDensity( point[i] ) - proposals[i].logDensity( point[i] );
+      }
+      return Math.exp( logRatio );
+   }
+
+   /**
+    * the first trial count, at least n, at which the targets are checked
+    */
+   private int look( int n )
+   {
+      int t = Math.max( 2, minTrials );
+      while ( t < n )
+      {
+         t = Math.max( t+1, (int)Math.ceil( t*1.05 ) );
+      }
+      return t;
+   }
+
+   /**
+    * checks the targets if the trial count has reached the next look;
+    * true when they are met, which stops the study
+    */
+   private boolean checkTargets() throws java.io.IOException
+   {
+      if ( trial < nextLook )
+         return false;
+      nextLook = look( trial+1 );
+      if ( !meetsTargets() )
+         return false;
+
+      targetsMet = true;
+      savedTrials = numTrials - trial;
+      if ( store != null )
+         store.setNumRows( trial );
+      return true;
+   }
+
+   /**
+    * true if some output has a target and every output with one meets it
+    */
+   private boolean meetsTargets()
+   {
+      boolean any = false;
+      for ( int var = 0; var < relativeTargets.length; var++ )
+      {
+         double relative = relativeTargets[var];
+         double absolute = absoluteTargets[var];
+         if ( !(relative > 0) && !(absolute > 0) )
+            continue;
+         any = true;
+
+         double target = Math.max( absolute > 0 ? absolute : 0,
+                                   relative > 0 ? relative*Math.abs( estimator.getMean( var ) ) : 0 );
+         double halfWidth = halfWidth( var );
+         if ( !(halfWidth <= target) )
+            return false;
+      }
+      return any;
+   }
 
-         // compute the standard deviation
-         sum = 0;
-         for ( int j = 0; j < trial; j++ )
+   /**
+    * draws the design point of trial number t into x[offset ..]
+    */
+   private void sample( int t, double[] x, int offset ) throws java.io.IOException
+   {
+      uniforms( t, x, offset );
+      DistributionSampler.transform( drawn, x, offset, 1 );
+
+      if ( store != null )
+         store.write( t-1, 0, x, offset, samplers.length );
+   }
+
+   /**
+    * draws the uniforms of trial number t into x[offset ..]
+    */
+   private void uniforms( int t, double[] x, int offset )
+   {
+      // every trial draws from its own stream, so a trial can be
+      // regenerated from the seed and its number alone; antithetic pairs
+      // share one, the second trial taking 1-u
+      int n = samplers.length;
+      if ( estimator.getMode() != MeanEstimator.ANTITHETIC )
+      {
+         rng.reset( t );
+         rng.fill( x, offset, n );
+         return;
+      }
+      rng.reset( (t + 1)/2 );
+      rng.fill( x, offset, n );
+      if ( t % 2 == 0 )
+      {
+         for ( int i = offset; i < offset + n; i++ )
          {
-            sum += Math.pow(values[j][var]-avg, 2);
+            x[i] = 1 - x[i];
          }
+      }
+   }
 
-         if ( trial > 1 )
-            std = Math.sqrt( (1.0/(trial-1))*sum );
-         else
-            std = 0;
+   /**
+    * keeps the raw outputs of trial number t if they have been asked for
+    */
+   private void collect( int t, double[] vals, int offset ) throws java.io.IOException
+   {
+      if ( store != null )
+         store.write( t-1, designVars.getLength(), vals, offset, outputs.getLength() );
 
-         // load the values into the reference variables so that
-         // ModelCenter can get them
-         outputs.setRefPropValue( "avg", var, avg );
-         outputs.setRefPropValue( "std", var, std );
+      if ( collectResults )
+      {
+         resultIndex[1] = t-1;
+         for ( int i = 0; i < outputs.getLength(); i++ )
+         {
+            resultIndex[0] = i;
+            results.setValue( resultIndex, vals[offset+i] );
+         }
       }
    }
 
-   public void end()
+   void computeStatistics() throws PHXTypeMismatchException
    {
+      computeMoments();
+      computeDistribution();
    }
 
-   public static String getAuthor() { return "Phoenix Integration"; }
-   public static String getVersion() { return "DEMO"; }
-   public static String getDescription() { return "example driver component"; }
-   public static String getHelpURL() { return "www.phoenix-int.com"; }
-}
-
-class Distribution
-{
-   public static double getNormal( double avg, double std )
+   /**
+    * the statistics that cost the same whatever the number of trials
+    */
+   private void computeMoments() throws PHXTypeMismatchException
    {
-      Random r = new Random();
-      double u1 = r.nextDouble();
-      double u2 = r.nextDouble();
-      double z = Math.sqrt( -2*Math.log(u1) )*Math.cos(2*3.1415926*u2);
-      return avg + z*std;
+      for ( int var = 0; var < outputs.getLength(); var++ )
+      {
+         // load the values into the reference variables so that
+         // ModelCenter can get them
+         boolean weighted = estimator.isWeighted();
+         outputs.setRefPropValue( "avg", var, estimator.getMean( var ) );
+         outputs.setRefPropValue( "std", var, weighted ? estimator.getStandardDeviation( var )
+                                                       : stats.getStandardDeviation( var ) );
+         outputs.setRefPropValue( "min", var, stats.getMin( var ) );
+         outputs.setRefPropValue( "max", var, stats.getMax( var ) );
+         outputs.setRefPropValue( "skewness", var, weighted ? Double.NaN : stats.getSkewness( var ) );
+         outputs.setRefPropValue( "kurtosis", var, weighted ? Double.NaN : stats.getKurtosis( var ) );
+         outputs.setRefPropValue( "stdError", var, estimator.getStandardError( var ) );
+         outputs.setRefPropValue( "ciHalfWidth", var, halfWidth( var ) );
+      }
    }
 
-   public static double getUniform( double low, double high )
+   /**
+    * the quantiles and the histogram, from the quantile sketches
+    */
+   private void computeDistribution() throws PHXTypeMismatchException
    {
-      Random r = new Random();
-      return low + (high-low)*r.nextDouble();
+      for ( int var = 0; var < outputs.getLength(); var++ )
+      {
+         boolean weighted = estimator.isWeighted();
+         outputs.setRefPropValue( "p5", var, weighted ? Double.NaN : stats.getQuantile( var, 0.05 ) );
+         outputs.setRefPropValue( "p50", var, weighted ? Double.NaN : stats.getQuantile( var, 0.5 ) );
+         outputs.setRefPropValue( "p95", var, weighted ? Double.NaN : stats.getQuantile( var, 0.95 ) );
+      }
+      copyHistogram();
    }
 
-   public static double getTriangular( double low, double peak, double high )
+   /**
+    * half width of the confidence interval of avg at confidenceLevel
+    */
+   private double halfWidth( int var )
    {
-      Random r = new Random();
-      double d = (peak-low)/(high-low);
-      double u = r.nextDouble();
+      return DistributionSampler.normalQuantile( 0.5 + confidenceLevel/2 )*
+             estimator.getStandardError( var );
+   }
 
-      if ( u < d )
-         return low + Math.sqrt(u*(peak-low)*(high-low));
-      else
-         return high - Math.sqrt((1-u)*(high-peak)*(high-low));
+   private void copyHistogram()
+   {
+      int numOutputs = outputs.getLength();
+      int[] dims = histogram.getDimensions();
+      if ( dims.length != 2 || dims[0] != numOutputs || dims[1] != histogramBins )
+         histogram.resize( new int[] {numOutputs, histogramBins} );
+
+      if ( histogramCounts.length != histogramBins )
+         histogramCounts = new double[histogramBins];
+      double[] counts = histogramCounts;
+      int[] index = histogramIndex;
+      for ( int var = 0; var < numOutputs; var++ )
+      {
+         if ( estimator.isWeighted() )
+            java.util.Arrays.fill( counts, Double.NaN );
+         else
+            stats.getHistogram( var, histogramBins, counts, 0 );
+         index[0] = var;
+         for ( int b = 0; b < histogramBins; b++ )
+         {
+            index[1] = b;
+            histogram.setValue( index, counts[b] );
+         }
+      }
    }
 
-   public static double getExponential( double mean )
+   public void end()
    {
-      Random r = new Random();
-      return -mean*Math.log(1-r.nextDouble());
+      long t = metrics.enter();
+      try
+      {
+         // a study stopped between updates still leaves all its statistics
+         if ( trial > 0 )
+            computeDistribution();
+      }
+      catch ( PHXTypeMismatchException e )
+      {
+         throw new IllegalStateException( "cannot set the statistics of outputs", e );
+      }
+      finally
+      {
+         closeFiles();
+      }
+      metrics.exit( DriverMetrics.END, t );
    }
 
-   public static double getWeibull( double theta, double beta )
+   /**
+    * writes the trials completed since the last checkpoint and closes the
+    * checkpoint and result files, if there are any
+    */
+   private void closeFiles()
    {
-      Random r = new Random();
-      return theta*Math.pow(-Math.log(1-r.nextDouble()),1/beta);
+      java.io.IOException failure = null;
+      if ( checkpoint != null )
+      {
+         try
+         {
+            checkpoint.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            failure = e;
+         }
+         checkpoint = null;
+      }
+      if ( store != null )
+      {
+         try
+         {
+            store.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            if ( failure == null )
+               failure = e;
+         }
+         store = null;
+      }
+      if ( failure != null )
+         throw new java.io.UncheckedIOException( failure );
    }
+
+   public static String getAuthor() { return "Phoenix Integration"; }
+   public static String getVersion() { return "DEMO"; }
+   public static String getDescription() { return "example driver component"; }
+   public static String getHelpURL() { return "www.phoenix-int.com"; }
 }
@@ -0,0 +1,323 @@
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+
+/**
+ * Parametric study over several design variables at once, for sweeps
+ * like panel count x battery size x flow option that would otherwise
+ * take a chain of ParmStudy components.
+ *
+ * Each design variable has a "from" and a "to" value and, for the full
+ * factorial design, a number of steps between them; designType picks the
+ * point set (see SweepDesign): FullFactorial, SparseGrid (Smolyak, at
+ * sparseGridLevel), BoxBehnken or CentralComposite (with centerPoints
+ * centre runs and the axial points at axialDistance half-ranges). The
+ * points are generated from their index as the study runs, so a study of
+ * 10^8 points takes no memory up front.
+ *
+ * The index space can be split among several copies of the study, on
+ * separate servers or processes: copy shardIndex of shardCount runs a
+ * contiguous range of the points, getFirstPoint() .. getLastPoint()-1.
+ * Within a copy, a BatchExecutor spreads the points over its threads.
+ *
+ * The responses are not kept in memory. With resultFile set, every
+ * point's design variable values (x0, x1, ..) and responses (y0, y1, ..)
+ * stream out to a ResultStore, one row per point in point order; the
+ * stores of the shards, in shard order, make up the whole study. The
+ * smallest and largest value of each response are reported as it runs.
+ */
+public class MultiParmStudy implements IndexedBatchDriver
+{
+   private PHXReferenceArray designVars = new PHXReferenceArray();
+   private PHXReferenceArray responses = new PHXReferenceArray();
+   private String designType = "FullFactorial";
+   private int sparseGridLevel = 3;
+   private int centerPoints = 1;
+   private double axialDistance = 1;
+   private int shardIndex = 0;
+   private int shardCount = 1;
+   private SweepDesign design;
+   private double[] from = new double[0];
+   private double[] range = new double[0];
+   private long numPoints = 0;
+   private long firstPoint = 0;
+   private long lastPoint = 0;
+   private long iteration = 0;
+   private long generated = 0;
+   private double[] min = new double[0];
+   private double[] max = new double[0];
+   private String resultFile = "";
+   private ResultStore store = null;
+   private double[] point = new double[0];
+   private DriverMetrics metrics = new DriverMetrics( "MultiParmStudy" );
+
+   public MultiParmStudy()
+   {
+      IPHXRefPropInfo prop;
+
+      // ----- design variable setup
+      designVars.setAutoGrow( true );
+
+      prop = designVars.createRefProp( "from", "double" );
+      prop.setTitle( "From" );
+      prop.setDescription( "first value of the sweep" );
+
+      prop = designVars.createRefProp( "to", "double" );
+      prop.setTitle( "To" );
+      prop.setDescription( "last value of the sweep" );
+
+      prop = designVars.createRefProp( "numSteps", "long" );
+      prop.setTitle( "Number of Steps" );
+      prop.setDescription( "number of values from 'from' to 'to' in a FullFactorial design" );
+
+      // ----- response setup
+      responses.setAutoGrow( true );
+
+      prop = responses.createRefProp( "min", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Minimum" );
+      prop.setDescription( "smallest value observed" );
+
+      prop = responses.createRefProp( "max", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Maximum" );
+      prop.setDescription( "largest value observed" );
+   }
+
+   public PHXReferenceArray getDesignVars() { return designVars; }
+   public void setResponses( PHXReferenceArray v ) { responses = v; }
+   public PHXReferenceArray getResponses() { return responses; }
+   public void setDesignType( String v ) { designType = v; }
+   public String getDesignType() { return designType; }
+   public void setSparseGridLevel( int v ) { sparseGridLevel = v; }
+   public int getSparseGridLevel() { return sparseGridLevel; }
+   public void setCenterPoints( int v ) { centerPoints = v; }
+   public int getCenterPoints() { return centerPoints; }
+
+   /**
+    * distance of the CentralComposite axial points from the middle, in
+    * half-ranges: 1 puts them on the faces, 0 picks the rotatable design
+    */
+   public void setAxialDistance( double v ) { axialDistance = v; }
+   public double getAxialDistance() { return axialDistance; }
+
+   public void setShardIndex( int v ) { shardIndex = v; }
+   public int getShardIndex() { return shardIndex; }
+   public void setShardCount( int v ) { shardCount = v; }
+   public int getShardCount() { return shardCount; }
+   public void setResultFile( String v ) { resultFile = v; }
+   public String getResultFile() { return resultFile; }
+
+   /**
+    * number of points in the whole design, over all shards
+    */
+   public long getNumPoints() { return numPoints; }
+
+   /**
+    * the range of points this shard runs
+    */
+   public long getFirstPoint() { return firstPoint; }
+   public long getLastPoint() { return lastPoint; }
+
+   /**
+    * points of this shard completed so far
+    */
+   public long getIteration() { return iteration; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
+
+   /**
+    * this function is called before we begin iterating with the driver
+    */
+   public void initializeIterations() throws Exception
+   {
+      long t = metrics.begin();
+      if ( !(shardCount >= 1 && shardIndex >= 0 && shardIndex < shardCount) )
+         throw new IllegalArgumentException( "shardIndex must be from 0 to shardCount-1" );
+
+      int d = designVars.getLength();
+      from = new double[d];
+      range = new double[d];
+      long[] steps = new long[d];
+      for ( int i = 0; i < d; i++ )
+      {
+         from[i] = designVars.getRefPropValueDouble( "from", i );
+         range[i] = designVars.getRefPropValueDouble( "to", i ) - from[i];
+         steps[i] = designVars.getRefPropValueLong( "numSteps", i );
+      }
+      design = SweepDesign.create( designType, steps, sparseGridLevel, centerPoints,
+                                   axialDistance );
+      point = new double[d];
+
+      // contiguous, balanced ranges of the index space
+      numPoints = design.size();
+      firstPoint = shardStart( shardIndex );
+      lastPoint = shardStart( shardIndex + 1 );
+      iteration = 0;
+      generated = 0;
+
+      int m = responses.getLength();
+      min = new double[m];
+      max = new double[m];
+      java.util.Arrays.fill( min, Double.POSITIVE_INFINITY );
+      java.util.Arrays.fill( max, Double.NEGATIVE_INFINITY );
+
+      closeStore();
+      store = ResultStore.create( resultFile, ResultStore.columnNames( d, m ), false );
+      metrics.exit( DriverMetrics.INITIALIZE, t );
+   }
+
+   private long shardStart( int shard )
+   {
+      long q = numPoints/shardCount;
+      long r = numPoints%shardCount;
+      return q*shard + Math.min( shard, r );
+   }
+
+   /**
+    * this function is called at the beginning of each iteration. The
+    * component should set values for the case it wants the client
+    * to run.
+    */
+   public void startIteration() throws Exception
+   {
+      long t = metrics.enter();
+      sample( iteration, designVars.getValues(), 0 );
+      metrics.exit( DriverMetrics.START_ITERATION, t );
+   }
+
+   /**
+    * this function is called after the client application (ModelCenter)
+    * has had a chance to run the case. At this point, this component
+    * will have updated values for all of it's input variables
+    */
+   public boolean endIteration() throws Exception
+   {
+      long t = metrics.enter();
+      collect( iteration, responses.getValues(), 0 );
+      iteration++;
+      computeStatistics();
+      metrics.exit( DriverMetrics.END_ITERATION, t, responses.getValues(), 1, responses.getLength() );
+      return firstPoint + iteration < lastPoint;
+   }
+
+   public int getNumInputs() { return designVars.getLength(); }
+   public int getNumOutputs() { return responses.getLength(); }
+
+   /**
+    * batch mode: generates the next points without waiting for the
+    * results of the previous ones
+    */
+   public int nextBatch( double[] inputs, int maxCases )
+   {
+      long t = metrics.enter();
+      int d = designVars.getLength();
+      int n = (int)Math.min( maxCases, lastPoint - firstPoint - generated );
+      for ( int k = 0; k < n; k++ )
+      {
+         sample( generated, inputs, k*d );
+         generated++;
+      }
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
+
+   /**
+    * batch mode: folds in the results of the points from nextBatch()
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int m = responses.getLength();
+      for ( int k = 0; k < numCases; k++ )
+      {
+         collect( iteration, vals, k*m );
+         iteration++;
+      }
+      computeStatistics();
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return firstPoint + iteration < lastPoint;
+   }
+
+   /**
+    * writes the design variable values of this shard's point number k
+    * (from 0) to x[offset ..]
+    */
+   private void sample( long k, double[] x, int offset )
+   {
+      design.point( firstPoint + k, x, offset );
+      for ( int i = 0; i < from.length; i++ )
+      {
+         x[offset+i] = from[i] + x[offset+i]*range[i];
+      }
+   }
+
+   private void collect( long k, double[] vals, int offset ) throws java.io.IOException
+   {
+      int m = responses.getLength();
+      for ( int i = 0; i < m; i++ )
+      {
+         double v = vals[offset+i];
+         if ( v < min[i] )
+            min[i] = v;
+         if ( v > max[i] )
+            max[i] = v;
+      }
+
+      if ( store != null )
+      {
+         // the point is regenerated rather than kept from nextBatch()
+         sample( k, point, 0 );
+         store.write( k, 0, point, 0, point.length );
+         store.write( k, point.length, vals, offset, m );
+      }
+   }
+
+   void computeStatistics() throws PHXTypeMismatchException
+   {
+      for ( int i = 0; i < responses.getLength(); i++ )
+      {
+         responses.setRefPropValue( "min", i, min[i] );
+         responses.setRefPropValue( "max", i, max[i] );
+      }
+   }
+
+   public void end()
+   {
+      long t = metrics.enter();
+      closeStore();
+      metrics.exit( DriverMetrics.END, t );
+   }
+
+   private void closeStore()
+   {
+      if ( store != null )
+      {
+         try
+         {
+            store.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            throw new java.io.UncheckedIOException( e );
+         }
+         finally
+         {
+            store = null;
+         }
+      }
+   }
+
+   public static String getAuthor() { return "ASE6104 Team C1"; }
+   public static String getVersion() { return "1.0"; }
+   public static String getDescription() { return "Sweeps several design variables over factorial, sparse grid or response surface designs"; }
+   public static String getHelpURL() { return "www.phoenix-int.com"; }
+}
@@ -0,0 +1,241 @@
+/**
+ * NSGA-II (Deb et al., 2002) for the Pareto front of all objectives of a
+ * bounded problem.
+ *
+ * Each generation breeds as many offspring as there are parents: binary
+ * tournaments on front and crowding distance pick the parents, simulated
+ * binary crossover (SBX) mixes them and polynomial mutation perturbs the
+ * result. Parents and offspring are then sorted into fronts by
+ * ParetoArchive.sortFronts(), and the next population is filled front by
+ * front, the last front that fits only partly by largest crowding
+ * distance.
+ *
+ * The population defaults to 100. The method has no convergence test of
+ * its own and runs for the generations the problem allows; the front
+ * found is the problem's ParetoArchive.
+ */
+class NSGA2Method extends PopulationMethod
+{
+   private static final double CROSSOVER = 0.9;
+   private static final double CROSSOVER_INDEX = 15;
+   private static final double MUTATION_INDEX = 20;
+
+   public boolean isMultiObjective() { return true; }
+
+   public void run( PopulationProblem problem, RandomSource rng ) throws Exception
+   {
+      requireBounds( problem, "NSGA2" );
+
+      int n = problem.getDimension();
+      int m = problem.getNumObjectives();
+      int size = populationSize > 0 ? populationSize : 100;
+      size = Math.max( 4, size + (size & 1) );
+
+      // parents in the first half, offspring in the second
+      double[] x = new double[2*size*n];
+      double[] f = new double[2*size*m];
+      int[] rank = new int[size];
+      double[] crowd = new double[size];
+
+      double[] x0 = problem.getStart();
+      System.arraycopy( x0, 0, x, 0, n );
+      for ( int k = n; k < size*n; k++ )
+      {
+         x[k] = rng.nextDouble();
+      }
+      problem.evaluate( x, f, size );
+      select( f, size, m, size, x, n, rank, crowd );
+
+      double[] child = new double[size*n];
+      double[] childF = new double[size*m];
+      double mutation = 1.0/n;
+
+      converged = false;
+      while ( !problem.isExhausted() )
+      {
+         for ( int k = 0; k < size; k += 2 )
+         {
+            int a = tournament( rng, size, rank, crowd );
+            int b = tournament( rng, size, rank, crowd );
+            System.arraycopy( x, a*n, child, k*n, n );
+            System.arraycopy( x, b*n, child, (k+1)*n, n );
+            if ( rng.nextDouble() < CROSSOVER )
+               crossover( child, k*n, (k+1)*n, n, rng );
+            mutate( child, k*n, n, mutation, rng );
+            mutate( child, (k+1)*n, n, mutation, rng );
+         }
+
+         problem.evaluate( child, childF, size );
+         System.arraycopy( child, 0, x, size*n, size*n );
+         System.arraycopy( childF, 0, f, size*m, size*m );
+         select( f, 2*size, m, size, x, n, rank, crowd );
+      }
+   }
+
+   /**
+    * keeps the best size of the count points in x/f, moved to the front
+    * of the arrays, and records their front and crowding distance
+    */
+   private static void select( double[] f, int count, int m, int size,
+                               double[] x, int n, int[] rank, double[] crowd )
+   {
+      int[] front = ParetoArchive.sortFronts( f, count, m );
+
+      // counting sort of the points by front
+      int numFronts = 0;
+      for ( int k = 0; k < count; k++ )
+      {
+         numFronts = Math.max( numFronts, front[k]+1 );
+      }
+      int[] first = new int[numFronts+1];
+      for ( int k = 0; k < count; k++ )
+      {
+         first[front[k]+1]++;
+      }
+      for ( int r = 0; r < numFronts; r++ )
+      {
+         first[r+1] += first[r];
+      }
+      int[] byFront = new int[count];
+      int[] fill = first.clone();
+      for ( int k = 0; k < count; k++ )
+      {
+         byFront[fill[front[k]]++] = k;
+      }
+
+      int[] chosen = new int[size];
+      double[] chosenCrowd = new double[size];
+      int[] chosenRank = new int[size];
+      double[] distance = new double[count];
+      int taken = 0;
+      for ( int r = 0; r < numFronts && taken < size; r++ )
+      {
+         int[] members = new int[first[r+1] - first[r]];
+         System.arraycopy( byFront, first[r], members, 0, members.length );
+         ParetoArchive.crowding( f, m, members, members.length, distance );
+
+         int want = Math.min( members.length, size - taken );
+         if ( want < members.length )
+         {
+            // partial front: the most isolated members first
+            int[] order = new int[members.length];
+            double[] key = new double[members.length];
+            for ( int k = 0; k < order.length; k++ )
+            {
+               order[k] = k;
+               key[k] = -distance[k];
+            }
+            ParetoArchive.sortIndices( order, order.length, key, new int[order.length] );
+            for ( int k = 0; k < want; k++ )
+            {
+               chosen[taken] = members[order[k]];
+               chosenCrowd[taken] = distance[order[k]];
+               chosenRank[taken++] = r;
+            }
+         }
+         else
+         {
+            for ( int k = 0; k < want; k++ )
+            {
+               chosen[taken] = members[k];
+               chosenCrowd[taken] = distance[k];
+               chosenRank[taken++] = r;
+            }
+         }
+      }
+
+      double[] xs = new double[size*n];
+      double[] fs = new double[size*m];
+      for ( int k = 0; k < size; k++ )
+      {
+         System.arraycopy( x, chosen[k]*n, xs, k*n, n );
+         System.arraycopy( f, chosen[k]*m, fs, k*m, m );
+      }
+      System.arraycopy( xs, 0, x, 0, size*n );
+      System.arraycopy( fs, 0, f, 0, size*m );
+      System.arraycopy( chosenRank, 0, rank, 0, size );
+      System.arraycopy( chosenCrowd, 0, crowd, 0, size );
+   }
+
+   private static int tournament( RandomSource rng, int size, int[] rank, double[] crowd )
+   {
+      int a = Math.min( size-1, (int)(rng.nextDouble()*size) );
+      int b = Math.min( size-1, (int)(rng.nextDouble()*size) );
+      if ( rank[a] != rank[b] )
+         return rank[a] < rank[b] ? a : b;
+      return crowd[a] >= crowd[b] ? a : b;
+   }
+
+   /**
+    * simulated binary crossover of two children in place, variables in
+    * [0,1]
+    */
+   private static void crossover( double[] c, int off1, int off2, int n, RandomSource rng )
+   {
+      double power = 1/(CROSSOVER_INDEX + 1);
+      for ( int i = 0; i < n; i++ )
+      {
+         double p1 = c[off1+i];
+         double p2 = c[off2+i];
+         if ( rng.nextDouble() >= 0.5 || Math.abs( p1 - p2 ) < 1e-14 )
+            continue;
+
+         double y1 = Math.min( p1, p2 );
+         double y2 = Math.max( p1, p2 );
+         double u = rng.nextDouble();
+
+         double beta = 1 + 2*y1/(y2 - y1);
+         double alpha = 2 - Math.pow( beta, -(CROSSOVER_INDEX + 1) );
+         double betaq = u <= 1/alpha ? Math.pow( u*alpha, power )
+                                     : Math.pow( 1/(2 - u*alpha), power );
+         double a = 0.5*((y1 + y2) - betaq*(y2 - y1));
+
+         beta = 1 + 2*(1 - y2)/(y2 - y1);
+         alpha = 2 - Math.pow( beta, -(CROSSOVER_INDEX + 1) );
+         betaq = u <= 1/alpha ? Math.pow( u*alpha, power )
+                              : Math.pow( 1/(2 - u*alpha), power );
+         double b = 0.5*((y1 + y2) + betaq*(y2 - y1));
+
+         a = Math.min( 1, Math.max( 0, a ) );
+         b = Math.min( 1, Math.max( 0, b ) );
+         if ( rng.nextDouble() < 0.5 )
+         {
+            c[off1+i] = b;
+            c[off2+i] = a;
+         }
+         else
+         {
+            c[off1+i] = a;
+            c[off2+i] = b;
+         }
+      }
+   }
+
+   /**
+    * polynomial mutation in place, each variable with probability rate
+    */
+   private static void mutate( double[] c, int off, int n, double rate, RandomSource rng )
+   {
+      double power = 1/(MUTATION_INDEX + 1);
+      for ( int i = 0; i < n; i++ )
+      {
+         if ( rng.nextDouble() >= rate )
+            continue;
+
+         double y = c[off+i];
+         double u = rng.nextDouble();
+         double dq;
+         if ( u < 0.5 )
+         {
+            double v = 2*u + (1 - 2*u)*Math.pow( 1 - y, MUTATION_INDEX + 1 );
+            dq = Math.pow( v, power ) - 1;
+         }
+         else
+         {
+            double v = 2*(1 - u) + 2*(u - 0.5)*Math.pow( y, MUTATION_INDEX + 1 );
+            dq = 1 - Math.pow( v, power );
+         }
+         c[off+i] = Math.min( 1, Math.max( 0, y + dq ) );
+      }
+   }
+}
@@ -0,0 +1,183 @@
+
+/**
+ * Nelder-Mead simplex search with the dimension-dependent coefficients of
+ * Gao and Han (2012), which keep the method from stalling as the number
+ * of variables grows. Trial points are moved onto the bounds.
+ *
+ * The vertices of the first simplex and the points of a shrink step are
+ * evaluated as one batch. It converges when both the simplex and the
+ * spread of its values are within the tolerance.
+ */
+class NelderMeadMethod extends OptimizationMethod
+{
+   public void minimize( OptimizationProblem problem ) throws Exception
+   {
+      int n = problem.getDimension();
+      double alpha = 1;
+      double beta = 1 + 2.0/n;
+      double gamma = 0.75 - 0.5/n;
+      double delta = 1 - 1.0/n;
+      if ( n == 1 )
+      {
+         gamma = 0.5;
+         delta = 0.5;
+      }
+
+      // vertices row-major; vertex 0 is the start
+      double[] simplex = new double[(n+1)*n];
+      double[] f = new double[n+1];
+      double[] x0 = problem.getStart();
+      for ( int v = 0; v <= n; v++ )
+      {
+         System.arraycopy( x0, 0, simplex, v*n, n );
+         if ( v > 0 )
+         {
+            int i = v-1;
+            double step = initialStep;
+            if ( x0[i] + step > problem.getUpper( i ) )
+               step = -step;
+            simplex[v*n+i] = problem.clip( i, x0[i] + step );
+         }
+      }
+      problem.evaluate( simplex, f, n+1 );
+
+      double[] centroid = new double[n];
+      double[] xr = new double[n];
+      double[] xe = new double[n];
+      double[] xc = new double[n];
+      int[] order = new int[n+1];
+
+      while ( !problem.isExhausted() )
+      {
+         problem.nextIteration();
+         sort( f, order );
+         int best = order[0];
+         int worst = order[n];
+         int second = order[n-1];
+
+         // converged when the simplex and its values have collapsed
+         double size = 0;
+         for ( int v = 0; v <= n; v++ )
+         {
+            for ( int i = 0; i < n; i++ )
+            {
+               size = Math.max( size, Math.abs( simplex[v*n+i] - simplex[best*n+i] ) );
+            }
+         }
+         double spread = f[worst] - f[best];
+         if ( size <= tolerance && spread <= tolerance*Math.max( 1, Math.abs( f[best] ) ) )
+         {
+            converged = true;
+            return;
+         }
+
+         java.util.Arrays.fill( centroid, 0 );
+         for ( int v = 0; v <= n; v++ )
+         {
+            if ( v == worst )
+               continue;
+            for ( int i = 0; i < n; i++ )
+            {
+               centroid[i] += simplex[v*n+i]/n;
+            }
+         }
+
+         move( problem, centroid, simplex, worst*n, alpha, xr );
+         double fr = problem.evaluate( xr );
+
+         if ( fr < f[best] )
+         {
+            move( problem, centroid, simplex, worst*n, alpha*beta, xe );
+            double fe = problem.evaluate( xe );
+            if ( fe < fr )
+               replace( simplex, f, worst, n, xe, fe );
+            else
+               replace( simplex, f, worst, n, xr, fr );
+         }
+         else if ( fr < f[second] )
+         {
+            replace( simplex, f, worst, n, xr, fr );
+         }
+         else
+         {
+            // contract outside or inside, depending on which side is better
+            boolean outside = fr < f[worst];
+            move( problem, centroid, simplex, worst*n, outside ? alpha*gamma : -gamma, xc );
+            double fc = problem.evaluate( xc );
+            if ( fc <= (outside ? fr : f[worst]) )
+            {
+               replace( simplex, f, worst, n, xc, fc );
+            }
+            else
+            {
+               // shrink towards the best vertex, all n points in one batch
+               double[] shrunk = new double[n*n];
+               int k = 0;
+               for ( int v = 0; v <= n; v++ )
+               {
+                  if ( v == best )
+                     continue;
+                  for ( int i = 0; i < n; i++ )
+                  {
+                     double b = simplex[best*n+i];
+                     shrunk[k*n+i] = b + delta*(simplex[v*n+i] - b);
+                  }
+                  k++;
+               }
+               double[] fs = new double[n];
+               problem.evaluate( shrunk, fs, n );
+               k = 0;
+               for ( int v = 0; v <= n; v++ )
+               {
+                  if ( v == best )
+                     continue;
+                  System.arraycopy( shrunk, k*n, simplex, v*n, n );
+                  f[v] = fs[k];
+                  k++;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * x = centroid + coef*(centroid - simplex[worst]), moved onto the bounds
+    */
+   private static void move( OptimizationProblem problem, double[] centroid,
+                             double[] simplex, int worst, double coef, double[] x )
+   {
+      for ( int i = 0; i < x.length; i++ )
+      {
+         x[i] = problem.clip( i, centroid[i] + coef*(centroid[i] - simplex[worst+i]) );
+      }
+   }
+
+   private static void replace( double[] simplex, double[] f, int v, int n,
+                                double[] x, double fx )
+   {
+      System.arraycopy( x, 0, simplex, v*n, n );
+      f[v] = fx;
+   }
+
+   /**
+    * vertex numbers in order of increasing value
+    */
+   private static void sort( double[] f, int[] order )
+   {
+      for ( int i = 0; i < order.length; i++ )
+      {
+         order[i] = i;
+      }
+      for ( int i = 1; i < order.length; i++ )
+      {
+         int v = order[i];
+         int j = i - 1;
+         while ( j >= 0 && f[order[j]] > f[v] )
+         {
+            order[j+1] = order[j];
+            j--;
+         }
+         order[j+1] = v;
+      }
+   }
+}
@@ -0,0 +1,61 @@
+
+/**
+ * A local minimization method for a bound-constrained problem. A method
+ * works on the scaled variables of the OptimizationProblem and stops when
+ * it has converged to the tolerance or the problem is out of evaluations.
+ */
+abstract class OptimizationMethod
+{
+   public static final String TYPES = "NelderMead,TrustRegion,LBFGSB";
+
+   protected double initialStep = 0.1;
+   protected double tolerance = 1e-6;
+   protected double gradientStep = 1e-6;
+   protected boolean centralDifferences = false;
+   protected boolean converged = false;
+
+   /**
+    * creates a method by name
+    */
+   public static OptimizationMethod create( String type )
+   {
+      if ( type == null || type.length() == 0 || type.equals( "LBFGSB" ) )
+         return new LBFGSBMethod();
+      else if ( type.equals( "NelderMead" ) )
+         return new NelderMeadMethod();
+      else if ( type.equals( "TrustRegion" ) )
+         return new TrustRegionMethod();
+      else
+      {
+         String msg = "unsupported optimization method: " + type;
+         throw new IllegalArgumentException( msg );
+      }
+   }
+
+   /**
+    * size of the first steps, as a fraction of the variable ranges
+    */
+   public void setInitialStep( double v ) { initialStep = v; }
+
+   /**
+    * convergence tolerance on the scaled variables and the objective
+    */
+   public void setTolerance( double v ) { tolerance = v; }
+
+   /**
+    * finite difference step of the gradient-based methods, scaled
+    */
+   public void setGradientStep( double v ) { gradientStep = v; }
+
+   /**
+    * central rather than forward differences, at twice the evaluations
+    */
+   public void setCentralDifferences( boolean v ) { centralDifferences = v; }
+
+   public boolean isConverged() { return converged; }
+
+   /**
+    * minimizes the problem from its starting point
+    */
+   public abstract void minimize( OptimizationProblem problem ) throws Exception;
+}
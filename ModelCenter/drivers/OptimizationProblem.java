@@ -0,0 +1,167 @@
+
+/**
+ * A bound-constrained minimization problem as seen by an optimization
+ * method.
+ *
+ * The methods work on scaled variables: a variable with bounds is mapped
+ * to [0,1], one without (upper <= lower) is measured in units of its
+ * starting value, or 1 if that is smaller. Steps and tolerances can then
+ * be stated once for all variables. Points outside the bounds are moved
+ * onto them before they are evaluated.
+ *
+ * The problem counts evaluations and keeps the best point evaluated so
+ * far, so a method that runs out of evaluations still leaves its best
+ * answer behind. A response that is not a number counts as +infinity.
+ *
+ * maxEvaluations is a hard limit: a batch is cut to the evaluations
+ * left, and the points past them are not evaluated but answered with
+ * +infinity, as is every point once the problem is exhausted.
+ */
+class OptimizationProblem
+{
+   private final EvaluationBroker broker;
+   private final int dimension;
+   private final double[] offset;
+   private final double[] scale;
+   private final double[] lower;
+   private final double[] upper;
+   private final double[] start;
+   private final int maxEvaluations;
+   private double[] x = new double[0];
+   private double[] one = new double[1];
+   private final double[] best;
+   private double bestValue = Double.POSITIVE_INFINITY;
+   private int evaluations = 0;
+   private int iterations = 0;
+
+   /**
+    * @param x0 starting point in design units
+    * @param lo lower bounds, hi upper bounds; no bounds where hi <= lo
+    */
+   OptimizationProblem( EvaluationBroker broker, double[] x0, double[] lo,
+                        double[] hi, int maxEvaluations )
+   {
+      this.broker = broker;
+      this.maxEvaluations = maxEvaluations;
+      dimension = x0.length;
+      offset = new double[dimension];
+      scale = new double[dimension];
+      lower = new double[dimension];
+      upper = new double[dimension];
+      start = new double[dimension];
+      best = new double[dimension];
+
+      for ( int i = 0; i < dimension; i++ )
+      {
+         if ( hi[i] > lo[i] )
+         {
+            offset[i] = lo[i];
+            scale[i] = hi[i] - lo[i];
+            lower[i] = 0;
+            upper[i] = 1;
+         }
+         else
+         {
+            offset[i] = 0;
+            scale[i] = Math.max( 1, Math.abs( x0[i] ) );
+            lower[i] = Double.NEGATIVE_INFINITY;
+            upper[i] = Double.POSITIVE_INFINITY;
+         }
+         start[i] = clip( i, (x0[i] - offset[i])/scale[i] );
+      }
+      System.arraycopy( start, 0, best, 0, dimension );
+   }
+
+   public int getDimension() { return dimension; }
+   public double getLower( int i ) { return lower[i]; }
+   public double getUpper( int i ) { return upper[i]; }
+   public int getEvaluations() { return evaluations; }
+   public int getMaxEvaluations() { return maxEvaluations; }
+   public boolean isExhausted() { return evaluations >= maxEvaluations; }
+   public int getIterations() { return iterations; }
+   public void nextIteration() { iterations++; }
+   public double getBestValue() { return bestValue; }
+
+   /**
+    * the starting point, scaled
+    */
+   public double[] getStart() { return start.clone(); }
+
+   /**
+    * the best point evaluated so far, scaled
+    */
+   public double[] getBest() { return best.clone(); }
+
+   /**
+    * moves the scaled point u onto the bounds, in place
+    */
+   public void clip( double[] u, int off )
+   {
+      for ( int i = 0; i < dimension; i++ )
+      {
+         u[off+i] = clip( i, u[off+i] );
+      }
+   }
+
+   public double clip( int i, double v )
+   {
+      return Math.min( upper[i], Math.max( lower[i], v ) );
+   }
+
+   /**
+    * the design point of the scaled point u
+    */
+   public void toDesign( double[] u, int uOff, double[] x, int xOff )
+   {
+      for ( int i = 0; i < dimension; i++ )
+      {
+         x[xOff+i] = offset[i] + scale[i]*clip( i, u[uOff+i] );
+      }
+   }
+
+   /**
+    * evaluates count scaled points, row-major in u, into f; the points
+    * are evaluated concurrently where the driver allows it. Only as many
+    * as there are evaluations left are run; the others get +infinity.
+    */
+   public void evaluate( double[] u, double[] f, int count ) throws InterruptedException
+   {
+      int run = Math.max( 0, Math.min( count, maxEvaluations - evaluations ) );
+      java.util.Arrays.fill( f, run, count, Double.POSITIVE_INFINITY );
+      if ( run == 0 )
+         return;
+
+      if ( x.length < run*dimension )
+         x = new double[run*dimension];
+      for ( int k = 0; k < run; k++ )
+      {
+         toDesign( u, k*dimension, x, k*dimension );
+      }
+
+      broker.evaluate( x, f, run );
+      evaluations += run;
+
+      for ( int k = 0; k < run; k++ )
+      {
+         if ( Double.isNaN( f[k] ) )
+            f[k] = Double.POSITIVE_INFINITY;
+         if ( f[k] < bestValue )
+         {
+            bestValue = f[k];
+            for ( int i = 0; i < dimension; i++ )
+            {
+               best[i] = clip( i, u[k*dimension+i] );
+            }
+         }
+      }
+   }
+
+   /**
+    * evaluates one scaled point
+    */
+   public double evaluate( double[] u ) throws InterruptedException
+   {
+      evaluate( u, one, 1 );
+      return one[0];
+   }
+}
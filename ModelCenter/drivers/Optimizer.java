@@ -0,0 +1,257 @@
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+
+/**
+ * Bound-constrained optimizer driver for any number of design variables.
+ * It replaces Minimizer, which steps a single variable by a fixed,
+ * halving step.
+ *
+ * The method is one of
+ *   NelderMead  - simplex search, no gradients
+ *   TrustRegion - BOBYQA-style quadratic interpolation model, no gradients
+ *   LBFGSB      - quasi-Newton with finite difference gradients
+ *
+ * Each design variable carries lowerBound/upperBound ref-props; a variable
+ * whose upper bound is not above its lower bound is unbounded. The study
+ * starts from the current values of the design variables and leaves them
+ * at the best point found.
+ *
+ * maxEvaluations is a hard limit on the cases the method runs; the
+ * extra case under ModelCenter that leaves the model at the best point
+ * is not counted.
+ *
+ * The method runs in a thread of its own (see EvaluationBroker). Under
+ * ModelCenter it gets one case per iteration; under a BatchExecutor the
+ * cases it asks for together, such as the perturbations of a gradient,
+ * are evaluated concurrently.
+ */
+public class Optimizer implements BatchDriver
+{
+   private PHXReferenceArray designVars = new PHXReferenceArray();
+   private PHXReference valueToMinimize = new PHXReference();
+   private String method = "LBFGSB";
+   private int maxEvaluations = 500;
+   private double tolerance = 1e-6;
+   private double initialStepSize = 0.1;
+   private double gradientStep = 1e-6;
+   private boolean centralDifferences = false;
+
+   private int iterations = 0;
+   private int evaluations = 0;
+   private double bestValue = 0;
+   private boolean converged = false;
+
+   private EvaluationBroker broker;
+   private OptimizationProblem problem;
+   private OptimizationMethod algorithm;
+   private double[] point = new double[0];
+   private double[] value = new double[1];
+   private boolean sequential = false;
+   private DriverMetrics metrics = new DriverMetrics( "Optimizer" );
+
+   public Optimizer()
+   {
+      IPHXRefPropInfo prop;
+
+      designVars.setAutoGrow( true );
+
+      prop = designVars.createRefProp( "lowerBound", "double" );
+      prop.setTitle( "Lower Bound" );
+      prop.setDescription( "smallest value the optimizer may set" );
+
+      prop = designVars.createRefProp( "upperBound", "double" );
+      prop.setTitle( "Upper Bound" );
+      prop.setDescription( "largest value the optimizer may set; no bounds if not above the lower bound" );
+   }
+
+   // inputs
+   public PHXReferenceArray getDesignVars() { return designVars; }
+   public void setValueToMinimize( PHXReference v ) { valueToMinimize = v; }
+   public PHXReference getValueToMinimize() { return valueToMinimize; }
+   public void setMethod( String v ) { method = v; }
+   public String getMethod() { return method; }
+   public void setMaxEvaluations( int v ) { maxEvaluations = v; }
+   public int getMaxEvaluations() { return maxEvaluations; }
+   public void setTolerance( double v ) { tolerance = v; }
+   public double getTolerance() { return tolerance; }
+   public void setInitialStepSize( double v ) { initialStepSize = v; }
+   public double getInitialStepSize() { return initialStepSize; }
+   public void setGradientStep( double v ) { gradientStep = v; }
+   public double getGradientStep() { return gradientStep; }
+   public void setCentralDifferences( boolean v ) { centralDifferences = v; }
+   public boolean getCentralDifferences() { return centralDifferences; }
+
+   // outputs
+   public int getIterations() { return iterations; }
+   public int getEvaluations() { return evaluations; }
+   public double getBestValue() { return bestValue; }
+   public boolean getConverged() { return converged; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
+
+   /**
+    * this function is called before we begin iterating with the driver
+    */
+   public void initializeIterations() throws Exception
+   {
+      long t = metrics.begin();
+      stop();
+
+      int n = designVars.getLength();
+      double[] x0 = designVars.getValues().clone();
+      double[] lower = new double[n];
+      double[] upper = new double[n];
+      for ( int i = 0; i < n; i++ )
+      {
+         lower[i] = designVars.getRefPropValueDouble( "lowerBound", i );
+         upper[i] = designVars.getRefPropValueDouble( "upperBound", i );
+      }
+
+      algorithm = OptimizationMethod.create( method );
+      algorithm.setInitialStep( initialStepSize );
+      algorithm.setTolerance( tolerance );
+      algorithm.setGradientStep( gradientStep );
+      algorithm.setCentralDifferences( centralDifferences );
+
+      broker = new EvaluationBroker( n, 1 );
+      problem = new OptimizationProblem( broker, x0, lower, upper, maxEvaluations );
+      point = new double[n];
+      iterations = 0;
+      evaluations = 0;
+      bestValue = problem.getBestValue();
+      converged = false;
+      sequential = false;
+
+      final OptimizationProblem p = problem;
+      final OptimizationMethod a = algorithm;
+      broker.start( new EvaluationBroker.Task()
+      {
+         public void run( EvaluationBroker b ) throws Exception
+         {
+            a.minimize( p );
+
+            // under ModelCenter, run the best point once more so that the
+            // model is left there
+            // past the evaluation limit and without being counted
+            if ( sequential )
+            {
+               double[] x = new double[p.getDimension()];
+               p.toDesign( p.getBest(), 0, x, 0 );
+               b.evaluate( x, new double[1], 1 );
+            }
+         }
+      }, "Optimizer" );
+      metrics.exit( DriverMetrics.INITIALIZE, t );
+   }
+
+   /**
+    * this function is called at the beginning of each iteration. The
+    * component should set values for the case it wants the client
+    * to run.
+    */
+   public void startIteration() throws Exception
+   {
+      long t = metrics.enter();
+      sequential = true;
+      if ( broker.next( point, 1 ) == 0 )
+         problem.toDesign( problem.getBest(), 0, point, 0 );
+      System.arraycopy( point, 0, designVars.getValues(), 0, point.length );
+      metrics.exit( DriverMetrics.START_ITERATION, t );
+   }
+
+   /**
+    * this function is called after the client application (ModelCenter)
+    * has had a chance to run the case. At this point, this component
+    * will have updated values for all of it's input variables
+    */
+   public boolean endIteration() throws Exception
+   {
+      long t = metrics.enter();
+      value[0] = valueToMinimize.getValue();
+      boolean more = accept( value, 1 );
+      metrics.exit( DriverMetrics.END_ITERATION, t, value, 1, 1 );
+      return more;
+   }
+
+   public int getNumInputs() { return designVars.getLength(); }
+   public int getNumOutputs() { return 1; }
+
+   /**
+    * batch mode: hands out the points the method has asked for
+    */
+   public int nextBatch( double[] inputs, int maxCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int n = broker.next( inputs, maxCases );
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
+
+   /**
+    * batch mode: returns the objective values to the method
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
+   {
+      long t = metrics.enter();
+      boolean more = accept( vals, numCases );
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return more;
+   }
+
+   private boolean accept( double[] vals, int numCases ) throws Exception
+   {
+      boolean more = broker.accept( vals, numCases );
+
+      // the method only runs while the broker waits here, so its
+      // counters can be read without locking
+      iterations = problem.getIterations();
+      evaluations = problem.getEvaluations();
+      bestValue = problem.getBestValue();
+      if ( !more )
+      {
+         converged = algorithm.isConverged();
+         problem.toDesign( problem.getBest(), 0, designVars.getValues(), 0 );
+      }
+      return more;
+   }
+
+   public void end()
+   {
+      long t = metrics.enter();
+      try
+      {
+         stop();
+      }
+      catch ( InterruptedException e )
+      {
+         Thread.currentThread().interrupt();
+      }
+      metrics.exit( DriverMetrics.END, t );
+   }
+
+   /**
+    * cancels a method that is still waiting for evaluations
+    */
+   private void stop() throws InterruptedException
+   {
+      if ( broker != null )
+      {
+         broker.cancel();
+         broker = null;
+      }
+   }
+
+   public static String getAuthor() { return "ASE6104 Team C1"; }
+   public static String getVersion() { return "1.0"; }
+   public static String getDescription() { return "Minimizes a response over several bounded design variables"; }
+   public static String getHelpURL() { return "www.phoenix-int.com"; }
+}
@@ -0,0 +1,757 @@
+
+import java.util.Arrays;
+
+/**
+ * The non-dominated points found so far by a population optimizer, all
+ * objectives minimized. Points enter the archive when nothing in it
+ * dominates them and push out the members they dominate. Past capacity,
+ * the member with the smallest crowding distance is dropped, which keeps
+ * the front evenly covered.
+ *
+ * Also holds the non-dominated sorting and crowding distance used by
+ * NSGA-II.
+ */
+class ParetoArchive
+{
+   private final int numInputs;
+   private final int numObjectives;
+   private final int capacity;
+   private double[] x = new double[0];
+   private double[] f = new double[0];
+   private int[] born = new int[0];
+   private int size = 0;
+
+   ParetoArchive( int numInputs, int numObjectives, int capacity )
+   {
+      this.numInputs = numInputs;
+      this.numObjectives = numObjectives;
+      this.capacity = Math.max( 1, capacity );
+   }
+
+   public int size() { return size; }
+   public int getNumInputs() { return numInputs; }
+   public int getNumObjectives() { return numObjectives; }
+   public double getInput( int k, int i ) { return x[k*numInputs+i]; }
+   public double getObjective( int k, int j ) { return f[k*numObjectives+j]; }
+
+   /**
+    * the generation in which member k entered the archive
+    */
+   public int getGeneration( int k ) { return born[k]; }
+
+   /**
+    * offers count points to the archive, row-major in xs and fs, and
+    * returns how many of them were taken in
+    */
+   public int add( double[] xs, double[] fs, int count, int generation )
+   {
+      int added = 0;
+      for ( int c = 0; c < count; c++ )
+      {
+         if ( insert( xs, c*numInputs, fs, c*numObjectives, generation ) )
+            added++;
+      }
+      if ( size > capacity )
+         truncate();
+      return added;
+   }
+
+   private boolean insert( double[] xs, int xOff, double[] fs, int fOff, int generation )
+   {
+      for ( int k = 0; k < size; k++ )
+      {
+         if ( dominatesOrEquals( f, k*numObjectives, fs, fOff, numObjectives ) )
+            return false;
+      }
+      for ( int k = size-1; k >= 0; k-- )
+      {
+         if ( dominates( fs, fOff, f, k*numObjectives, numObjectives ) )
+            remove( k );
+      }
+
+      if ( size == born.length )
+      {
+         int grow = Math.max( 16, 2*size );
+         x = Arrays.copyOf( x, grow*numInputs );
+         f = Arrays.copyOf( f, grow*numObjectives );
+         born = Arrays.copyOf( born, grow );
+      }
+      System.arraycopy( xs, xOff, x, size*numInputs, numInputs );
+      System.arraycopy( fs, fOff, f, size*numObjectives, numObjectives );
+      born[size] = generation;
+      size++;
+      return true;
+   }
+
+   private void remove( int k )
+   {
+      int last = size-1;
+      System.arraycopy( x, last*numInputs, x, k*numInputs, numInputs );
+      System.arraycopy( f, last*numObjectives, f, k*numObjectives, numObjectives );
+      born[k] = born[last];
+      size--;
+   }
+
+   /**
+    * drops the most crowded members until the archive is back at
+    * capacity. The crowding distances are computed once: dropping a
+    * member only changes the distances of its two neighbours in each
+    * objective, which are updated in place. Dropping an extreme changes
+    * the range of an objective, and so every distance, and they are then
+    * computed afresh; that happens only once every member left is an
+    * extreme.
+    */
+   private void truncate()
+   {
+      int m = numObjectives;
+      int n = size;
+      int[][] prev = new int[m][n];
+      int[][] next = new int[m][n];
+      double[] range = new double[m];
+      double[] distance = new double[n];
+      boolean[] dropped = new boolean[n];
+      int[] order = new int[n];
+      int[] scratch = new int[n];
+      double[] key = new double[n];
+      boolean stale = true;
+
+      for ( int left = n; left > capacity; left-- )
+      {
+         if ( stale )
+         {
+            int count = 0;
+            for ( int k = 0; k < n; k++ )
+            {
+               if ( !dropped[k] )
+                  order[count++] = k;
+            }
+            int[] members = Arrays.copyOf( order, count );
+            for ( int k : members )
+            {
+               distance[k] = count <= 2 ? Double.POSITIVE_INFINITY : 0;
+            }
+            for ( int j = 0; j < m; j++ )
+            {
+               for ( int k = 0; k < count; k++ )
+               {
+                  order[k] = members[k];
+                  key[members[k]] = f[members[k]*m+j];
+               }
+               sortIndices( order, count, key, scratch );
+               int[] p = prev[j];
+               int[] q = next[j];
+               for ( int k = 0; k < count; k++ )
+               {
+                  p[order[k]] = k > 0 ? order[k-1] : -1;
+                  q[order[k]] = k < count-1 ? order[k+1] : -1;
+               }
+               range[j] = key[order[count-1]] - key[order[0]];
+               if ( count <= 2 )
+                  continue;
+               distance[order[0]] = Double.POSITIVE_INFINITY;
+               distance[order[count-1]] = Double.POSITIVE_INFINITY;
+               if ( range[j] <= 0 )
+                  continue;
+               for ( int k = 1; k < count-1; k++ )
+               {
+                  distance[order[k]] += (key[order[k+1]] - key[order[k-1]])/range[j];
+               }
+            }
+            stale = false;
+         }
+
+         int worst = -1;
+         for ( int k = 0; k < n; k++ )
+         {
+            if ( !dropped[k] && (worst < 0 || distance[k] < distance[worst]) )
+               worst = k;
+         }
+         dropped[worst] = true;
+         if ( distance[worst] == Double.POSITIVE_INFINITY )
+         {
+            stale = true;
+            continue;
+         }
+
+         // not an extreme, so it has a neighbour on either side in every
+         // objective; the gap each neighbour spans now reaches past it
+         for ( int j = 0; j < m; j++ )
+         {
+            int a = prev[j][worst];
+            int b = next[j][worst];
+            next[j][a] = b;
+            prev[j][b] = a;
+            if ( range[j] <= 0 )
+               continue;
+            double w = f[worst*m+j];
+            if ( prev[j][a] >= 0 )
+               distance[a] += (f[b*m+j] - w)/range[j];
+            if ( next[j][b] >= 0 )
+               distance[b] += (w - f[a*m+j])/range[j];
+         }
+      }
+
+      int kept = 0;
+      for ( int k = 0; k < n; k++ )
+      {
+         if ( dropped[k] )
+            continue;
+         if ( kept != k )
+         {
+            System.arraycopy( x, k*numInputs, x, kept*numInputs, numInputs );
+            System.arraycopy( f, k*m, f, kept*m, m );
+            born[kept] = born[k];
+         }
+         kept++;
+      }
+      size = kept;
+   }
+
+   /**
+    * true if a dominates b: no worse in every objective, better in one
+    */
+   static boolean dominates( double[] a, int aOff, double[] b, int bOff, int m )
+   {
+      boolean better = false;
+      for ( int j = 0; j < m; j++ )
+      {
+         if ( a[aOff+j] > b[bOff+j] )
+            return false;
+         if ( a[aOff+j] < b[bOff+j] )
+            better = true;
+      }
+      return better;
+   }
+
+   private static boolean dominatesOrEquals( double[] a, int aOff, double[] b, int bOff, int m )
+   {
+      for ( int j = 0; j < m; j++ )
+      {
+         if ( a[aOff+j] > b[bOff+j] )
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * non-dominated sorting of n points with m objectives, row-major in f:
+    * returns the front of each point, 0 for the non-dominated ones.
+    *
+    * With one or two objectives this is ENS-BS (Zhang et al., 2015). The
+    * points are sorted lexicographically, so no point can be dominated by
+    * one after it, and each point is put in its front by a binary search
+    * over the fronts built so far. A front dominates a point only if all
+    * fronts before it do, which makes the search valid, and with two
+    * objectives the last member of a front decides, so the sort is
+    * O(N log N).
+    *
+    * With more objectives a point would have to be compared with every
+    * member of a front, O(M N^2) when the fronts are large, as they are
+    * in a converged population. There the divide-and-conquer sort of
+    * FrontSorter is used instead, O(N log^(M-1) N).
+    */
+   static int[] sortFronts( final double[] f, int n, final int m )
+   {
+      Integer[] order = lexicographic( f, n, m );
+      if ( m >= 3 )
+         return new FrontSorter( f, n, m, order ).sort();
+
+      int[] rank = new int[n];
+      int[][] fronts = new int[4][];
+      int[] frontSize = new int[4];
+      int numFronts = 0;
+
+      for ( int k = 0; k < n; k++ )
+      {
+         int p = order[k];
+         int lo = 0;
+         int hi = numFronts;
+         while ( lo < hi )
+         {
+            int mid = (lo + hi) >>> 1;
+            if ( dominatedBy( fronts[mid], frontSize[mid], f, p, m ) )
+               lo = mid + 1;
+            else
+               hi = mid;
+         }
+
+         if ( lo == numFronts )
+         {
+            if ( numFronts == fronts.length )
+            {
+               fronts = Arrays.copyOf( fronts, 2*numFronts );
+               frontSize = Arrays.copyOf( frontSize, 2*numFronts );
+            }
+            fronts[numFronts] = new int[8];
+            frontSize[numFronts] = 0;
+            numFronts++;
+         }
+         if ( frontSize[lo] == fronts[lo].length )
+            fronts[lo] = Arrays.copyOf( fronts[lo], 2*frontSize[lo] );
+         fronts[lo][frontSize[lo]++] = p;
+         rank[p] = lo;
+      }
+      return rank;
+   }
+
+   /**
+    * the indices of the n points ordered lexicographically by objective
+    */
+   private static Integer[] lexicographic( final double[] f, int n, final int m )
+   {
+      Integer[] order = new Integer[n];
+      for ( int k = 0; k < n; k++ )
+      {
+         order[k] = k;
+      }
+      Arrays.sort( order, ( a, b ) ->
+      {
+         for ( int j = 0; j < m; j++ )
+         {
+            int c = Double.compare( f[a*m+j], f[b*m+j] );
+            if ( c != 0 )
+               return c;
+         }
+         return 0;
+      } );
+      return order;
+   }
+
+   private static boolean dominatedBy( int[] front, int size, double[] f, int p, int m )
+   {
+      if ( m == 2 )
+      {
+         // sorted by the first objective, the last member has the
+         // smallest second objective of its front
+         return dominates( f, front[size-1]*m, f, p*m, m );
+      }
+      for ( int k = size-1; k >= 0; k-- )
+      {
+         if ( dominates( f, front[k]*m, f, p*m, m ) )
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * crowding distance of count points of one front, listed in members,
+    * written to distance[0 .. count-1]; the extremes of every objective
+    * get infinity
+    */
+   static void crowding( final double[] f, final int m, int[] members, int count,
+                         double[] distance )
+   {
+      Arrays.fill( distance, 0, count, 0 );
+      if ( count <= 2 )
+      {
+         Arrays.fill( distance, 0, count, Double.POSITIVE_INFINITY );
+         return;
+      }
+
+      int[] order = new int[count];
+      int[] scratch = new int[count];
+      double[] key = new double[count];
+      for ( int j = 0; j < m; j++ )
+      {
+         for ( int k = 0; k < count; k++ )
+         {
+            order[k] = k;
+            key[k] = f[members[k]*m+j];
+         }
+         sortIndices( order, count, key, scratch );
+
+         double lo = key[order[0]];
+         double hi = key[order[count-1]];
+         distance[order[0]] = Double.POSITIVE_INFINITY;
+         distance[order[count-1]] = Double.POSITIVE_INFINITY;
+         if ( hi <= lo )
+            continue;
+         for ( int k = 1; k < count-1; k++ )
+         {
+            distance[order[k]] += (key[order[k+1]] - key[order[k-1]])/(hi - lo);
+         }
+      }
+   }
+
+   /**
+    * sorts the indices order[0 .. count-1] by ascending key[index], ties
+    * in their original order: a merge sort on the ints themselves rather
+    * than on boxed Integers. scratch holds at least count ints.
+    */
+   static void sortIndices( int[] order, int count, double[] key, int[] scratch )
+   {
+      final int RUN = 16;
+      for ( int lo = 0; lo < count; lo += RUN )
+      {
+         int hi = Math.min( count, lo + RUN );
+         for ( int i = lo + 1; i < hi; i++ )
+         {
+            int v = order[i];
+            int k = i - 1;
+            while ( k >= lo && Double.compare( key[order[k]], key[v] ) > 0 )
+            {
+               order[k+1] = order[k];
+               k--;
+            }
+            order[k+1] = v;
+         }
+      }
+
+      int[] from = order;
+      int[] to = scratch;
+      for ( int width = RUN; width < count; width *= 2 )
+      {
+         for ( int lo = 0; lo < count; lo += 2*width )
+         {
+            int mid = Math.min( count, lo + width );
+            int hi = Math.min( count, lo + 2*width );
+            int i = lo;
+            int j = mid;
+            for ( int k = lo; k < hi; k++ )
+            {
+               if ( j >= hi || (i < mid && Double.compare( key[from[i]], key[from[j]] ) <= 0) )
+                  to[k] = from[i++];
+               else
+                  to[k] = from[j++];
+            }
+         }
+         int[] t = from; from = to; to = t;
+      }
+      if ( from != order )
+         System.arraycopy( from, 0, order, 0, count );
+   }
+
+   /**
+    * Jensen's divide-and-conquer non-dominated sorting, as generalized
+    * to any number of objectives and to ties by Fortin et al. (2013) and
+    * Buzdalov and Shalyto (2014).
+    *
+    * The distinct points are taken in lexicographic order, duplicates
+    * sharing a rank, so a point can only be dominated by one before it,
+    * and a point's front is one more than the largest front among the
+    * points that dominate it. Sets of points are kept as ascending
+    * positions in that order. helperA() ranks a set among itself on
+    * objectives 0..k, all its points being equal past k; helperB()
+    * raises the ranks of a set H by those of a set L whose ranks are
+    * final, every point of L being no worse than every point of H past
+    * k. Both split on the median of objective k and go down to k-1
+    * where objective k is settled, until two objectives are left, which
+    * a sweep in objective 1 ranks in O(N log N).
+    */
+   private static final class FrontSorter
+   {
+      private static final int BRUTE_FORCE = 64;
+
+      private final int m;
+      private final double[] g;
+      private final int[] rank;
+      private final int[] unique;
+      private final int numPoints;
+
+      FrontSorter( double[] f, int n, int m, Integer[] order )
+      {
+         this.m = m;
+         this.numPoints = n;
+         g = new double[n*m];
+         unique = new int[n];
+         int count = 0;
+         for ( int k = 0; k < n; k++ )
+         {
+            int p = order[k];
+            if ( count == 0 || !equal( g, (count-1)*m, f, p*m, m ) )
+            {
+               System.arraycopy( f, p*m, g, count*m, m );
+               count++;
+            }
+            unique[p] = count-1;
+         }
+         rank = new int[count];
+      }
+
+      int[] sort()
+      {
+         int[] all = new int[rank.length];
+         for ( int k = 0; k < all.length; k++ )
+         {
+            all[k] = k;
+         }
+         helperA( all, m-1 );
+
+         int[] front = new int[numPoints];
+         for ( int p = 0; p < numPoints; p++ )
+         {
+            front[p] = rank[unique[p]];
+         }
+         return front;
+      }
+
+      private void helperA( int[] s, int k )
+      {
+         if ( s.length < 2 )
+            return;
+         if ( s.length <= 8 )
+         {
+            for ( int b = 1; b < s.length; b++ )
+            {
+               for ( int a = 0; a < b; a++ )
+               {
+                  raise( s[a], s[b], k );
+               }
+            }
+            return;
+         }
+         if ( k == 1 )
+         {
+            sweepA( s );
+            return;
+         }
+
+         double median = median( s, s, k );
+         int[] lo = select( s, k, median, -1 );
+         int[] eq = select( s, k, median, 0 );
+         int[] hi = select( s, k, median, 1 );
+         helperA( lo, k );
+         helperB( lo, eq, k-1 );
+         helperA( eq, k-1 );
+         helperB( merge( lo, eq ), hi, k-1 );
+         helperA( hi, k );
+      }
+
+      private void helperB( int[] l, int[] h, int k )
+      {
+         if ( l.length == 0 || h.length == 0 )
+            return;
+         if ( l.length == 1 || h.length == 1 || l.length*h.length <= BRUTE_FORCE )
+         {
+            for ( int b : h )
+            {
+               for ( int a : l )
+               {
+                  raise( a, b, k );
+               }
+            }
+            return;
+         }
+         if ( k == 1 )
+         {
+            sweepB( l, h );
+            return;
+         }
+
+         double lMin = Double.POSITIVE_INFINITY;
+         double lMax = Double.NEGATIVE_INFINITY;
+         double hMin = Double.POSITIVE_INFINITY;
+         double hMax = Double.NEGATIVE_INFINITY;
+         for ( int a : l )
+         {
+            lMin = Math.min( lMin, g[a*m+k] );
+            lMax = Math.max( lMax, g[a*m+k] );
+         }
+         for ( int b : h )
+         {
+            hMin = Math.min( hMin, g[b*m+k] );
+            hMax = Math.max( hMax, g[b*m+k] );
+         }
+         if ( lMax <= hMin )
+         {
+            helperB( l, h, k-1 );
+            return;
+         }
+         if ( lMin > hMax )
+            return;
+
+         double median = median( l, h, k );
+         int[] lLo = select( l, k, median, -1 );
+         int[] hLo = select( h, k, median, -1 );
+         helperB( lLo, hLo, k );
+         helperB( merge( lLo, select( l, k, median, 0 ) ),
+                  merge( select( h, k, median, 0 ), select( h, k, median, 1 ) ), k-1 );
+         helperB( select( l, k, median, 1 ), select( h, k, median, 1 ), k );
+      }
+
+      /**
+       * ranks s on objectives 0 and 1: in lexicographic order, a point is
+       * dominated by the earlier points no larger in objective 1
+       */
+      private void sweepA( int[] s )
+      {
+         double[] keys = keys( s );
+         int[] tree = new int[keys.length+1];
+         Arrays.fill( tree, -1 );
+         for ( int p : s )
+         {
+            int c = Arrays.binarySearch( keys, g[p*m+1] ) + 1;
+            int best = query( tree, c );
+            if ( best >= 0 )
+               rank[p] = Math.max( rank[p], best+1 );
+            update( tree, c, rank[p] );
+         }
+      }
+
+      /**
+       * raises h by l on objectives 0 and 1, the same sweep with only the
+       * points of l entered
+       */
+      private void sweepB( int[] l, int[] h )
+      {
+         double[] keys = keys( l );
+         int[] tree = new int[keys.length+1];
+         Arrays.fill( tree, -1 );
+         int a = 0;
+         for ( int p : h )
+         {
+            while ( a < l.length && l[a] < p )
+            {
+               update( tree, Arrays.binarySearch( keys, g[l[a]*m+1] ) + 1, rank[l[a]] );
+               a++;
+            }
+            int c = Arrays.binarySearch( keys, g[p*m+1] );
+            int best = query( tree, c >= 0 ? c+1 : -c-1 );
+            if ( best >= 0 )
+               rank[p] = Math.max( rank[p], best+1 );
+         }
+      }
+
+      /**
+       * the distinct values of objective 1 in s, ascending
+       */
+      private double[] keys( int[] s )
+      {
+         double[] keys = new double[s.length];
+         for ( int k = 0; k < s.length; k++ )
+         {
+            keys[k] = g[s[k]*m+1];
+         }
+         Arrays.sort( keys );
+         int count = 0;
+         for ( int k = 0; k < keys.length; k++ )
+         {
+            if ( count == 0 || keys[k] != keys[count-1] )
+               keys[count++] = keys[k];
+         }
+         return Arrays.copyOf( keys, count );
+      }
+
+      // a Fenwick tree of prefix maxima over 1-based key positions
+
+      private static int query( int[] tree, int c )
+      {
+         int best = -1;
+         for ( ; c > 0; c -= c & -c )
+         {
+            best = Math.max( best, tree[c] );
+         }
+         return best;
+      }
+
+      private static void update( int[] tree, int c, int value )
+      {
+         for ( ; c < tree.length; c += c & -c )
+         {
+            tree[c] = Math.max( tree[c], value );
+         }
+      }
+
+      /**
+       * raises the rank of b above that of a if a is no worse on
+       * objectives 0..k; past k that is given, and distinct points that
+       * are no worse everywhere dominate
+       */
+      private void raise( int a, int b, int k )
+      {
+         for ( int j = 0; j <= k; j++ )
+         {
+            if ( g[a*m+j] > g[b*m+j] )
+               return;
+         }
+         rank[b] = Math.max( rank[b], rank[a]+1 );
+      }
+
+      /**
+       * the median of objective k over the points of a and b, by
+       * quickselect
+       */
+      private double median( int[] a, int[] b, int k )
+      {
+         int n = a == b ? a.length : a.length + b.length;
+         double[] v = new double[n];
+         for ( int i = 0; i < a.length; i++ )
+         {
+            v[i] = g[a[i]*m+k];
+         }
+         for ( int i = a.length; i < n; i++ )
+         {
+            v[i] = g[b[i-a.length]*m+k];
+         }
+
+         int want = n/2;
+         int lo = 0;
+         int hi = n-1;
+         while ( lo < hi )
+         {
+            double pivot = v[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while ( i <= j )
+            {
+               while ( v[i] < pivot )
+                  i++;
+               while ( v[j] > pivot )
+                  j--;
+               if ( i <= j )
+               {
+                  double t = v[i];
+                  v[i++] = v[j];
+                  v[j--] = t;
+               }
+            }
+            if ( want <= j )
+               hi = j;
+            else if ( want >= i )
+               lo = i;
+            else
+               break;
+         }
+         return v[want];
+      }
+
+      /**
+       * the points of s below (-1), at (0) or above (1) value in objective
+       * k, keeping their order
+       */
+      private int[] select( int[] s, int k, double value, int side )
+      {
+         int[] out = new int[s.length];
+         int count = 0;
+         for ( int p : s )
+         {
+            double v = g[p*m+k];
+            if ( (v < value ? -1 : v > value ? 1 : 0) == side )
+               out[count++] = p;
+         }
+         return Arrays.copyOf( out, count );
+      }
+
+      private static int[] merge( int[] a, int[] b )
+      {
+         int[] out = new int[a.length + b.length];
+         int i = 0;
+         int j = 0;
+         for ( int k = 0; k < out.length; k++ )
+         {
+            out[k] = j == b.length || (i < a.length && a[i] < b[j]) ? a[i++] : b[j++];
+         }
+         return out;
+      }
+
+      private static boolean equal( double[] a, int aOff, double[] b, int bOff, int m )
+      {
+         for ( int j = 0; j < m; j++ )
+         {
+            if ( a[aOff+j] != b[bOff+j] )
+               return false;
+         }
+         return true;
+      }
+   }
+}
@@ -9,17 +9,23 @@ import com.phoenix_int.aserver.types.*;
  *
  * @author Haisma, 10/99 - borrowed heavily from Monte Carlo
  */
-public class ParmStudy implements IPHXDriver
+public class ParmStudy implements IndexedBatchDriver
 {
    private PHXReference designVar = new PHXReference();
    private PHXReferenceArray responses = new PHXReferenceArray();
    private int iteration = 0;
+   private long generated = 0;
    private long numSteps = 0;
    private double stepSize = 0;
    private double fromValue = 0;
    private double toValue = 0;
    private boolean collectResults = false;
    private PHXDoubleArray results = new PHXDoubleArray();
+   private int[] resultIndex = new int[2];
+   private String resultFile = "";
+   private ResultStore store = null;
+   private double[] stepValue = new double[1];
+   private DriverMetrics metrics = new DriverMetrics( "ParmStudy" );
 
    public ParmStudy()
       throws Exception
@@ -40,14 +46,29 @@ public class ParmStudy implements IPHXDriver
    public boolean getCollectResults() { return collectResults; }
    public void setCollectResults(boolean cr) { collectResults = cr; }
    public PHXDoubleArray getResults() { return results; }
+   public void setResultFile( String v ) { resultFile = v; }
+   public String getResultFile() { return resultFile; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
 
    /**
     * this function is called before we begin iterating with the driver
     */
    public void initializeIterations() throws Exception
    {
+      long t = metrics.begin();
       // reset the iteration count
       iteration = 0;
+      generated = 0;
 
       // allocate arrays to store values in
       fromValue = designVar.getRefPropValueDouble( "from" );
@@ -66,6 +87,18 @@ public class ParmStudy implements IPHXDriver
       {
       	results.resize(new int[] {responses.getLength(), 0} );
       }
+
+      // the step value and responses of every step, if asked for
+      if ( store != null )
+         store.close();
+      String[] columns = new String[responses.getLength()+1];
+      columns[0] = "x";
+      for ( int i = 0; i < responses.getLength(); i++ )
+      {
+         columns[i+1] = "y" + i;
+      }
+      store = ResultStore.create( resultFile, columns, false );
+      metrics.exit( DriverMetrics.INITIALIZE, t );
 	}
 
    /**
@@ -75,7 +108,9 @@ public class ParmStudy implements IPHXDriver
     */
    public void startIteration() throws Exception
    {
+	  long t = metrics.enter();
 	  designVar.setValue( fromValue + iteration*stepSize );
+	  metrics.exit( DriverMetrics.START_ITERATION, t );
    }
 
    /**
@@ -83,25 +118,94 @@ public class ParmStudy implements IPHXDriver
     * has had a chance to run the case. At this point, this component
     * will have updated values for all of it's input variables
     */
-   public boolean endIteration()
+   public boolean endIteration() throws Exception
    {
+     long t = metrics.enter();
      double[] vals = responses.getValues();
+     collect( iteration, vals, 0 );
+     iteration++;
+     metrics.exit( DriverMetrics.END_ITERATION, t, vals, 1, responses.getLength() );
+     if ( iteration >= numSteps )
+        return false;
+     else
+        return true;
+   }
+
+   public int getNumInputs() { return 1; }
+   public int getNumOutputs() { return responses.getLength(); }
+
+   /**
+    * batch mode: generates the next steps of the sweep without waiting
+    * for the results of the previous ones
+    */
+   public int nextBatch( double[] inputs, int maxCases )
+   {
+      long t = metrics.enter();
+      int n = (int)Math.min( maxCases, numSteps - generated );
+      for ( int k = 0; k < n; k++ )
+      {
+         inputs[k] = fromValue + generated*stepSize;
+         generated++;
+      }
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
+
+   /**
+    * batch mode: folds in the results of the steps from nextBatch()
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int numOutputs = responses.getLength();
+      for ( int k = 0; k < numCases; k++ )
+      {
+         collect( iteration, vals, k*numOutputs );
+         iteration++;
+      }
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return iteration < numSteps;
+   }
+
+   private void collect( int step, double[] vals, int offset ) throws java.io.IOException
+   {
+     if ( store != null )
+     {
+        stepValue[0] = fromValue + step*stepSize;
+        store.write( step, 0, stepValue, 0, 1 );
+        store.write( step, 1, vals, offset, responses.getLength() );
+     }
+
      if ( collectResults )
      {
+        resultIndex[1] = step;
         for ( int i = 0 ; i < responses.getLength() ; i ++ )
         {
-           results.setValue(new int[] {i,iteration}, vals[i]);
+           resultIndex[0] = i;
+           results.setValue( resultIndex, vals[offset+i] );
         }
      }
-     iteration++;
-     if ( iteration >= numSteps )
-        return false;
-     else
-        return true;
    }
 
    public void end()
    {
+      long t = metrics.enter();
+      if ( store != null )
+      {
+         try
+         {
+            store.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            throw new java.io.UncheckedIOException( e );
+         }
+         finally
+         {
+            store = null;
+         }
+      }
+      metrics.exit( DriverMetrics.END, t );
    }
 
    public static String getAuthor() { return "Phoenix Integration"; }
@@ -0,0 +1,115 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Polynomial response surface: all monomials of the standardized inputs
+ * up to the degree (1 linear, 2 quadratic with interactions, 3 cubic),
+ * fitted by least squares through a Householder QR factorization. With
+ * fewer points than terms the surplus terms are left at zero.
+ */
+class PolynomialSurrogate extends Surrogate
+{
+   private int degree = 2;
+   private int[][] terms = new int[0][];
+   private double[] coefficients = new double[0];
+
+   public String getType() { return "Polynomial"; }
+
+   /**
+    * highest total degree of the terms, 1 to 3; takes effect at the next
+    * fit
+    */
+   public void setDegree( int v ) { degree = Math.max( 1, Math.min( 3, v ) ); }
+   public int getDegree() { return degree; }
+   public int getNumTerms() { return terms.length; }
+
+   protected void train()
+   {
+      terms = terms( numInputs, degree );
+      int n = numPoints;
+      int p = terms.length;
+
+      double[] a = new double[n*p];
+      double[] b = new double[n];
+      for ( int k = 0; k < n; k++ )
+      {
+         for ( int t = 0; t < p; t++ )
+         {
+            a[k*p+t] = term( t, x, k*numInputs );
+         }
+         b[k] = standardizedOutput( k );
+      }
+      coefficients = LinearAlgebra.leastSquares( a, n, p, b );
+   }
+
+   protected double predictStandardized( double[] x, int offset )
+   {
+      double s = 0;
+      for ( int t = 0; t < terms.length; t++ )
+      {
+         s += coefficients[t]*term( t, x, offset );
+      }
+      return s;
+   }
+
+   private double term( int t, double[] x, int offset )
+   {
+      double v = 1;
+      for ( int i : terms[t] )
+      {
+         v *= standardized( x, offset, i );
+      }
+      return v;
+   }
+
+   /**
+    * the monomials of d variables up to the degree, each as the list of
+    * its factors (an input appears once per power), the constant first
+    */
+   static int[][] terms( int d, int degree )
+   {
+      List<int[]> list = new ArrayList<int[]>();
+      list.add( new int[0] );
+      List<int[]> last = list;
+      for ( int g = 1; g <= degree; g++ )
+      {
+         List<int[]> next = new ArrayList<int[]>();
+         for ( int[] t : last )
+         {
+            int from = t.length > 0 ? t[t.length-1] : 0;
+            for ( int i = from; i < d; i++ )
+            {
+               int[] u = Arrays.copyOf( t, t.length+1 );
+               u[t.length] = i;
+               next.add( u );
+            }
+         }
+         list.addAll( next );
+         last = next;
+      }
+      return list.toArray( new int[list.size()][] );
+   }
+
+   protected void writeModel( DataOutputStream out ) throws IOException
+   {
+      out.writeInt( degree );
+      out.writeInt( coefficients.length );
+      for ( double c : coefficients )
+      {
+         out.writeDouble( c );
+      }
+   }
+
+   protected void readModel( DataInputStream in ) throws IOException
+   {
+      degree = in.readInt();
+      terms = terms( numInputs, degree );
+      coefficients = new double[in.readInt()];
+      if ( coefficients.length != terms.length )
+         throw new IOException( "corrupt polynomial surrogate" );
+      for ( int t = 0; t < coefficients.length; t++ )
+      {
+         coefficients[t] = in.readDouble();
+      }
+   }
+}
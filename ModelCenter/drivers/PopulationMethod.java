@@ -0,0 +1,83 @@
+
+/**
+ * A population-based method for a PopulationProblem. Each generation is
+ * handed to the problem in one evaluate() call, so all of its members are
+ * evaluated concurrently under a BatchExecutor. A method stops when it
+ * has converged to the tolerance or the problem is out of generations.
+ */
+abstract class PopulationMethod
+{
+   public static final String TYPES = "CMAES,DE,NSGA2";
+
+   protected int populationSize = 0;
+   protected double initialStep = 0.3;
+   protected double tolerance = 1e-8;
+   protected boolean converged = false;
+
+   /**
+    * creates a method by name
+    */
+   public static PopulationMethod create( String type )
+   {
+      if ( type == null || type.length() == 0 || type.equals( "CMAES" ) )
+         return new CMAESMethod();
+      else if ( type.equals( "DE" ) )
+         return new DifferentialEvolutionMethod();
+      else if ( type.equals( "NSGA2" ) )
+         return new NSGA2Method();
+      else
+      {
+         String msg = "unsupported population method: " + type;
+         throw new IllegalArgumentException( msg );
+      }
+   }
+
+   /**
+    * members per generation; 0 picks the method's default for the
+    * number of variables
+    */
+   public void setPopulationSize( int v ) { populationSize = v; }
+
+   /**
+    * spread of the first generation, as a fraction of the variable ranges
+    */
+   public void setInitialStep( double v ) { initialStep = v; }
+
+   /**
+    * convergence tolerance on the scaled variables and the objective
+    */
+   public void setTolerance( double v ) { tolerance = v; }
+
+   public boolean isConverged() { return converged; }
+
+   /**
+    * true if the method optimizes all objectives of the problem rather
+    * than the first only
+    */
+   public boolean isMultiObjective() { return false; }
+
+   /**
+    * runs the method, drawing its random numbers from rng
+    */
+   public abstract void run( PopulationProblem problem, RandomSource rng ) throws Exception;
+
+   /**
+    * a standard normal variate
+    */
+   protected static double gaussian( RandomSource rng )
+   {
+      return DistributionSampler.normalQuantile( rng.nextDouble() );
+   }
+
+   /**
+    * fails unless every variable of the problem has bounds
+    */
+   protected static void requireBounds( PopulationProblem problem, String method )
+   {
+      if ( !problem.isBounded() )
+      {
+         String msg = method + " needs lower and upper bounds on every design variable";
+         throw new IllegalArgumentException( msg );
+      }
+   }
+}
@@ -0,0 +1,341 @@
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+import java.io.*;
+
+/**
+ * Population-based optimizer driver for any number of design variables
+ * and objectives, all minimized. The method is one of
+ *   CMAES - covariance matrix adaptation, first objective only
+ *   DE    - differential evolution, first objective only
+ *   NSGA2 - Pareto front of all objectives
+ *
+ * Each design variable carries lowerBound/upperBound ref-props; DE and
+ * NSGA2 need both, CMAES also takes unbounded variables (upper bound not
+ * above the lower). The first generation is seeded with the current
+ * values of the design variables.
+ *
+ * A generation is one request to the EvaluationBroker, so under a
+ * BatchExecutor all its members are evaluated concurrently; under
+ * ModelCenter they are run one per iteration. BenchmarkProblem has
+ * stand-in models to run the driver against.
+ *
+ * The non-dominated points found are kept in an archive of up to
+ * archiveSize members and returned in paretoFront, one row per member
+ * holding its design values and then its objectives. If paretoFile is
+ * set, the members each generation adds to the archive are appended to
+ * it as comma-separated rows as soon as the generation is in. A member
+ * may later be dominated, so a reader takes the non-dominated rows of the
+ * file, or the last generation's paretoFront.
+ */
+public class PopulationOptimizer implements BatchDriver
+{
+   private PHXReferenceArray designVars = new PHXReferenceArray();
+   private PHXReferenceArray objectives = new PHXReferenceArray();
+   private String method = "CMAES";
+   private int populationSize = 0;
+   private int maxGenerations = 100;
+   private double tolerance = 1e-8;
+   private double initialStepSize = 0.3;
+   private int archiveSize = 500;
+   private String paretoFile = "";
+   private long seed = 0;
+   private long seedUsed = 0;
+   private String randomGenerator = "SplitMix64";
+
+   private int generations = 0;
+   private int evaluations = 0;
+   private double bestValue = 0;
+   private boolean converged = false;
+   private int paretoSize = 0;
+   private PHXDoubleArray paretoFront = new PHXDoubleArray();
+
+   private EvaluationBroker broker;
+   private PopulationProblem problem;
+   private PopulationMethod algorithm;
+   private Writer pareto;
+   private double[] point = new double[0];
+   private double[] value = new double[0];
+   private boolean sequential = false;
+   private DriverMetrics metrics = new DriverMetrics( "PopulationOptimizer" );
+
+   public PopulationOptimizer()
+   {
+      IPHXRefPropInfo prop;
+
+      designVars.setAutoGrow( true );
+
+      prop = designVars.createRefProp( "lowerBound", "double" );
+      prop.setTitle( "Lower Bound" );
+      prop.setDescription( "smallest value the optimizer may set" );
+
+      prop = designVars.createRefProp( "upperBound", "double" );
+      prop.setTitle( "Upper Bound" );
+      prop.setDescription( "largest value the optimizer may set; no bounds if not above the lower bound" );
+
+      objectives.setAutoGrow( true );
+      paretoFront.resize( new int[] {0,0} );
+   }
+
+   // inputs
+   public PHXReferenceArray getDesignVars() { return designVars; }
+   public PHXReferenceArray getObjectives() { return objectives; }
+   public void setMethod( String v ) { method = v; }
+   public String getMethod() { return method; }
+   public void setPopulationSize( int v ) { populationSize = v; }
+   public int getPopulationSize() { return populationSize; }
+   public void setMaxGenerations( int v ) { maxGenerations = v; }
+   public int getMaxGenerations() { return maxGenerations; }
+   public void setTolerance( double v ) { tolerance = v; }
+   public double getTolerance() { return tolerance; }
+   public void setInitialStepSize( double v ) { initialStepSize = v; }
+   public double getInitialStepSize() { return initialStepSize; }
+   public void setArchiveSize( int v ) { archiveSize = v; }
+   public int getArchiveSize() { return archiveSize; }
+   public void setParetoFile( String v ) { paretoFile = v; }
+   public String getParetoFile() { return paretoFile; }
+   public void setSeed( long v ) { seed = v; }
+   public long getSeed() { return seed; }
+   public void setRandomGenerator( String v ) { randomGenerator = v; }
+   public String getRandomGenerator() { return randomGenerator; }
+
+   // outputs
+   public long getSeedUsed() { return seedUsed; }
+   public int getGenerations() { return generations; }
+   public int getEvaluations() { return evaluations; }
+   public double getBestValue() { return bestValue; }
+   public boolean getConverged() { return converged; }
+   public int getParetoSize() { return paretoSize; }
+   public PHXDoubleArray getParetoFront() { return paretoFront; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
+
+   /**
+    * this function is called before we begin iterating with the driver
+    */
+   public void initializeIterations() throws Exception
+   {
+      long t = metrics.begin();
+      stop();
+
+      int n = designVars.getLength();
+      int m = objectives.getLength();
+      if ( m == 0 )
+         throw new IllegalArgumentException( "no objectives to minimize" );
+
+      double[] x0 = designVars.getValues().clone();
+      double[] lower = new double[n];
+      double[] upper = new double[n];
+      for ( int i = 0; i < n; i++ )
+      {
+         lower[i] = designVars.getRefPropValueDouble( "lowerBound", i );
+         upper[i] = designVars.getRefPropValueDouble( "upperBound", i );
+      }
+
+      algorithm = PopulationMethod.create( method );
+      algorithm.setPopulationSize( populationSize );
+      algorithm.setInitialStep( initialStepSize );
+      algorithm.setTolerance( tolerance );
+
+      // a seed of zero asks for a different run every time; the seed
+      // actually used is reported so that the run can be repeated
+      seedUsed = seed != 0 ? seed : RandomSource.randomSeed();
+      final RandomSource rng = RandomSource.create( randomGenerator, seedUsed );
+
+      broker = new EvaluationBroker( n, m );
+      problem = new PopulationProblem( broker, x0, lower, upper, maxGenerations, archiveSize );
+      if ( paretoFile.length() > 0 )
+      {
+         pareto = new BufferedWriter( new FileWriter( paretoFile ) );
+         StringBuilder header = new StringBuilder( "generation" );
+         for ( int i = 0; i < n; i++ )
+         {
+            header.append( ",x" ).append( i );
+         }
+         for ( int j = 0; j < m; j++ )
+         {
+            header.append( ",f" ).append( j );
+         }
+         pareto.write( header.append( '\n' ).toString() );
+         problem.setStream( pareto );
+      }
+
+      point = new double[n];
+      value = new double[m];
+      generations = 0;
+      evaluations = 0;
+      bestValue = 0;
+      converged = false;
+      paretoSize = 0;
+      paretoFront.resize( new int[] {0, n+m} );
+      sequential = false;
+
+      final PopulationProblem p = problem;
+      final PopulationMethod a = algorithm;
+      broker.start( new EvaluationBroker.Task()
+      {
+         public void run( EvaluationBroker b ) throws Exception
+         {
+            a.run( p, rng );
+
+            // under ModelCenter, run the best point once more so that the
+            // model is left there
+            if ( sequential && !a.isMultiObjective() )
+            {
+               double[] x = new double[p.getDimension()];
+               p.toDesign( p.getBest(), 0, x, 0 );
+               b.evaluate( x, new double[p.getNumObjectives()], 1 );
+            }
+         }
+      }, "PopulationOptimizer" );
+      metrics.exit( DriverMetrics.INITIALIZE, t );
+   }
+
+   /**
+    * this function is called at the beginning of each iteration. The
+    * component should set values for the case it wants the client
+    * to run.
+    */
+   public void startIteration() throws Exception
+   {
+      long t = metrics.enter();
+      sequential = true;
+      if ( broker.next( point, 1 ) == 0 )
+         problem.toDesign( problem.getBest(), 0, point, 0 );
+      System.arraycopy( point, 0, designVars.getValues(), 0, point.length );
+      metrics.exit( DriverMetrics.START_ITERATION, t );
+   }
+
+   /**
+    * this function is called after the client application (ModelCenter)
+    * has had a chance to run the case. At this point, this component
+    * will have updated values for all of it's input variables
+    */
+   public boolean endIteration() throws Exception
+   {
+      long t = metrics.enter();
+      System.arraycopy( objectives.getValues(), 0, value, 0, value.length );
+      boolean more = accept( value, 1 );
+      metrics.exit( DriverMetrics.END_ITERATION, t, value, 1, value.length );
+      return more;
+   }
+
+   public int getNumInputs() { return designVars.getLength(); }
+   public int getNumOutputs() { return objectives.getLength(); }
+
+   /**
+    * batch mode: hands out the members of the current generation
+    */
+   public int nextBatch( double[] inputs, int maxCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int n = broker.next( inputs, maxCases );
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
+
+   /**
+    * batch mode: returns the objective values to the method
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
+   {
+      long t = metrics.enter();
+      boolean more = accept( vals, numCases );
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return more;
+   }
+
+   private boolean accept( double[] vals, int numCases ) throws Exception
+   {
+      boolean more = broker.accept( vals, numCases );
+
+      // the method only runs while the broker waits here, so the problem
+      // can be read without locking
+      generations = problem.getGenerations();
+      evaluations = problem.getEvaluations();
+      bestValue = problem.getBestValue();
+      paretoSize = problem.getArchive().size();
+      if ( !more )
+      {
+         converged = algorithm.isConverged();
+         copyFront();
+         if ( !algorithm.isMultiObjective() )
+            problem.toDesign( problem.getBest(), 0, designVars.getValues(), 0 );
+      }
+      return more;
+   }
+
+   public void end()
+   {
+      long t = metrics.enter();
+      try
+      {
+         stop();
+      }
+      catch ( InterruptedException e )
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch ( IOException e )
+      {
+         throw new UncheckedIOException( e );
+      }
+      metrics.exit( DriverMetrics.END, t );
+   }
+
+   private void copyFront()
+   {
+      ParetoArchive archive = problem.getArchive();
+      int n = archive.getNumInputs();
+      int m = archive.getNumObjectives();
+      paretoFront.resize( new int[] {archive.size(), n+m} );
+
+      int[] index = new int[2];
+      for ( int k = 0; k < archive.size(); k++ )
+      {
+         index[0] = k;
+         for ( int i = 0; i < n; i++ )
+         {
+            index[1] = i;
+            paretoFront.setValue( index, archive.getInput( k, i ) );
+         }
+         for ( int j = 0; j < m; j++ )
+         {
+            index[1] = n+j;
+            paretoFront.setValue( index, archive.getObjective( k, j ) );
+         }
+      }
+   }
+
+   /**
+    * cancels a method that is still waiting for evaluations and closes
+    * the pareto file
+    */
+   private void stop() throws InterruptedException, IOException
+   {
+      if ( broker != null )
+      {
+         broker.cancel();
+         broker = null;
+      }
+      if ( pareto != null )
+      {
+         Writer w = pareto;
+         pareto = null;
+         w.close();
+      }
+   }
+
+   public static String getAuthor() { return "ASE6104 Team C1"; }
+   public static String getVersion() { return "1.0"; }
+   public static String getDescription() { return "Minimizes one or more responses with a population-based method"; }
+   public static String getHelpURL() { return "www.phoenix-int.com"; }
+}
@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A bound-constrained problem with one or more objectives, all minimized,
+ * as seen by a population method.
+ *
+ * Variables are scaled as in OptimizationProblem: bounded ones to [0,1],
+ * unbounded ones (upper <= lower) in units of their starting value, or 1
+ * if that is smaller. Each call to evaluate() is one generation. The
+ * problem keeps the best point of the first objective and a ParetoArchive
+ * of all objectives; the members a generation adds to the archive are
+ * written to the stream, if there is one, as soon as the generation is in,
+ * so a long run can be watched and a stopped one still leaves its front.
+ * A response that is not a number counts as +infinity.
+ */
+class PopulationProblem
+{
+   private final EvaluationBroker broker;
+   private final int dimension;
+   private final int numObjectives;
+   private final double[] offset;
+   private final double[] scale;
+   private final double[] lower;
+   private final double[] upper;
+   private final double[] start;
+   private final int maxGenerations;
+   private final ParetoArchive archive;
+   private final double[] best;
+   private double bestValue = Double.POSITIVE_INFINITY;
+   private double[] x = new double[0];
+   private int evaluations = 0;
+   private int generations = 0;
+   private Writer stream;
+
+   /**
+    * @param x0 starting point in design units
+    * @param lo lower bounds, hi upper bounds; no bounds where hi <= lo
+    */
+   PopulationProblem( EvaluationBroker broker, double[] x0, double[] lo,
+                      double[] hi, int maxGenerations, int archiveSize )
+   {
+      this.broker = broker;
+      this.maxGenerations = maxGenerations;
+      dimension = x0.length;
+      numObjectives = broker.getNumOutputs();
+      offset = new double[dimension];
+      scale = new double[dimension];
+      lower = new double[dimension];
+      upper = new double[dimension];
+      start = new double[dimension];
+      best = new double[dimension];
+      archive = new ParetoArchive( dimension, numObjectives, archiveSize );
+
+      for ( int i = 0; i < dimension; i++ )
+      {
+         if ( hi[i] > lo[i] )
+         {
+            offset[i] = lo[i];
+            scale[i] = hi[i] - lo[i];
+            lower[i] = 0;
+            upper[i] = 1;
+         }
+         else
+         {
+            offset[i] = 0;
+            scale[i] = Math.max( 1, Math.abs( x0[i] ) );
+            lower[i] = Double.NEGATIVE_INFINITY;
+            upper[i] = Double.POSITIVE_INFINITY;
+         }
+         start[i] = clip( i, (x0[i] - offset[i])/scale[i] );
+      }
+      System.arraycopy( start, 0, best, 0, dimension );
+   }
+
+   public int getDimension() { return dimension; }
+   public int getNumObjectives() { return numObjectives; }
+   public double getLower( int i ) { return lower[i]; }
+   public double getUpper( int i ) { return upper[i]; }
+   public int getEvaluations() { return evaluations; }
+   public int getGenerations() { return generations; }
+   public int getMaxGenerations() { return maxGenerations; }
+   public boolean isExhausted() { return generations >= maxGenerations; }
+   public double getBestValue() { return bestValue; }
+   public ParetoArchive getArchive() { return archive; }
+
+   /**
+    * the starting point, scaled
+    */
+   public double[] getStart() { return start.clone(); }
+
+   /**
+    * the point with the lowest first objective so far, scaled
+    */
+   public double[] getBest() { return best.clone(); }
+
+   /**
+    * true if every variable has bounds
+    */
+   public boolean isBounded()
+   {
+      for ( int i = 0; i < dimension; i++ )
+      {
+         if ( upper[i] == Double.POSITIVE_INFINITY )
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * writes the archive members of each generation to out, one
+    * comma-separated row of generation, design values and objectives
+    */
+   public void setStream( Writer out ) { stream = out; }
+
+   public double clip( int i, double v )
+   {
+      return Math.min( upper[i], Math.max( lower[i], v ) );
+   }
+
+   /**
+    * the design point of the scaled point u
+    */
+   public void toDesign( double[] u, int uOff, double[] x, int xOff )
+   {
+      for ( int i = 0; i < dimension; i++ )
+      {
+         x[xOff+i] = offset[i] + scale[i]*clip( i, u[uOff+i] );
+      }
+   }
+
+   /**
+    * evaluates a generation of count scaled points, row-major in u, into
+    * f, numObjectives values per point; the points are evaluated
+    * concurrently where the driver allows it
+    */
+   public void evaluate( double[] u, double[] f, int count )
+      throws InterruptedException, IOException
+   {
+      if ( x.length < count*dimension )
+         x = new double[count*dimension];
+      for ( int k = 0; k < count; k++ )
+      {
+         toDesign( u, k*dimension, x, k*dimension );
+      }
+
+      broker.evaluate( x, f, count );
+      evaluations += count;
+
+      for ( int k = 0; k < count*numObjectives; k++ )
+      {
+         if ( Double.isNaN( f[k] ) )
+            f[k] = Double.POSITIVE_INFINITY;
+      }
+      for ( int k = 0; k < count; k++ )
+      {
+         if ( f[k*numObjectives] < bestValue )
+         {
+            bestValue = f[k*numObjectives];
+            for ( int i = 0; i < dimension; i++ )
+            {
+               best[i] = clip( i, u[k*dimension+i] );
+            }
+         }
+      }
+
+      if ( archive.add( x, f, count, generations ) > 0 && stream != null )
+         write( generations );
+      generations++;
+   }
+
+   private void write( int generation ) throws IOException
+   {
+      StringBuilder line = new StringBuilder();
+      for ( int k = 0; k < archive.size(); k++ )
+      {
+         if ( archive.getGeneration( k ) != generation )
+            continue;
+
+         line.setLength( 0 );
+         line.append( generation );
+         for ( int i = 0; i < dimension; i++ )
+         {
+            line.append( ',' ).append( archive.getInput( k, i ) );
+         }
+         for ( int j = 0; j < numObjectives; j++ )
+         {
+            line.append( ',' ).append( archive.getObjective( k, j ) );
+         }
+         line.append( '\n' );
+         stream.write( line.toString() );
+      }
+      stream.flush();
+   }
+}
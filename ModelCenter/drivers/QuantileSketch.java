@@ -0,0 +1,403 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * KLL quantile sketch (Karnin, Lang and Liberty, 2016) of one stream of
+ * values. The values are kept in levels; an item on level h stands for
+ * 2^h values of the stream. When the sketch is full, the lowest level
+ * over its capacity is sorted and every other item of it, starting at
+ * the first or the second, is promoted to the level above. Level
+ * capacities shrink by 2/3 from the top down, so the sketch holds at most
+ * some 3*K items whatever the length of the stream, and the rank error of
+ * a quantile is about 1.7/K of the count (under 1% for K = 200).
+ *
+ * Adding a value is O(1) amortized. Sketches merge, which gives a sketch
+ * of the combined streams with the same error bound. The choice between
+ * the first and second item at a compaction, random in the original, is
+ * taken from a counter mixed by RandomSource.mix64(), so the same stream
+ * always gives the same sketch, also across save() and restore().
+ *
+ * With fewer values than the bottom level holds, no compaction has taken
+ * place and the quantiles are the exact sample quantiles.
+ */
+class QuantileSketch
+{
+   static final int K = 200;
+
+   private static final int MAX_LEVELS = 64;
+   private static final double SHRINK = 2.0/3.0;
+
+   // bound on the items held at rest, for the fixed state size
+   private static final int MAX_ITEMS = 3*K + 2*MAX_LEVELS;
+
+   // level capacities by depth below the top level
+   private static final int[] CAPACITY = capacities();
+
+   private double[][] levels = new double[1][];
+   private int[] sizes = new int[1];
+   private int numLevels = 1;
+   private int retained = 0;
+   private int totalCapacity = capacity( 0, 1 );
+   private long count = 0;
+   private long compactions = 0;
+
+   // sorted (value, cumulative weight) view for queries, rebuilt on demand
+   private double[] sortedValues = new double[0];
+   private long[] sortedWeights = new long[0];
+   private double[] scratchValues = new double[0];
+   private long[] scratchWeights = new long[0];
+   private int sortedSize = -1;
+
+   public QuantileSketch()
+   {
+      levels[0] = new double[capacity( 0, 1 )];
+   }
+
+   public long getCount() { return count; }
+
+   public void clear()
+   {
+      levels = new double[1][];
+      levels[0] = new double[capacity( 0, 1 )];
+      sizes = new int[1];
+      numLevels = 1;
+      retained = 0;
+      totalCapacity = capacity( 0, 1 );
+      count = 0;
+      compactions = 0;
+      sortedSize = -1;
+   }
+
+   public void add( double v )
+   {
+      if ( Double.isNaN( v ) )
+         return;
+      if ( sizes[0] == levels[0].length )
+         levels[0] = Arrays.copyOf( levels[0], 2*levels[0].length );
+      levels[0][sizes[0]++] = v;
+      retained++;
+      count++;
+      sortedSize = -1;
+      if ( retained >= totalCapacity )
+         compress();
+   }
+
+   /**
+    * folds the values of other into this sketch
+    */
+   public void merge( QuantileSketch other )
+   {
+      if ( other.count == 0 )
+         return;
+      while ( numLevels < other.numLevels )
+      {
+         addLevel();
+      }
+      for ( int h = 0; h < other.numLevels; h++ )
+      {
+         int n = sizes[h] + other.sizes[h];
+         if ( levels[h].length < n )
+            levels[h] = Arrays.copyOf( levels[h], n );
+         System.arraycopy( other.levels[h], 0, levels[h], sizes[h], other.sizes[h] );
+         if ( h > 0 )
+            Arrays.sort( levels[h], 0, n );
+         sizes[h] = n;
+      }
+      retained += other.retained;
+      count += other.count;
+      compactions += other.compactions;
+      sortedSize = -1;
+      while ( retained >= totalCapacity )
+      {
+         compress();
+      }
+   }
+
+   public void copyFrom( QuantileSketch other )
+   {
+      numLevels = other.numLevels;
+      levels = new double[numLevels][];
+      sizes = Arrays.copyOf( other.sizes, numLevels );
+      for ( int h = 0; h < numLevels; h++ )
+      {
+         levels[h] = other.levels[h].clone();
+      }
+      retained = other.retained;
+      totalCapacity = other.totalCapacity;
+      count = other.count;
+      compactions = other.compactions;
+      sortedSize = -1;
+   }
+
+   /**
+    * the q-quantile, 0 <= q <= 1, interpolated between the retained
+    * items; NaN for an empty sketch
+    */
+   public double quantile( double q )
+   {
+      if ( count == 0 )
+         return Double.NaN;
+      sort();
+
+      // item i covers ranks [W(i-1), W(i)); interpolate between the
+      // middles of the items, which for unit weights is the usual sample
+      // quantile (R type 7). The middles grow with i, so the first one
+      // at or past r is found by binary search
+      double r = Math.max( 0, Math.min( 1, q ) )*(count - 1);
+      int lo = 0;
+      int hi = sortedSize;
+      while ( lo < hi )
+      {
+         int mid = (lo + hi) >>> 1;
+         if ( center( mid ) < r )
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      if ( lo == 0 )
+         return sortedValues[0];
+      if ( lo == sortedSize )
+         return sortedValues[sortedSize-1];
+      double previousCenter = center( lo-1 );
+      double t = (r - previousCenter)/(center( lo ) - previousCenter);
+      return sortedValues[lo-1] + t*(sortedValues[lo] - sortedValues[lo-1]);
+   }
+
+   /**
+    * the middle of the ranks covered by sorted item i
+    */
+   private double center( int i )
+   {
+      long below = i > 0 ? sortedWeights[i-1] : 0;
+      return below + (sortedWeights[i] - below - 1)/2.0;
+   }
+
+   /**
+    * estimated number of values <= x
+    */
+   public double rank( double x )
+   {
+      if ( count == 0 )
+         return 0;
+      sort();
+      int lo = 0;
+      int hi = sortedSize;
+      while ( lo < hi )
+      {
+         int mid = (lo + hi) >>> 1;
+         if ( sortedValues[mid] <= x )
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      return lo > 0 ? sortedWeights[lo-1] : 0;
+   }
+
+   /**
+    * number of bytes written by save(), the same for every sketch
+    */
+   static int getStateSize()
+   {
+      return 8 + 8 + 4 + 4*MAX_LEVELS + 8*MAX_ITEMS;
+   }
+
+   public void save( ByteBuffer out )
+   {
+      int start = out.position();
+      out.putLong( count );
+      out.putLong( compactions );
+      out.putInt( numLevels );
+      for ( int h = 0; h < MAX_LEVELS; h++ )
+      {
+         out.putInt( h < numLevels ? sizes[h] : 0 );
+      }
+      for ( int h = 0; h < numLevels; h++ )
+      {
+         for ( int i = 0; i < sizes[h]; i++ )
+         {
+            out.putDouble( levels[h][i] );
+         }
+      }
+      out.position( start + getStateSize() );
+   }
+
+   public void restore( ByteBuffer in )
+   {
+      int start = in.position();
+      count = in.getLong();
+      compactions = in.getLong();
+      numLevels = in.getInt();
+      levels = new double[numLevels][];
+      sizes = new int[numLevels];
+      for ( int h = 0; h < MAX_LEVELS; h++ )
+      {
+         int n = in.getInt();
+         if ( h < numLevels )
+            sizes[h] = n;
+      }
+      retained = 0;
+      for ( int h = 0; h < numLevels; h++ )
+      {
+         levels[h] = new double[Math.max( sizes[h], capacity( h, numLevels ) )];
+         for ( int i = 0; i < sizes[h]; i++ )
+         {
+            levels[h][i] = in.getDouble();
+         }
+         retained += sizes[h];
+      }
+      totalCapacity = totalCapacity( numLevels );
+      in.position( start + getStateSize() );
+      sortedSize = -1;
+   }
+
+   /**
+    * compacts the lowest level that is over its capacity
+    */
+   private void compress()
+   {
+      int h = 0;
+      while ( h < numLevels-1 && sizes[h] < capacity( h, numLevels ) )
+      {
+         h++;
+      }
+      if ( h == numLevels-1 )
+      {
+         if ( numLevels == MAX_LEVELS )
+            return;
+         addLevel();
+      }
+
+      double[] level = levels[h];
+      int n = sizes[h];
+      Arrays.sort( level, 0, n );
+
+      // an odd item out stays behind
+      int keep = n & 1;
+      int offset = (int)(RandomSource.mix64( ++compactions ) & 1);
+      int promoted = (n - keep)/2;
+
+      // the levels above the bottom are kept sorted, so the promoted
+      // items are merged in
+      int m = sizes[h+1];
+      double[] above = levels[h+1];
+      if ( above.length < m + promoted )
+         above = levels[h+1] = Arrays.copyOf( above, Math.max( m + promoted, 2*above.length ) );
+      int i = n - 2 + offset;
+      int j = m - 1;
+      for ( int k = m + promoted - 1; i >= keep + offset; k-- )
+      {
+         if ( j >= 0 && above[j] > level[i] )
+            above[k] = above[j--];
+         else
+         {
+            above[k] = level[i];
+            i -= 2;
+         }
+      }
+      retained -= n - keep - promoted;
+      sizes[h+1] = m + promoted;
+      sizes[h] = keep;
+   }
+
+   private void addLevel()
+   {
+      levels = Arrays.copyOf( levels, numLevels+1 );
+      sizes = Arrays.copyOf( sizes, numLevels+1 );
+      levels[numLevels] = new double[capacity( numLevels, numLevels+1 )];
+      numLevels++;
+      totalCapacity = totalCapacity( numLevels );
+   }
+
+   private static int totalCapacity( int numLevels )
+   {
+      int n = 0;
+      for ( int h = 0; h < numLevels; h++ )
+      {
+         n += capacity( h, numLevels );
+      }
+      return n;
+   }
+
+   /**
+    * capacity of level h of a sketch with the given number of levels:
+    * K at the top, 2/3 of the level above below that, at least 2
+    */
+   private static int capacity( int h, int numLevels )
+   {
+      return CAPACITY[numLevels - 1 - h];
+   }
+
+   private static int[] capacities()
+   {
+      int[] c = new int[MAX_LEVELS];
+      for ( int depth = 0; depth < MAX_LEVELS; depth++ )
+      {
+         c[depth] = Math.max( 2, (int)Math.ceil( K*Math.pow( SHRINK, depth ) ) );
+      }
+      return c;
+   }
+
+   private void sort()
+   {
+      if ( sortedSize >= 0 )
+         return;
+
+      // sized for the most a sketch holds at rest, so that the buffers are
+      // not reallocated as the sketch grows
+      int n = retained;
+      if ( sortedValues.length < n )
+      {
+         int length = Math.max( n, MAX_ITEMS );
+         sortedValues = new double[length];
+         sortedWeights = new long[length];
+         scratchValues = new double[length];
+         scratchWeights = new long[length];
+      }
+
+      // the bottom level sorted, then each level above merged in
+      double[] values = sortedValues;
+      long[] weights = sortedWeights;
+      double[] v = scratchValues;
+      long[] w = scratchWeights;
+      int size = sizes[0];
+      System.arraycopy( levels[0], 0, values, 0, size );
+      Arrays.sort( values, 0, size );
+      Arrays.fill( weights, 0, size, 1 );
+      for ( int h = 1; h < numLevels; h++ )
+      {
+         double[] level = levels[h];
+         int m = sizes[h];
+         long weight = 1L << h;
+         int i = 0;
+         int j = 0;
+         int k = 0;
+         while ( i < size || j < m )
+         {
+            if ( j == m || (i < size && values[i] <= level[j]) )
+            {
+               v[k] = values[i];
+               w[k++] = weights[i++];
+            }
+            else
+            {
+               v[k] = level[j++];
+               w[k++] = weight;
+            }
+         }
+         size = k;
+         double[] t = values; values = v; v = t;
+         long[] u = weights; weights = w; w = u;
+      }
+
+      // cumulative weights
+      for ( int i = 1; i < n; i++ )
+      {
+         weights[i] += weights[i-1];
+      }
+      sortedValues = values;
+      sortedWeights = weights;
+      scratchValues = v;
+      scratchWeights = w;
+      sortedSize = n;
+   }
+}
@@ -0,0 +1,487 @@
+
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+
+/**
+ * Quasi-Monte Carlo driver. Works like MonteCarlo, but the uniforms that
+ * are mapped through the design variable distributions come from a
+ * low-discrepancy sequence (Sobol or Halton, optionally scrambled) rather
+ * than from a random number generator. For smooth responses the error of
+ * the mean then falls off close to 1/N instead of 1/sqrt(N).
+ *
+ * Trial t uses point skip+t-1 of the sequence. Setting skip lets a study
+ * continue a previous one, or lets several workers split one sequence
+ * into disjoint index ranges.
+ *
+ * stdError and ciHalfWidth are the usual formulas for independent
+ * samples, which overstate the error of a quasi-random average.
+ */
+public class QuasiMonteCarlo implements IndexedBatchDriver
+{
+   private PHXReferenceArray designVars = new PHXReferenceArray();
+   private PHXReferenceArray outputs = new PHXReferenceArray();
+   private StreamingStatistics stats = new StreamingStatistics();
+   private boolean collectResults = false;
+   private PHXDoubleArray results = new PHXDoubleArray();
+   private PHXDoubleArray histogram = new PHXDoubleArray();
+   private int histogramBins = 20;
+   private double[] histogramCounts = new double[0];
+   private int[] histogramIndex = new int[2];
+   private int statisticsInterval = 1000;
+   private double confidenceLevel = 0.95;
+   private int[] resultIndex = new int[2];
+   private int trial = 0;
+   private int generated = 0;
+   private int numTrials = 64;
+   private long skip = 0;
+   private String sequenceType = "Sobol";
+   private String scrambling = "Owen";
+   private long seed = 0;
+   private long seedUsed = 0;
+   private LowDiscrepancySequence sequence;
+   private DistributionSampler[] samplers = new DistributionSampler[0];
+   private String checkpointFile = "";
+   private int checkpointInterval = 1000;
+   private StudyCheckpoint checkpoint = null;
+   private String resultFile = "";
+   private ResultStore store = null;
+   private DriverMetrics metrics = new DriverMetrics( "QuasiMonteCarlo" );
+
+   public QuasiMonteCarlo()
+   {
+      IPHXRefPropInfo prop;
+
+      // ----- design variable setup
+      designVars.setAutoGrow( true );
+
+      prop = designVars.createRefProp( "distributionType", "string" );
+      prop.enumValuesFromString( DistributionSampler.TYPES );
+      prop.setTitle( "Distribution Type" );
+
+      prop = designVars.createRefProp( "parm1", "double" );
+      prop.setTitle( "Param #1" );
+      prop.setDescription( "distribution parameter one" );
+
+      prop = designVars.createRefProp( "parm2", "double" );
+      prop.setTitle( "Param #2" );
+      prop.setDescription( "distribution parameter two" );
+
+      prop = designVars.createRefProp( "parm3", "double" );
+      prop.setTitle( "Param #3" );
+      prop.setDescription( "distribution parameter three" );
+
+      prop = designVars.createRefProp( "table", "string" );
+      prop.setTitle( "CDF Table" );
+      prop.setDescription( "CSV file (file.csv or file.csv#column) of an Empirical distribution" );
+
+      // ----- output setup
+      outputs.setAutoGrow( true );
+
+      prop = outputs.createRefProp( "avg", "double" );
+      prop.setInput( false );
+      prop.setDescription( "Average" );
+      prop.setTitle( "average" );
+
+      prop = outputs.createRefProp( "std", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Standard Deviation" );
+      prop.setDescription( "standard deviation" );
+
+      prop = outputs.createRefProp( "min", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Minimum" );
+      prop.setDescription( "smallest value observed" );
+
+      prop = outputs.createRefProp( "max", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Maximum" );
+      prop.setDescription( "largest value observed" );
+
+      prop = outputs.createRefProp( "skewness", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Skewness" );
+      prop.setDescription( "sample skewness" );
+
+      prop = outputs.createRefProp( "kurtosis", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Kurtosis" );
+      prop.setDescription( "sample excess kurtosis" );
+
+      prop = outputs.createRefProp( "p5", "double" );
+      prop.setInput( false );
+      prop.setTitle( "5th Percentile" );
+      prop.setDescription( "5th percentile, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "p50", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Median" );
+      prop.setDescription( "median, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "p95", "double" );
+      prop.setInput( false );
+      prop.setTitle( "95th Percentile" );
+      prop.setDescription( "95th percentile, estimated to within about 1% in rank" );
+
+      prop = outputs.createRefProp( "stdError", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Standard Error" );
+      prop.setDescription( "standard error of the average" );
+
+      prop = outputs.createRefProp( "ciHalfWidth", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Confidence Interval Half Width" );
+      prop.setDescription( "half width of the confidence interval of the average at confidenceLevel" );
+
+      results.resize( new int[] {0,0} );
+      histogram.resize( new int[] {0,0} );
+   }
+
+   public PHXReferenceArray getDesignVars() { return designVars; }
+   public void setOutputs( PHXReferenceArray v ) { outputs = v; }
+   public PHXReferenceArray getOutputs() { return outputs; }
+   public void setNumTrials( int v ) { numTrials = v; }
+   public int getNumTrials() { return numTrials; }
+   public int getTrial() { return trial; }
+   public void setSkip( long v ) { skip = v; }
+   public long getSkip() { return skip; }
+   public void setSequenceType( String v ) { sequenceType = v; }
+   public String getSequenceType() { return sequenceType; }
+   public void setScrambling( String v ) { scrambling = v; }
+   public String getScrambling() { return scrambling; }
+   public void setSeed( long v ) { seed = v; }
+   public long getSeed() { return seed; }
+   public long getSeedUsed() { return seedUsed; }
+   public void setCheckpointFile( String v ) { checkpointFile = v; }
+   public String getCheckpointFile() { return checkpointFile; }
+   public void setCheckpointInterval( int v ) { checkpointInterval = v; }
+   public int getCheckpointInterval() { return checkpointInterval; }
+   public void setResultFile( String v ) { resultFile = v; }
+   public String getResultFile() { return resultFile; }
+   public boolean getCollectResults() { return collectResults; }
+   public void setCollectResults( boolean cr ) { collectResults = cr; }
+   public PHXDoubleArray getResults() { return results; }
+   public void setConfidenceLevel( double v ) { confidenceLevel = v; }
+   public double getConfidenceLevel() { return confidenceLevel; }
+   public void setHistogramBins( int v ) { histogramBins = Math.max( 1, v ); }
+   public int getHistogramBins() { return histogramBins; }
+
+   /**
+    * trials between updates of the quantiles and the histogram, which
+    * sort the quantile sketches, while the study runs a trial at a time;
+    * the other statistics follow every trial, and all of them every batch
+    * and the end of the study
+    */
+   public void setStatisticsInterval( int v ) { statisticsInterval = Math.max( 1, v ); }
+   public int getStatisticsInterval() { return statisticsInterval; }
+
+   /**
+    * sample counts per output (rows) in histogramBins equal bins between
+    * its min and max (columns), estimated from the quantile sketch
+    */
+   public PHXDoubleArray getHistogram() { return histogram; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
+
+   /**
+    * this function is called before we begin iterating with the driver
+    */
+   public void initializeIterations() throws Exception
+   {
+      long t = metrics.begin();
+      // reset the run number
+      trial = 0;
+      generated = 0;
+
+      // the seed only matters for the scrambled sequences
+      seedUsed = seed != 0 ? seed : RandomSource.randomSeed();
+      samplers = DistributionSampler.compile( designVars );
+
+      stats.reset( outputs.getLength() );
+      if ( collectResults )
+         results.resize( new int[] {outputs.getLength(), numTrials} );
+      else
+         results.resize( new int[] {outputs.getLength(), 0} );
+
+      // continue an earlier run of the same study that did not finish
+      closeFiles();
+      long fingerprint = StudyCheckpoint.fingerprint( designVars, outputs.getLength(),
+         "QuasiMonteCarlo", sequenceType, scrambling, seed, skip );
+      checkpoint = StudyCheckpoint.open( checkpointFile, checkpointInterval, fingerprint,
+         seedUsed, numTrials, stats, collectResults ? results : null );
+      if ( checkpoint != null && checkpoint.isResumed() )
+      {
+         seedUsed = checkpoint.getSeed();
+         trial = checkpoint.getTrials();
+         generated = trial;
+         computeStatistics();
+      }
+
+      // the design point and responses of every trial, if asked for
+      store = ResultStore.create( resultFile,
+         ResultStore.columnNames( designVars.getLength(), outputs.getLength() ), trial > 0 );
+      if ( store != null )
+         store.setNumRows( trial );
+
+      sequence = LowDiscrepancySequence.create( sequenceType, designVars.getLength(),
+                                                scrambling, seedUsed );
+      metrics.exit( DriverMetrics.INITIALIZE, t );
+   }
+
+   /**
+    * this function is called at the beginning of each iteration. The
+    * component should set values for the case it wants the client
+    * to run.
+    */
+   public void startIteration() throws Exception
+   {
+      long t = metrics.enter();
+      // increment the trial number
+      trial++;
+      generated = trial;
+
+      sample( trial, designVars.getValues(), 0 );
+      metrics.exit( DriverMetrics.START_ITERATION, t );
+   }
+
+   /**
+    * this function is called after the client application (ModelCenter)
+    * has had a chance to run the case. At this point, this component
+    * will have updated values for all of it's input variables
+    */
+   public boolean endIteration() throws Exception
+   {
+      long t = metrics.enter();
+      double[] vals = outputs.getValues();
+      collect( trial, vals, 0 );
+
+      stats.add( vals );
+      if ( checkpoint != null )
+         checkpoint.add( vals, 0 );
+      computeMoments();
+      if ( trial == numTrials || trial % statisticsInterval == 0 )
+         computeDistribution();
+
+      metrics.exit( DriverMetrics.END_ITERATION, t, outputs.getValues(), 1, outputs.getLength() );
+      if ( trial == numTrials )
+         return false;
+      else
+         return true;
+   }
+
+   public int getNumInputs() { return designVars.getLength(); }
+   public int getNumOutputs() { return outputs.getLength(); }
+
+   /**
+    * batch mode: generates the next cases without waiting for the
+    * results of the previous ones
+    */
+   public int nextBatch( double[] inputs, int maxCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int dimension = designVars.getLength();
+      int n = Math.min( maxCases, numTrials - generated );
+      for ( int k = 0; k < n; k++ )
+      {
+         generated++;
+         sequence.point( skip + generated - 1, inputs, k*dimension );
+      }
+      DistributionSampler.transform( samplers, inputs, 0, n );
+      if ( store != null )
+      {
+         for ( int k = 0; k < n; k++ )
+         {
+            store.write( generated-n+k, 0, inputs, k*dimension, dimension );
+         }
+      }
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
+
+   /**
+    * batch mode: folds in the results of the cases from nextBatch()
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int numOutputs = outputs.getLength();
+      for ( int k = 0; k < numCases; k++ )
+      {
+         trial++;
+         collect( trial, vals, k*numOutputs );
+         stats.add( vals, k*numOutputs );
+         if ( checkpoint != null )
+            checkpoint.add( vals, k*numOutputs );
+      }
+
+      computeStatistics();
+
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return trial < numTrials;
+   }
+
+   /**
+    * maps point skip+t-1 of the sequence to the design variable
+    * distributions, writing the design point to x[offset ..]
+    */
+   private void sample( int t, double[] x, int offset ) throws java.io.IOException
+   {
+      sequence.point( skip + t - 1, x, offset );
+      DistributionSampler.transform( samplers, x, offset, 1 );
+
+      if ( store != null )
+         store.write( t-1, 0, x, offset, samplers.length );
+   }
+
+   /**
+    * keeps the raw outputs of trial number t if they have been asked for
+    */
+   private void collect( int t, double[] vals, int offset ) throws java.io.IOException
+   {
+      if ( store != null )
+         store.write( t-1, designVars.getLength(), vals, offset, outputs.getLength() );
+
+      if ( collectResults )
+      {
+         resultIndex[1] = t-1;
+         for ( int i = 0; i < outputs.getLength(); i++ )
+         {
+            resultIndex[0] = i;
+            results.setValue( resultIndex, vals[offset+i] );
+         }
+      }
+   }
+
+   void computeStatistics() throws PHXTypeMismatchException
+   {
+      computeMoments();
+      computeDistribution();
+   }
+
+   /**
+    * the statistics that cost the same whatever the number of trials
+    */
+   private void computeMoments() throws PHXTypeMismatchException
+   {
+      for ( int var = 0; var < outputs.getLength(); var++ )
+      {
+         // load the values into the reference variables so that
+         // ModelCenter can get them
+         outputs.setRefPropValue( "avg", var, stats.getMean( var ) );
+         outputs.setRefPropValue( "std", var, stats.getStandardDeviation( var ) );
+         outputs.setRefPropValue( "min", var, stats.getMin( var ) );
+         outputs.setRefPropValue( "max", var, stats.getMax( var ) );
+         outputs.setRefPropValue( "skewness", var, stats.getSkewness( var ) );
+         outputs.setRefPropValue( "kurtosis", var, stats.getKurtosis( var ) );
+         outputs.setRefPropValue( "stdError", var, stats.getStandardError( var ) );
+         outputs.setRefPropValue( "ciHalfWidth", var,
+                                  stats.getConfidenceHalfWidth( var, confidenceLevel ) );
+      }
+   }
+
+   /**
+    * the quantiles and the histogram, from the quantile sketches
+    */
+   private void computeDistribution() throws PHXTypeMismatchException
+   {
+      for ( int var = 0; var < outputs.getLength(); var++ )
+      {
+         outputs.setRefPropValue( "p5", var, stats.getQuantile( var, 0.05 ) );
+         outputs.setRefPropValue( "p50", var, stats.getQuantile( var, 0.5 ) );
+         outputs.setRefPropValue( "p95", var, stats.getQuantile( var, 0.95 ) );
+      }
+      copyHistogram();
+   }
+
+   private void copyHistogram()
+   {
+      int numOutputs = outputs.getLength();
+      int[] dims = histogram.getDimensions();
+      if ( dims.length != 2 || dims[0] != numOutputs || dims[1] != histogramBins )
+         histogram.resize( new int[] {numOutputs, histogramBins} );
+
+      if ( histogramCounts.length != histogramBins )
+         histogramCounts = new double[histogramBins];
+      double[] counts = histogramCounts;
+      int[] index = histogramIndex;
+      for ( int var = 0; var < numOutputs; var++ )
+      {
+         stats.getHistogram( var, histogramBins, counts, 0 );
+         index[0] = var;
+         for ( int b = 0; b < histogramBins; b++ )
+         {
+            index[1] = b;
+            histogram.setValue( index, counts[b] );
+         }
+      }
+   }
+
+   public void end()
+   {
+      long t = metrics.enter();
+      try
+      {
+         // a study stopped between updates still leaves all its statistics
+         if ( trial > 0 )
+            computeDistribution();
+      }
+      catch ( PHXTypeMismatchException e )
+      {
+         throw new IllegalStateException( "cannot set the statistics of outputs", e );
+      }
+      finally
+      {
+         closeFiles();
+      }
+      metrics.exit( DriverMetrics.END, t );
+   }
+
+   /**
+    * writes the trials completed since the last checkpoint and closes the
+    * checkpoint and result files, if there are any
+    */
+   private void closeFiles()
+   {
+      java.io.IOException failure = null;
+      if ( checkpoint != null )
+      {
+         try
+         {
+            checkpoint.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            failure = e;
+         }
+         checkpoint = null;
+      }
+      if ( store != null )
+      {
+         try
+         {
+            store.close();
+         }
+         catch ( java.io.IOException e )
+         {
+            if ( failure == null )
+               failure = e;
+         }
+         store = null;
+      }
+      if ( failure != null )
+         throw new java.io.UncheckedIOException( failure );
+   }
+
+   public static String getAuthor() { return "ASE6104 Team C1"; }
+   public static String getVersion() { return "1.0"; }
+   public static String getDescription() { return "Performs Quasi-Monte Carlo sampling with Sobol or Halton sequences"; }
+   public static String getHelpURL() { return "www.phoenix-int.com"; }
+}
@@ -0,0 +1,151 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Radial basis function interpolation: a weighted sum of one kernel per
+ * training point, phi(r) of the distance in standardized inputs, plus a
+ * linear polynomial in the inputs (a constant only with too few points
+ * for it). The weights solve the saddle-point system that makes the
+ * surface pass through every point. Kernels:
+ *   Cubic        - r^3, the default; needs no shape parameter
+ *   ThinPlate    - r^2 ln r
+ *   Gaussian     - exp(-(e r)^2)
+ *   Multiquadric - sqrt(1 + (e r)^2)
+ * where e is the shape parameter.
+ */
+class RBFSurrogate extends Surrogate
+{
+   public static final String KERNELS = "Cubic,ThinPlate,Gaussian,Multiquadric";
+
+   private static final int CUBIC = 0;
+   private static final int THIN_PLATE = 1;
+   private static final int GAUSSIAN = 2;
+   private static final int MULTIQUADRIC = 3;
+
+   private int kernel = CUBIC;
+   private double shape = 1;
+   private double[] weights = new double[0];
+   private double[] tail = new double[0];
+   private double[] metric = new double[0];
+
+   public String getType() { return "RBF"; }
+
+   /**
+    * one of KERNELS; takes effect at the next fit
+    */
+   public void setKernel( String v )
+   {
+      int k = Arrays.asList( KERNELS.split( "," ) ).indexOf( v );
+      if ( k < 0 )
+         throw new IllegalArgumentException( "unsupported RBF kernel: " + v );
+      kernel = k;
+   }
+
+   public String getKernel() { return KERNELS.split( "," )[kernel]; }
+   public void setShape( double v ) { shape = v; }
+   public double getShape() { return shape; }
+
+   protected void train()
+   {
+      int n = numPoints;
+      int d = numInputs;
+      makeMetric();
+      int q = n > d+1 ? d+1 : 1;
+      int size = n + q;
+
+      double[] a = new double[size*size];
+      double[] b = new double[size];
+      for ( int k = 0; k < n; k++ )
+      {
+         for ( int j = 0; j <= k; j++ )
+         {
+            double v = phi( distanceSquared( x, j*d, k, metric ) );
+            a[k*size+j] = v;
+            a[j*size+k] = v;
+         }
+         a[k*size+n] = 1;
+         a[n*size+k] = 1;
+         for ( int i = 1; i < q; i++ )
+         {
+            double u = standardized( x, k*d, i-1 );
+            a[k*size+n+i] = u;
+            a[(n+i)*size+k] = u;
+         }
+         b[k] = standardizedOutput( k );
+      }
+      LinearAlgebra.solve( a, size, b );
+
+      weights = Arrays.copyOf( b, n );
+      tail = Arrays.copyOfRange( b, n, size );
+   }
+
+   protected double predictStandardized( double[] x, int offset )
+   {
+      double s = tail[0];
+      for ( int i = 1; i < tail.length; i++ )
+      {
+         s += tail[i]*standardized( x, offset, i-1 );
+      }
+      for ( int k = 0; k < numPoints; k++ )
+      {
+         s += weights[k]*phi( distanceSquared( x, offset, k, metric ) );
+      }
+      return s;
+   }
+
+   private double phi( double r2 )
+   {
+      switch ( kernel )
+      {
+         case THIN_PLATE:
+            return r2 > 0 ? 0.5*r2*Math.log( r2 ) : 0;
+         case GAUSSIAN:
+            return Math.exp( -shape*shape*r2 );
+         case MULTIQUADRIC:
+            return Math.sqrt( 1 + shape*shape*r2 );
+         default:
+            return r2*Math.sqrt( r2 );
+      }
+   }
+
+   private void makeMetric()
+   {
+      metric = new double[numInputs];
+      for ( int i = 0; i < numInputs; i++ )
+      {
+         metric[i] = 1/(inputScale[i]*inputScale[i]);
+      }
+   }
+
+   protected void writeModel( DataOutputStream out ) throws IOException
+   {
+      out.writeInt( kernel );
+      out.writeDouble( shape );
+      out.writeInt( tail.length );
+      for ( double v : tail )
+      {
+         out.writeDouble( v );
+      }
+      for ( double v : weights )
+      {
+         out.writeDouble( v );
+      }
+   }
+
+   protected void readModel( DataInputStream in ) throws IOException
+   {
+      kernel = in.readInt();
+      shape = in.readDouble();
+      tail = new double[in.readInt()];
+      for ( int i = 0; i < tail.length; i++ )
+      {
+         tail[i] = in.readDouble();
+      }
+      weights = new double[numPoints];
+      for ( int k = 0; k < numPoints; k++ )
+      {
+         weights[k] = in.readDouble();
+      }
+      makeMetric();
+   }
+}
@@ -0,0 +1,226 @@
+
+/**
+ * Seedable source of uniform random numbers for the sampling drivers.
+ *
+ * A source is identified by a generator name and a seed. reset() moves
+ * it to the start of an independent stream keyed by a long (a trial
+ * number, a design variable column, ...), so any stream can be
+ * regenerated in O(1) without replaying the ones before it. Threads
+ * never share a source; each worker takes its own copy().
+ *
+ * Supported generators are "SplitMix64" (the generator behind
+ * java.util.SplittableRandom) and "Xoroshiro128PlusPlus".
+ */
+abstract class RandomSource
+{
+   public static final String GENERATORS = "SplitMix64,Xoroshiro128PlusPlus";
+
+   protected final long seed;
+
+   protected RandomSource( long seed )
+   {
+      this.seed = seed;
+   }
+
+   /**
+    * creates a generator by name, positioned at stream 0
+    */
+   public static RandomSource create( String generator, long seed )
+   {
+      RandomSource source;
+      if ( generator == null || generator.length() == 0 ||
+           generator.equals( "SplitMix64" ) )
+         source = new SplitMix64Source( seed );
+      else if ( generator.equals( "Xoroshiro128PlusPlus" ) )
+         source = new Xoroshiro128Source( seed );
+      else
+      {
+         String msg = "unsupported random generator: " + generator;
+         throw new IllegalArgumentException( msg );
+      }
+      source.reset( 0 );
+      return source;
+   }
+
+   /**
+    * picks a seed for runs that did not ask for a reproducible one
+    */
+   public static long randomSeed()
+   {
+      long s = mix64( System.nanoTime() ^ System.currentTimeMillis()*0x9E3779B97F4A7C15L );
+      return s == 0 ? 1 : s;
+   }
+
+   public long getSeed() { return seed; }
+   public abstract String getName();
+
+   /**
+    * positions the generator at the start of stream streamId
+    */
+   public abstract void reset( long streamId );
+
+   /**
+    * returns an independent generator with the same name and seed, for
+    * use on another thread. The copy starts at stream 0.
+    */
+   public abstract RandomSource copy();
+
+   public abstract long nextLong();
+
+   /**
+    * uniform double in the open interval (0,1), so that the result can
+    * be handed to log() or an inverse CDF without special cases
+    */
+   public double nextDouble()
+   {
+      return toUniform( nextLong() );
+   }
+
+   /**
+    * maps 64 random bits to a uniform double in (0,1): the top 52 bits
+    * plus one half, times 2^-52, is exact and lies between 2^-53 and
+    * 1-2^-53. (With 53 bits the largest value, 1-2^-54, is not a double
+    * and rounds up to 1.)
+    */
+   static double toUniform( long bits )
+   {
+      return ((bits >>> 12) + 0.5)*0x1.0p-52;
+   }
+
+   public void fill( double[] u )
+   {
+      fill( u, 0, u.length );
+   }
+
+   /**
+    * fills u[offset] .. u[offset+length-1] with uniforms from nextDouble()
+    */
+   public void fill( double[] u, int offset, int length )
+   {
+      for ( int i = offset; i < offset + length; i++ )
+      {
+         u[i] = toUniform( nextLong() );
+      }
+   }
+
+   /**
+    * the SplitMix64 finalizer (Stafford variant 13)
+    */
+   static long mix64( long z )
+   {
+      z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   /**
+    * the state a stream starts from; distinct (seed, stream) pairs give
+    * well separated starting points
+    */
+   static long streamState( long seed, long streamId )
+   {
+      return mix64( seed ^ mix64( streamId + 0x9E3779B97F4A7C15L ) );
+   }
+}
+
+class SplitMix64Source extends RandomSource
+{
+   private static final long GAMMA = 0x9E3779B97F4A7C15L;
+   private long state;
+
+   SplitMix64Source( long seed )
+   {
+      super( seed );
+   }
+
+   public String getName() { return "SplitMix64"; }
+
+   public void reset( long streamId )
+   {
+      state = streamState( seed, streamId );
+   }
+
+   public RandomSource copy()
+   {
+      RandomSource c = new SplitMix64Source( seed );
+      c.reset( 0 );
+      return c;
+   }
+
+   public long nextLong()
+   {
+      state += GAMMA;
+      return mix64( state );
+   }
+
+   public void fill( double[] u, int offset, int length )
+   {
+      long s = state;
+      for ( int i = offset; i < offset + length; i++ )
+      {
+         s += GAMMA;
+         u[i] = toUniform( mix64( s ) );
+      }
+      state = s;
+   }
+}
+
+class Xoroshiro128Source extends RandomSource
+{
+   private long s0;
+   private long s1;
+
+   Xoroshiro128Source( long seed )
+   {
+      super( seed );
+   }
+
+   public String getName() { return "Xoroshiro128PlusPlus"; }
+
+   public void reset( long streamId )
+   {
+      // expand the stream state with SplitMix64, as recommended by the
+      // xoroshiro authors; the state must not be all zero
+      long x = streamState( seed, streamId );
+      x += 0x9E3779B97F4A7C15L;
+      s0 = mix64( x );
+      x += 0x9E3779B97F4A7C15L;
+      s1 = mix64( x );
+      if ( (s0 | s1) == 0 )
+         s1 = 1;
+   }
+
+   public RandomSource copy()
+   {
+      RandomSource c = new Xoroshiro128Source( seed );
+      c.reset( 0 );
+      return c;
+   }
+
+   public long nextLong()
+   {
+      long a = s0;
+      long b = s1;
+      long result = Long.rotateLeft( a + b, 17 ) + a;
+      b ^= a;
+      s0 = Long.rotateLeft( a, 49 ) ^ b ^ (b << 21);
+      s1 = Long.rotateLeft( b, 28 );
+      return result;
+   }
+
+   public void fill( double[] u, int offset, int length )
+   {
+      long a = s0;
+      long b = s1;
+      for ( int i = offset; i < offset + length; i++ )
+      {
+         long result = Long.rotateLeft( a + b, 17 ) + a;
+         b ^= a;
+         a = Long.rotateLeft( a, 49 ) ^ b ^ (b << 21);
+         b = Long.rotateLeft( b, 28 );
+         u[i] = toUniform( result );
+      }
+      s0 = a;
+      s1 = b;
+   }
+}
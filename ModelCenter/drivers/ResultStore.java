@@ -0,0 +1,364 @@
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Columnar, memory-mapped file of study results: one double column per
+ * input and output variable, one row per trial.
+ *
+ * The file is a header followed by blocks of getBlockRows() rows. Within
+ * a block each column is stored contiguously, so a column of a block can
+ * be handed out as a DoubleBuffer over the mapped file without copying,
+ * and a million-row study can be analysed without reading it into the
+ * heap. New blocks are added at the end of the file as rows are written.
+ *
+ *   header: magic, header size, number of columns, rows per block,
+ *           number of rows, column names (length-prefixed UTF-8)
+ *   block:  column 0 of blockRows rows, column 1, ..., little-endian
+ *
+ * Writing is thread-safe: rows are either written at a given index, as
+ * the drivers do with trial t in row t-1, or claimed with append() by
+ * concurrent workers. The row count in the header is brought up to date
+ * by flush() and close(); a reader sees the rows up to that count.
+ *
+ * The mappings are left to the garbage collector rather than unmapped
+ * by close(), so a view handed out by column() stays readable after the
+ * store is closed, and so does a block a concurrent write() still holds.
+ * Reading or writing through the store itself after close() throws
+ * IllegalStateException. Blocks past the last row, left by setNumRows(),
+ * stay in the file until the next create() starts it over.
+ */
+class ResultStore implements Closeable
+{
+   private static final long MAGIC = 0x504858434F4C3031L;   // "PHXCOL01"
+   public static final int DEFAULT_BLOCK_ROWS = 65536;
+   private static final long MAX_BLOCK_BYTES = 1L << 28;
+
+   private final FileChannel channel;
+   private final boolean writable;
+   private final String[] columns;
+   private final int blockRows;
+   private final long dataStart;
+   private final long blockBytes;
+   private final MappedByteBuffer header;
+   private volatile MappedByteBuffer[] blocks = new MappedByteBuffer[0];
+   private final AtomicLong numRows = new AtomicLong();
+   private final AtomicLong nextRow = new AtomicLong();
+   private volatile boolean closed = false;
+
+   private ResultStore( FileChannel channel, boolean writable, String[] columns,
+                        int blockRows, long dataStart, long rows ) throws IOException
+   {
+      this.channel = channel;
+      this.writable = writable;
+      this.columns = columns;
+      this.blockRows = blockRows;
+      this.dataStart = dataStart;
+      this.blockBytes = 8L*blockRows*columns.length;
+      header = channel.map( writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                            0, dataStart );
+      header.order( ByteOrder.LITTLE_ENDIAN );
+      numRows.set( rows );
+      nextRow.set( rows );
+   }
+
+   /**
+    * opens a store for writing, or returns null if path is empty. With
+    * keep set, the rows of an existing store with the same columns are
+    * kept and writing continues after them; otherwise the store starts
+    * out empty.
+    */
+   public static ResultStore create( String path, String[] columns, boolean keep )
+      throws IOException
+   {
+      if ( path == null || path.trim().length() == 0 )
+         return null;
+
+      File file = new File( path.trim() );
+      if ( keep && file.length() > 0 )
+      {
+         ResultStore old = open( file, true );
+         if ( java.util.Arrays.equals( old.columns, columns ) )
+            return old;
+         old.close();
+      }
+
+      byte[][] names = new byte[columns.length][];
+      long size = 32;
+      for ( int c = 0; c < columns.length; c++ )
+      {
+         names[c] = columns[c].getBytes( StandardCharsets.UTF_8 );
+         size += 2 + names[c].length;
+      }
+      long dataStart = (size + 4095) & ~4095L;
+
+      // wide stores get shorter blocks, so that a block stays mappable
+      int blockRows = (int)Math.max( 1, Math.min( DEFAULT_BLOCK_ROWS,
+                                     MAX_BLOCK_BYTES/(8L*Math.max( 1, columns.length )) ) );
+
+      // a new store starts from an empty file, so no block of an earlier,
+      // longer study is left behind its rows
+      FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE,
+                                              StandardOpenOption.TRUNCATE_EXISTING,
+                                              StandardOpenOption.READ,
+                                              StandardOpenOption.WRITE );
+      ByteBuffer h = ByteBuffer.allocate( (int)dataStart ).order( ByteOrder.LITTLE_ENDIAN );
+      h.putLong( MAGIC );
+      h.putInt( (int)dataStart );
+      h.putInt( columns.length );
+      h.putInt( blockRows );
+      h.putInt( 0 );
+      h.putLong( 0 );
+      for ( byte[] name : names )
+      {
+         h.putShort( (short)name.length );
+         h.put( name );
+      }
+      h.clear();
+      try
+      {
+         long position = 0;
+         while ( h.hasRemaining() )
+         {
+            position += channel.write( h, position );
+         }
+         return new ResultStore( channel, true, columns.clone(), blockRows,
+                                 dataStart, 0 );
+      }
+      catch ( IOException e )
+      {
+         channel.close();
+         throw e;
+      }
+   }
+
+   /**
+    * column names of a study with numInputs design variables and
+    * numOutputs responses: x0, x1, ... followed by y0, y1, ...
+    */
+   public static String[] columnNames( int numInputs, int numOutputs )
+   {
+      String[] names = new String[numInputs + numOutputs];
+      for ( int i = 0; i < numInputs; i++ )
+      {
+         names[i] = "x" + i;
+      }
+      for ( int i = 0; i < numOutputs; i++ )
+      {
+         names[numInputs+i] = "y" + i;
+      }
+      return names;
+   }
+
+   /**
+    * opens an existing store for reading
+    */
+   public static ResultStore open( String path ) throws IOException
+   {
+      return open( new File( path ), false );
+   }
+
+   private static ResultStore open( File file, boolean writable ) throws IOException
+   {
+      FileChannel channel = writable ?
+         FileChannel.open( file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE ) :
+         FileChannel.open( file.toPath(), StandardOpenOption.READ );
+      try
+      {
+         ByteBuffer h = ByteBuffer.allocate( 32 ).order( ByteOrder.LITTLE_ENDIAN );
+         while ( h.hasRemaining() && channel.read( h, h.position() ) > 0 )
+         {
+         }
+         if ( h.position() < 32 || h.getLong( 0 ) != MAGIC )
+            throw new IOException( file + " is not a result store" );
+
+         int dataStart = h.getInt( 8 );
+         int numColumns = h.getInt( 12 );
+         int blockRows = h.getInt( 16 );
+         long rows = h.getLong( 24 );
+
+         ByteBuffer names = ByteBuffer.allocate( dataStart - 32 ).order( ByteOrder.LITTLE_ENDIAN );
+         while ( names.hasRemaining() && channel.read( names, 32 + names.position() ) > 0 )
+         {
+         }
+         names.flip();
+         String[] columns = new String[numColumns];
+         for ( int c = 0; c < numColumns; c++ )
+         {
+            byte[] name = new byte[names.getShort() & 0xFFFF];
+            names.get( name );
+            columns[c] = new String( name, StandardCharsets.UTF_8 );
+         }
+
+         ResultStore store = new ResultStore( channel, writable, columns, blockRows,
+                                              dataStart, rows );
+         store.blocks = store.map( (int)((rows + blockRows - 1)/blockRows) );
+         return store;
+      }
+      catch ( IOException e )
+      {
+         channel.close();
+         throw e;
+      }
+      catch ( RuntimeException e )
+      {
+         channel.close();
+         throw e;
+      }
+   }
+
+   public int getNumColumns() { return columns.length; }
+   public String getColumnName( int column ) { return columns[column]; }
+   public long getNumRows() { return numRows.get(); }
+   public int getBlockRows() { return blockRows; }
+   public int getNumBlocks() { return (int)((numRows.get() + blockRows - 1)/blockRows); }
+
+   /**
+    * index of the named column, -1 if there is none
+    */
+   public int getColumnIndex( String name )
+   {
+      for ( int c = 0; c < columns.length; c++ )
+      {
+         if ( columns[c].equals( name ) )
+            return c;
+      }
+      return -1;
+   }
+
+   /**
+    * writes count consecutive columns of one row, starting at column,
+    * from vals[offset ..]
+    */
+   public void write( long row, int column, double[] vals, int offset, int count )
+      throws IOException
+   {
+      checkOpen();
+      MappedByteBuffer block = block( (int)(row/blockRows) );
+      int pos = 8*(int)(row % blockRows);
+      for ( int c = 0; c < count; c++ )
+      {
+         block.putDouble( (column+c)*8*blockRows + pos, vals[offset+c] );
+      }
+
+      long rows = numRows.get();
+      while ( row >= rows && !numRows.compareAndSet( rows, row+1 ) )
+      {
+         rows = numRows.get();
+      }
+   }
+
+   /**
+    * sets the number of rows, dropping the rows past it or taking in rows
+    * that were written to the file after the last flush()
+    */
+   public void setNumRows( long rows ) throws IOException
+   {
+      checkOpen();
+      if ( rows > 0 )
+         block( (int)((rows-1)/blockRows) );
+      numRows.set( rows );
+      nextRow.set( rows );
+   }
+
+   /**
+    * writes a whole row after the last row claimed so far and returns
+    * its index; safe to call from several workers at once
+    */
+   public long append( double[] vals, int offset ) throws IOException
+   {
+      long row = nextRow.getAndIncrement();
+      write( row, 0, vals, offset, columns.length );
+      return row;
+   }
+
+   public double get( long row, int column )
+   {
+      checkOpen();
+      MappedByteBuffer block = blocks[(int)(row/blockRows)];
+      return block.getDouble( (column*blockRows + (int)(row % blockRows))*8 );
+   }
+
+   /**
+    * the values of a column in one block, as a read-only view of the
+    * mapped file; element i is row block*getBlockRows()+i
+    */
+   public DoubleBuffer column( int column, int block )
+   {
+      checkOpen();
+      ByteBuffer b = blocks[block].duplicate();
+      long rows = Math.min( blockRows, numRows.get() - (long)block*blockRows );
+      b.position( column*8*blockRows );
+      b.limit( column*8*blockRows + 8*(int)rows );
+      return b.slice().order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer().asReadOnlyBuffer();
+   }
+
+   /**
+    * records the current row count in the header
+    */
+   public void flush()
+   {
+      if ( writable && !closed )
+         header.putLong( 24, numRows.get() );
+   }
+
+   /**
+    * records the row count and closes the file; the mappings go with the
+    * garbage collector
+    */
+   public void close() throws IOException
+   {
+      synchronized ( this )
+      {
+         if ( closed )
+            return;
+         flush();
+         closed = true;
+      }
+      channel.close();
+   }
+
+   private void checkOpen()
+   {
+      if ( closed )
+         throw new IllegalStateException( "result store is closed" );
+   }
+
+   private MappedByteBuffer block( int index ) throws IOException
+   {
+      MappedByteBuffer[] b = blocks;
+      if ( index < b.length )
+         return b[index];
+
+      synchronized ( this )
+      {
+         if ( index >= blocks.length )
+            blocks = map( index+1 );
+         return blocks[index];
+      }
+   }
+
+   /**
+    * the first count blocks, mapping the ones that are not mapped yet;
+    * mapping a block past the end of a writable file extends the file
+    */
+   private MappedByteBuffer[] map( int count ) throws IOException
+   {
+      MappedByteBuffer[] b = java.util.Arrays.copyOf( blocks, count );
+      FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE :
+                                            FileChannel.MapMode.READ_ONLY;
+      for ( int i = blocks.length; i < count; i++ )
+      {
+         b[i] = channel.map( mode, dataStart + i*blockBytes, blockBytes );
+         b[i].order( ByteOrder.LITTLE_ENDIAN );
+      }
+      return b;
+   }
+}
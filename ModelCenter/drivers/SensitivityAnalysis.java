@@ -0,0 +1,364 @@
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+
+/**
+ * Variance-based global sensitivity analysis. For every output the
+ * driver estimates how much of its variance each design variable causes
+ * on its own (the first-order Sobol index) and together with all the
+ * others (the total index), with bootstrap confidence intervals.
+ *
+ * The design is Saltelli's: numSamples base points of twice the number
+ * of design variables d are drawn, the first half of each forming row
+ * A_j and the second row B_j, and the model is run at A_j, at B_j and at
+ * the d rows AB_j^(i), which are A_j with variable i taken from B_j. That
+ * is numSamples*(d+2) cases, in groups of d+2 that can all be run at
+ * once. The base points come from a Sobol or Halton sequence (scrambled
+ * by default), from a Latin Hypercube or from a random generator, and
+ * are mapped through the design variable distributions like in the
+ * sampling drivers.
+ *
+ * The indices are estimated as the groups complete, by SobolIndices,
+ * which keeps sums rather than the responses. firstOrder, totalOrder
+ * and their interval bounds are arrays of one row per output and one
+ * column per design variable; the intervals are computed once all the
+ * cases are in.
+ */
+public class SensitivityAnalysis implements IndexedBatchDriver
+{
+   public static final String SAMPLE_TYPES = "Sobol,Halton,LatinHypercube,Random";
+
+   private PHXReferenceArray designVars = new PHXReferenceArray();
+   private PHXReferenceArray outputs = new PHXReferenceArray();
+   private PHXDoubleArray firstOrder = new PHXDoubleArray();
+   private PHXDoubleArray totalOrder = new PHXDoubleArray();
+   private PHXDoubleArray firstOrderLower = new PHXDoubleArray();
+   private PHXDoubleArray firstOrderUpper = new PHXDoubleArray();
+   private PHXDoubleArray totalOrderLower = new PHXDoubleArray();
+   private PHXDoubleArray totalOrderUpper = new PHXDoubleArray();
+   private SobolIndices indices = new SobolIndices();
+   private int numSamples = 1024;
+   private int trial = 0;
+   private int generated = 0;
+   private long skip = 0;
+   private String sampleType = "Sobol";
+   private String scrambling = "Owen";
+   private String randomGenerator = "SplitMix64";
+   private int bootstrapSamples = 200;
+   private double confidenceLevel = 0.95;
+   private long seed = 0;
+   private long seedUsed = 0;
+   private DistributionSampler[] samplers = new DistributionSampler[0];
+   private LowDiscrepancySequence sequence;
+   private RandomSource rng;
+   private double[] design;
+   private double[] base = new double[0];
+   private long baseGroup = -1;
+   private double[] pending = new double[0];
+   private int pendingCases = 0;
+   private DriverMetrics metrics = new DriverMetrics( "SensitivityAnalysis" );
+
+   public SensitivityAnalysis()
+   {
+      IPHXRefPropInfo prop;
+
+      // ----- design variable setup
+      designVars.setAutoGrow( true );
+
+      prop = designVars.createRefProp( "distributionType", "string" );
+      prop.enumValuesFromString( DistributionSampler.TYPES );
+      prop.setTitle( "Distribution Type" );
+
+      prop = designVars.createRefProp( "parm1", "double" );
+      prop.setTitle( "Param #1" );
+      prop.setDescription( "distribution parameter one" );
+
+      prop = designVars.createRefProp( "parm2", "double" );
+      prop.setTitle( "Param #2" );
+      prop.setDescription( "distribution parameter two" );
+
+      prop = designVars.createRefProp( "parm3", "double" );
+      prop.setTitle( "Param #3" );
+      prop.setDescription( "distribution parameter three" );
+
+      prop = designVars.createRefProp( "table", "string" );
+      prop.setTitle( "CDF Table" );
+      prop.setDescription( "CSV file (file.csv or file.csv#column) of an Empirical distribution" );
+
+      // ----- output setup
+      outputs.setAutoGrow( true );
+
+      prop = outputs.createRefProp( "avg", "double" );
+      prop.setInput( false );
+      prop.setDescription( "Average" );
+      prop.setTitle( "average" );
+
+      prop = outputs.createRefProp( "std", "double" );
+      prop.setInput( false );
+      prop.setTitle( "Standard Deviation" );
+      prop.setDescription( "standard deviation" );
+
+      for ( PHXDoubleArray a : matrices() )
+      {
+         a.resize( new int[] {0,0} );
+      }
+   }
+
+   public PHXReferenceArray getDesignVars() { return designVars; }
+   public void setOutputs( PHXReferenceArray v ) { outputs = v; }
+   public PHXReferenceArray getOutputs() { return outputs; }
+   public void setNumSamples( int v ) { numSamples = v; }
+   public int getNumSamples() { return numSamples; }
+
+   /**
+    * cases the study runs, numSamples groups of d+2
+    */
+   public int getNumCases() { return numSamples*(designVars.getLength() + 2); }
+
+   public int getTrial() { return trial; }
+   public void setSkip( long v ) { skip = v; }
+   public long getSkip() { return skip; }
+   public void setSampleType( String v ) { sampleType = v; }
+   public String getSampleType() { return sampleType; }
+   public void setScrambling( String v ) { scrambling = v; }
+   public String getScrambling() { return scrambling; }
+   public void setRandomGenerator( String v ) { randomGenerator = v; }
+   public String getRandomGenerator() { return randomGenerator; }
+   public void setBootstrapSamples( int v ) { bootstrapSamples = v; }
+   public int getBootstrapSamples() { return bootstrapSamples; }
+   public void setConfidenceLevel( double v ) { confidenceLevel = v; }
+   public double getConfidenceLevel() { return confidenceLevel; }
+   public void setSeed( long v ) { seed = v; }
+   public long getSeed() { return seed; }
+   public long getSeedUsed() { return seedUsed; }
+   public PHXDoubleArray getFirstOrder() { return firstOrder; }
+   public PHXDoubleArray getTotalOrder() { return totalOrder; }
+   public PHXDoubleArray getFirstOrderLower() { return firstOrderLower; }
+   public PHXDoubleArray getFirstOrderUpper() { return firstOrderUpper; }
+   public PHXDoubleArray getTotalOrderLower() { return totalOrderLower; }
+   public PHXDoubleArray getTotalOrderUpper() { return totalOrderUpper; }
+
+   // life cycle metrics, see DriverMetrics
+   public void setCollectMetrics( boolean v ) { metrics.setEnabled( v ); }
+   public boolean getCollectMetrics() { return metrics.isEnabled(); }
+   public void setMetricsFile( String v ) { metrics.setSnapshotFile( v ); }
+   public String getMetricsFile() { return metrics.getSnapshotFile(); }
+   public void setMetricsInterval( double v ) { metrics.setSnapshotInterval( v ); }
+   public double getMetricsInterval() { return metrics.getSnapshotInterval(); }
+   public PHXDoubleArray getPhaseTimes() { return metrics.getPhaseTimes(); }
+   public double getTrialsPerSecond() { return metrics.getTrialsPerSecond(); }
+   public long getFailedTrials() { return metrics.getFailedTrials(); }
+
+   /**
+    * this function is called before we begin iterating with the driver
+    */
+   public void initializeIterations() throws Exception
+   {
+      long t = metrics.begin();
+      if ( !("," + SAMPLE_TYPES + ",").contains( "," + sampleType + "," ) )
+      {
+         String msg = "unsupported sample type: " + sampleType;
+         throw new IllegalArgumentException( msg );
+      }
+      if ( !(confidenceLevel > 0 && confidenceLevel < 1) )
+         throw new IllegalArgumentException( "confidenceLevel must be between 0 and 1" );
+
+      trial = 0;
+      generated = 0;
+      seedUsed = seed != 0 ? seed : RandomSource.randomSeed();
+      samplers = DistributionSampler.compile( designVars );
+
+      int d = designVars.getLength();
+      int m = outputs.getLength();
+      base = new double[2*d];
+      baseGroup = -1;
+      pending = new double[(d+2)*m];
+      pendingCases = 0;
+
+      // the bootstrap weights get a stream of their own
+      RandomSource boot = RandomSource.create( randomGenerator, RandomSource.mix64( seedUsed ) );
+      indices.reset( d, m, bootstrapSamples, boot );
+      for ( PHXDoubleArray a : matrices() )
+      {
+         a.resize( new int[] {m, d} );
+      }
+
+      sequence = null;
+      design = null;
+      rng = RandomSource.create( randomGenerator, seedUsed );
+      if ( sampleType.equals( "LatinHypercube" ) )
+         design = LatinHypercubeSampling.generateDesign( numSamples, 2*d, rng );
+      else if ( !sampleType.equals( "Random" ) )
+         sequence = LowDiscrepancySequence.create( sampleType, 2*d, scrambling, seedUsed );
+      metrics.exit( DriverMetrics.INITIALIZE, t );
+   }
+
+   /**
+    * this function is called at the beginning of each iteration. The
+    * component should set values for the case it wants the client
+    * to run.
+    */
+   public void startIteration() throws Exception
+   {
+      long t = metrics.enter();
+      // the case counts as done once its responses are in
+      sample( generated, designVars.getValues(), 0 );
+      generated++;
+      metrics.exit( DriverMetrics.START_ITERATION, t );
+   }
+
+   /**
+    * this function is called after the client application (ModelCenter)
+    * has had a chance to run the case. At this point, this component
+    * will have updated values for all of it's input variables
+    */
+   public boolean endIteration() throws Exception
+   {
+      long t = metrics.enter();
+      collect( outputs.getValues(), 0, 1 );
+      metrics.exit( DriverMetrics.END_ITERATION, t, outputs.getValues(), 1, outputs.getLength() );
+      return trial < getNumCases();
+   }
+
+   public int getNumInputs() { return designVars.getLength(); }
+   public int getNumOutputs() { return outputs.getLength(); }
+
+   /**
+    * batch mode: generates the next cases without waiting for the
+    * results of the previous ones
+    */
+   public int nextBatch( double[] inputs, int maxCases ) throws Exception
+   {
+      long t = metrics.enter();
+      int d = designVars.getLength();
+      int n = Math.min( maxCases, getNumCases() - generated );
+      for ( int k = 0; k < n; k++ )
+      {
+         sample( generated, inputs, k*d );
+         generated++;
+      }
+      metrics.exit( DriverMetrics.NEXT_BATCH, t, n );
+      return n;
+   }
+
+   /**
+    * batch mode: folds in the results of the cases from nextBatch()
+    */
+   public boolean acceptBatch( double[] vals, int numCases ) throws Exception
+   {
+      long t = metrics.enter();
+      collect( vals, 0, numCases );
+      metrics.exit( DriverMetrics.ACCEPT_BATCH, t, vals, numCases, getNumOutputs() );
+      return trial < getNumCases();
+   }
+
+   /**
+    * writes case c (from 0) to x[offset ..]: row A, B or AB^(i) of its
+    * group, mapped through the distributions
+    */
+   private void sample( int c, double[] x, int offset )
+   {
+      int d = designVars.getLength();
+      long g = c/(d+2);
+      int row = c%(d+2);
+      if ( g != baseGroup )
+      {
+         if ( design != null )
+            System.arraycopy( design, (int)g*2*d, base, 0, 2*d );
+         else if ( sequence != null )
+            sequence.point( skip + g, base, 0 );
+         else
+         {
+            rng.reset( skip + g );
+            rng.fill( base, 0, 2*d );
+         }
+         baseGroup = g;
+      }
+
+      System.arraycopy( base, row == 1 ? d : 0, x, offset, d );
+      if ( row >= 2 )
+         x[offset+row-2] = base[d+row-2];
+      DistributionSampler.transform( samplers, x, offset, 1 );
+   }
+
+   /**
+    * adds the responses of the next numCases cases; every group they
+    * complete goes to the estimator
+    */
+   private void collect( double[] vals, int offset, int numCases ) throws PHXTypeMismatchException
+   {
+      int m = outputs.getLength();
+      int groupSize = designVars.getLength() + 2;
+      boolean added = false;
+      for ( int k = 0; k < numCases; )
+      {
+         // whole groups straight from vals, the rest through pending
+         if ( pendingCases == 0 && numCases - k >= groupSize )
+         {
+            indices.add( trial/groupSize, vals, offset + k*m );
+            trial += groupSize;
+            k += groupSize;
+            added = true;
+            continue;
+         }
+
+         System.arraycopy( vals, offset + k*m, pending, pendingCases*m, m );
+         pendingCases++;
+         trial++;
+         k++;
+         if ( pendingCases == groupSize )
+         {
+            indices.add( trial/groupSize - 1, pending, 0 );
+            pendingCases = 0;
+            added = true;
+         }
+      }
+
+      if ( added )
+         computeStatistics( trial == getNumCases() );
+   }
+
+   void computeStatistics( boolean intervals ) throws PHXTypeMismatchException
+   {
+      int d = designVars.getLength();
+      int[] index = new int[2];
+      for ( int var = 0; var < outputs.getLength(); var++ )
+      {
+         outputs.setRefPropValue( "avg", var, indices.getMean( var ) );
+         outputs.setRefPropValue( "std", var, Math.sqrt( indices.getVariance( var ) ) );
+
+         index[0] = var;
+         for ( int i = 0; i < d; i++ )
+         {
+            index[1] = i;
+            firstOrder.setValue( index, indices.getFirstOrder( var, i ) );
+            totalOrder.setValue( index, indices.getTotalOrder( var, i ) );
+            if ( intervals )
+            {
+               double[] ci = indices.getFirstOrderInterval( var, i, confidenceLevel );
+               firstOrderLower.setValue( index, ci[0] );
+               firstOrderUpper.setValue( index, ci[1] );
+               ci = indices.getTotalOrderInterval( var, i, confidenceLevel );
+               totalOrderLower.setValue( index, ci[0] );
+               totalOrderUpper.setValue( index, ci[1] );
+            }
+         }
+      }
+   }
+
+   private PHXDoubleArray[] matrices()
+   {
+      return new PHXDoubleArray[] { firstOrder, totalOrder, firstOrderLower,
+                                    firstOrderUpper, totalOrderLower, totalOrderUpper };
+   }
+
+   public void end()
+   {
+      long t = metrics.enter();
+      metrics.exit( DriverMetrics.END, t );
+   }
+
+   public static String getAuthor() { return "ASE6104 Team C1"; }
+   public static String getVersion() { return "1.0"; }
+   public static String getDescription() { return "Estimates first-order and total Sobol sensitivity indices"; }
+   public static String getHelpURL() { return "www.phoenix-int.com"; }
+}
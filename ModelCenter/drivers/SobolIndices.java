@@ -0,0 +1,268 @@
+import java.util.Arrays;
+
+/**
+ * Streaming estimator of the first-order and total Sobol indices of
+ * every output with respect to every input, from Saltelli's A, B and AB
+ * samples: for base sample j the model is run at row A_j, at row B_j and
+ * at the d rows AB_j^(i), which are A_j with input i taken from B_j.
+ *
+ * With f_A, f_B and f_ABi the responses of a group and V the variance of
+ * all the f_A and f_B,
+ *   first order  S_i  = mean( f_B (f_ABi - f_A) ) / V      (Saltelli 2010)
+ *   total        ST_i = mean( (f_A - f_ABi)^2 ) / 2V      (Jansen 1999)
+ * Only the sums of those terms are kept, so memory does not grow with the
+ * number of groups. Values are shifted by the first group's f_A before
+ * they are summed, which keeps the sums from cancelling for outputs with
+ * a large mean.
+ *
+ * Confidence intervals come from a Poisson bootstrap: each replicate
+ * keeps its own sums, to which every group is added with a Poisson(1)
+ * weight, the streaming equivalent of resampling the groups with
+ * replacement. The weights of group g are drawn from random stream g, so
+ * the intervals do not depend on the order the groups arrive in.
+ *
+ * A group whose responses for an output are not all finite is left out
+ * of that output's indices.
+ */
+class SobolIndices
+{
+   // Poisson(1) cumulative probabilities, for drawing the weights
+   private static final double[] POISSON = poissonTable();
+
+   private int numInputs;
+   private int numOutputs;
+   private int replicates;
+   private RandomSource weights;
+   private int[] weight = new int[0];
+   private long groups = 0;
+
+   private double[] shift = new double[0];
+   private double[] count = new double[0];
+   private double[] sum = new double[0];
+   private double[] sumSq = new double[0];
+   private double[] first = new double[0];
+   private double[] total = new double[0];
+
+   /**
+    * clears the estimator for numOutputs outputs of numInputs inputs
+    *
+    * @param replicates number of bootstrap replicates, 0 for none
+    * @param r source of the bootstrap weights
+    */
+   public void reset( int numInputs, int numOutputs, int replicates, RandomSource r )
+   {
+      this.numInputs = numInputs;
+      this.numOutputs = numOutputs;
+      this.replicates = Math.max( 0, replicates );
+      weights = r;
+      groups = 0;
+
+      // replicate 0 is the estimate itself, every weight 1
+      int rows = this.replicates + 1;
+      weight = new int[rows];
+      shift = new double[numOutputs];
+      count = new double[rows*numOutputs];
+      sum = new double[rows*numOutputs];
+      sumSq = new double[rows*numOutputs];
+      first = new double[rows*numOutputs*numInputs];
+      total = new double[rows*numOutputs*numInputs];
+   }
+
+   public int getNumInputs() { return numInputs; }
+   public int getNumOutputs() { return numOutputs; }
+   public int getReplicates() { return replicates; }
+   public long getGroups() { return groups; }
+
+   /**
+    * adds group number g: the responses to A, B and AB^(1) .. AB^(d), one
+    * row of numOutputs values each, starting at y[offset]
+    */
+   public void add( long g, double[] y, int offset )
+   {
+      int m = numOutputs;
+      int d = numInputs;
+      if ( groups == 0 )
+      {
+         for ( int j = 0; j < m; j++ )
+         {
+            double v = y[offset+j];
+            shift[j] = Double.isFinite( v ) ? v : 0;
+         }
+      }
+      groups++;
+
+      weight[0] = 1;
+      if ( replicates > 0 )
+      {
+         weights.reset( g );
+         for ( int r = 1; r <= replicates; r++ )
+         {
+            weight[r] = poisson( weights.nextDouble() );
+         }
+      }
+
+      for ( int j = 0; j < m; j++ )
+      {
+         if ( !finite( y, offset+j, m, d+2 ) )
+            continue;
+
+         double a = y[offset+j] - shift[j];
+         double b = y[offset+m+j] - shift[j];
+         for ( int r = 0; r <= replicates; r++ )
+         {
+            int w = weight[r];
+            if ( w == 0 )
+               continue;
+
+            int rj = r*m + j;
+            count[rj] += w;
+            sum[rj] += w*(a + b);
+            sumSq[rj] += w*(a*a + b*b);
+            int base = rj*d;
+            for ( int i = 0; i < d; i++ )
+            {
+               double ab = y[offset+(i+2)*m+j] - shift[j];
+               first[base+i] += w*b*(ab - a);
+               total[base+i] += w*(a - ab)*(a - ab);
+            }
+         }
+      }
+   }
+
+   public double getFirstOrder( int output, int input )
+   {
+      return firstOrder( 0, output, input );
+   }
+
+   public double getTotalOrder( int output, int input )
+   {
+      return totalOrder( 0, output, input );
+   }
+
+   /**
+    * mean of an output over all the A and B rows
+    */
+   public double getMean( int output )
+   {
+      double n = count[output];
+      return n > 0 ? shift[output] + sum[output]/(2*n) : Double.NaN;
+   }
+
+   /**
+    * variance of an output over all the A and B rows
+    */
+   public double getVariance( int output )
+   {
+      return variance( 0, output );
+   }
+
+   /**
+    * bootstrap percentile interval of the first-order index at the given
+    * confidence level, as {lower, upper}; NaN without replicates
+    */
+   public double[] getFirstOrderInterval( int output, int input, double level )
+   {
+      double[] v = new double[replicates];
+      for ( int r = 1; r <= replicates; r++ )
+      {
+         v[r-1] = firstOrder( r, output, input );
+      }
+      return interval( v, level );
+   }
+
+   public double[] getTotalOrderInterval( int output, int input, double level )
+   {
+      double[] v = new double[replicates];
+      for ( int r = 1; r <= replicates; r++ )
+      {
+         v[r-1] = totalOrder( r, output, input );
+      }
+      return interval( v, level );
+   }
+
+   private double firstOrder( int r, int output, int input )
+   {
+      int rj = r*numOutputs + output;
+      return first[rj*numInputs+input]/count[rj]/variance( r, output );
+   }
+
+   private double totalOrder( int r, int output, int input )
+   {
+      int rj = r*numOutputs + output;
+      return total[rj*numInputs+input]/(2*count[rj])/variance( r, output );
+   }
+
+   private double variance( int r, int output )
+   {
+      int rj = r*numOutputs + output;
+      double n = 2*count[rj];
+      if ( n < 2 )
+         return Double.NaN;
+      double mean = sum[rj]/n;
+      return (sumSq[rj]/n - mean*mean)*n/(n-1);
+   }
+
+   /**
+    * the percentiles (1-level)/2 and (1+level)/2 of the replicates,
+    * interpolated, ignoring replicates that came out NaN
+    */
+   private static double[] interval( double[] v, double level )
+   {
+      int n = 0;
+      for ( double x : v )
+      {
+         if ( !Double.isNaN( x ) )
+            v[n++] = x;
+      }
+      if ( n == 0 )
+         return new double[] { Double.NaN, Double.NaN };
+      Arrays.sort( v, 0, n );
+      double alpha = (1 - level)/2;
+      return new double[] { percentile( v, n, alpha ), percentile( v, n, 1 - alpha ) };
+   }
+
+   private static double percentile( double[] v, int n, double p )
+   {
+      double h = p*(n-1);
+      int k = (int)Math.floor( h );
+      if ( k >= n-1 )
+         return v[n-1];
+      if ( k < 0 )
+         return v[0];
+      return v[k] + (h - k)*(v[k+1] - v[k]);
+   }
+
+   private static boolean finite( double[] y, int offset, int stride, int count )
+   {
+      for ( int k = 0; k < count; k++ )
+      {
+         if ( !Double.isFinite( y[offset+k*stride] ) )
+            return false;
+      }
+      return true;
+   }
+
+   private static int poisson( double u )
+   {
+      int k = 0;
+      while ( k < POISSON.length-1 && u > POISSON[k] )
+      {
+         k++;
+      }
+      return k;
+   }
+
+   private static double[] poissonTable()
+   {
+      double[] cdf = new double[16];
+      double p = Math.exp( -1 );
+      double c = 0;
+      for ( int k = 0; k < cdf.length; k++ )
+      {
+         c += p;
+         cdf[k] = c;
+         p /= k+1;
+      }
+      return cdf;
+   }
+}
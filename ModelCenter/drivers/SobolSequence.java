@@ -0,0 +1,248 @@
+
+/**
+ * Sobol sequence in base 2 with 32 bits of resolution (up to 2^32 points).
+ *
+ * The first coordinate is the van der Corput sequence. Each further
+ * coordinate uses the next primitive polynomial over GF(2), taken in order
+ * of degree and then value, which gives 1110 coordinates from polynomials
+ * up to degree 13. The polynomials are found at class load time. The
+ * initial direction numbers m_1 .. m_s of a degree-s polynomial are odd
+ * integers m_k < 2^k drawn from a fixed-seed generator, so every JVM
+ * builds the same table. These are not the Joe-Kuo search-optimized
+ * values, so low-dimensional projections can be less even; scrambling
+ * removes most of that structure.
+ *
+ * Point n is the XOR of the direction numbers selected by the bits of
+ * the Gray code of n, so random access costs O(32) per coordinate.
+ *
+ * Scrambling is either a random digital shift (XOR with a fixed random
+ * word per coordinate) or a nested uniform (Owen) scramble, implemented
+ * with the hash-based permutation of Laine and Karras as popularized by
+ * Burley (2020). Both keep the (t,s)-net structure of the points.
+ */
+class SobolSequence extends LowDiscrepancySequence
+{
+   static final int BITS = 32;
+   static final int MAX_DIMENSION = 1110;
+
+   private static final int[] POLYNOMIALS = primitivePolynomials( MAX_DIMENSION - 1 );
+   private static int[] directionTable = new int[0];
+
+   private final int[] v;
+   private final int[] shift;
+   private final int[] owenSeed;
+   private final boolean owen;
+
+   SobolSequence( int dimension, String scrambling, long seed )
+   {
+      super( dimension );
+      if ( dimension > MAX_DIMENSION )
+      {
+         String msg = "Sobol sequence supports at most " + MAX_DIMENSION + " dimensions";
+         throw new IllegalArgumentException( msg );
+      }
+
+      v = directionNumbers( dimension );
+      shift = new int[dimension];
+      owenSeed = new int[dimension];
+
+      boolean digitalShift = "DigitalShift".equals( scrambling );
+      owen = "Owen".equals( scrambling );
+      if ( !digitalShift && !owen && scrambling != null &&
+           scrambling.length() > 0 && !scrambling.equals( "None" ) )
+      {
+         String msg = "unsupported scrambling: " + scrambling;
+         throw new IllegalArgumentException( msg );
+      }
+
+      RandomSource r = RandomSource.create( "SplitMix64", seed );
+      for ( int j = 0; j < dimension; j++ )
+      {
+         int word = (int)r.nextLong();
+         if ( digitalShift )
+            shift[j] = word;
+         if ( owen )
+            owenSeed[j] = word;
+      }
+   }
+
+   public void point( long index, double[] x, int offset )
+   {
+      if ( index < 0 || index >= (1L << BITS) )
+      {
+         throw new IllegalArgumentException( "Sobol index out of range: " + index );
+      }
+
+      int gray = (int)(index ^ (index >>> 1));
+      for ( int j = 0; j < dimension; j++ )
+      {
+         int bits = 0;
+         int g = gray;
+         int base = j*BITS;
+         while ( g != 0 )
+         {
+            int b = Integer.numberOfTrailingZeros( g );
+            bits ^= v[base+b];
+            g &= g - 1;
+         }
+
+         bits ^= shift[j];
+         if ( owen )
+            bits = nestedUniformScramble( bits, owenSeed[j] );
+
+         // centre of the 2^-32 cell, so that no coordinate is 0
+         x[offset+j] = ((bits & 0xFFFFFFFFL) + 0.5)*0x1.0p-32;
+      }
+   }
+
+   /**
+    * Owen scramble of a 32-bit fraction: each bit is flipped depending
+    * on a hash of the bits above it
+    */
+   static int nestedUniformScramble( int x, int seed )
+   {
+      x = Integer.reverse( x );
+      x += seed;
+      x ^= x*0x6c50b47c;
+      x ^= x*0xb82f1e52;
+      x ^= x*0xc7afe638;
+      x ^= x*0x8d22f6e6;
+      return Integer.reverse( x );
+   }
+
+   /**
+    * direction numbers for the first dimension coordinates, row-major with
+    * BITS words per coordinate. The table is built once and shared.
+    */
+   private static synchronized int[] directionNumbers( int dimension )
+   {
+      if ( directionTable.length >= dimension*BITS )
+         return directionTable;
+
+      int[] table = new int[dimension*BITS];
+      RandomSource r = RandomSource.create( "SplitMix64", 0x50B01L );
+
+      // van der Corput in the first coordinate
+      for ( int k = 0; k < BITS; k++ )
+      {
+         table[k] = 1 << (BITS-1-k);
+      }
+
+      for ( int j = 1; j < dimension; j++ )
+      {
+         int poly = POLYNOMIALS[j-1];
+         int s = 31 - Integer.numberOfLeadingZeros( poly );
+         long[] m = new long[BITS+1];
+
+         r.reset( j );
+         for ( int k = 1; k <= s && k <= BITS; k++ )
+         {
+            if ( k == 1 )
+               m[k] = 1;
+            else
+               m[k] = ((long)(r.nextDouble()*(1L << (k-1))) << 1) | 1;
+         }
+         for ( int k = s+1; k <= BITS; k++ )
+         {
+            long mk = m[k-s] ^ (m[k-s] << s);
+            for ( int i = 1; i < s; i++ )
+            {
+               if ( ((poly >>> (s-i)) & 1) != 0 )
+                  mk ^= m[k-i] << i;
+            }
+            m[k] = mk;
+         }
+
+         for ( int k = 1; k <= BITS; k++ )
+         {
+            table[j*BITS+k-1] = (int)(m[k] << (BITS-k));
+         }
+      }
+
+      directionTable = table;
+      return table;
+   }
+
+   /**
+    * the first count primitive polynomials over GF(2), excluding the
+    * trivial x, as bit masks (bit i is the coefficient of x^i)
+    */
+   static int[] primitivePolynomials( int count )
+   {
+      int[] result = new int[count];
+      int found = 0;
+      for ( int degree = 1; found < count; degree++ )
+      {
+         long order = (1L << degree) - 1;
+         long[] factors = primeFactors( order );
+         for ( int p = (1 << degree) | 1; p < (1 << (degree+1)) && found < count; p += 2 )
+         {
+            if ( isPrimitive( p, degree, order, factors ) )
+               result[found++] = p;
+         }
+      }
+      return result;
+   }
+
+   private static boolean isPrimitive( int p, int degree, long order, long[] factors )
+   {
+      if ( powMod( 2, order, p, degree ) != 1 )
+         return false;
+      for ( long q : factors )
+      {
+         if ( powMod( 2, order/q, p, degree ) == 1 )
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * a^e modulo the polynomial p of the given degree, all over GF(2)
+    */
+   private static int powMod( int a, long e, int p, int degree )
+   {
+      int result = 1;
+      int base = mulMod( 1, a, p, degree );
+      while ( e > 0 )
+      {
+         if ( (e & 1) != 0 )
+            result = mulMod( result, base, p, degree );
+         base = mulMod( base, base, p, degree );
+         e >>>= 1;
+      }
+      return result;
+   }
+
+   private static int mulMod( int a, int b, int p, int degree )
+   {
+      int result = 0;
+      while ( b != 0 )
+      {
+         if ( (b & 1) != 0 )
+            result ^= a;
+         b >>>= 1;
+         a <<= 1;
+         if ( (a & (1 << degree)) != 0 )
+            a ^= p;
+      }
+      return result;
+   }
+
+   private static long[] primeFactors( long n )
+   {
+      long[] factors = new long[64];
+      int count = 0;
+      for ( long f = 2; f*f <= n; f++ )
+      {
+         if ( n % f == 0 )
+         {
+            factors[count++] = f;
+            while ( n % f == 0 )
+               n /= f;
+         }
+      }
+      if ( n > 1 )
+         factors[count++] = n;
+      return java.util.Arrays.copyOf( factors, count );
+   }
+}
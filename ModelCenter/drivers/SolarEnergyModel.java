@@ -0,0 +1,391 @@
+import java.io.*;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hourly solar, battery and grid energy balance of the aquarium over one
+ * year of weather, the in-process counterpart of the SolarRoof Simulink
+ * model (Energy/Simulink/RunModel_v2.m) and of the stubbed
+ * Energy/Solar/SolarModel run_model.
+ *
+ * Every hour the panels deliver
+ *   irradiance * sunRadianceScalar * numPanels * panelRating * (1 - circuitLoss)
+ * with the irradiance in kW/m^2 and the rating in kW at 1 kW/m^2. The
+ * surplus over the demand charges the battery, at the battery efficiency
+ * and up to its maximum charge, and is wasted beyond that; a shortfall is
+ * drawn from the battery down to its minimum charge, and the rest from
+ * the grid.
+ *
+ * Inputs, in this order:
+ *   panelRating       - kW per panel
+ *   panelEff          - panel efficiency, which sets the panel area
+ *   sunRadianceScalar - multiplier on the irradiance
+ *   numPanels
+ *   solarCostPerWatt  - $ per W of rating
+ *   batteryCost       - $ per kWh of battery capacity
+ *   circuitLoss       - fraction of the solar power lost in the wiring
+ *   batteryCapacity   - kWh
+ * Outputs are listed in OUTPUTS; the battery life is the cycle life over
+ * the equivalent full cycles a year, at most 10 years, as in RunModel.m.
+ *
+ * The no-argument constructor reads the weather file named by the
+ * solarEnergyModel.weatherFile system property, or else DEFAULT_FILE in
+ * the nearest directory above the class files that has it, which is the
+ * top of this repository wherever the model is run from.
+ *
+ * The irradiance column of the weather file is parsed once per file
+ * and kept in a double array shared by all models. Runs of hours without
+ * sun are merged into single steps, which halves the series, and the
+ * charge is the only state carried between steps; a year takes some 25
+ * microseconds per design point and allocates nothing, so a 100,000 case
+ * Monte Carlo study runs in a few seconds.
+ *
+ * Change the settings before evaluation starts; the model is then safe
+ * to share among all workers.
+ */
+public class SolarEnergyModel implements Evaluator
+{
+   public static final String DEFAULT_FILE =
+      "Energy/Simulink/722197_Atlanta_2010_solar.csv";
+   public static final String FILE_PROPERTY = "solarEnergyModel.weatherFile";
+   public static final String DEFAULT_COLUMN = "METSTAT Glo (Wh/m^2)";
+
+   public static final String INPUTS = "panelRating,panelEff,sunRadianceScalar,numPanels," +
+      "solarCostPerWatt,batteryCost,circuitLoss,batteryCapacity";
+   public static final String OUTPUTS = "solarSurfaceArea,totalkWh,solarCapitalCost," +
+      "batteryCapitalCost,gridkWh,demandkWh,renewablePercent,electricityCost," +
+      "annualSavings,paybackYears,batteryCycles,batteryLife";
+
+   public static final int NUM_INPUTS = 8;
+   public static final int NUM_OUTPUTS = 12;
+
+   private static final Map<String,double[][]> weather =
+      new ConcurrentHashMap<String,double[][]>();
+
+   private final double[] irradiance;
+   private final double[] hourOfDay;
+   private final double irradianceTotal;
+   private final int hours;
+   private double[] stepIrradiance;
+   private double[] stepDemand;
+   private int steps;
+   private double demandTotal;
+
+   private double electricityCost = 0.12;
+   private double minCharge = 0.15;
+   private double maxCharge = 0.85;
+   private double startCharge = 0.5;
+   private double batteryEfficiency = 0.98;
+   private double cycleLife = 1500;
+
+   public SolarEnergyModel() throws IOException
+   {
+      this( defaultFile().getPath() );
+   }
+
+   public SolarEnergyModel( String csvFile ) throws IOException
+   {
+      this( csvFile, DEFAULT_COLUMN );
+   }
+
+   /**
+    * @param column header of the global horizontal irradiance column, in
+    *               Wh/m^2 per hour
+    */
+   public SolarEnergyModel( String csvFile, String column ) throws IOException
+   {
+      String key = new File( csvFile ).getCanonicalPath() + "\n" + column;
+      double[][] data = weather.get( key );
+      if ( data == null )
+      {
+         data = read( csvFile, column );
+         weather.putIfAbsent( key, data );
+      }
+      irradiance = data[0];
+      hourOfDay = data[1];
+      hours = irradiance.length;
+      double total = 0;
+      for ( double v : irradiance )
+      {
+         total += v;
+      }
+      irradianceTotal = total;
+      setDemand( 20 );
+   }
+
+   /**
+    * the weather file of the no-argument constructor
+    */
+   public static File defaultFile() throws IOException
+   {
+      String path = System.getProperty( FILE_PROPERTY );
+      if ( path != null && path.trim().length() > 0 )
+      {
+         File file = new File( path.trim() );
+         if ( !file.isFile() )
+            throw new FileNotFoundException( FILE_PROPERTY + " names " + file +
+                                             ", which is not a file" );
+         return file;
+      }
+
+      File classes = null;
+      CodeSource source = SolarEnergyModel.class.getProtectionDomain().getCodeSource();
+      try
+      {
+         if ( source != null && source.getLocation() != null )
+            classes = new File( source.getLocation().toURI() ).getAbsoluteFile();
+      }
+      catch ( URISyntaxException | IllegalArgumentException e )
+      {
+         // not a file: URL, so there is no directory to search
+      }
+      for ( File dir = classes; dir != null; dir = dir.getParentFile() )
+      {
+         File file = new File( dir, DEFAULT_FILE );
+         if ( file.isFile() )
+            return file;
+      }
+      throw new FileNotFoundException( "no " + DEFAULT_FILE + " above " +
+         (classes != null ? classes.getPath() : "the SolarEnergyModel class") +
+         "; set -D" + FILE_PROPERTY + "=<weather csv>" );
+   }
+
+   public int getNumInputs() { return NUM_INPUTS; }
+   public int getNumOutputs() { return NUM_OUTPUTS; }
+   public int getNumHours() { return hours; }
+
+   /**
+    * a constant demand in kW
+    */
+   public void setDemand( double kW )
+   {
+      setDailyDemand( new double[] { 0, 24 }, new double[] { kW, kW } );
+   }
+
+   /**
+    * a demand that repeats daily, interpolated linearly between the
+    * given hours of the day (RunModel.m's D matrix)
+    */
+   public void setDailyDemand( double[] hour, double[] kW )
+   {
+      if ( hour.length == 0 || hour.length != kW.length )
+         throw new IllegalArgumentException( "daily demand needs one value per hour" );
+
+      double[] d = new double[hours];
+      double total = 0;
+      for ( int h = 0; h < hours; h++ )
+      {
+         // the middle of the hour ending at hourOfDay
+         double t = hourOfDay[h] - 0.5;
+         int j = 0;
+         while ( j < hour.length-1 && hour[j+1] < t )
+         {
+            j++;
+         }
+         double v;
+         if ( t <= hour[0] )
+            v = kW[0];
+         else if ( j == hour.length-1 )
+            v = kW[j];
+         else
+            v = kW[j] + (kW[j+1] - kW[j])*(t - hour[j])/(hour[j+1] - hour[j]);
+         d[h] = v;
+         total += v;
+      }
+      demandTotal = total;
+      makeSteps( d );
+   }
+
+   /**
+    * the series the simulation runs on: the hours of the year, except
+    * that each run of hours without sun is merged into one step. The
+    * battery can only drain through such a run, so draining it by the
+    * run's total demand at once gives the same charge at the end of it
+    * and the same energy from the battery and the grid.
+    */
+   private void makeSteps( double[] d )
+   {
+      double[] g = new double[hours];
+      double[] e = new double[hours];
+      int n = 0;
+      for ( int h = 0; h < hours; h++ )
+      {
+         if ( irradiance[h] == 0 && n > 0 && g[n-1] == 0 )
+            e[n-1] += d[h];
+         else
+         {
+            g[n] = irradiance[h];
+            e[n] = d[h];
+            n++;
+         }
+      }
+      stepIrradiance = g;
+      stepDemand = e;
+      steps = n;
+   }
+
+   /**
+    * grid electricity price in $/kWh
+    */
+   public void setElectricityCost( double v ) { electricityCost = v; }
+   public double getElectricityCost() { return electricityCost; }
+
+   /**
+    * usable range of the battery charge, as fractions of the capacity
+    */
+   public void setChargeLimits( double min, double max )
+   {
+      if ( !(min >= 0 && min <= max && max <= 1) )
+         throw new IllegalArgumentException( "charge limits must satisfy 0 <= min <= max <= 1" );
+      minCharge = min;
+      maxCharge = max;
+   }
+
+   public double getMinCharge() { return minCharge; }
+   public double getMaxCharge() { return maxCharge; }
+
+   /**
+    * charge at the start of the year, as a fraction of the capacity
+    */
+   public void setStartCharge( double v ) { startCharge = v; }
+   public double getStartCharge() { return startCharge; }
+
+   /**
+    * one-way efficiency of the battery, charging and discharging
+    */
+   public void setBatteryEfficiency( double v ) { batteryEfficiency = v; }
+   public double getBatteryEfficiency() { return batteryEfficiency; }
+
+   /**
+    * full cycles the battery lasts
+    */
+   public void setCycleLife( double v ) { cycleLife = v; }
+   public double getCycleLife() { return cycleLife; }
+
+   public void evaluate( double[] in, int inOff, double[] out, int outOff )
+   {
+      double gain = gain( in, inOff );
+      double capacity = Math.max( 0, in[inOff+7] );
+      double span = (maxCharge - minCharge)*capacity;
+      double eff = batteryEfficiency;
+      double invEff = 1/eff;
+      double[] g = stepIrradiance;
+      double[] d = stepDemand;
+
+      // the charge above the minimum; only it carries from step to step
+      double charge = Math.max( 0, Math.min( span, (startCharge - minCharge)*capacity ) );
+      double shortfall = 0;
+      double discharged = 0;
+      for ( int h = 0; h < steps; h++ )
+      {
+         double net = g[h]*gain - d[h];
+         if ( net > 0 )
+         {
+            double c = charge + net*eff;
+            charge = c < span ? c : span;
+         }
+         else
+         {
+            double c = charge + net*invEff;
+            c = c > 0 ? c : 0;
+            shortfall -= net;
+            discharged += charge - c;
+            charge = c;
+         }
+      }
+      results( in, inOff, gain, shortfall, discharged, out, outOff );
+   }
+
+   /**
+    * kW delivered per kW/m^2 of irradiance
+    */
+   private static double gain( double[] in, int o )
+   {
+      return in[o+2]*in[o+3]*in[o]*(1 - in[o+6]);
+   }
+
+   /**
+    * the outputs from the year's total shortfall of solar power and the
+    * charge taken out of the battery
+    */
+   private void results( double[] in, int o, double gain, double shortfall, double discharged,
+                         double[] out, int p )
+   {
+      double solar = gain*irradianceTotal;
+      // what the battery delivered is what the grid did not have to
+      double delivered = discharged*batteryEfficiency;
+      double grid = shortfall - delivered;
+      double rating = in[o+3]*in[o];
+      double capacity = Math.max( 0, in[o+7] );
+      double solarCost = rating*1000*in[o+4];
+      double batteryCost = capacity*in[o+5];
+      double elecCost = grid*electricityCost;
+      double savings = demandTotal*electricityCost - elecCost;
+      double span = (maxCharge - minCharge)*capacity;
+      double cycles = span > 0 ? delivered/span : 0;
+
+      out[p] = rating/in[o+1];
+      out[p+1] = solar;
+      out[p+2] = solarCost;
+      out[p+3] = batteryCost;
+      out[p+4] = grid;
+      out[p+5] = demandTotal;
+      out[p+6] = demandTotal > 0 ? (1 - grid/demandTotal)*100 : 100;
+      out[p+7] = elecCost;
+      out[p+8] = savings;
+      out[p+9] = (solarCost + batteryCost)/savings;
+      out[p+10] = cycles;
+      out[p+11] = cycles > 0 ? Math.min( 10, cycleLife/cycles ) : 10;
+   }
+
+   /**
+    * the irradiance column in kW/m^2 and the hour of the day (1 to 24)
+    * of each row
+    */
+   private static double[][] read( String csvFile, String column ) throws IOException
+   {
+      double[] g = new double[8760];
+      double[] t = new double[8760];
+      int n = 0;
+      try ( BufferedReader in = new BufferedReader( new FileReader( csvFile ) ) )
+      {
+         String line = in.readLine();
+         if ( line == null )
+            throw new IOException( csvFile + " is empty" );
+         int c = Arrays.asList( line.split( "," ) ).indexOf( column );
+         if ( c < 0 )
+            throw new IOException( csvFile + " has no column " + column );
+
+         int lineNumber = 1;
+         while ( (line = in.readLine()) != null )
+         {
+            lineNumber++;
+            if ( line.trim().length() == 0 )
+               continue;
+            String[] cells = line.split( "," );
+            if ( cells.length <= c )
+               throw new IOException( csvFile + ":" + lineNumber + ": no " + column );
+            if ( n == g.length )
+            {
+               g = Arrays.copyOf( g, 2*n );
+               t = Arrays.copyOf( t, 2*n );
+            }
+            try
+            {
+               double v = Double.parseDouble( cells[c].trim() );
+               // missing values are flagged as -9900
+               g[n] = v < 0 ? 0 : v/1000;
+               t[n] = Integer.parseInt( cells[1].trim().split( ":" )[0] );
+            }
+            catch ( NumberFormatException e )
+            {
+               throw new IOException( csvFile + ":" + lineNumber + ": not a number: " + cells[c] );
+            }
+            n++;
+         }
+      }
+      return new double[][] { Arrays.copyOf( g, n ), Arrays.copyOf( t, n ) };
+   }
+}
@@ -0,0 +1,302 @@
+
+/**
+ * Streaming accumulator for the output statistics of the sampling
+ * drivers. Each call to add() updates the running mean, the second to
+ * fourth central moments and the extremes of every variable in O(1),
+ * so no sample history has to be kept. Two accumulators can be merged,
+ * which gives the same moments as if all samples had been added to one.
+ *
+ * The update and merge formulas are the Welford/Chan pairwise forms
+ * extended to the third and fourth moments (Pebay, SAND2008-6212).
+ *
+ * Each variable also feeds a QuantileSketch, which gives its quantiles
+ * and a histogram to within a rank error of about 1% in fixed memory,
+ * and merges and checkpoints along with the moments.
+ */
+class StreamingStatistics
+{
+   private long count = 0;
+   private double[] mean = new double[0];
+   private double[] m2 = new double[0];
+   private double[] m3 = new double[0];
+   private double[] m4 = new double[0];
+   private double[] min = new double[0];
+   private double[] max = new double[0];
+   private QuantileSketch[] sketches = new QuantileSketch[0];
+
+   public StreamingStatistics()
+   {
+   }
+
+   public StreamingStatistics( int numVars )
+   {
+      reset( numVars );
+   }
+
+   /**
+    * clears all moments and resizes the accumulator to numVars variables
+    */
+   public void reset( int numVars )
+   {
+      count = 0;
+      if ( mean.length != numVars )
+      {
+         mean = new double[numVars];
+         m2 = new double[numVars];
+         m3 = new double[numVars];
+         m4 = new double[numVars];
+         min = new double[numVars];
+         max = new double[numVars];
+         sketches = new QuantileSketch[numVars];
+         for ( int i = 0; i < numVars; i++ )
+         {
+            sketches[i] = new QuantileSketch();
+         }
+      }
+      else
+      {
+         java.util.Arrays.fill( mean, 0 );
+         java.util.Arrays.fill( m2, 0 );
+         java.util.Arrays.fill( m3, 0 );
+         java.util.Arrays.fill( m4, 0 );
+         for ( QuantileSketch q : sketches )
+         {
+            q.clear();
+         }
+      }
+      java.util.Arrays.fill( min, Double.POSITIVE_INFINITY );
+      java.util.Arrays.fill( max, Double.NEGATIVE_INFINITY );
+   }
+
+   public int getNumVars() { return mean.length; }
+   public long getCount() { return count; }
+
+   /**
+    * adds one sample; x must hold one value per variable
+    */
+   public void add( double[] x )
+   {
+      add( x, 0 );
+   }
+
+   /**
+    * adds one sample read from x[offset] .. x[offset+getNumVars()-1]
+    */
+   public void add( double[] x, int offset )
+   {
+      count++;
+      double n = count;
+      for ( int i = 0; i < mean.length; i++ )
+      {
+         double v = x[offset+i];
+         double delta = v - mean[i];
+         double deltaN = delta/n;
+         double deltaN2 = deltaN*deltaN;
+         double term1 = delta*deltaN*(n-1);
+
+         mean[i] += deltaN;
+         m4[i] += term1*deltaN2*(n*n - 3*n + 3) + 6*deltaN2*m2[i] - 4*deltaN*m3[i];
+         m3[i] += term1*deltaN*(n-2) - 3*deltaN*m2[i];
+         m2[i] += term1;
+
+         if ( v < min[i] )
+            min[i] = v;
+         if ( v > max[i] )
+            max[i] = v;
+         sketches[i].add( v );
+      }
+   }
+
+   /**
+    * folds the samples accumulated by other into this accumulator
+    */
+   public void merge( StreamingStatistics other )
+   {
+      if ( other.mean.length != mean.length )
+      {
+         throw new IllegalArgumentException( "cannot merge statistics of " +
+            other.mean.length + " variables into " + mean.length );
+      }
+      if ( other.count == 0 )
+         return;
+      if ( count == 0 )
+      {
+         copyFrom( other );
+         return;
+      }
+
+      double na = count;
+      double nb = other.count;
+      double n = na + nb;
+      for ( int i = 0; i < mean.length; i++ )
+      {
+         double delta = other.mean[i] - mean[i];
+         double delta2 = delta*delta;
+         double delta3 = delta*delta2;
+         double delta4 = delta2*delta2;
+
+         double newM4 = m4[i] + other.m4[i] +
+            delta4*na*nb*(na*na - na*nb + nb*nb)/(n*n*n) +
+            6*delta2*(na*na*other.m2[i] + nb*nb*m2[i])/(n*n) +
+            4*delta*(na*other.m3[i] - nb*m3[i])/n;
+         double newM3 = m3[i] + other.m3[i] +
+            delta3*na*nb*(na-nb)/(n*n) +
+            3*delta*(na*other.m2[i] - nb*m2[i])/n;
+
+         m2[i] += other.m2[i] + delta2*na*nb/n;
+         m3[i] = newM3;
+         m4[i] = newM4;
+         mean[i] += delta*nb/n;
+
+         min[i] = Math.min( min[i], other.min[i] );
+         max[i] = Math.max( max[i], other.max[i] );
+         sketches[i].merge( other.sketches[i] );
+      }
+      count += other.count;
+   }
+
+   public void copyFrom( StreamingStatistics other )
+   {
+      reset( other.mean.length );
+      count = other.count;
+      System.arraycopy( other.mean, 0, mean, 0, mean.length );
+      System.arraycopy( other.m2, 0, m2, 0, mean.length );
+      System.arraycopy( other.m3, 0, m3, 0, mean.length );
+      System.arraycopy( other.m4, 0, m4, 0, mean.length );
+      System.arraycopy( other.min, 0, min, 0, mean.length );
+      System.arraycopy( other.max, 0, max, 0, mean.length );
+      for ( int i = 0; i < mean.length; i++ )
+      {
+         sketches[i].copyFrom( other.sketches[i] );
+      }
+   }
+
+   /**
+    * number of bytes written by save()
+    */
+   public int getStateSize()
+   {
+      return 8 + (6*8 + QuantileSketch.getStateSize())*mean.length;
+   }
+
+   /**
+    * writes the count, moments, extremes and sketches to out, so that a
+    * study can be resumed from them with restore()
+    */
+   public void save( java.nio.ByteBuffer out )
+   {
+      out.putLong( count );
+      for ( int i = 0; i < mean.length; i++ )
+      {
+         out.putDouble( mean[i] );
+         out.putDouble( m2[i] );
+         out.putDouble( m3[i] );
+         out.putDouble( m4[i] );
+         out.putDouble( min[i] );
+         out.putDouble( max[i] );
+         sketches[i].save( out );
+      }
+   }
+
+   /**
+    * reads a state written by save() from an accumulator with the same
+    * number of variables
+    */
+   public void restore( java.nio.ByteBuffer in )
+   {
+      count = in.getLong();
+      for ( int i = 0; i < mean.length; i++ )
+      {
+         mean[i] = in.getDouble();
+         m2[i] = in.getDouble();
+         m3[i] = in.getDouble();
+         m4[i] = in.getDouble();
+         min[i] = in.getDouble();
+         max[i] = in.getDouble();
+         sketches[i].restore( in );
+      }
+   }
+
+   public double getMean( int var ) { return count > 0 ? mean[var] : 0; }
+   public double getMin( int var ) { return count > 0 ? min[var] : 0; }
+   public double getMax( int var ) { return count > 0 ? max[var] : 0; }
+
+   /**
+    * unbiased sample variance (divides by n-1), 0 with fewer than two samples
+    */
+   public double getVariance( int var )
+   {
+      if ( count < 2 )
+         return 0;
+      return m2[var]/(count-1);
+   }
+
+   public double getStandardDeviation( int var )
+   {
+      return Math.sqrt( getVariance( var ) );
+   }
+
+   /**
+    * standard error of the mean, 0 with fewer than two samples
+    */
+   public double getStandardError( int var )
+   {
+      return count < 2 ? 0 : Math.sqrt( getVariance( var )/count );
+   }
+
+   /**
+    * half width of the normal confidence interval of the mean at the
+    * given level (0.95 for a 95% interval)
+    */
+   public double getConfidenceHalfWidth( int var, double level )
+   {
+      return DistributionSampler.normalQuantile( 0.5 + level/2 )*getStandardError( var );
+   }
+
+   /**
+    * the q-quantile, 0 <= q <= 1, estimated by the variable's sketch;
+    * exact up to a few hundred samples
+    */
+   public double getQuantile( int var, double q )
+   {
+      return count > 0 ? sketches[var].quantile( q ) : 0;
+   }
+
+   /**
+    * estimated counts of the samples in numBins equal bins from the
+    * smallest to the largest sample, written to counts[offset ..]
+    */
+   public void getHistogram( int var, int numBins, double[] counts, int offset )
+   {
+      double lo = getMin( var );
+      double width = (getMax( var ) - lo)/numBins;
+      double below = 0;
+      for ( int b = 0; b < numBins; b++ )
+      {
+         double upTo = b == numBins-1 ? sketches[var].getCount()
+                                        : sketches[var].rank( lo + (b+1)*width );
+         counts[offset+b] = upTo - below;
+         below = upTo;
+      }
+   }
+
+   /**
+    * sample skewness g1, 0 when undefined
+    */
+   public double getSkewness( int var )
+   {
+      if ( count < 2 || m2[var] <= 0 )
+         return 0;
+      return Math.sqrt( (double)count )*m3[var]/Math.pow( m2[var], 1.5 );
+   }
+
+   /**
+    * sample excess kurtosis g2, 0 when undefined
+    */
+   public double getKurtosis( int var )
+   {
+      if ( count < 2 || m2[var] <= 0 )
+         return 0;
+      return count*m4[var]/(m2[var]*m2[var]) - 3;
+   }
+}
@@ -0,0 +1,416 @@
+
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint file of a sampling study, so that a long run which dies can
+ * be resumed instead of started over.
+ *
+ * The sampling drivers regenerate any trial from the seed and the trial
+ * number alone (MonteCarlo draws trial t from stream t, the LHS design is
+ * a deterministic function of the seed, QuasiMonteCarlo uses point
+ * skip+t-1), so the seed stands in for the random number generator state
+ * and the sample matrix. Trials are completed in order, so the completed
+ * trials are always 1 .. getTrials().
+ *
+ * The file holds a header and then one record per checkpoint, appended
+ * and never rewritten:
+ *
+ *   header: magic, configuration fingerprint, seed, number of outputs, CRC
+ *   record: magic, first trial, number of trials, their outputs row by
+ *           row, the running statistics after the last of them (and the
+ *           state of the MonteCarlo mean estimator, if any), CRC
+ *
+ * On resume every record is checked against its CRC; a torn record at
+ * the end of the file is cut off and the study continues from the last
+ * complete one. Records are written without forcing them to disk, which
+ * keeps a checkpoint down to one small write. They survive the process
+ * dying; after a power loss the latest ones may be lost and are dropped
+ * by the CRC check.
+ */
+class StudyCheckpoint
+{
+   private static final long FILE_MAGIC = 0x5048584350543032L;   // "PHXCPT02"
+   private static final int RECORD_MAGIC = 0x43505452;           // "CPTR"
+   private static final int HEADER_SIZE = 32;
+
+   private final FileChannel channel;
+   private final StreamingStatistics stats;
+   private final MeanEstimator estimator;
+   private final int numOutputs;
+   private final int interval;
+   private final ByteBuffer record;
+   private final CRC32 crc = new CRC32();
+   private long end;
+   private long fingerprint;
+   private long seed;
+   private int trials;
+   private int pending;
+   private boolean resumed;
+
+   private StudyCheckpoint( FileChannel channel, StreamingStatistics stats,
+                            MeanEstimator estimator, int numOutputs, int interval )
+   {
+      this.estimator = estimator;
+      this.channel = channel;
+      this.stats = stats;
+      this.numOutputs = numOutputs;
+      this.interval = interval;
+      record = ByteBuffer.allocate( 12 + 8*interval*numOutputs + getStateSize() + 4 );
+   }
+
+   /**
+    * opens the checkpoint file of a study, or returns null if path is empty.
+    *
+    * If the file holds an unfinished study with the same fingerprint, its
+    * statistics are restored into stats and, when results is not null, its
+    * outputs into results[output, trial-1]; isResumed() is then true and
+    * getSeed()/getTrials() tell where to continue. Otherwise the file is
+    * started over for a new study with the given seed.
+    *
+    * @param interval number of trials per checkpoint
+    * @param fingerprint hash of the study configuration, see fingerprint()
+    * @param stats accumulator of the study, already reset
+    */
+   public static StudyCheckpoint open( String path, int interval, long fingerprint,
+                                       long seed, int numTrials,
+                                       StreamingStatistics stats,
+                                       PHXDoubleArray results ) throws IOException
+   {
+      return open( path, interval, fingerprint, seed, numTrials, stats, null, results );
+   }
+
+   /**
+    * like open() above, with an estimator (already reset) that is saved
+    * and restored along with the statistics
+    */
+   public static StudyCheckpoint open( String path, int interval, long fingerprint,
+                                       long seed, int numTrials,
+                                       StreamingStatistics stats,
+                                       MeanEstimator estimator,
+                                       PHXDoubleArray results ) throws IOException
+   {
+      if ( path == null || path.trim().length() == 0 )
+         return null;
+
+      FileChannel channel = FileChannel.open( new File( path.trim() ).toPath(),
+                                              StandardOpenOption.CREATE,
+                                              StandardOpenOption.READ,
+                                              StandardOpenOption.WRITE );
+      try
+      {
+         StudyCheckpoint checkpoint = new StudyCheckpoint( channel, stats, estimator,
+            stats.getNumVars(), Math.max( 1, interval ) );
+         if ( !checkpoint.resume( fingerprint, numTrials, results, path ) )
+            checkpoint.create( fingerprint, seed );
+         return checkpoint;
+      }
+      catch ( IOException e )
+      {
+         channel.close();
+         throw e;
+      }
+      catch ( RuntimeException e )
+      {
+         channel.close();
+         throw e;
+      }
+   }
+
+   /**
+    * hash of the settings that decide which points a study samples: the
+    * distributions of the design variables, the number of outputs and
+    * the driver's own settings. A checkpoint is only resumed by a study
+    * with the same fingerprint.
+    */
+   public static long fingerprint( PHXReferenceArray designVars, int numOutputs,
+                                   Object... settings ) throws PHXTypeMismatchException
+   {
+      long h = hash( 0, numOutputs );
+      for ( int i = 0; i < designVars.getLength(); i++ )
+      {
+         String type = designVars.getRefPropValueString( "distributionType", i );
+         h = hash( h, type );
+         h = hash( h, Double.doubleToLongBits( designVars.getRefPropValueDouble( "parm1", i ) ) );
+         h = hash( h, Double.doubleToLongBits( designVars.getRefPropValueDouble( "parm2", i ) ) );
+         h = hash( h, Double.doubleToLongBits( designVars.getRefPropValueDouble( "parm3", i ) ) );
+         if ( "Empirical".equals( type ) )
+            h = hash( h, designVars.getRefPropValueString( "table", i ) );
+      }
+      for ( Object s : settings )
+      {
+         if ( s instanceof PHXDoubleArray )
+            h = hash( h, (PHXDoubleArray)s );
+         else
+            h = hash( h, String.valueOf( s ) );
+      }
+      return h;
+   }
+
+   public boolean isResumed() { return resumed; }
+   public long getSeed() { return seed; }
+   public int getTrials() { return trials; }
+
+   /**
+    * records one completed trial, after its outputs have been added to
+    * the statistics; writes a checkpoint every interval trials
+    */
+   public void add( double[] vals, int offset ) throws IOException
+   {
+      int pos = 12 + 8*pending*numOutputs;
+      for ( int i = 0; i < numOutputs; i++ )
+      {
+         record.putDouble( pos + 8*i, vals[offset+i] );
+      }
+      pending++;
+      if ( pending == interval )
+         flush();
+   }
+
+   /**
+    * writes the trials recorded since the last checkpoint
+    */
+   public void flush() throws IOException
+   {
+      if ( pending == 0 )
+         return;
+
+      record.putInt( 0, RECORD_MAGIC );
+      record.putInt( 4, trials );
+      record.putInt( 8, pending );
+      record.position( 12 + 8*pending*numOutputs );
+      stats.save( record );
+      if ( estimator != null )
+         estimator.save( record );
+
+      crc.reset();
+      crc.update( record.array(), 4, record.position() - 4 );
+      record.putInt( (int)crc.getValue() );
+      record.flip();
+
+      write( record, end );
+      end += record.limit();
+      trials += pending;
+      pending = 0;
+      record.clear();
+   }
+
+   /**
+    * starts the file over for a new run of the study with the given seed,
+    * clearing the statistics; for a resumed study that turns out to have
+    * finished, like one that stopped early on its confidence targets
+    */
+   public void restart( long seed ) throws IOException
+   {
+      pending = 0;
+      record.clear();
+      resetState();
+      create( fingerprint, seed );
+   }
+
+   /**
+    * writes the last trials and closes the file
+    */
+   public void close() throws IOException
+   {
+      try
+      {
+         flush();
+      }
+      finally
+      {
+         channel.close();
+      }
+   }
+
+   private void create( long fingerprint, long seed ) throws IOException
+   {
+      ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+      header.putLong( FILE_MAGIC );
+      header.putLong( fingerprint );
+      this.fingerprint = fingerprint;
+      header.putLong( seed );
+      header.putInt( numOutputs );
+      crc.reset();
+      crc.update( header.array(), 0, header.position() );
+      header.putInt( (int)crc.getValue() );
+      header.flip();
+
+      channel.truncate( 0 );
+      write( header, 0 );
+      end = HEADER_SIZE;
+      this.seed = seed;
+      trials = 0;
+      resumed = false;
+   }
+
+   /**
+    * reads an existing checkpoint; false if there is nothing to resume
+    */
+   private boolean resume( long fingerprint, int numTrials, PHXDoubleArray results,
+                           String path ) throws IOException
+   {
+      long size = channel.size();
+      if ( size < HEADER_SIZE )
+         return false;
+
+      ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+      read( header, 0 );
+      crc.reset();
+      crc.update( header.array(), 0, HEADER_SIZE - 4 );
+      if ( header.getLong( 0 ) != FILE_MAGIC ||
+           header.getInt( HEADER_SIZE - 4 ) != (int)crc.getValue() )
+      {
+         throw new IOException( path + " is not a checkpoint file" );
+      }
+      if ( header.getLong( 8 ) != fingerprint || header.getInt( 24 ) != numOutputs )
+      {
+         String msg = path + " is the checkpoint of a different study; " +
+            "delete it or choose another checkpointFile";
+         throw new IOException( msg );
+      }
+
+      this.fingerprint = fingerprint;
+      seed = header.getLong( 16 );
+      trials = 0;
+      end = HEADER_SIZE;
+
+      int[] index = new int[2];
+      ByteBuffer prefix = ByteBuffer.allocate( 12 );
+      ByteBuffer body = null;
+      while ( end + 12 <= size )
+      {
+         prefix.clear();
+         read( prefix, end );
+         int first = prefix.getInt( 4 );
+         int count = prefix.getInt( 8 );
+         if ( prefix.getInt( 0 ) != RECORD_MAGIC || first != trials || count <= 0 )
+            break;
+
+         long length = 12 + 8L*count*numOutputs + getStateSize() + 4;
+         if ( end + length > size || length > Integer.MAX_VALUE )
+            break;
+         if ( body == null || body.capacity() < length )
+            body = ByteBuffer.allocate( (int)length );
+         body.clear();
+         body.limit( (int)length );
+         read( body, end );
+
+         crc.reset();
+         crc.update( body.array(), 4, (int)length - 8 );
+         if ( body.getInt( (int)length - 4 ) != (int)crc.getValue() )
+            break;
+
+         if ( results != null )
+         {
+            int[] dims = results.getDimensions();
+            for ( int k = 0; k < count && first + k < dims[1]; k++ )
+            {
+               index[1] = first + k;
+               for ( int i = 0; i < numOutputs; i++ )
+               {
+                  index[0] = i;
+                  results.setValue( index, body.getDouble( 12 + 8*(k*numOutputs + i) ) );
+               }
+            }
+         }
+         body.position( 12 + 8*count*numOutputs );
+         stats.restore( body );
+         if ( estimator != null )
+            estimator.restore( body );
+
+         trials += count;
+         end += length;
+      }
+
+      // a finished study is run again from the start
+      if ( trials >= numTrials )
+      {
+         resetState();
+         return false;
+      }
+
+      // drop a torn record left by the run that died
+      if ( end < size )
+         channel.truncate( end );
+      resumed = true;
+      return true;
+   }
+
+   private int getStateSize()
+   {
+      return stats.getStateSize() + (estimator != null ? estimator.getStateSize() : 0);
+   }
+
+   private void resetState()
+   {
+      stats.reset( numOutputs );
+      if ( estimator != null )
+         estimator.reset( numOutputs );
+   }
+
+   private void write( ByteBuffer buffer, long position ) throws IOException
+   {
+      while ( buffer.hasRemaining() )
+      {
+         position += channel.write( buffer, position );
+      }
+   }
+
+   private void read( ByteBuffer buffer, long position ) throws IOException
+   {
+      while ( buffer.hasRemaining() )
+      {
+         int n = channel.read( buffer, position );
+         if ( n < 0 )
+            throw new EOFException();
+         position += n;
+      }
+   }
+
+   private static long hash( long h, long v )
+   {
+      return RandomSource.mix64( h*31 + v );
+   }
+
+   private static long hash( long h, String s )
+   {
+      if ( s == null )
+         return hash( h, -1 );
+      for ( int i = 0; i < s.length(); i++ )
+      {
+         h = hash( h, s.charAt( i ) );
+      }
+      return hash( h, s.length() );
+   }
+
+   private static long hash( long h, PHXDoubleArray a )
+   {
+      int[] dims = a.getDimensions();
+      int total = 1;
+      for ( int d : dims )
+      {
+         h = hash( h, d );
+         total *= d;
+      }
+
+      // walk the elements in row-major order
+      int[] index = new int[dims.length];
+      for ( int n = 0; n < total; n++ )
+      {
+         h = hash( h, Double.doubleToLongBits( a.getValue( index ) ) );
+         for ( int d = dims.length - 1; d >= 0; d-- )
+         {
+            if ( ++index[d] < dims[d] )
+               break;
+            index[d] = 0;
+         }
+      }
+      return h;
+   }
+}
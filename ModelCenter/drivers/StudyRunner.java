@@ -0,0 +1,666 @@
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a driver in-process against a Java model, without the Analysis
+ * Server or ModelCenter: for studies of millions of cases on a build
+ * machine, and as the local stand-in for the Analysis Server when testing
+ * a driver (with the classes of bench/stub if the real ones are not at
+ * hand):
+ *
+ *   java StudyRunner driver model [options] [setting=value ...]
+ *
+ * The driver variables the model reads and writes are bound once, before
+ * the study starts: every PHXReferenceArray property contributes its
+ * elements and every PHXReference property one value to the model's
+ * input or output vector, at a fixed offset. A trial is then
+ * startIteration(), a copy of the input values into one double[], the
+ * model, a copy of the responses out of another and endIteration(),
+ * with no reflection, string lookups or allocation in between. The
+ * sampling drivers allocate nothing in a trial either, apart from the
+ * occasional growth of their quantile sketches (bench/DriverChecks
+ * holds them to that).
+ *
+ * A BatchDriver is run in batch mode instead (see BatchExecutor), where
+ * its design variables and outputs are the model's inputs and outputs:
+ * the driver hands out whole blocks of cases and brings its ref-prop
+ * outputs up to date once per batch rather than once per trial, which
+ * is where most of a sampling driver's time per trial goes. -sequential
+ * runs it through startIteration()/endIteration() like any other
+ * IPHXDriver.
+ *
+ *   driver        class name of the driver, e.g. MonteCarlo
+ *   model         a BenchmarkProblem type (DTLZ2 gets as many objectives
+ *                 as there are outputs), or the class name of an
+ *                 Evaluator with a no-argument constructor
+ *   -in p,q       driver properties the model reads; by default the
+ *                 first of designVars, designVar and valueToSet
+ *   -out p,q      driver properties the model writes; by default the
+ *                 first of outputs, responses, objectives and
+ *                 valueToMinimize
+ *   -threads n    evaluation threads in batch mode (default 1)
+ *   -batch n      cases per batch (default 1024)
+ *   -sequential   the sequential protocol even for a BatchDriver
+ *   -workers n    run the batches through a DistributedExecutor with n
+ *                 loopback StudyWorkers of -threads threads each
+ *   -listen [a:]port
+ *                 run them through a DistributedExecutor on that port,
+ *                 for StudyWorkers started separately (with -workers,
+ *                 local ones as well); it listens on the loopback
+ *                 interface, or on interface a, * for all of them, for
+ *                 workers on other hosts. Workers are not authenticated,
+ *                 so only listen on a network that is trusted
+ *   -lease n      cases per lease of a DistributedExecutor (default 256)
+ *   -show p.r,..  after the study, print ref-prop r of every element of
+ *                 array property p, e.g. outputs.avg
+ *   -cache q      answer repeated design points from an EvaluationCache
+ *                 instead of the model, with inputs rounded to multiples
+ *                 of q (0 for exact matches); its hits, misses and
+ *                 evictions are printed after the study
+ *   -cacheSize n  points the cache holds in memory (default 65536)
+ *   -cacheFile f  keep every evaluated point in file f as well, for the
+ *                 next run of the study
+ *
+ * The settings are applied in order before the study:
+ *
+ *   name=value              a property of the driver: numTrials=1000000
+ *   array.length=n          the number of elements of an array property
+ *   array[i].refProp=value  a ref-prop of element i, or of all with [*]
+ *   reference.refProp=value a ref-prop of a PHXReference property
+ *
+ * Afterwards the driver's simple output properties are printed along
+ * with the time the study took.
+ */
+public class StudyRunner
+{
+   private static final String[] INPUTS = { "designVars", "designVar", "valueToSet" };
+   private static final String[] OUTPUTS =
+      { "outputs", "responses", "objectives", "valueToMinimize" };
+
+   private final IPHXDriver driver;
+   private Evaluator model;
+   private Binding[] inputs = new Binding[0];
+   private Binding[] outputs = new Binding[0];
+   private int threads = 1;
+   private int batchSize = 1024;
+   private boolean sequential = false;
+   private int workers = 0;
+   private int port = -1;
+   private String bindAddress = null;
+   private int leaseSize = 0;
+   private long cases = 0;
+
+   public StudyRunner( IPHXDriver driver, Evaluator model )
+   {
+      this.driver = driver;
+      this.model = model;
+   }
+
+   public IPHXDriver getDriver() { return driver; }
+   public void setModel( Evaluator v ) { model = v; }
+   public void setThreads( int v ) { threads = Math.max( 1, v ); }
+   public int getThreads() { return threads; }
+   public void setBatchSize( int v ) { batchSize = v; }
+   public int getBatchSize() { return batchSize; }
+   public void setSequential( boolean v ) { sequential = v; }
+   public boolean getSequential() { return sequential; }
+
+   /**
+    * loopback workers and coordinator port of a distributed study; with
+    * neither set, a BatchDriver runs in-process
+    */
+   public void setWorkers( int v ) { workers = Math.max( 0, v ); }
+   public int getWorkers() { return workers; }
+   public void setPort( int v ) { port = v; }
+   public int getPort() { return port; }
+   public void setBindAddress( String v ) { bindAddress = v; }
+   public String getBindAddress() { return bindAddress; }
+   public void setLeaseSize( int v ) { leaseSize = v; }
+   public int getLeaseSize() { return leaseSize; }
+
+   /**
+    * cases run by the last sequential study
+    */
+   public long getCases() { return cases; }
+
+   /**
+    * binds driver properties, in order, to the model's inputs; each is a
+    * PHXReferenceArray or a PHXReference
+    */
+   public void setInputs( String... properties ) throws Exception
+   {
+      inputs = bind( properties );
+   }
+
+   /**
+    * binds driver properties, in order, to the model's outputs
+    */
+   public void setOutputs( String... properties ) throws Exception
+   {
+      outputs = bind( properties );
+   }
+
+   /**
+    * number of model inputs or outputs of the current bindings
+    */
+   public int getNumInputs() { return length( inputs ); }
+   public int getNumOutputs() { return length( outputs ); }
+
+   /**
+    * runs the study to completion
+    */
+   public void run() throws Exception
+   {
+      if ( driver instanceof BatchDriver && !sequential && (workers > 0 || port >= 0) )
+      {
+         runDistributed( (BatchDriver)driver );
+         return;
+      }
+      if ( driver instanceof BatchDriver && !sequential )
+      {
+         BatchExecutor executor = new BatchExecutor( threads );
+         try
+         {
+            executor.setBatchSize( batchSize );
+            executor.run( (BatchDriver)driver, model );
+         }
+         finally
+         {
+            executor.close();
+         }
+         return;
+      }
+
+      cases = 0;
+      driver.initializeIterations();
+      try
+      {
+         // the slots are fixed once the driver has set up its variables
+         double[] x = new double[offsets( inputs )];
+         double[] y = new double[offsets( outputs )];
+         Binding[] in = inputs;
+         Binding[] out = outputs;
+         do
+         {
+            driver.startIteration();
+            for ( int b = 0; b < in.length; b++ )
+            {
+               in[b].read( x );
+            }
+            model.evaluate( x, 0, y, 0 );
+            for ( int b = 0; b < out.length; b++ )
+            {
+               out[b].write( y );
+            }
+            cases++;
+         } while ( driver.endIteration() );
+      }
+      finally
+      {
+         driver.end();
+      }
+   }
+
+   private void runDistributed( BatchDriver driver ) throws Exception
+   {
+      DistributedExecutor executor = new DistributedExecutor( Math.max( 0, port ) );
+      executor.setBindAddress( bindAddress );
+      try
+      {
+         executor.setBatchSize( batchSize );
+         if ( leaseSize > 0 )
+            executor.setLeaseSize( leaseSize );
+         executor.open();
+         for ( int k = 0; k < workers; k++ )
+         {
+            final StudyWorker worker = new StudyWorker( model );
+            final String host = executor.getLocalAddress();
+            final int p = executor.getPort();
+            worker.setThreads( threads );
+            Thread t = new Thread( new Runnable()
+            {
+               public void run()
+               {
+                  try
+                  {
+                     worker.run( host, p );
+                  }
+                  catch ( Exception e )
+                  {
+                     e.printStackTrace();
+                  }
+               }
+            }, "study-worker-" + (k+1) );
+            t.setDaemon( true );
+            t.start();
+         }
+         executor.run( driver );
+      }
+      finally
+      {
+         executor.close();
+      }
+   }
+
+   /**
+    * a slot range of the model's input or output vector, tied to a
+    * driver variable
+    */
+   private static class Binding
+   {
+      final String name;
+      final PHXReferenceArray array;
+      final PHXReference reference;
+      int offset;
+      int length;
+
+      Binding( String name, Object value )
+      {
+         this.name = name;
+         this.array = value instanceof PHXReferenceArray ? (PHXReferenceArray)value : null;
+         this.reference = value instanceof PHXReference ? (PHXReference)value : null;
+         if ( array == null && reference == null )
+         {
+            String msg = name + " is neither a PHXReferenceArray nor a PHXReference";
+            throw new IllegalArgumentException( msg );
+         }
+      }
+
+      int length() { return array != null ? array.getLength() : 1; }
+
+      void read( double[] x )
+      {
+         if ( array != null )
+            System.arraycopy( array.getValues(), 0, x, offset, length );
+         else
+            x[offset] = reference.getValue();
+      }
+
+      void write( double[] y )
+      {
+         if ( array != null )
+            System.arraycopy( y, offset, array.getValues(), 0, length );
+         else
+            reference.setValue( y[offset] );
+      }
+   }
+
+   private Binding[] bind( String[] properties ) throws Exception
+   {
+      Binding[] b = new Binding[properties.length];
+      for ( int k = 0; k < properties.length; k++ )
+      {
+         b[k] = new Binding( properties[k], getProperty( driver, properties[k] ) );
+      }
+      return b;
+   }
+
+   private static int length( Binding[] bindings )
+   {
+      int n = 0;
+      for ( Binding b : bindings )
+      {
+         n += b.length();
+      }
+      return n;
+   }
+
+   private static int offsets( Binding[] bindings )
+   {
+      int n = 0;
+      for ( Binding b : bindings )
+      {
+         b.offset = n;
+         b.length = b.length();
+         n += b.length;
+      }
+      return n;
+   }
+
+   // ----- the command line
+
+   public static void main( String[] args ) throws Exception
+   {
+      if ( args.length < 2 )
+         usage();
+
+      IPHXDriver driver = (IPHXDriver)Class.forName( args[0] ).getDeclaredConstructor().newInstance();
+      StudyRunner runner = new StudyRunner( driver, null );
+      String[] in = { defaultProperty( driver, INPUTS ) };
+      String[] out = { defaultProperty( driver, OUTPUTS ) };
+      List<String> show = new ArrayList<String>();
+      double cacheQuantum = -1;
+      int cacheSize = 65536;
+      String cacheFile = null;
+      for ( int k = 2; k < args.length; k++ )
+      {
+         String a = args[k];
+         if ( a.equals( "-in" ) )
+            in = args[++k].split( "," );
+         else if ( a.equals( "-out" ) )
+            out = args[++k].split( "," );
+         else if ( a.equals( "-threads" ) )
+            runner.setThreads( Integer.parseInt( args[++k] ) );
+         else if ( a.equals( "-batch" ) )
+            runner.setBatchSize( Integer.parseInt( args[++k] ) );
+         else if ( a.equals( "-sequential" ) )
+            runner.setSequential( true );
+         else if ( a.equals( "-workers" ) )
+            runner.setWorkers( Integer.parseInt( args[++k] ) );
+         else if ( a.equals( "-listen" ) )
+         {
+            String listen = args[++k];
+            int colon = listen.lastIndexOf( ':' );
+            if ( colon >= 0 )
+               runner.setBindAddress( listen.substring( 0, colon ) );
+            runner.setPort( Integer.parseInt( listen.substring( colon + 1 ) ) );
+         }
+         else if ( a.equals( "-lease" ) )
+            runner.setLeaseSize( Integer.parseInt( args[++k] ) );
+         else if ( a.equals( "-cache" ) )
+            cacheQuantum = Math.max( 0, Double.parseDouble( args[++k] ) );
+         else if ( a.equals( "-cacheSize" ) )
+            cacheSize = Integer.parseInt( args[++k] );
+         else if ( a.equals( "-cacheFile" ) )
+            cacheFile = args[++k];
+         else if ( a.equals( "-show" ) )
+         {
+            for ( String s : args[++k].split( "," ) )
+            {
+               int dot = s.indexOf( '.' );
+               if ( dot <= 0 || dot == s.length() - 1 )
+               {
+                  System.err.println( "-show takes array.refProp, not " + s );
+                  usage();
+               }
+               show.add( s );
+            }
+         }
+         else if ( a.indexOf( '=' ) > 0 )
+            apply( driver, a );
+         else
+            throw new IllegalArgumentException( "unknown argument " + a );
+      }
+      runner.setInputs( in );
+      runner.setOutputs( out );
+      for ( String s : show )
+      {
+         String array = s.substring( 0, s.indexOf( '.' ) );
+         if ( !(getProperty( driver, array ) instanceof PHXReferenceArray) )
+            throw new IllegalArgumentException( array + " of -show is not a reference array" );
+      }
+      Evaluator model = model( args[1], runner.getNumInputs(), runner.getNumOutputs() );
+      EvaluationCache cache = null;
+      if ( cacheQuantum >= 0 || cacheFile != null )
+      {
+         cache = new EvaluationCache( model, runner.getNumInputs(), runner.getNumOutputs(),
+                                      cacheSize, Math.max( 0, cacheQuantum ) );
+         if ( cacheFile != null )
+            cache.open( cacheFile );
+         model = cache;
+      }
+      runner.setModel( model );
+
+      long t0 = System.nanoTime();
+      try
+      {
+         runner.run();
+      }
+      finally
+      {
+         if ( cache != null )
+            cache.close();
+      }
+      double seconds = (System.nanoTime() - t0)/1e9;
+
+      System.out.printf( "%s against %s: %.3f s%n", args[0], args[1], seconds );
+      if ( cache != null )
+         System.out.println( "cache: " + cache + ", hit rate " + cache.getHitRate() );
+      printProperties( driver );
+      for ( String s : show )
+      {
+         int dot = s.indexOf( '.' );
+         PHXReferenceArray a = (PHXReferenceArray)getProperty( driver, s.substring( 0, dot ) );
+         String refProp = s.substring( dot + 1 );
+         for ( int i = 0; i < a.getLength(); i++ )
+         {
+            System.out.println( s.substring( 0, dot ) + "[" + i + "]." + refProp + " = " +
+                                getRefProp( a, i, refProp ) );
+         }
+      }
+   }
+
+   private static void usage()
+   {
+      System.err.println( "usage: java StudyRunner driver model [options] [setting=value ...]" );
+      System.exit( 2 );
+   }
+
+   static Evaluator model( String spec, int numInputs, int numOutputs ) throws Exception
+   {
+      if ( ("," + BenchmarkProblem.TYPES + ",").contains( "," + spec + "," ) )
+      {
+         BenchmarkProblem p = new BenchmarkProblem( spec, numInputs, Math.max( 1, numOutputs ) );
+         if ( p.getNumObjectives() > numOutputs )
+         {
+            String msg = spec + " has " + p.getNumObjectives() + " outputs but only " +
+               numOutputs + " are bound";
+            throw new IllegalArgumentException( msg );
+         }
+         return p;
+      }
+      return (Evaluator)Class.forName( spec ).getDeclaredConstructor().newInstance();
+   }
+
+   private static String defaultProperty( Object bean, String[] candidates )
+   {
+      for ( String c : candidates )
+      {
+         if ( getter( bean, c ) != null )
+            return c;
+      }
+      throw new IllegalArgumentException( bean.getClass().getName() +
+         " has none of the properties " + Arrays.toString( candidates ) );
+   }
+
+   private static final Pattern REF_PROP = Pattern.compile( "(\\w+)\\[(\\d+|\\*)\\]\\.(\\w+)" );
+   private static final Pattern FIELD = Pattern.compile( "(\\w+)\\.(\\w+)" );
+
+   /**
+    * applies one name=value setting to the driver
+    */
+   static void apply( Object driver, String setting ) throws Exception
+   {
+      int eq = setting.indexOf( '=' );
+      String name = setting.substring( 0, eq ).trim();
+      String value = setting.substring( eq + 1 ).trim();
+
+      Matcher m = REF_PROP.matcher( name );
+      if ( m.matches() )
+      {
+         PHXReferenceArray a = (PHXReferenceArray)getProperty( driver, m.group( 1 ) );
+         int first = m.group( 2 ).equals( "*" ) ? 0 : Integer.parseInt( m.group( 2 ) );
+         int last = m.group( 2 ).equals( "*" ) ? a.getLength() - 1 : first;
+         for ( int i = first; i <= last; i++ )
+         {
+            setRefProp( a, i, m.group( 3 ), value );
+         }
+         return;
+      }
+
+      m = FIELD.matcher( name );
+      if ( m.matches() )
+      {
+         Object v = getProperty( driver, m.group( 1 ) );
+         if ( v instanceof PHXReferenceArray && m.group( 2 ).equals( "length" ) )
+            ((PHXReferenceArray)v).setLength( Integer.parseInt( value ) );
+         else if ( v instanceof PHXReference )
+            setRefProp( (PHXReference)v, m.group( 2 ), value );
+         else
+            throw new IllegalArgumentException( "cannot set " + name );
+         return;
+      }
+
+      for ( Method method : driver.getClass().getMethods() )
+      {
+         if ( method.getName().equals( "set" + capitalize( name ) ) &&
+              method.getParameterTypes().length == 1 &&
+              !Modifier.isStatic( method.getModifiers() ) )
+         {
+            Class<?> type = method.getParameterTypes()[0];
+            if ( type == int.class )
+               method.invoke( driver, Integer.parseInt( value ) );
+            else if ( type == long.class )
+               method.invoke( driver, Long.parseLong( value ) );
+            else if ( type == double.class )
+               method.invoke( driver, Double.parseDouble( value ) );
+            else if ( type == boolean.class )
+               method.invoke( driver, Boolean.parseBoolean( value ) );
+            else if ( type == String.class )
+               method.invoke( driver, value );
+            else
+               continue;
+            return;
+         }
+      }
+      throw new IllegalArgumentException( "no property " + name + " to set" );
+   }
+
+   /**
+    * sets a ref-prop from its text, trying the types the text could be
+    */
+   private static void setRefProp( PHXReferenceArray a, int i, String refProp, String value )
+      throws PHXTypeMismatchException
+   {
+      if ( value.equals( "true" ) || value.equals( "false" ) )
+      {
+         a.setRefPropValue( refProp, i, Boolean.parseBoolean( value ) );
+         return;
+      }
+
+      double number;
+      try
+      {
+         number = Double.parseDouble( value );
+      }
+      catch ( NumberFormatException e )
+      {
+         a.setRefPropValue( refProp, i, value );
+         return;
+      }
+      try
+      {
+         a.setRefPropValue( refProp, i, number );
+      }
+      catch ( PHXTypeMismatchException e )
+      {
+         if ( number != Math.rint( number ) )
+            throw e;
+         a.setRefPropValue( refProp, i, (long)number );
+      }
+   }
+
+   private static Object getRefProp( PHXReferenceArray a, int i, String refProp )
+   {
+      try
+      {
+         return a.getRefPropValueDouble( refProp, i );
+      }
+      catch ( Exception e )
+      {
+         try
+         {
+            return a.getRefPropValueString( refProp, i );
+         }
+         catch ( PHXTypeMismatchException f )
+         {
+            return "?";
+         }
+      }
+   }
+
+   private static void setRefProp( PHXReference r, String refProp, String value )
+      throws PHXTypeMismatchException
+   {
+      double number;
+      try
+      {
+         number = Double.parseDouble( value );
+      }
+      catch ( NumberFormatException e )
+      {
+         r.setRefPropValue( refProp, value );
+         return;
+      }
+      try
+      {
+         r.setRefPropValue( refProp, number );
+      }
+      catch ( PHXTypeMismatchException e )
+      {
+         if ( number != Math.rint( number ) )
+            throw e;
+         r.setRefPropValue( refProp, (long)number );
+      }
+   }
+
+   static Object getProperty( Object bean, String name ) throws Exception
+   {
+      Method m = getter( bean, name );
+      if ( m == null )
+         throw new IllegalArgumentException( "no property " + name );
+      return m.invoke( bean );
+   }
+
+   private static Method getter( Object bean, String name )
+   {
+      for ( String prefix : new String[] { "get", "is" } )
+      {
+         try
+         {
+            Method m = bean.getClass().getMethod( prefix + capitalize( name ) );
+            if ( !Modifier.isStatic( m.getModifiers() ) )
+               return m;
+         }
+         catch ( NoSuchMethodException e )
+         {
+            // try the next prefix
+         }
+      }
+      return null;
+   }
+
+   /**
+    * prints every property of the driver with a number, boolean or
+    * string value
+    */
+   private static void printProperties( Object bean ) throws Exception
+   {
+      SortedMap<String,Object> values = new TreeMap<String,Object>();
+      for ( Method m : bean.getClass().getMethods() )
+      {
+         String n = m.getName();
+         Class<?> type = m.getReturnType();
+         if ( m.getParameterTypes().length == 0 && !Modifier.isStatic( m.getModifiers() ) &&
+              n.startsWith( "get" ) && n.length() > 3 && !n.equals( "getClass" ) &&
+              (type.isPrimitive() || type == String.class) )
+         {
+            values.put( Character.toLowerCase( n.charAt( 3 ) ) + n.substring( 4 ), m.invoke( bean ) );
+         }
+      }
+      for ( Map.Entry<String,Object> e : values.entrySet() )
+      {
+         System.out.println( e.getKey() + " = " + e.getValue() );
+      }
+   }
+
+   private static String capitalize( String s )
+   {
+      return Character.toUpperCase( s.charAt( 0 ) ) + s.substring( 1 );
+   }
+}
@@ -0,0 +1,238 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates the leases of a DistributedExecutor: one process per host
+ * (or several on a loopback for testing), each spreading the cases of a
+ * lease over its own threads with a BatchExecutor.
+ *
+ *   java StudyWorker host:port model [-threads n]
+ *
+ * where model is a BenchmarkProblem type or the class name of an
+ * Evaluator, as for StudyRunner. The worker serves the coordinator until
+ * it is told the study is done or the connection drops.
+ *
+ * Leases are read as they arrive and queued, so a lease that the
+ * coordinator takes back before it is started is simply dropped; one that
+ * has been started is finished and its result ignored there. A lease
+ * larger than SETUP allows ends the worker with a ProtocolException
+ * before anything is allocated for it.
+ */
+public class StudyWorker
+{
+   private static final Object END = new Object();
+
+   private final String modelName;
+   private Evaluator model;
+   private int threads = 1;
+   private long cases = 0;
+
+   /**
+    * a worker for a given model, of whatever size the coordinator runs
+    */
+   public StudyWorker( Evaluator model )
+   {
+      this.modelName = null;
+      this.model = model;
+   }
+
+   /**
+    * a worker for a BenchmarkProblem type or Evaluator class, created once
+    * the coordinator has said how many inputs and outputs it has
+    */
+   public StudyWorker( String model )
+   {
+      this.modelName = model;
+   }
+
+   public void setThreads( int v ) { threads = Math.max( 1, v ); }
+   public int getThreads() { return threads; }
+
+   /**
+    * cases evaluated so far
+    */
+   public long getCases() { return cases; }
+
+   /**
+    * connects to the coordinator and serves it until it is done
+    */
+   public void run( String host, int port ) throws Exception
+   {
+      Socket socket = new Socket( host, port );
+      BatchExecutor executor = new BatchExecutor( threads );
+      try
+      {
+         socket.setTcpNoDelay( true );
+         final DataInputStream in = new DataInputStream(
+            new BufferedInputStream( socket.getInputStream() ) );
+         DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( socket.getOutputStream() ) );
+         out.writeInt( DistributedExecutor.MAGIC );
+         out.writeInt( DistributedExecutor.VERSION );
+         out.flush();
+
+         final BlockingDeque<Object> queue = new LinkedBlockingDeque<Object>();
+         Thread reader = new Thread( new Runnable()
+         {
+            public void run()
+            {
+               read( in, queue );
+            }
+         }, "study-worker-reader" );
+         reader.setDaemon( true );
+         reader.start();
+
+         int numInputs = 0;
+         int numOutputs = 0;
+         double[] outputs = new double[0];
+         while ( true )
+         {
+            Object m = queue.take();
+            if ( m == END )
+               break;
+            if ( m instanceof IOException )
+               throw (IOException)m;
+
+            if ( m instanceof int[] )
+            {
+               numInputs = ((int[])m)[0];
+               numOutputs = ((int[])m)[1];
+               if ( modelName != null )
+                  model = StudyRunner.model( modelName, numInputs, numOutputs );
+               continue;
+            }
+
+            Lease l = (Lease)m;
+            if ( outputs.length < l.numCases*numOutputs )
+               outputs = new double[l.numCases*numOutputs];
+            try
+            {
+               executor.evaluate( model, l.inputs, numInputs, outputs, numOutputs, l.numCases );
+            }
+            catch ( Exception e )
+            {
+               out.writeByte( DistributedExecutor.FAILED );
+               out.writeLong( l.id );
+               out.writeUTF( String.valueOf( e ) );
+               out.flush();
+               continue;
+            }
+            out.writeByte( DistributedExecutor.RESULT );
+            out.writeLong( l.id );
+            out.writeInt( l.numCases*numOutputs );
+            DistributedExecutor.writeDoubles( out, outputs, 0, l.numCases*numOutputs );
+            out.flush();
+            cases += l.numCases;
+         }
+      }
+      finally
+      {
+         executor.close();
+         DistributedExecutor.closeQuietly( socket );
+      }
+   }
+
+   /**
+    * queues the coordinator's messages; SETUP as {numInputs, numOutputs},
+    * and a broken protocol as its ProtocolException
+    */
+   private static void read( DataInputStream in, BlockingDeque<Object> queue )
+   {
+      int numInputs = 0;
+      int leaseSize = 0;
+      try
+      {
+         while ( true )
+         {
+            byte type = in.readByte();
+            if ( type == DistributedExecutor.SETUP )
+            {
+               numInputs = in.readInt();
+               int numOutputs = in.readInt();
+               leaseSize = in.readInt();
+
+               // a lease of inputs and its responses must each fit one array
+               long widest = (long)leaseSize*Math.max( numInputs, numOutputs );
+               if ( numInputs < 0 || numOutputs < 0 || leaseSize < 1 ||
+                    widest > Integer.MAX_VALUE/8 )
+               {
+                  String msg = "setup of " + numInputs + " inputs, " + numOutputs +
+                     " outputs and " + leaseSize + " cases per lease";
+                  throw new ProtocolException( msg );
+               }
+               queue.add( new int[] { numInputs, numOutputs } );
+            }
+            else if ( type == DistributedExecutor.LEASE )
+            {
+               long id = in.readLong();
+               int numCases = in.readInt();
+               if ( numCases < 1 || numCases > leaseSize )
+                  throw new ProtocolException( "lease of " + numCases + " cases" );
+               double[] inputs = new double[numCases*numInputs];
+               DistributedExecutor.readDoubles( in, inputs, 0, inputs.length );
+               queue.add( new Lease( id, numCases, inputs ) );
+            }
+            else if ( type == DistributedExecutor.CANCEL )
+            {
+               long id = in.readLong();
+               for ( Iterator<Object> i = queue.iterator(); i.hasNext(); )
+               {
+                  Object m = i.next();
+                  if ( m instanceof Lease && ((Lease)m).id == id )
+                     i.remove();
+               }
+            }
+            else
+               break;
+         }
+      }
+      catch ( ProtocolException e )
+      {
+         queue.add( e );
+      }
+      catch ( IOException e )
+      {
+         // the coordinator is gone
+      }
+      queue.add( END );
+   }
+
+   private static class Lease
+   {
+      final long id;
+      final int numCases;
+      final double[] inputs;
+
+      Lease( long id, int numCases, double[] inputs )
+      {
+         this.id = id;
+         this.numCases = numCases;
+         this.inputs = inputs;
+      }
+   }
+
+   public static void main( String[] args ) throws Exception
+   {
+      if ( args.length < 2 )
+      {
+         System.err.println( "usage: java StudyWorker host:port model [-threads n]" );
+         System.exit( 2 );
+      }
+
+      StudyWorker worker = new StudyWorker( args[1] );
+      for ( int k = 2; k < args.length; k++ )
+      {
+         if ( args[k].equals( "-threads" ) )
+            worker.setThreads( Integer.parseInt( args[++k] ) );
+         else
+            throw new IllegalArgumentException( "unknown argument " + args[k] );
+      }
+
+      int colon = args[0].lastIndexOf( ':' );
+      long t0 = System.nanoTime();
+      worker.run( args[0].substring( 0, colon ), Integer.parseInt( args[0].substring( colon + 1 ) ) );
+      System.out.printf( "%d cases in %.3f s%n", worker.getCases(), (System.nanoTime() - t0)/1e9 );
+   }
+}
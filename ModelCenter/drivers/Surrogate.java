@@ -0,0 +1,412 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * A response surface fitted to sampled runs of a model, for use in place
+ * of the model where it is too slow or cannot be called at all (the
+ * AnyLogic pedestrian model). A fitted surrogate is an Evaluator with one
+ * output, so the drivers can run against it through a BatchExecutor.
+ *
+ * The types are
+ *   Polynomial - least squares polynomial response surface, degree 1 to 3
+ *   Kriging    - Gaussian process with a Gaussian correlation, one length
+ *                scale per input fitted by maximum likelihood
+ *   RBF        - radial basis function interpolation with a linear tail
+ *
+ * Inputs and the output are standardized internally, so the settings
+ * mean the same for any units. Prediction keeps no state and allocates
+ * nothing, so one surrogate may serve all workers at once.
+ *
+ * Training data is read from a CSV file with a header line, such as
+ * Pedestrian/PedSurrogate/pedTrainingData.csv; one column is the output,
+ * by default the last, and the others are the inputs. A fitted surrogate
+ * is saved to and loaded from a binary file.
+ */
+public abstract class Surrogate implements Evaluator
+{
+   public static final String TYPES = "Polynomial,Kriging,RBF";
+
+   private static final long FILE_MAGIC = 0x5048585355523031L;   // "PHXSUR01"
+
+   protected int numInputs;
+   protected int numPoints;
+   protected double[] x = new double[0];
+   protected double[] y = new double[0];
+   protected double[] inputMean = new double[0];
+   protected double[] inputScale = new double[0];
+   protected double outputMean = 0;
+   protected double outputScale = 1;
+   protected String[] inputNames = new String[0];
+   protected String outputName = "output";
+
+   /**
+    * creates an unfitted surrogate by name
+    */
+   public static Surrogate create( String type )
+   {
+      if ( type == null || type.length() == 0 || type.equals( "Kriging" ) )
+         return new KrigingSurrogate();
+      else if ( type.equals( "Polynomial" ) )
+         return new PolynomialSurrogate();
+      else if ( type.equals( "RBF" ) )
+         return new RBFSurrogate();
+      else
+      {
+         String msg = "unsupported surrogate type: " + type;
+         throw new IllegalArgumentException( msg );
+      }
+   }
+
+   public abstract String getType();
+   public int getNumInputs() { return numInputs; }
+   public int getNumPoints() { return numPoints; }
+   public String getInputName( int i ) { return inputNames[i]; }
+   public String getOutputName() { return outputName; }
+
+   /**
+    * fits the surrogate to n points with numInputs inputs each, row-major
+    * in x, and their outputs y
+    */
+   public void fit( double[] x, double[] y, int n, int numInputs )
+   {
+      if ( n < 1 )
+         throw new IllegalArgumentException( "no training points" );
+
+      this.numInputs = numInputs;
+      numPoints = n;
+      this.x = Arrays.copyOf( x, n*numInputs );
+      this.y = Arrays.copyOf( y, n );
+      if ( inputNames.length != numInputs )
+      {
+         inputNames = new String[numInputs];
+         for ( int i = 0; i < numInputs; i++ )
+         {
+            inputNames[i] = "x" + i;
+         }
+      }
+
+      inputMean = new double[numInputs];
+      inputScale = new double[numInputs];
+      for ( int i = 0; i < numInputs; i++ )
+      {
+         double sum = 0;
+         double sumSq = 0;
+         for ( int k = 0; k < n; k++ )
+         {
+            sum += x[k*numInputs+i];
+         }
+         inputMean[i] = sum/n;
+         for ( int k = 0; k < n; k++ )
+         {
+            double d = x[k*numInputs+i] - inputMean[i];
+            sumSq += d*d;
+         }
+         double sd = Math.sqrt( sumSq/n );
+         inputScale[i] = sd > 0 ? sd : 1;
+      }
+
+      double sum = 0;
+      double sumSq = 0;
+      for ( int k = 0; k < n; k++ )
+      {
+         sum += y[k];
+      }
+      outputMean = sum/n;
+      for ( int k = 0; k < n; k++ )
+      {
+         sumSq += (y[k] - outputMean)*(y[k] - outputMean);
+      }
+      double sd = Math.sqrt( sumSq/n );
+      outputScale = sd > 0 ? sd : 1;
+
+      train();
+   }
+
+   /**
+    * fits the surrogate to a CSV file, the last column being the output
+    */
+   public void fit( String csvFile ) throws IOException
+   {
+      fit( csvFile, null );
+   }
+
+   /**
+    * fits the surrogate to a CSV file with a header line; the column
+    * named output (the last if null) is the output, the others inputs
+    */
+   public void fit( String csvFile, String output ) throws IOException
+   {
+      List<double[]> rows = new ArrayList<double[]>();
+      String[] header;
+      try ( BufferedReader in = new BufferedReader( new FileReader( csvFile ) ) )
+      {
+         String line = in.readLine();
+         if ( line == null )
+            throw new IOException( csvFile + " is empty" );
+         header = line.split( "," );
+         for ( int j = 0; j < header.length; j++ )
+         {
+            header[j] = header[j].trim();
+         }
+
+         int lineNumber = 1;
+         while ( (line = in.readLine()) != null )
+         {
+            lineNumber++;
+            if ( line.trim().length() == 0 )
+               continue;
+            String[] cells = line.split( "," );
+            if ( cells.length < header.length )
+               throw new IOException( csvFile + ":" + lineNumber + ": expected " + header.length + " values" );
+            double[] row = new double[header.length];
+            for ( int j = 0; j < header.length; j++ )
+            {
+               try
+               {
+                  row[j] = Double.parseDouble( cells[j].trim() );
+               }
+               catch ( NumberFormatException e )
+               {
+                  throw new IOException( csvFile + ":" + lineNumber + ": not a number: " + cells[j] );
+               }
+            }
+            rows.add( row );
+         }
+      }
+
+      int column = header.length - 1;
+      if ( output != null )
+      {
+         column = Arrays.asList( header ).indexOf( output );
+         if ( column < 0 )
+            throw new IOException( csvFile + " has no column " + output );
+      }
+      if ( header.length < 2 )
+         throw new IOException( csvFile + " needs at least one input and one output column" );
+
+      int d = header.length - 1;
+      int n = rows.size();
+      double[] xs = new double[n*d];
+      double[] ys = new double[n];
+      inputNames = new String[d];
+      for ( int j = 0, i = 0; j < header.length; j++ )
+      {
+         if ( j != column )
+            inputNames[i++] = header[j];
+      }
+      outputName = header[column];
+      for ( int k = 0; k < n; k++ )
+      {
+         double[] row = rows.get( k );
+         for ( int j = 0, i = 0; j < header.length; j++ )
+         {
+            if ( j != column )
+               xs[k*d+i++] = row[j];
+         }
+         ys[k] = row[column];
+      }
+      fit( xs, ys, n, d );
+   }
+
+   /**
+    * adds one training point and updates the fit. The standardization of
+    * the first fit is kept. By default the surrogate is refitted; Kriging
+    * updates its factorization instead.
+    */
+   public void add( double[] point, int offset, double value )
+   {
+      x = Arrays.copyOf( x, (numPoints+1)*numInputs );
+      y = Arrays.copyOf( y, numPoints+1 );
+      System.arraycopy( point, offset, x, numPoints*numInputs, numInputs );
+      y[numPoints] = value;
+      numPoints++;
+      train();
+   }
+
+   /**
+    * the predicted output at the point in x[offset ..]
+    */
+   public double predict( double[] x, int offset )
+   {
+      return outputMean + outputScale*predictStandardized( x, offset );
+   }
+
+   public void evaluate( double[] inputs, int inputOffset,
+                         double[] outputs, int outputOffset )
+   {
+      outputs[outputOffset] = predict( inputs, inputOffset );
+   }
+
+   /**
+    * root mean square of the leave-one-out errors: each point is
+    * predicted by the surrogate fitted to all other points, keeping the
+    * standardization. Refits the surrogate numPoints times.
+    */
+   public double crossValidate()
+   {
+      double[] xs = x;
+      double[] ys = y;
+      int n = numPoints;
+      int d = numInputs;
+
+      double sum = 0;
+      try
+      {
+         double[] xr = new double[(n-1)*d];
+         double[] yr = new double[n-1];
+         for ( int k = 0; k < n; k++ )
+         {
+            for ( int j = 0, r = 0; j < n; j++ )
+            {
+               if ( j == k )
+                  continue;
+               System.arraycopy( xs, j*d, xr, r*d, d );
+               yr[r++] = ys[j];
+            }
+            x = xr;
+            y = yr;
+            numPoints = n-1;
+            train();
+            double e = predict( xs, k*d ) - ys[k];
+            sum += e*e;
+         }
+      }
+      finally
+      {
+         x = xs;
+         y = ys;
+         numPoints = n;
+         train();
+      }
+      return Math.sqrt( sum/n );
+   }
+
+   /**
+    * writes the fitted surrogate to path
+    */
+   public void save( String path ) throws IOException
+   {
+      try ( DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream( new FileOutputStream( path ) ) ) )
+      {
+         out.writeLong( FILE_MAGIC );
+         out.writeUTF( getType() );
+         out.writeInt( numInputs );
+         out.writeInt( numPoints );
+         for ( int i = 0; i < numInputs; i++ )
+         {
+            out.writeUTF( inputNames[i] );
+            out.writeDouble( inputMean[i] );
+            out.writeDouble( inputScale[i] );
+         }
+         out.writeUTF( outputName );
+         out.writeDouble( outputMean );
+         out.writeDouble( outputScale );
+         for ( int k = 0; k < numPoints*numInputs; k++ )
+         {
+            out.writeDouble( x[k] );
+         }
+         for ( int k = 0; k < numPoints; k++ )
+         {
+            out.writeDouble( y[k] );
+         }
+         writeModel( out );
+      }
+   }
+
+   /**
+    * reads a surrogate written by save()
+    */
+   public static Surrogate load( String path ) throws IOException
+   {
+      try ( DataInputStream in = new DataInputStream(
+               new BufferedInputStream( new FileInputStream( path ) ) ) )
+      {
+         if ( in.readLong() != FILE_MAGIC )
+            throw new IOException( path + " is not a surrogate file" );
+         Surrogate s = create( in.readUTF() );
+         int d = in.readInt();
+         int n = in.readInt();
+         s.numInputs = d;
+         s.numPoints = n;
+         s.inputNames = new String[d];
+         s.inputMean = new double[d];
+         s.inputScale = new double[d];
+         for ( int i = 0; i < d; i++ )
+         {
+            s.inputNames[i] = in.readUTF();
+            s.inputMean[i] = in.readDouble();
+            s.inputScale[i] = in.readDouble();
+         }
+         s.outputName = in.readUTF();
+         s.outputMean = in.readDouble();
+         s.outputScale = in.readDouble();
+         s.x = new double[n*d];
+         s.y = new double[n];
+         for ( int k = 0; k < n*d; k++ )
+         {
+            s.x[k] = in.readDouble();
+         }
+         for ( int k = 0; k < n; k++ )
+         {
+            s.y[k] = in.readDouble();
+         }
+         s.readModel( in );
+         return s;
+      }
+   }
+
+   /**
+    * the i-th input of the point x[offset ..], standardized
+    */
+   protected final double standardized( double[] x, int offset, int i )
+   {
+      return (x[offset+i] - inputMean[i])/inputScale[i];
+   }
+
+   /**
+    * squared distance from the point x[offset ..] to training point k in
+    * standardized inputs, each weighted by weight[i]/inputScale[i]^2,
+    * which the caller has folded in
+    */
+   protected final double distanceSquared( double[] x, int offset, int k, double[] weight )
+   {
+      int d = numInputs;
+      double s = 0;
+      for ( int i = 0; i < d; i++ )
+      {
+         double t = x[offset+i] - this.x[k*d+i];
+         s += weight[i]*t*t;
+      }
+      return s;
+   }
+
+   /**
+    * the output of training point k, standardized
+    */
+   protected final double standardizedOutput( int k )
+   {
+      return (y[k] - outputMean)/outputScale;
+   }
+
+   /**
+    * fits the model to the numPoints points in x and y
+    */
+   protected abstract void train();
+
+   /**
+    * the standardized prediction at the point x[offset ..]
+    */
+   protected abstract double predictStandardized( double[] x, int offset );
+
+   /**
+    * writes the fitted model parameters
+    */
+   protected abstract void writeModel( DataOutputStream out ) throws IOException;
+
+   /**
+    * reads what writeModel() wrote; x, y and the standardization are
+    * already restored
+    */
+   protected abstract void readModel( DataInputStream in ) throws IOException;
+}
@@ -0,0 +1,113 @@
+import java.util.*;
+
+/**
+ * Prediction throughput of the surrogates:
+ *
+ *   java SurrogateBenchmark [trainingData.csv]
+ *
+ * Each surrogate type is fitted to the CSV file (by default the
+ * pedestrian training data) and to a synthetic 5-input data set of 200
+ * points, then queried at random points: a warm-up so the JIT has
+ * compiled the prediction, then timed rounds of a fixed number of
+ * calls. The median round gives the time per prediction. The results
+ * are summed and printed so the calls cannot be optimized away.
+ */
+public class SurrogateBenchmark
+{
+   private static final int ROUNDS = 10;
+   private static final int CALLS = 200000;
+
+   public static void main( String[] args ) throws Exception
+   {
+      String csv = args.length > 0 ? args[0]
+         : "../../Pedestrian/PedSurrogate/pedTrainingData.csv";
+
+      System.out.println( "surrogate       data           points  fit ms   ns/prediction" );
+      for ( String type : Surrogate.TYPES.split( "," ) )
+      {
+         Surrogate s = Surrogate.create( type );
+         long t0 = System.nanoTime();
+         s.fit( csv );
+         report( type, "csv", s, (System.nanoTime() - t0)/1e6 );
+      }
+
+      int n = 200;
+      int d = 5;
+      Random random = new Random( 1 );
+      double[] x = new double[n*d];
+      double[] y = new double[n];
+      for ( int k = 0; k < n; k++ )
+      {
+         double v = 0;
+         for ( int i = 0; i < d; i++ )
+         {
+            x[k*d+i] = random.nextDouble();
+            v += Math.sin( 3*x[k*d+i] ) + (i+1)*x[k*d+i]*x[k*d+i];
+         }
+         y[k] = v;
+      }
+      for ( String type : Surrogate.TYPES.split( "," ) )
+      {
+         Surrogate s = Surrogate.create( type );
+         long t0 = System.nanoTime();
+         s.fit( x, y, n, d );
+         report( type, "synthetic 5-d", s, (System.nanoTime() - t0)/1e6 );
+      }
+   }
+
+   private static void report( String type, String data, Surrogate s, double fitMs )
+   {
+      int d = s.getNumInputs();
+      double[] lo = new double[d];
+      double[] hi = new double[d];
+      Arrays.fill( lo, Double.POSITIVE_INFINITY );
+      Arrays.fill( hi, Double.NEGATIVE_INFINITY );
+      for ( int k = 0; k < s.getNumPoints(); k++ )
+      {
+         for ( int i = 0; i < d; i++ )
+         {
+            lo[i] = Math.min( lo[i], s.x[k*d+i] );
+            hi[i] = Math.max( hi[i], s.x[k*d+i] );
+         }
+      }
+
+      // a fixed set of query points, reused every round
+      int points = 1024;
+      double[] q = new double[points*d];
+      Random random = new Random( 2 );
+      for ( int k = 0; k < points; k++ )
+      {
+         for ( int i = 0; i < d; i++ )
+         {
+            q[k*d+i] = lo[i] + (hi[i] - lo[i])*random.nextDouble();
+         }
+      }
+
+      double sink = 0;
+      for ( int w = 0; w < 5; w++ )
+      {
+         sink += round( s, q, points, d );
+      }
+      double[] ns = new double[ROUNDS];
+      for ( int r = 0; r < ROUNDS; r++ )
+      {
+         long t0 = System.nanoTime();
+         sink += round( s, q, points, d );
+         ns[r] = (double)(System.nanoTime() - t0)/CALLS;
+      }
+      Arrays.sort( ns );
+
+      System.out.printf( "%-15s %-14s %6d %7.1f %10.1f   (%g)%n",
+                         type, data, s.getNumPoints(), fitMs, ns[ROUNDS/2], sink );
+   }
+
+   private static double round( Surrogate s, double[] q, int points, int d )
+   {
+      double sum = 0;
+      for ( int c = 0; c < CALLS; c++ )
+      {
+         sum += s.predict( q, (c & (points-1))*d );
+      }
+      return sum;
+   }
+}
@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Point sets of the multi-variable parametric study, generated one point
+ * at a time from its index so that no grid is ever held in memory.
+ * Points are written in unit coordinates: 0 stands for a variable's
+ * "from" value and 1 for its "to" value; the axial points of a central
+ * composite design may lie outside [0,1].
+ *
+ *   FullFactorial     every combination of numSteps equally spaced levels
+ *                     per variable; point k is k written in the mixed
+ *                     radix of the level counts, the last variable
+ *                     changing fastest, like nested loops
+ *   SparseGrid        Smolyak's construction on nested Clenshaw-Curtis
+ *                     points: the union of the tensor grids whose levels
+ *                     add up to at most sparseGridLevel. A level-L grid in
+ *                     d variables has O(2^L d^L / L!) points instead of
+ *                     (2^L+1)^d.
+ *   BoxBehnken        for every pair of variables the four corners at
+ *                     the ends of their ranges with all the others at the
+ *                     middle, plus the centre points (the pairwise form,
+ *                     which is the standard design up to five variables)
+ *   CentralComposite  the 2^d corners, two axial points per variable at
+ *                     axialDistance half-ranges from the middle (1 keeps
+ *                     them on the faces, 0 picks the rotatable
+ *                     (2^d)^(1/4)) and the centre points
+ */
+abstract class SweepDesign
+{
+   public static final String TYPES = "FullFactorial,SparseGrid,BoxBehnken,CentralComposite";
+
+   protected final int dimension;
+
+   protected SweepDesign( int dimension )
+   {
+      this.dimension = dimension;
+   }
+
+   public int getDimension() { return dimension; }
+
+   /**
+    * number of points in the design
+    */
+   public abstract long size();
+
+   /**
+    * writes point number index (0 .. size()-1) to x[offset ..]
+    */
+   public abstract void point( long index, double[] x, int offset );
+
+   /**
+    * creates a design; steps holds the number of levels of each variable
+    * and is only used by FullFactorial
+    */
+   public static SweepDesign create( String type, long[] steps, int sparseGridLevel,
+                                     int centerPoints, double axialDistance )
+   {
+      int d = steps.length;
+      if ( type.equals( "FullFactorial" ) )
+         return new FullFactorialDesign( steps );
+      else if ( type.equals( "SparseGrid" ) )
+         return new SparseGridDesign( d, sparseGridLevel );
+      else if ( type.equals( "BoxBehnken" ) )
+         return new BoxBehnkenDesign( d, centerPoints );
+      else if ( type.equals( "CentralComposite" ) )
+         return new CentralCompositeDesign( d, centerPoints, axialDistance );
+      else
+      {
+         String msg = "unsupported design type: " + type;
+         throw new IllegalArgumentException( msg );
+      }
+   }
+
+   /**
+    * the product of the counts, or an exception if it does not fit a long
+    */
+   static long product( long[] counts )
+   {
+      long n = 1;
+      for ( long c : counts )
+      {
+         n = Math.multiplyExact( n, c );
+      }
+      return n;
+   }
+}
+
+class FullFactorialDesign extends SweepDesign
+{
+   private final long[] steps;
+   private final long size;
+
+   FullFactorialDesign( long[] steps )
+   {
+      super( steps.length );
+      this.steps = steps.clone();
+      for ( int i = 0; i < dimension; i++ )
+      {
+         if ( this.steps[i] < 1 )
+            this.steps[i] = 1;
+      }
+      try
+      {
+         size = product( this.steps );
+      }
+      catch ( ArithmeticException e )
+      {
+         throw new IllegalArgumentException( "full factorial design has more than 2^63 points" );
+      }
+   }
+
+   public long size() { return size; }
+
+   public void point( long index, double[] x, int offset )
+   {
+      for ( int i = dimension-1; i >= 0; i-- )
+      {
+         long n = steps[i];
+         long k = index % n;
+         index /= n;
+         x[offset+i] = n > 1 ? (double)k/(n - 1) : 0;
+      }
+   }
+}
+
+/**
+ * The points are grouped by the level vector l at which they first
+ * appear: coordinate i takes one of the points that are new at level
+ * l_i of the Clenshaw-Curtis sequence (the middle at level 0, the two
+ * ends at level 1, the 2^(l-1) odd nodes of 2^l+1 at level l > 1). The
+ * groups of all l with |l| <= level are listed once, with the running
+ * total of their sizes; a point is found by a binary search over the
+ * groups and a mixed-radix decode within its group.
+ */
+class SparseGridDesign extends SweepDesign
+{
+   private final int[] levels;    // level vectors, dimension per group
+   private final long[] first;    // index of the first point of each group
+   private final long size;
+
+   SparseGridDesign( int dimension, int level )
+   {
+      super( dimension );
+      if ( level < 0 )
+         throw new IllegalArgumentException( "sparse grid level must not be negative" );
+
+      List<int[]> groups = new ArrayList<int[]>();
+      enumerate( new int[dimension], 0, level, groups );
+      levels = new int[groups.size()*dimension];
+      first = new long[groups.size()+1];
+      for ( int g = 0; g < groups.size(); g++ )
+      {
+         int[] l = groups.get( g );
+         System.arraycopy( l, 0, levels, g*dimension, dimension );
+         long n = 1;
+         for ( int i = 0; i < dimension; i++ )
+         {
+            n = Math.multiplyExact( n, newPoints( l[i] ) );
+         }
+         first[g+1] = Math.addExact( first[g], n );
+      }
+      size = first[groups.size()];
+   }
+
+   /**
+    * every level vector of the remaining coordinates with sum <= budget
+    */
+   private void enumerate( int[] l, int i, int budget, List<int[]> out )
+   {
+      if ( i == l.length )
+      {
+         out.add( l.clone() );
+         return;
+      }
+      for ( int k = 0; k <= budget; k++ )
+      {
+         l[i] = k;
+         enumerate( l, i+1, budget - k, out );
+      }
+      l[i] = 0;
+   }
+
+   private static long newPoints( int level )
+   {
+      return level == 0 ? 1 : level == 1 ? 2 : 1L << (level - 1);
+   }
+
+   /**
+    * the j-th point that is new at the given level
+    */
+   private static double node( int level, long j )
+   {
+      if ( level == 0 )
+         return 0.5;
+      if ( level == 1 )
+         return j;
+      long m = 1L << level;
+      return 0.5 - 0.5*Math.cos( Math.PI*(2*j + 1)/m );
+   }
+
+   public long size() { return size; }
+
+   public void point( long index, double[] x, int offset )
+   {
+      int g = Arrays.binarySearch( first, index );
+      if ( g < 0 )
+         g = -g - 2;
+
+      long k = index - first[g];
+      for ( int i = dimension-1; i >= 0; i-- )
+      {
+         int l = levels[g*dimension+i];
+         long n = newPoints( l );
+         x[offset+i] = node( l, k % n );
+         k /= n;
+      }
+   }
+}
+
+class BoxBehnkenDesign extends SweepDesign
+{
+   private final long pairs;
+   private final int centerPoints;
+
+   BoxBehnkenDesign( int dimension, int centerPoints )
+   {
+      super( dimension );
+      if ( dimension < 3 )
+         throw new IllegalArgumentException( "a Box-Behnken design needs at least 3 variables" );
+      this.pairs = (long)dimension*(dimension - 1)/2;
+      this.centerPoints = Math.max( 0, centerPoints );
+   }
+
+   public long size() { return 4*pairs + centerPoints; }
+
+   public void point( long index, double[] x, int offset )
+   {
+      Arrays.fill( x, offset, offset + dimension, 0.5 );
+      if ( index >= 4*pairs )
+         return;
+
+      // pair p in the order (0,1), (0,2), .., (1,2), ..
+      long p = index/4;
+      int i = 0;
+      while ( p >= dimension - 1 - i )
+      {
+         p -= dimension - 1 - i;
+         i++;
+      }
+      int j = i + 1 + (int)p;
+      x[offset+i] = (index & 2) == 0 ? 0 : 1;
+      x[offset+j] = (index & 1) == 0 ? 0 : 1;
+   }
+}
+
+class CentralCompositeDesign extends SweepDesign
+{
+   private final long corners;
+   private final int centerPoints;
+   private final double axial;
+
+   CentralCompositeDesign( int dimension, int centerPoints, double axialDistance )
+   {
+      super( dimension );
+      if ( dimension >= 62 )
+         throw new IllegalArgumentException( "too many variables for a central composite design" );
+      this.corners = 1L << dimension;
+      this.centerPoints = Math.max( 0, centerPoints );
+      this.axial = axialDistance > 0 ? axialDistance : Math.pow( corners, 0.25 );
+   }
+
+   public long size() { return corners + 2L*dimension + centerPoints; }
+
+   public void point( long index, double[] x, int offset )
+   {
+      if ( index < corners )
+      {
+         for ( int i = 0; i < dimension; i++ )
+         {
+            x[offset+i] = (index >>> (dimension - 1 - i) & 1) == 0 ? 0 : 1;
+         }
+         return;
+      }
+
+      Arrays.fill( x, offset, offset + dimension, 0.5 );
+      long a = index - corners;
+      if ( a < 2L*dimension )
+         x[offset+(int)(a/2)] = 0.5 + (a % 2 == 0 ? -0.5 : 0.5)*axial;
+   }
+}
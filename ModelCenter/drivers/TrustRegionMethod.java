@@ -0,0 +1,695 @@
+
+/**
+ * Derivative-free trust-region method in the style of Powell's BOBYQA.
+ *
+ * A quadratic model is kept that interpolates the objective at 2n+1
+ * points. Each time a point changes, the model is refitted so that it
+ * still interpolates all points while its Hessian changes as little as
+ * possible in the Frobenius norm (the least-change update of BOBYQA, here
+ * solved directly from its KKT system, which is cheap for the few
+ * variables a driver handles). Every iteration minimizes the model over
+ * the trust region intersected with the bounds by truncated conjugate
+ * gradients, evaluates the step, and replaces the interpolation point
+ * whose Lagrange function is largest at the new point, weighted by its
+ * distance, which keeps the points well spread.
+ *
+ * Two radii are kept as in BOBYQA: the trust region radius, which follows
+ * the quality of the steps, and a resolution rho that only decreases,
+ * from initialStep down to the tolerance. Points that have fallen too far
+ * behind are moved back by geometry steps that maximize their Lagrange
+ * function. The first 2n+1 points are evaluated as one batch.
+ *
+ * A short step only means the model sees nothing to gain, which a stale
+ * model also does. Before rho is reduced the points must therefore be
+ * close and the model must have predicted the last steps well, or a
+ * fresh stencil is laid out at rho, and convergence is declared only at
+ * the tolerance with a model that passed.
+ */
+class TrustRegionMethod extends OptimizationMethod
+{
+   public void minimize( OptimizationProblem problem ) throws Exception
+   {
+      int n = problem.getDimension();
+      int npt = 2*n + 1;
+      int size = npt + 1 + n;
+
+      double[] points = new double[npt*n];
+      double[] f = new double[npt];
+      double[][] hessian = new double[n][n];
+      double[] g = new double[n];
+      double[] s = new double[n];
+      double[] xn = new double[n];
+      double[][] kkt = new double[size][size];
+      int[] pivots = new int[size];
+      double[] rhs = new double[size];
+
+      double rho = initialStep;
+      double rhoEnd = Math.min( tolerance, rho );
+      double delta = rho;
+      boolean poor = false;
+
+      // the model errors of the last three steps at this resolution, the
+      // stencils laid out to check the model at it, and whether the points
+      // are a fresh stencil that no step has moved yet
+      double[] errors = new double[3];
+      int steps = 0;
+      int restencils = 0;
+      boolean stencilled = false;
+
+      double[] x0 = problem.getStart();
+      stencil( problem, x0, rho, points );
+      problem.evaluate( points, f, npt );
+
+      while ( !problem.isExhausted() )
+      {
+         problem.nextIteration();
+
+         int centre = 0;
+         for ( int k = 1; k < npt; k++ )
+         {
+            if ( f[k] < f[centre] )
+               centre = k;
+         }
+         double[] xc = new double[n];
+         System.arraycopy( points, centre*n, xc, 0, n );
+
+         // refit the model around the best point
+         double sigma = factor( points, npt, xc, kkt, pivots );
+         if ( sigma <= 0 )
+         {
+            // the points have become degenerate: lay out a fresh stencil
+            restencil( problem, xc, f[centre], rho, points, f );
+            stencilled = true;
+            continue;
+         }
+         fit( points, f, npt, xc, sigma, hessian, kkt, pivots, rhs, g );
+
+         int far = farthest( points, npt, xc );
+         double farDistance = distance( points, far, xc );
+
+         // after a poor step, first bring back points that have fallen
+         // behind, then refine the resolution; likewise when the model
+         // sees nothing to gain at this resolution
+         boolean refine = false;
+         double step = 0;
+         if ( poor )
+         {
+            poor = false;
+            if ( farDistance > 2*delta )
+            {
+               geometryStep( problem, points, f, npt, far, xc, delta, sigma, kkt, pivots, rhs );
+               continue;
+            }
+            refine = delta <= rho;
+         }
+         if ( !refine )
+         {
+            step = subproblem( problem, xc, g, hessian, delta, s );
+            if ( step < 0.5*rho )
+            {
+               if ( farDistance > 2*delta )
+               {
+                  geometryStep( problem, points, f, npt, far, xc, delta, sigma, kkt, pivots, rhs );
+                  continue;
+               }
+               refine = true;
+            }
+         }
+
+         if ( refine )
+         {
+            // a short step says nothing unless the model can be trusted at
+            // this resolution. As in BOBYQA, every point must lie within a
+            // few rho (a stencil at a bound reaches 2 rho) and the model
+            // must have predicted the last three steps to within rho^2/8 of
+            // its curvature; otherwise the geometry is repaired first, and
+            // a fresh stencil always qualifies
+            if ( farDistance > 3*rho )
+            {
+               geometryStep( problem, points, f, npt, far, xc, rho, sigma, kkt, pivots, rhs );
+               continue;
+            }
+            double error = 0;
+            for ( int k = 0; k < Math.min( steps, 3 ); k++ )
+            {
+               error = Math.max( error, errors[k] );
+            }
+            if ( !stencilled && (steps < 3 || error > 0.125*norm( hessian )*rho*rho) )
+            {
+               // once per resolution on the way down, where a coarse model
+               // of a curved valley may never pass; at the tolerance until
+               // an objective too noisy to resolve it has had its chances
+               if ( restencils == 0 || (rho <= rhoEnd && restencils < 3) )
+               {
+                  restencil( problem, xc, f[centre], rho, points, f );
+                  restencils++;
+                  stencilled = true;
+                  continue;
+               }
+               if ( rho <= rhoEnd )
+                  return;
+            }
+
+            if ( rho <= rhoEnd )
+            {
+               converged = true;
+               return;
+            }
+            rho = reduce( rho, rhoEnd );
+            delta = Math.max( 0.5*delta, rho );
+            steps = 0;
+            restencils = 0;
+            stencilled = false;
+            continue;
+         }
+
+         for ( int i = 0; i < n; i++ )
+         {
+            xn[i] = problem.clip( i, xc[i] + s[i] );
+            s[i] = xn[i] - xc[i];
+         }
+         double predicted = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            double hs = 0;
+            for ( int j = 0; j < n; j++ )
+            {
+               hs += hessian[i][j]*s[j];
+            }
+            predicted -= g[i]*s[i] + 0.5*s[i]*hs;
+         }
+
+         double fn = problem.evaluate( xn );
+         double ratio = predicted > 0 ? (f[centre] - fn)/predicted : -1;
+         errors[steps % 3] = Math.abs( fn - (f[centre] - predicted) );
+         steps++;
+         stencilled = false;
+
+         if ( ratio < 0.1 )
+            delta = Math.max( 0.5*step, rho );
+         else if ( ratio > 0.7 )
+            delta = Math.min( Math.max( delta, 2*step ), 10 );
+         else
+            delta = Math.max( 0.5*delta, step );
+
+         // the point to give up for the new one; the centre stays unless
+         // the new point is better
+         int drop = replacement( xn, points, npt, xc, sigma, delta, kkt, pivots, rhs,
+                                 fn < f[centre] ? -1 : centre );
+         System.arraycopy( xn, 0, points, drop*n, n );
+         f[drop] = fn;
+         poor = ratio < 0.1;
+      }
+   }
+
+   /**
+    * the next resolution, as in BOBYQA
+    */
+   private static double reduce( double rho, double rhoEnd )
+   {
+      if ( rho > 250*rhoEnd )
+         return 0.1*rho;
+      else if ( rho > 16*rhoEnd )
+         return Math.sqrt( rho*rhoEnd );
+      else
+         return rhoEnd;
+   }
+
+   /**
+    * x and x +- rho along each coordinate, stepping twice in one direction
+    * where a bound is in the way
+    */
+   private static void stencil( OptimizationProblem problem, double[] x, double rho,
+                                double[] points )
+   {
+      int n = x.length;
+      System.arraycopy( x, 0, points, 0, n );
+      for ( int i = 0; i < n; i++ )
+      {
+         double up = rho;
+         double down = -rho;
+         if ( x[i] + rho > problem.getUpper( i ) )
+            up = -2*rho;
+         else if ( x[i] - rho < problem.getLower( i ) )
+            down = 2*rho;
+
+         System.arraycopy( x, 0, points, (1+2*i)*n, n );
+         System.arraycopy( x, 0, points, (2+2*i)*n, n );
+         points[(1+2*i)*n+i] = problem.clip( i, x[i] + up );
+         points[(2+2*i)*n+i] = problem.clip( i, x[i] + down );
+      }
+   }
+
+   /**
+    * lays out a stencil around xc, whose value fc is known, and evaluates
+    * the other 2n points
+    */
+   private static void restencil( OptimizationProblem problem, double[] xc, double fc,
+                                  double rho, double[] points, double[] f ) throws Exception
+   {
+      int n = xc.length;
+      int npt = 2*n + 1;
+      stencil( problem, xc, rho, points );
+      double[] fresh = new double[npt - 1];
+      problem.evaluate( java.util.Arrays.copyOfRange( points, n, npt*n ), fresh, npt - 1 );
+      f[0] = fc;
+      System.arraycopy( fresh, 0, f, 1, npt - 1 );
+   }
+
+   /**
+    * Frobenius norm, a bound on the curvature of the model
+    */
+   private static double norm( double[][] a )
+   {
+      double sum = 0;
+      for ( double[] row : a )
+      {
+         for ( double v : row )
+         {
+            sum += v*v;
+         }
+      }
+      return Math.sqrt( sum );
+   }
+
+   /**
+    * builds and factors the KKT matrix of the least-change fit for the
+    * points taken relative to xc and divided by sigma, the largest
+    * distance. Returns sigma, or 0 if the points do not determine a model.
+    */
+   private static double factor( double[] points, int npt, double[] xc,
+                                 double[][] kkt, int[] pivots )
+   {
+      int n = xc.length;
+      double sigma = 0;
+      for ( int k = 0; k < npt; k++ )
+      {
+         sigma = Math.max( sigma, distance( points, k, xc ) );
+      }
+      if ( sigma == 0 )
+         return 0;
+
+      int size = npt + 1 + n;
+      for ( double[] row : kkt )
+      {
+         java.util.Arrays.fill( row, 0 );
+      }
+      for ( int a = 0; a < npt; a++ )
+      {
+         for ( int b = 0; b <= a; b++ )
+         {
+            double dot = 0;
+            for ( int i = 0; i < n; i++ )
+            {
+               dot += (points[a*n+i] - xc[i])*(points[b*n+i] - xc[i]);
+            }
+            dot /= sigma*sigma;
+            kkt[a][b] = kkt[b][a] = 0.5*dot*dot;
+         }
+         kkt[a][npt] = kkt[npt][a] = 1;
+         for ( int i = 0; i < n; i++ )
+         {
+            double z = (points[a*n+i] - xc[i])/sigma;
+            kkt[a][npt+1+i] = kkt[npt+1+i][a] = z;
+         }
+      }
+
+      return luFactor( kkt, size, pivots ) ? sigma : 0;
+   }
+
+   /**
+    * fits the model: gradient at xc into g, and the Hessian updated in
+    * place by the least change that interpolates every point
+    */
+   private static void fit( double[] points, double[] f, int npt, double[] xc,
+                            double sigma, double[][] hessian, double[][] kkt,
+                            int[] pivots, double[] rhs, double[] g )
+   {
+      int n = xc.length;
+      java.util.Arrays.fill( rhs, 0 );
+      for ( int a = 0; a < npt; a++ )
+      {
+         double quad = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            double hy = 0;
+            for ( int j = 0; j < n; j++ )
+            {
+               hy += hessian[i][j]*(points[a*n+j] - xc[j]);
+            }
+            quad += (points[a*n+i] - xc[i])*hy;
+         }
+         rhs[a] = f[a] - 0.5*quad;
+      }
+      luSolve( kkt, npt + 1 + n, pivots, rhs );
+
+      double[] h = hessianPart( points, npt, xc, rhs, sigma );
+      for ( int i = 0; i < n; i++ )
+      {
+         for ( int j = 0; j < n; j++ )
+         {
+            hessian[i][j] += h[i*n+j];
+         }
+         g[i] = rhs[npt+1+i]/sigma;
+      }
+      // the curvature already in the Hessian adds nothing to the
+      // gradient at xc, which is where the model is centred
+   }
+
+   /**
+    * sum of lambda_a y_a y_a^T over the points, in unscaled units
+    */
+   private static double[] hessianPart( double[] points, int npt, double[] xc,
+                                        double[] lambda, double sigma )
+   {
+      int n = xc.length;
+      double[] h = new double[n*n];
+      for ( int a = 0; a < npt; a++ )
+      {
+         for ( int i = 0; i < n; i++ )
+         {
+            double yi = (points[a*n+i] - xc[i])/sigma;
+            for ( int j = 0; j < n; j++ )
+            {
+               double yj = (points[a*n+j] - xc[j])/sigma;
+               h[i*n+j] += lambda[a]*yi*yj/(sigma*sigma);
+            }
+         }
+      }
+      return h;
+   }
+
+   /**
+    * the values at x of the Lagrange functions of all points, written to
+    * rhs[0 .. npt-1]
+    */
+   private static void lagrange( double[] x, double[] points, int npt, double[] xc,
+                                 double sigma, double[][] kkt, int[] pivots,
+                                 double[] rhs )
+   {
+      int n = xc.length;
+      java.util.Arrays.fill( rhs, 0 );
+      for ( int a = 0; a < npt; a++ )
+      {
+         double dot = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            dot += (points[a*n+i] - xc[i])*(x[i] - xc[i]);
+         }
+         dot /= sigma*sigma;
+         rhs[a] = 0.5*dot*dot;
+      }
+      rhs[npt] = 1;
+      for ( int i = 0; i < n; i++ )
+      {
+         rhs[npt+1+i] = (x[i] - xc[i])/sigma;
+      }
+      luSolve( kkt, npt + 1 + n, pivots, rhs );
+   }
+
+   /**
+    * the point to replace by xn: the largest Lagrange value at xn,
+    * weighted by the distance of the point from xc. keep is never chosen.
+    */
+   private static int replacement( double[] xn, double[] points, int npt, double[] xc,
+                                   double sigma, double delta, double[][] kkt,
+                                   int[] pivots, double[] rhs, int keep )
+   {
+      lagrange( xn, points, npt, xc, sigma, kkt, pivots, rhs );
+      int best = -1;
+      double bestScore = -1;
+      for ( int a = 0; a < npt; a++ )
+      {
+         if ( a == keep )
+            continue;
+         double d = distance( points, a, xc )/delta;
+         double score = Math.abs( rhs[a] )*Math.max( 1, d*d*d*d );
+         if ( score > bestScore )
+         {
+            bestScore = score;
+            best = a;
+         }
+      }
+      return best;
+   }
+
+   /**
+    * moves point far to where its Lagrange function is largest on the
+    * trust region boundary, among the coordinate directions and the
+    * direction back towards far, and evaluates it there
+    */
+   private static void geometryStep( OptimizationProblem problem, double[] points,
+                                     double[] f, int npt, int far, double[] xc,
+                                     double delta, double sigma, double[][] kkt,
+                                     int[] pivots, double[] rhs ) throws Exception
+   {
+      int n = xc.length;
+
+      // the Lagrange function of far: the KKT solution for the unit vector
+      java.util.Arrays.fill( rhs, 0 );
+      rhs[far] = 1;
+      luSolve( kkt, npt + 1 + n, pivots, rhs );
+      double[] h = hessianPart( points, npt, xc, rhs, sigma );
+      double c = rhs[npt];
+      double[] g = new double[n];
+      for ( int i = 0; i < n; i++ )
+      {
+         g[i] = rhs[npt+1+i]/sigma;
+      }
+
+      double[] best = null;
+      double bestValue = -1;
+      double[] x = new double[n];
+      double[] d = new double[n];
+      for ( int k = 0; k <= 2*n+1; k++ )
+      {
+         java.util.Arrays.fill( d, 0 );
+         if ( k < 2*n )
+            d[k/2] = (k % 2 == 0 ? delta : -delta);
+         else
+         {
+            double dist = distance( points, far, xc );
+            for ( int i = 0; i < n; i++ )
+            {
+               d[i] = (points[far*n+i] - xc[i])*delta/dist*(k == 2*n ? 1 : -1);
+            }
+         }
+
+         double value = c;
+         for ( int i = 0; i < n; i++ )
+         {
+            x[i] = problem.clip( i, xc[i] + d[i] );
+            d[i] = x[i] - xc[i];
+            value += g[i]*d[i];
+         }
+         for ( int i = 0; i < n; i++ )
+         {
+            for ( int j = 0; j < n; j++ )
+            {
+               value += 0.5*d[i]*h[i*n+j]*d[j];
+            }
+         }
+         if ( Math.abs( value ) > bestValue )
+         {
+            bestValue = Math.abs( value );
+            best = x.clone();
+         }
+      }
+
+      System.arraycopy( best, 0, points, far*n, n );
+      f[far] = problem.evaluate( best );
+   }
+
+   /**
+    * approximately minimizes g.s + s.H.s/2 for |s| <= delta and the bounds
+    * by conjugate gradients, restarted whenever a variable reaches a bound.
+    * Returns the length of s.
+    */
+   private static double subproblem( OptimizationProblem problem, double[] xc,
+                                     double[] g, double[][] hessian, double delta,
+                                     double[] s )
+   {
+      int n = xc.length;
+      boolean[] fixed = new boolean[n];
+      double[] r = new double[n];
+      double[] p = new double[n];
+      double[] hp = new double[n];
+      java.util.Arrays.fill( s, 0 );
+
+      double gg = 0;
+      for ( int i = 0; i < n; i++ )
+      {
+         fixed[i] = (xc[i] <= problem.getLower( i ) && g[i] > 0) ||
+                    (xc[i] >= problem.getUpper( i ) && g[i] < 0);
+         gg += g[i]*g[i];
+      }
+
+      boolean restart = true;
+      double rrOld = 0;
+      for ( int iteration = 0; iteration < 3*n + 3; iteration++ )
+      {
+         double rr = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            double grad = g[i];
+            for ( int j = 0; j < n; j++ )
+            {
+               grad += hessian[i][j]*s[j];
+            }
+            r[i] = fixed[i] ? 0 : -grad;
+            rr += r[i]*r[i];
+         }
+         if ( rr <= 1e-20*gg || rr == 0 )
+            break;
+
+         double beta = restart ? 0 : rr/rrOld;
+         restart = false;
+         rrOld = rr;
+         double php = 0;
+         double ss = 0;
+         double sp = 0;
+         double pp = 0;
+         for ( int i = 0; i < n; i++ )
+         {
+            p[i] = fixed[i] ? 0 : r[i] + beta*p[i];
+         }
+         for ( int i = 0; i < n; i++ )
+         {
+            hp[i] = 0;
+            for ( int j = 0; j < n; j++ )
+            {
+               hp[i] += hessian[i][j]*p[j];
+            }
+            php += p[i]*hp[i];
+            ss += s[i]*s[i];
+            sp += s[i]*p[i];
+            pp += p[i]*p[i];
+         }
+
+         double toBoundary = (-sp + Math.sqrt( sp*sp + pp*(delta*delta - ss) ))/pp;
+         double toBound = Double.POSITIVE_INFINITY;
+         int hit = -1;
+         for ( int i = 0; i < n; i++ )
+         {
+            if ( fixed[i] || p[i] == 0 )
+               continue;
+            double limit = p[i] > 0 ? (problem.getUpper( i ) - xc[i] - s[i])/p[i] :
+                                      (problem.getLower( i ) - xc[i] - s[i])/p[i];
+            if ( limit < toBound )
+            {
+               toBound = limit;
+               hit = i;
+            }
+         }
+         double alpha = php > 0 ? rr/php : Double.POSITIVE_INFINITY;
+
+         double a = Math.min( alpha, Math.min( toBoundary, toBound ) );
+         for ( int i = 0; i < n; i++ )
+         {
+            s[i] += a*p[i];
+         }
+         if ( a == toBoundary )
+            break;
+         if ( a == toBound )
+         {
+            fixed[hit] = true;
+            restart = true;
+         }
+      }
+
+      double length = 0;
+      for ( int i = 0; i < n; i++ )
+      {
+         length += s[i]*s[i];
+      }
+      return Math.sqrt( length );
+   }
+
+   private static int farthest( double[] points, int npt, double[] xc )
+   {
+      int far = 0;
+      for ( int k = 1; k < npt; k++ )
+      {
+         if ( distance( points, k, xc ) > distance( points, far, xc ) )
+            far = k;
+      }
+      return far;
+   }
+
+   private static double distance( double[] points, int k, double[] x )
+   {
+      double sum = 0;
+      for ( int i = 0; i < x.length; i++ )
+      {
+         double d = points[k*x.length+i] - x[i];
+         sum += d*d;
+      }
+      return Math.sqrt( sum );
+   }
+
+   /**
+    * LU factorization with partial pivoting, in place; false if singular
+    */
+   private static boolean luFactor( double[][] a, int n, int[] pivots )
+   {
+      double scale = 0;
+      for ( int i = 0; i < n; i++ )
+      {
+         for ( int j = 0; j < n; j++ )
+         {
+            scale = Math.max( scale, Math.abs( a[i][j] ) );
+         }
+      }
+
+      for ( int k = 0; k < n; k++ )
+      {
+         int p = k;
+         for ( int i = k+1; i < n; i++ )
+         {
+            if ( Math.abs( a[i][k] ) > Math.abs( a[p][k] ) )
+               p = i;
+         }
+         if ( Math.abs( a[p][k] ) <= 1e-13*scale )
+            return false;
+         pivots[k] = p;
+         double[] tmp = a[p];
+         a[p] = a[k];
+         a[k] = tmp;
+
+         for ( int i = k+1; i < n; i++ )
+         {
+            double m = a[i][k] /= a[k][k];
+            for ( int j = k+1; j < n; j++ )
+            {
+               a[i][j] -= m*a[k][j];
+            }
+         }
+      }
+      return true;
+   }
+
+   private static void luSolve( double[][] lu, int n, int[] pivots, double[] b )
+   {
+      for ( int k = 0; k < n; k++ )
+      {
+         double tmp = b[pivots[k]];
+         b[pivots[k]] = b[k];
+         b[k] = tmp;
+      }
+      for ( int i = 0; i < n; i++ )
+      {
+         for ( int j = 0; j < i; j++ )
+         {
+            b[i] -= lu[i][j]*b[j];
+         }
+      }
+      for ( int i = n-1; i >= 0; i-- )
+      {
+         for ( int j = i+1; j < n; j++ )
+         {
+            b[i] -= lu[i][j]*b[j];
+         }
+         b[i] /= lu[i][i];
+      }
+   }
+}
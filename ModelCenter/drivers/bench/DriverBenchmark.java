@@ -0,0 +1,682 @@
+import com.phoenix_int.aserver.*;
+import com.phoenix_int.aserver.types.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput and allocation of the sampling drivers' hot paths, run
+ * against the Analysis Server stand-ins in stub/ and the analytic models
+ * of BenchmarkProblem, so no server, model or network is needed:
+ *
+ *   ./makeBench.sh [options] [pattern]
+ *
+ * builds everything into classes/ and runs the benchmarks whose name
+ * contains a match of the regular expression pattern (all by default).
+ * The benchmarks and what one operation is:
+ *
+ *   sample.<type>                 quantiles of 1024 fixed uniforms, for
+ *                                 every DistributionSampler type
+ *   normalQuantile                one inverse normal CDF
+ *   random.javaUtilRandom         1024 uniforms the way Distribution drew
+ *                                 them before RandomSource, from a new
+ *                                 java.util.Random per draw
+ *   random.<generator>            1024 uniforms from one fill() of every
+ *                                 RandomSource generator
+ *   lhs.generateDesign            a 1000 x 10 Latin Hypercube design
+ *   stats.add                     one row of 10 outputs added to the
+ *                                 StreamingStatistics
+ *   DriverMetrics.trial           the instrumentation of one trial:
+ *                                 startIteration and endIteration with
+ *                                 3 outputs
+ *   <driver>.computeStatistics    the statistics of a finished study of
+ *                                 1000 trials and 3 outputs
+ *   <driver>.loop                 a whole study through the Analysis
+ *                                 Server protocol, initializeIterations,
+ *                                 startIteration/endIteration per trial
+ *                                 and end, with the model run in between
+ *   MonteCarlo.batch              the same MonteCarlo study through a
+ *                                 single-threaded BatchExecutor
+ *
+ * The studies have 1000 cases of the 5-input, 3-objective DTLZ2 problem
+ * (3 inputs, 10 levels each, for MultiParmStudy; 128 samples of 5 inputs
+ * for SensitivityAnalysis), so a loop costs the driver's overhead rather
+ * than the model's.
+ *
+ * Each benchmark gets a JVM of its own, started with this JVM's options,
+ * so that the JIT profile of one does not slow down the next; -f 0 is
+ * for debugging a benchmark only, and its numbers are not to be quoted.
+ * Results are consumed by a Blackhole, as in JMH, so the JIT can neither
+ * drop an operation whose result is unused nor fold it across calls. After the
+ * warm-up iterations, which also pick how many operations run between
+ * clock reads, every iteration runs for a fixed time; the median of
+ * the iterations is reported with the spread of the others around it.
+ * The allocation rate is the allocating thread's own count of bytes
+ * (the calling thread's: lhs.generateDesign fills its columns on the
+ * common pool, which is not counted).
+ *
+ * Options:
+ *   -list            print the names of the benchmarks and exit
+ *   -f forks         JVMs per benchmark, 0 to run in this one (default 1)
+ *   -wi n            warm-up iterations (default 5)
+ *   -i n             measured iterations (default 10)
+ *   -t ms            time of one iteration (default 500)
+ *   -csv file        append the results to file
+ *   -baseline file   compare the results with an earlier -csv file
+ */
+public class DriverBenchmark
+{
+   /**
+    * one operation of a benchmark; the result goes to the Blackhole so
+    * the work cannot be optimized away, and an operation that fills an
+    * array hands it to blackhole.consume() as well
+    */
+   interface Operation
+   {
+      double run() throws Exception;
+   }
+
+   /**
+    * builds the state of a benchmark, outside of the timing
+    */
+   interface Setup
+   {
+      Operation create() throws Exception;
+   }
+
+   private static final Map<String,Setup> benchmarks = new LinkedHashMap<String,Setup>();
+   private static final String RESULT = "RESULT ";
+
+   private static int warmups = 5;
+   private static int iterations = 10;
+   private static long iterationMillis = 500;
+   static final Blackhole blackhole = new Blackhole();
+
+   public static void main( String[] args ) throws Exception
+   {
+      define();
+
+      int forks = 1;
+      boolean list = false;
+      boolean child = false;
+      String csv = null;
+      String baseline = null;
+      String pattern = "";
+      for ( int k = 0; k < args.length; k++ )
+      {
+         String a = args[k];
+         if ( a.equals( "-list" ) )
+            list = true;
+         else if ( a.equals( "-child" ) )
+            child = true;
+         else if ( a.equals( "-f" ) )
+            forks = Integer.parseInt( args[++k] );
+         else if ( a.equals( "-wi" ) )
+            warmups = Integer.parseInt( args[++k] );
+         else if ( a.equals( "-i" ) )
+            iterations = Math.max( 1, Integer.parseInt( args[++k] ) );
+         else if ( a.equals( "-t" ) )
+            iterationMillis = Long.parseLong( args[++k] );
+         else if ( a.equals( "-csv" ) )
+            csv = args[++k];
+         else if ( a.equals( "-baseline" ) )
+            baseline = args[++k];
+         else if ( a.startsWith( "-" ) )
+         {
+            System.err.println( "unknown option " + a );
+            System.exit( 2 );
+         }
+         else
+            pattern = a;
+      }
+
+      List<String> names = new ArrayList<String>();
+      Pattern p = Pattern.compile( pattern );
+      for ( String name : benchmarks.keySet() )
+      {
+         if ( p.matcher( name ).find() )
+            names.add( name );
+      }
+
+      if ( list )
+      {
+         for ( String name : names )
+         {
+            System.out.println( name );
+         }
+         return;
+      }
+
+      if ( forks == 0 && !child )
+         System.err.println( "warning: -f 0 runs every benchmark in this JVM; profiles mix" );
+
+      // a forked JVM runs one benchmark and hands back its raw numbers
+      if ( child )
+      {
+         for ( String name : names )
+         {
+            double[] r = measure( benchmarks.get( name ) );
+            System.out.println( RESULT + name + " " + r[0] + " " + r[1] + " " + r[2] );
+         }
+         return;
+      }
+
+      Map<String,double[]> base = baseline != null ? readCsv( baseline ) : null;
+      PrintWriter out = csv != null ? new PrintWriter( new FileWriter( csv, true ) ) : null;
+      try
+      {
+         System.out.printf( "%-40s %12s %7s %12s %10s %9s%s%n", "benchmark", "ops/s", "+-%",
+                            "ns/op", "B/op", "MB/s", base != null ? "   vs base" : "" );
+         for ( String name : names )
+         {
+            double[] r = forks > 0 ? fork( name, forks ) : measure( benchmarks.get( name ) );
+            report( name, r, base );
+            if ( out != null )
+            {
+               out.println( name + "," + r[0] + "," + r[1] + "," + r[2] );
+               out.flush();
+            }
+         }
+      }
+      finally
+      {
+         if ( out != null )
+            out.close();
+      }
+   }
+
+   // ----- the benchmarks
+
+   private static void define()
+   {
+      final double[] uniforms = new double[1024];
+      RandomSource random = RandomSource.create( "SplitMix64", 1 );
+      random.reset( 0 );
+      for ( int k = 0; k < uniforms.length; k++ )
+      {
+         uniforms[k] = random.nextDouble();
+      }
+
+      for ( final String type : DistributionSampler.TYPES.split( "," ) )
+      {
+         benchmarks.put( "sample." + type, () ->
+         {
+            final DistributionSampler s = sampler( type );
+            final double[] x = new double[uniforms.length];
+            return () ->
+            {
+               s.quantile( uniforms, x );
+               blackhole.consume( x );
+               return x[x.length-1];
+            };
+         } );
+      }
+
+      benchmarks.put( "normalQuantile", () -> new Operation()
+      {
+         private int k = 0;
+
+         public double run()
+         {
+            k = (k + 1) & (uniforms.length - 1);
+            return DistributionSampler.normalQuantile( uniforms[k] );
+         }
+      } );
+
+      benchmarks.put( "random.javaUtilRandom", () ->
+      {
+         final double[] u = new double[1024];
+         return () ->
+         {
+            for ( int k = 0; k < u.length; k++ )
+            {
+               u[k] = new java.util.Random().nextDouble();
+            }
+            blackhole.consume( u );
+            return u[u.length-1];
+         };
+      } );
+      for ( final String generator : RandomSource.GENERATORS.split( "," ) )
+      {
+         benchmarks.put( "random." + generator, () ->
+         {
+            final RandomSource r = RandomSource.create( generator, 1 );
+            final double[] u = new double[1024];
+            return () ->
+            {
+               r.fill( u );
+               blackhole.consume( u );
+               return u[u.length-1];
+            };
+         } );
+      }
+
+      benchmarks.put( "lhs.generateDesign", () ->
+      {
+         final RandomSource r = RandomSource.create( "SplitMix64", 1 );
+         return () ->
+         {
+            double[] design = LatinHypercubeSampling.generateDesign( 1000, 10, r );
+            blackhole.consume( design );
+            return design[0];
+         };
+      } );
+
+      benchmarks.put( "stats.add", () ->
+      {
+         final StreamingStatistics stats = new StreamingStatistics( 10 );
+         return new Operation()
+         {
+            private int k = 0;
+
+            public double run()
+            {
+               k = (k + 10) % (uniforms.length - 10);
+               stats.add( uniforms, k );
+               return stats.getCount();
+            }
+         };
+      } );
+
+      benchmarks.put( "DriverMetrics.trial", () ->
+      {
+         final DriverMetrics metrics = new DriverMetrics( "DriverBenchmark" );
+         final double[] outputs = new double[OUTPUTS];
+         metrics.begin();
+         return () ->
+         {
+            long t = metrics.enter();
+            metrics.exit( DriverMetrics.START_ITERATION, t );
+            t = metrics.enter();
+            metrics.exit( DriverMetrics.END_ITERATION, t, outputs, 1, OUTPUTS );
+            return metrics.getTrials();
+         };
+      } );
+
+      benchmarks.put( "MonteCarlo.computeStatistics", () ->
+      {
+         final MonteCarlo d = monteCarlo();
+         runStudy( d, d.getDesignVars(), d.getOutputs() );
+         return () ->
+         {
+            d.computeStatistics();
+            return d.getOutputs().getRefPropValueDouble( "p50", 0 );
+         };
+      } );
+      benchmarks.put( "LatinHypercubeSampling.computeStatistics", () ->
+      {
+         final LatinHypercubeSampling d = latinHypercube();
+         runStudy( d, d.getDesignVars(), d.getOutputs() );
+         return () ->
+         {
+            d.computeStatistics();
+            return d.getOutputs().getRefPropValueDouble( "p50", 0 );
+         };
+      } );
+
+      benchmarks.put( "MonteCarlo.loop", () ->
+      {
+         final MonteCarlo d = monteCarlo();
+         return () -> runStudy( d, d.getDesignVars(), d.getOutputs() );
+      } );
+      benchmarks.put( "MonteCarlo.batch", () ->
+      {
+         final MonteCarlo d = monteCarlo();
+         final BatchExecutor executor = new BatchExecutor( 1 );
+         executor.setBatchSize( 64 );
+         return () ->
+         {
+            executor.run( d, MODEL );
+            return d.getOutputs().getRefPropValueDouble( "avg", 0 );
+         };
+      } );
+      benchmarks.put( "LatinHypercubeSampling.loop", () ->
+      {
+         final LatinHypercubeSampling d = latinHypercube();
+         return () -> runStudy( d, d.getDesignVars(), d.getOutputs() );
+      } );
+      benchmarks.put( "QuasiMonteCarlo.loop", () ->
+      {
+         final QuasiMonteCarlo d = new QuasiMonteCarlo();
+         d.setNumTrials( CASES );
+         d.setSeed( 1 );
+         uniformInputs( d.getDesignVars(), INPUTS );
+         d.getOutputs().setLength( OUTPUTS );
+         return () -> runStudy( d, d.getDesignVars(), d.getOutputs() );
+      } );
+      benchmarks.put( "MultiParmStudy.loop", () ->
+      {
+         final MultiParmStudy d = new MultiParmStudy();
+         PHXReferenceArray vars = d.getDesignVars();
+         vars.setLength( 3 );
+         for ( int i = 0; i < 3; i++ )
+         {
+            vars.setRefPropValue( "from", i, 0.0 );
+            vars.setRefPropValue( "to", i, 1.0 );
+            vars.setRefPropValue( "numSteps", i, 10L );
+         }
+         d.getResponses().setLength( 2 );
+         final Evaluator model = new BenchmarkProblem( "DTLZ2", 3, 2 );
+         return () -> runStudy( d, d.getDesignVars(), d.getResponses(), model );
+      } );
+      benchmarks.put( "SensitivityAnalysis.loop", () ->
+      {
+         final SensitivityAnalysis d = new SensitivityAnalysis();
+         d.setNumSamples( 128 );
+         d.setSeed( 1 );
+         uniformInputs( d.getDesignVars(), INPUTS );
+         d.getOutputs().setLength( OUTPUTS );
+         return () -> runStudy( d, d.getDesignVars(), d.getOutputs() );
+      } );
+   }
+
+   private static final int CASES = 1000;
+   private static final int INPUTS = 5;
+   private static final int OUTPUTS = 3;
+   private static final Evaluator MODEL = new BenchmarkProblem( "DTLZ2", INPUTS, OUTPUTS );
+
+   private static MonteCarlo monteCarlo() throws PHXTypeMismatchException
+   {
+      MonteCarlo d = new MonteCarlo();
+      d.setNumTrials( CASES );
+      d.setSeed( 1 );
+      uniformInputs( d.getDesignVars(), INPUTS );
+      d.getOutputs().setLength( OUTPUTS );
+      return d;
+   }
+
+   private static LatinHypercubeSampling latinHypercube() throws PHXTypeMismatchException
+   {
+      LatinHypercubeSampling d = new LatinHypercubeSampling();
+      d.setNumTrials( CASES );
+      d.setSeed( 1 );
+      uniformInputs( d.getDesignVars(), INPUTS );
+      d.getOutputs().setLength( OUTPUTS );
+      return d;
+   }
+
+   private static void uniformInputs( PHXReferenceArray vars, int n )
+      throws PHXTypeMismatchException
+   {
+      vars.setLength( n );
+      for ( int i = 0; i < n; i++ )
+      {
+         vars.setRefPropValue( "distributionType", i, "Uniform" );
+         vars.setRefPropValue( "parm1", i, 0.0 );
+         vars.setRefPropValue( "parm2", i, 1.0 );
+      }
+   }
+
+   private static DistributionSampler sampler( String type )
+   {
+      if ( type.equals( "Empirical" ) )
+      {
+         // the standard normal CDF, tabulated at 101 points and cut off
+         // at +-4
+         double[] x = new double[101];
+         double[] p = new double[101];
+         for ( int k = 0; k <= 100; k++ )
+         {
+            p[k] = k/100.0;
+            x[k] = k == 0 ? -4 : k == 100 ? 4 : DistributionSampler.normalQuantile( p[k] );
+         }
+         return DistributionSampler.empirical( x, p );
+      }
+
+      String[] parms =
+         { "Normal 10 2 0", "Uniform 0 1 0", "Triangular 0 1 3", "Exponential 1 0 0",
+           "Weibull 1 2 0", "Lognormal 0 0.5 0", "Beta 2 5 0", "Gamma 2 1 0",
+           "PERT 0 1 3" };
+      for ( String s : parms )
+      {
+         String[] f = s.split( " " );
+         if ( f[0].equals( type ) )
+         {
+            return DistributionSampler.create( type, Double.parseDouble( f[1] ),
+                                               Double.parseDouble( f[2] ),
+                                               Double.parseDouble( f[3] ) );
+         }
+      }
+      throw new IllegalArgumentException( "no benchmark parameters for " + type );
+   }
+
+   private static double runStudy( IPHXDriver driver, PHXReferenceArray inputs,
+                                   PHXReferenceArray outputs ) throws Exception
+   {
+      return runStudy( driver, inputs, outputs, MODEL );
+   }
+
+   /**
+    * what ModelCenter does with a driver, with the model in-process
+    */
+   private static double runStudy( IPHXDriver driver, PHXReferenceArray inputs,
+                                   PHXReferenceArray outputs, Evaluator model ) throws Exception
+   {
+      driver.initializeIterations();
+      try
+      {
+         do
+         {
+            driver.startIteration();
+            model.evaluate( inputs.getValues(), 0, outputs.getValues(), 0 );
+         } while ( driver.endIteration() );
+      }
+      finally
+      {
+         driver.end();
+      }
+      return outputs.getValues()[0];
+   }
+
+   // ----- the harness
+
+   /**
+    * runs a benchmark in this JVM: ops/s, its relative spread and bytes
+    * allocated per op
+    */
+   private static double[] measure( Setup setup ) throws Exception
+   {
+      Operation op = setup.create();
+      long iterationNanos = iterationMillis*1000000L;
+
+      // warm up, doubling the operations between clock reads until a
+      // batch of them takes a millisecond
+      long batch = 1;
+      for ( int w = 0; w < Math.max( 1, warmups ); w++ )
+      {
+         long start = System.nanoTime();
+         long elapsed = 0;
+         while ( elapsed < iterationNanos )
+         {
+            long t0 = System.nanoTime();
+            for ( long k = 0; k < batch; k++ )
+            {
+               blackhole.consume( op.run() );
+            }
+            long t = System.nanoTime() - t0;
+            if ( t < 1000000 && batch < (1L << 40) )
+               batch *= 2;
+            elapsed = System.nanoTime() - start;
+         }
+      }
+
+      double[] rate = new double[iterations];
+      double[] bytes = new double[iterations];
+      for ( int it = 0; it < iterations; it++ )
+      {
+         long ops = 0;
+         long allocated = allocatedBytes();
+         long start = System.nanoTime();
+         long elapsed = 0;
+         while ( elapsed < iterationNanos )
+         {
+            for ( long k = 0; k < batch; k++ )
+            {
+               blackhole.consume( op.run() );
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+         }
+         rate[it] = ops*1e9/elapsed;
+         bytes[it] = (double)(allocatedBytes() - allocated)/ops;
+      }
+
+      double median = median( rate );
+      double spread = 0;
+      for ( double r : rate )
+      {
+         spread = Math.max( spread, Math.abs( r - median ) );
+      }
+      return new double[] { median, 100*spread/median, median( bytes ) };
+   }
+
+   /**
+    * bytes allocated so far by this thread, or -1 if the JVM does not
+    * count them
+    */
+   private static long allocatedBytes()
+   {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if ( bean instanceof com.sun.management.ThreadMXBean )
+      {
+         return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(
+            Thread.currentThread().getId() );
+      }
+      return -1;
+   }
+
+   private static double median( double[] a )
+   {
+      double[] s = a.clone();
+      Arrays.sort( s );
+      int n = s.length;
+      return n % 2 == 1 ? s[n/2] : 0.5*(s[n/2-1] + s[n/2]);
+   }
+
+   /**
+    * runs a benchmark in fresh JVMs with the options of this one; with
+    * several forks, the median of their results
+    */
+   private static double[] fork( String name, int forks ) throws Exception
+   {
+      List<String> cmd = new ArrayList<String>();
+      cmd.add( new File( System.getProperty( "java.home" ), "bin/java" ).getPath() );
+      cmd.addAll( ManagementFactory.getRuntimeMXBean().getInputArguments() );
+      cmd.addAll( Arrays.asList( "-cp", System.getProperty( "java.class.path" ),
+                                 "DriverBenchmark", "-child",
+                                 "-wi", "" + warmups, "-i", "" + iterations,
+                                 "-t", "" + iterationMillis,
+                                 "^" + Pattern.quote( name ) + "$" ) );
+
+      double[][] results = new double[3][forks];
+      for ( int f = 0; f < forks; f++ )
+      {
+         ProcessBuilder pb = new ProcessBuilder( cmd );
+         pb.redirectError( ProcessBuilder.Redirect.INHERIT );
+         Process process = pb.start();
+         double[] r = null;
+         BufferedReader in = new BufferedReader(
+            new InputStreamReader( process.getInputStream() ) );
+         try
+         {
+            String line;
+            while ( (line = in.readLine()) != null )
+            {
+               if ( line.startsWith( RESULT ) )
+                  r = parse( line.substring( RESULT.length() ).split( " " ), 1 );
+               else
+                  System.out.println( line );
+            }
+         }
+         finally
+         {
+            in.close();
+         }
+         if ( process.waitFor() != 0 || r == null )
+            throw new IOException( "benchmark " + name + " failed in its JVM" );
+         for ( int j = 0; j < 3; j++ )
+         {
+            results[j][f] = r[j];
+         }
+      }
+      return new double[] { median( results[0] ), median( results[1] ), median( results[2] ) };
+   }
+
+   private static void report( String name, double[] r, Map<String,double[]> base )
+   {
+      double bytes = r[2];
+      String vs = "";
+      if ( base != null )
+      {
+         double[] b = base.get( name );
+         vs = b == null ? "         -"
+            : String.format( "  %+7.1f%%", 100*(r[0] - b[0])/b[0] );
+      }
+      System.out.printf( "%-40s %12.1f %7.1f %12.1f %10s %9s%s%n", name, r[0], r[1], 1e9/r[0],
+                         bytes < 0 ? "n/a" : String.format( "%.0f", bytes ),
+                         bytes < 0 ? "n/a" : String.format( "%.1f", bytes*r[0]/1e6 ), vs );
+   }
+
+   private static Map<String,double[]> readCsv( String path ) throws IOException
+   {
+      Map<String,double[]> results = new HashMap<String,double[]>();
+      BufferedReader in = new BufferedReader( new FileReader( path ) );
+      try
+      {
+         String line;
+         while ( (line = in.readLine()) != null )
+         {
+            String[] f = line.split( "," );
+            if ( f.length == 4 )
+               results.put( f[0], parse( f, 1 ) );     // the last run of each wins
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      return results;
+   }
+
+   private static double[] parse( String[] f, int offset )
+   {
+      double[] r = new double[f.length - offset];
+      for ( int k = 0; k < r.length; k++ )
+      {
+         r[k] = Double.parseDouble( f[offset+k] );
+      }
+      return r;
+   }
+
+   /**
+    * consumes results the way JMH's Blackhole does: a value is compared
+    * with two volatile fields that never both hold it, and a reference is
+    * published now and then under a mask the JIT cannot predict, so
+    * neither the computation nor its stores can be proven dead
+    */
+   static final class Blackhole
+   {
+      private volatile double d1 = 1;
+      private volatile double d2 = 2;
+      private volatile Object published;
+      private int state = 1;
+      private int mask = 1;
+
+      void consume( double v )
+      {
+         if ( v == d1 & v == d2 )
+            published = this;    // never happens, d1 != d2
+      }
+
+      void consume( Object o )
+      {
+         state = state*1664525 + 1013904223;
+         if ( (state & mask) == 0 )
+         {
+            published = o;
+            mask = (mask << 1) + 1;
+         }
+      }
+   }
+}
@@ -0,0 +1,532 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Self-checks of properties the drivers rely on but that no study would
+ * notice until it failed, run with the benchmarks' build:
+ *
+ *   ./makeBench.sh -check
+ *
+ * Each check prints its name and "ok", or the first thing that is wrong,
+ * and the exit status is the number of checks that failed.
+ */
+public class DriverChecks
+{
+   interface Check
+   {
+      void run() throws Exception;
+   }
+
+   private static final Map<String,Check> checks = new LinkedHashMap<String,Check>();
+
+   public static void main( String[] args ) throws Exception
+   {
+      define();
+
+      int failed = 0;
+      for ( Map.Entry<String,Check> e : checks.entrySet() )
+      {
+         try
+         {
+            e.getValue().run();
+            System.out.println( e.getKey() + ": ok" );
+         }
+         catch ( AssertionError x )
+         {
+            System.out.println( e.getKey() + ": FAILED, " + x.getMessage() );
+            failed++;
+         }
+      }
+      System.exit( failed );
+   }
+
+   private static final int BLOCK = 1000;
+   private static final int BLOCKS = 200;
+
+   // the refresh every statisticsInterval trials copies the dimensions of
+   // the histogram
+   private static final long REFRESH_BYTES = 64;
+
+   /**
+    * bytes allocated by each block of BLOCK trials of a sequential study
+    * of the driver, from the eleventh block on
+    */
+   private static long[] allocationByBlock( String driver, final com.sun.management.ThreadMXBean bean ) throws Exception
+   {
+      Object d = Class.forName( driver ).getDeclaredConstructor().newInstance();
+      StudyRunner.apply( d, "numTrials=" + BLOCK*BLOCKS );
+      StudyRunner.apply( d, "designVars.length=5" );
+      StudyRunner.apply( d, "designVars[*].distributionType=Uniform" );
+      StudyRunner.apply( d, "designVars[*].parm2=1" );
+      StudyRunner.apply( d, "outputs.length=3" );
+
+      final StudyRunner runner = new StudyRunner( (com.phoenix_int.aserver.IPHXDriver)d, null );
+      runner.setSequential( true );
+      runner.setInputs( "designVars" );
+      runner.setOutputs( "outputs" );
+      final Evaluator model = StudyRunner.model( "DTLZ2", 5, 3 );
+      final long thread = Thread.currentThread().getId();
+      // what reading the counter allocates itself
+      long before = bean.getThreadAllocatedBytes( thread );
+      final long overhead = bean.getThreadAllocatedBytes( thread ) - before;
+      final long[] blocks = new long[BLOCKS-11];
+      final long[] last = new long[1];
+      final int[] trial = new int[1];
+      runner.setModel( ( x, xo, y, yo ) ->
+      {
+         int t = trial[0]++;
+         if ( t % BLOCK == 0 && t >= 10*BLOCK )
+         {
+            long now = bean.getThreadAllocatedBytes( thread );
+            if ( t > 10*BLOCK )
+               blocks[t/BLOCK - 11] = now - last[0] - overhead;
+            last[0] = now;
+         }
+         model.evaluate( x, xo, y, yo );
+      } );
+      runner.run();
+      return blocks;
+   }
+
+   private static final Evaluator CHECKPOINT_MODEL = new BenchmarkProblem( "DTLZ2", 3, 2 );
+
+   /**
+    * a 5000-trial study of the driver with a fixed seed, checkpointed
+    * every 500 trials to path, or not at all if path is empty
+    */
+   private static com.phoenix_int.aserver.IPHXDriver checkpointed( String driver, String path ) throws Exception
+   {
+      Object d = Class.forName( driver ).getDeclaredConstructor().newInstance();
+      StudyRunner.apply( d, "numTrials=5000" );
+      StudyRunner.apply( d, "seed=11" );
+      StudyRunner.apply( d, "designVars.length=3" );
+      StudyRunner.apply( d, "designVars[*].distributionType=Uniform" );
+      StudyRunner.apply( d, "designVars[*].parm2=1" );
+      StudyRunner.apply( d, "outputs.length=2" );
+      StudyRunner.apply( d, "checkpointInterval=500" );
+      StudyRunner.apply( d, "checkpointFile=" + path );
+      return (com.phoenix_int.aserver.IPHXDriver)d;
+   }
+
+   /**
+    * runs one trial of a driver set up by checkpointed(); false once the
+    * study is done
+    */
+   private static boolean trial( com.phoenix_int.aserver.IPHXDriver d ) throws Exception
+   {
+      com.phoenix_int.aserver.types.PHXReferenceArray in =
+         (com.phoenix_int.aserver.types.PHXReferenceArray)StudyRunner.getProperty( d, "designVars" );
+      com.phoenix_int.aserver.types.PHXReferenceArray out =
+         (com.phoenix_int.aserver.types.PHXReferenceArray)StudyRunner.getProperty( d, "outputs" );
+      d.startIteration();
+      CHECKPOINT_MODEL.evaluate( in.getValues(), 0, out.getValues(), 0 );
+      return d.endIteration();
+   }
+
+   private static com.sun.management.ThreadMXBean threadBean()
+   {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if ( bean instanceof com.sun.management.ThreadMXBean )
+         return (com.sun.management.ThreadMXBean)bean;
+      return null;
+   }
+
+   private static boolean close( double a, double b, double tolerance )
+   {
+      return Math.abs( a - b ) <= tolerance*Math.max( 1, Math.max( Math.abs( a ), Math.abs( b ) ) );
+   }
+
+   private static void check( boolean condition, String message )
+   {
+      if ( !condition )
+         throw new AssertionError( message );
+   }
+
+   private static void define()
+   {
+      // the extremes of the bit pattern must stay strictly inside (0,1),
+      // or inverse CDFs return infinities and (int)(u*n) indexes n
+      checks.put( "RandomSource.toUniform", () ->
+      {
+         long[] bits = { 0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, 0xFFFFFFFFFFFFF000L };
+         for ( long b : bits )
+         {
+            double u = RandomSource.toUniform( b );
+            check( u > 0 && u < 1, "toUniform(" + Long.toHexString( b ) + ") = " + u );
+         }
+         check( RandomSource.toUniform( 0L ) == 0x1.0p-53, "smallest value is not 2^-53" );
+         check( RandomSource.toUniform( -1L ) == 1 - 0x1.0p-53, "largest value is not 1-2^-53" );
+         for ( int n = 1; n <= 1 << 20; n = n < 16 ? n + 1 : 2*n + 1 )
+         {
+            check( (int)(RandomSource.toUniform( -1L )*n) == n - 1, "(int)(u*" + n + ") reaches " + n );
+         }
+      } );
+
+      // the divide-and-conquer sort for three or more objectives against
+      // the definition: one front more than the worst point dominating it
+      checks.put( "ParetoArchive.sortFronts", () ->
+      {
+         Random rng = new Random( 7 );
+         for ( int t = 0; t < 500; t++ )
+         {
+            int m = 2 + rng.nextInt( 5 );
+            int n = 1 + rng.nextInt( 400 );
+            int levels = rng.nextBoolean() ? 3 + rng.nextInt( 10 ) : 1 << 30;
+            double[] f = new double[n*m];
+            for ( int k = 0; k < f.length; k++ )
+            {
+               f[k] = rng.nextInt( levels );
+            }
+
+            int[] front = ParetoArchive.sortFronts( f, n, m );
+            for ( int p = 0; p < n; p++ )
+            {
+               int expected = 0;
+               for ( int q = 0; q < n; q++ )
+               {
+                  if ( ParetoArchive.dominates( f, q*m, f, p*m, m ) )
+                  {
+                     check( front[q] < front[p], "point " + q + " dominates " + p + " but is not in an earlier front" );
+                     expected = Math.max( expected, front[q]+1 );
+                  }
+               }
+               check( front[p] == expected, "point " + p + " in front " + front[p] + ", expected " + expected );
+            }
+         }
+      } );
+
+      // the sequential trial of StudyRunner allocates nothing: in blocks of
+      // BLOCK trials, only the growth of a quantile sketch, about once per
+      // doubling of the trial count, and the refresh of the quantiles and
+      // the histogram may allocate at all
+      for ( final String driver : new String[] { "MonteCarlo", "LatinHypercubeSampling", "QuasiMonteCarlo" } )
+      {
+         checks.put( "StudyRunner.sequential." + driver, () ->
+         {
+            final com.sun.management.ThreadMXBean bean = threadBean();
+            if ( bean == null )
+               return;
+            long[] blocks = null;
+            for ( int run = 0; run < 3; run++ )
+            {
+               blocks = allocationByBlock( driver, bean );
+            }
+            int allocating = 0;
+            for ( long b : blocks )
+            {
+               if ( b > REFRESH_BYTES )
+                  allocating++;
+            }
+            check( allocating <= blocks.length/10, allocating + " of " + blocks.length +
+                   " blocks of " + BLOCK + " trials allocate, " + Arrays.toString( blocks ) );
+         } );
+      }
+
+      // rows written across more than one block come back the same after
+      // close() and open(), a kept store goes on after its rows, and a
+      // view of a closed store stays readable while the store refuses
+      checks.put( "ResultStore", () ->
+      {
+         File file = File.createTempFile( "DriverChecks", ".phx" );
+         file.deleteOnExit();
+         String[] names = ResultStore.columnNames( 2, 1 );
+         int rows = ResultStore.DEFAULT_BLOCK_ROWS + 1000;
+         double[] row = new double[3];
+
+         ResultStore store = ResultStore.create( file.getPath(), names, false );
+         for ( int r = 0; r < rows; r++ )
+         {
+            row[0] = r;
+            row[1] = -r;
+            row[2] = 0.5*r;
+            store.write( r, 0, row, 0, 3 );
+         }
+         store.close();
+
+         store = ResultStore.open( file.getPath() );
+         check( store.getNumRows() == rows, store.getNumRows() + " rows read back, " + rows + " written" );
+         check( store.getNumBlocks() == 2, store.getNumBlocks() + " blocks" );
+         check( Arrays.equals( new String[] { store.getColumnName( 0 ), store.getColumnName( 1 ),
+                                              store.getColumnName( 2 ) }, names ), "column names differ" );
+         for ( int r = 0; r < rows; r += 997 )
+         {
+            check( store.get( r, 0 ) == r && store.get( r, 1 ) == -r && store.get( r, 2 ) == 0.5*r,
+                   "row " + r + " differs" );
+         }
+         java.nio.DoubleBuffer tail = store.column( 2, 1 );
+         check( tail.remaining() == 1000, "last block holds " + tail.remaining() + " rows" );
+         store.close();
+         check( tail.get( 999 ) == 0.5*(rows-1), "view differs after close()" );
+         try
+         {
+            store.get( 0, 0 );
+            check( false, "get() after close() did not throw" );
+         }
+         catch ( IllegalStateException e )
+         {
+         }
+
+         row[0] = row[1] = row[2] = 7;
+         store = ResultStore.create( file.getPath(), names, true );
+         check( store.append( row, 0 ) == rows, "kept store does not append after its rows" );
+         store.close();
+         store = ResultStore.create( file.getPath(), names, false );
+         check( store.getNumRows() == 0, "new store is not empty" );
+         store.close();
+         check( file.length() <= 4096, "new store kept " + file.length() + " bytes" );
+      } );
+
+      // a repeated point is a hit, points within the quantum share one
+      // evaluation, a full cache evicts, and a point asked for often
+      // survives a scan of one-off points
+      checks.put( "EvaluationCache", () ->
+      {
+         final int[] calls = new int[1];
+         Evaluator model = ( x, xo, y, yo ) ->
+         {
+            calls[0]++;
+            y[yo] = x[xo] + 2*x[xo+1];
+         };
+         EvaluationCache cache = new EvaluationCache( model, 2, 1, 64, 0.01 );
+         double[] x = new double[2];
+         double[] y = new double[1];
+
+         x[0] = 1;
+         x[1] = 2;
+         cache.evaluate( x, 0, y, 0 );
+         cache.evaluate( x, 0, y, 0 );
+         x[0] = 1.001;
+         cache.evaluate( x, 0, y, 0 );
+         check( calls[0] == 1 && y[0] == 5, calls[0] + " evaluations of one point" );
+         check( cache.getHits() == 2 && cache.getMisses() == 1, "hits and misses: " + cache );
+
+         for ( int k = 0; k < 10; k++ )
+         {
+            cache.evaluate( x, 0, y, 0 );
+         }
+         for ( int k = 0; k < 300; k++ )
+         {
+            x[0] = 10 + k;
+            cache.evaluate( x, 0, y, 0 );
+            check( y[0] == 14 + k, "one-off point " + k + " answered " + y[0] );
+         }
+         check( cache.getMisses() == 301, cache.getMisses() + " misses, expected 301" );
+         check( cache.getEvictions() > 0, "no evictions from a full cache" );
+         check( cache.getSize() <= 64, cache.getSize() + " points held, capacity 64" );
+
+         x[0] = 1;
+         cache.evaluate( x, 0, y, 0 );
+         check( calls[0] == 301 && y[0] == 5, "frequent point was evicted by one-off points" );
+      } );
+
+      // callers sharing one executor each get every case of their own
+      // batches evaluated, exactly once
+      checks.put( "BatchExecutor.concurrentCallers", () ->
+      {
+         final int callers = 4;
+         final int numCases = 257;
+         final BatchExecutor executor = new BatchExecutor( 3 );
+         final Throwable[] failure = new Throwable[callers];
+         Thread[] threads = new Thread[callers];
+         for ( int c = 0; c < callers; c++ )
+         {
+            final int caller = c;
+            threads[c] = new Thread( () ->
+            {
+               try
+               {
+                  double[] x = new double[numCases];
+                  double[] y = new double[numCases];
+                  final int[] calls = new int[numCases];
+                  for ( int round = 0; round < 200; round++ )
+                  {
+                     for ( int k = 0; k < numCases; k++ )
+                     {
+                        x[k] = 1000*caller + k + round;
+                     }
+                     Arrays.fill( y, Double.NaN );
+                     executor.evaluate( ( in, io, out, oo ) ->
+                     {
+                        synchronized ( calls )
+                        {
+                           calls[io]++;
+                        }
+                        out[oo] = 2*in[io];
+                     }, x, 1, y, 1, numCases );
+                     for ( int k = 0; k < numCases; k++ )
+                     {
+                        check( y[k] == 2*x[k], "caller " + caller + " case " + k + ": " + y[k] );
+                        check( calls[k] == round + 1, "caller " + caller + " case " + k +
+                               " evaluated " + (calls[k] - round) + " times" );
+                     }
+                  }
+               }
+               catch ( Throwable e )
+               {
+                  failure[caller] = e;
+               }
+            } );
+            threads[c].start();
+         }
+         try
+         {
+            for ( Thread t : threads )
+            {
+               t.join();
+            }
+         }
+         finally
+         {
+            executor.close();
+         }
+         for ( Throwable e : failure )
+         {
+            if ( e instanceof AssertionError )
+               throw (AssertionError)e;
+            if ( e != null )
+               throw new AssertionError( e );
+         }
+      } );
+
+      // a study killed part way, with a torn record at the end of its
+      // checkpoint file, and then resumed ends up with the same outputs,
+      // bit for bit, as one that ran straight through
+      for ( final String driver : new String[] { "MonteCarlo", "LatinHypercubeSampling", "QuasiMonteCarlo" } )
+      {
+         checks.put( "StudyCheckpoint." + driver, () ->
+         {
+            File file = File.createTempFile( "DriverChecks", ".cpt" );
+            file.deleteOnExit();
+            file.delete();
+
+            com.phoenix_int.aserver.IPHXDriver straight = checkpointed( driver, "" );
+            straight.initializeIterations();
+            while ( trial( straight ) )
+            {
+            }
+            straight.end();
+
+            // no end(), as when the process dies
+            com.phoenix_int.aserver.IPHXDriver killed = checkpointed( driver, file.getPath() );
+            killed.initializeIterations();
+            for ( int t = 0; t < 2750; t++ )
+            {
+               trial( killed );
+            }
+            try ( FileOutputStream out = new FileOutputStream( file, true ) )
+            {
+               out.write( new byte[] { 0x52, 0x54, 0x50, 0x43, 0, 0, 0 } );
+            }
+
+            com.phoenix_int.aserver.IPHXDriver resumed = checkpointed( driver, file.getPath() );
+            resumed.initializeIterations();
+            int from = (Integer)StudyRunner.getProperty( resumed, "trial" );
+            check( from == 2500, "resumed after trial " + from + ", expected 2500" );
+            while ( trial( resumed ) )
+            {
+            }
+            resumed.end();
+
+            com.phoenix_int.aserver.types.PHXReferenceArray a =
+               (com.phoenix_int.aserver.types.PHXReferenceArray)StudyRunner.getProperty( straight, "outputs" );
+            com.phoenix_int.aserver.types.PHXReferenceArray b =
+               (com.phoenix_int.aserver.types.PHXReferenceArray)StudyRunner.getProperty( resumed, "outputs" );
+            for ( String r : new String[] { "avg", "std", "min", "max", "skewness", "kurtosis", "p5", "p50", "p95" } )
+            {
+               for ( int i = 0; i < a.getLength(); i++ )
+               {
+                  double x = a.getRefPropValueDouble( r, i );
+                  double y = b.getRefPropValueDouble( r, i );
+                  check( Double.doubleToLongBits( x ) == Double.doubleToLongBits( y ),
+                         "outputs[" + i + "]." + r + " is " + y + " resumed, " + x + " straight through" );
+               }
+            }
+            com.phoenix_int.aserver.types.PHXDoubleArray ha =
+               (com.phoenix_int.aserver.types.PHXDoubleArray)StudyRunner.getProperty( straight, "histogram" );
+            com.phoenix_int.aserver.types.PHXDoubleArray hb =
+               (com.phoenix_int.aserver.types.PHXDoubleArray)StudyRunner.getProperty( resumed, "histogram" );
+            int[] dims = ha.getDimensions();
+            check( Arrays.equals( dims, hb.getDimensions() ), "histograms differ in shape" );
+            int[] index = new int[2];
+            for ( index[0] = 0; index[0] < dims[0]; index[0]++ )
+            {
+               for ( index[1] = 0; index[1] < dims[1]; index[1]++ )
+               {
+                  check( ha.getValue( index ) == hb.getValue( index ), "histogram differs at " +
+                         Arrays.toString( index ) );
+               }
+            }
+         } );
+      }
+
+      // partial accumulators merged together, as the batch and distributed
+      // paths do, give what one pass over all the values gives; the data
+      // sit far from zero so that a merge that loses the centring shows
+      checks.put( "StreamingStatistics.merge", () ->
+      {
+         Random rng = new Random( 3 );
+         double[][] rows = new double[10000][2];
+         for ( double[] row : rows )
+         {
+            row[0] = 1e6 + rng.nextGaussian();
+            row[1] = Math.exp( rng.nextGaussian() );
+         }
+         StreamingStatistics single = new StreamingStatistics( 2 );
+         for ( double[] row : rows )
+         {
+            single.add( row );
+         }
+
+         // uneven parts, an empty one and a single value among them
+         int[] cuts = { 0, 0, 1, 37, 4096, 4097, 9000, 10000 };
+         StreamingStatistics merged = new StreamingStatistics( 2 );
+         for ( int c = 0; c+1 < cuts.length; c++ )
+         {
+            StreamingStatistics part = new StreamingStatistics( 2 );
+            for ( int r = cuts[c]; r < cuts[c+1]; r++ )
+            {
+               part.add( rows[r] );
+            }
+            merged.merge( part );
+         }
+
+         check( merged.getCount() == single.getCount(), merged.getCount() + " values merged" );
+         for ( int i = 0; i < 2; i++ )
+         {
+            check( merged.getMin( i ) == single.getMin( i ), "min of " + i + " differs" );
+            check( merged.getMax( i ) == single.getMax( i ), "max of " + i + " differs" );
+            check( close( merged.getMean( i ), single.getMean( i ), 1e-14 ),
+                   "mean of " + i + ": " + merged.getMean( i ) + " merged, " + single.getMean( i ) );
+            check( close( merged.getVariance( i ), single.getVariance( i ), 1e-9 ),
+                   "variance of " + i + ": " + merged.getVariance( i ) + " merged, " + single.getVariance( i ) );
+            check( close( merged.getSkewness( i ), single.getSkewness( i ), 1e-6 ),
+                   "skewness of " + i + ": " + merged.getSkewness( i ) + " merged, " + single.getSkewness( i ) );
+            check( close( merged.getKurtosis( i ), single.getKurtosis( i ), 1e-6 ),
+                   "kurtosis of " + i + ": " + merged.getKurtosis( i ) + " merged, " + single.getKurtosis( i ) );
+         }
+      } );
+
+      for ( final String generator : RandomSource.GENERATORS.split( "," ) )
+      {
+         checks.put( "RandomSource." + generator, () ->
+         {
+            RandomSource r = RandomSource.create( generator, 12345 );
+            RandomSource q = RandomSource.create( generator, 12345 );
+            double[] u = new double[4096];
+            for ( long stream = 0; stream < 64; stream++ )
+            {
+               r.reset( stream );
+               r.fill( u );
+               q.reset( stream );
+               for ( int k = 0; k < u.length; k++ )
+               {
+                  check( u[k] > 0 && u[k] < 1, "draw " + u[k] + " outside (0,1)" );
+                  check( u[k] == q.nextDouble(), "fill() and nextDouble() differ" );
+               }
+            }
+         } );
+      }
+   }
+}
@@ -0,0 +1,16 @@
+#!/bin/sh
+# Builds the drivers against the Analysis Server stand-ins in stub/ and
+# runs DriverBenchmark; the arguments are passed on to it, e.g.
+#   ./makeBench.sh -list
+#   ./makeBench.sh -csv before.csv MonteCarlo
+#   ./makeBench.sh -baseline before.csv MonteCarlo
+# or, with -check as the only argument, runs the DriverChecks instead:
+#   ./makeBench.sh -check
+cd "$(dirname "$0")" || exit 1
+rm -rf classes
+mkdir classes
+javac -nowarn -d classes $(find stub -name '*.java') ../*.java DriverBenchmark.java DriverChecks.java || exit 1
+if [ "$1" = "-check" ]; then
+   exec java -cp classes DriverChecks
+fi
+java -cp classes DriverBenchmark "$@"
@@ -0,0 +1,14 @@
+package com.phoenix_int.aserver;
+
+/**
+ * Stand-in for the Analysis Server driver interface, for building and
+ * benchmarking the drivers without the Analysis Server jars. Only the
+ * members the drivers use are declared.
+ */
+public interface IPHXDriver
+{
+   void initializeIterations() throws Exception;
+   void startIteration() throws Exception;
+   boolean endIteration() throws Exception;
+   void end() throws Exception;
+}
@@ -0,0 +1,13 @@
+package com.phoenix_int.aserver.types;
+
+/**
+ * Stand-in for the ref-prop metadata; the settings are accepted and
+ * dropped.
+ */
+public interface IPHXRefPropInfo
+{
+   void enumValuesFromString( String s );
+   void setTitle( String s );
+   void setDescription( String s );
+   void setInput( boolean b );
+}
@@ -0,0 +1,36 @@
+package com.phoenix_int.aserver.types;
+
+/**
+ * Stand-in for the Analysis Server double array: a row-major block of
+ * values with its dimensions.
+ */
+public class PHXDoubleArray
+{
+   private int[] dims = new int[] { 0 };
+   private double[] data = new double[0];
+
+   public void resize( int[] d )
+   {
+      dims = d.clone();
+      int n = 1;
+      for ( int x : d )
+      {
+         n *= x;
+      }
+      data = new double[n];
+   }
+
+   public int[] getDimensions() { return dims.clone(); }
+   public void setValue( int[] index, double v ) { data[offset( index )] = v; }
+   public double getValue( int[] index ) { return data[offset( index )]; }
+
+   private int offset( int[] index )
+   {
+      int o = 0;
+      for ( int k = 0; k < dims.length; k++ )
+      {
+         o = o*dims[k] + index[k];
+      }
+      return o;
+   }
+}
@@ -0,0 +1,56 @@
+package com.phoenix_int.aserver.types;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for a reference to one model variable and its ref-props.
+ * Unset ref-props read as 0 or "".
+ */
+public class PHXReference
+{
+   private double value;
+   private final Map<String,Object> props = new HashMap<String,Object>();
+
+   public IPHXRefPropInfo createRefProp( String name, String type )
+   {
+      props.put( name, null );
+      return new RefProp( name, type );
+   }
+
+   public double getValue() { return value; }
+   public void setValue( double v ) { value = v; }
+
+   public double getRefPropValueDouble( String name ) throws PHXTypeMismatchException
+   {
+      Object o = props.get( name );
+      return o == null ? 0 : ((Number)o).doubleValue();
+   }
+
+   public long getRefPropValueLong( String name ) throws PHXTypeMismatchException
+   {
+      Object o = props.get( name );
+      return o == null ? 0 : ((Number)o).longValue();
+   }
+
+   public String getRefPropValueString( String name ) throws PHXTypeMismatchException
+   {
+      Object o = props.get( name );
+      return o == null ? "" : o.toString();
+   }
+
+   public void setRefPropValue( String name, double v ) throws PHXTypeMismatchException
+   {
+      props.put( name, v );
+   }
+
+   public void setRefPropValue( String name, long v ) throws PHXTypeMismatchException
+   {
+      props.put( name, v );
+   }
+
+   public void setRefPropValue( String name, String v ) throws PHXTypeMismatchException
+   {
+      props.put( name, v );
+   }
+}
@@ -0,0 +1,126 @@
+package com.phoenix_int.aserver.types;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for an array of references to model variables, with the
+ * values in one double[] as the drivers expect from getValues() and a
+ * column of values per ref-prop. A ref-prop of type double is a double[]
+ * column, so that a driver updating its statistics every trial is not
+ * charged for boxing that a typed server would not do. Unset ref-props
+ * read as 0, "" or false; reading or writing one that was never created,
+ * or a string or boolean in a double one, throws PHXTypeMismatchException.
+ */
+public class PHXReferenceArray
+{
+   private double[] values = new double[0];
+   private final Map<String,Object> props = new HashMap<String,Object>();
+
+   public void setAutoGrow( boolean b ) {}
+
+   public IPHXRefPropInfo createRefProp( String name, String type )
+   {
+      props.put( name, type.equals( "double" ) ? new double[values.length]
+                                               : new Object[values.length] );
+      return new RefProp( name, type );
+   }
+
+   public int getLength() { return values.length; }
+
+   public void setLength( int n )
+   {
+      values = Arrays.copyOf( values, n );
+      for ( Map.Entry<String,Object> e : props.entrySet() )
+      {
+         Object c = e.getValue();
+         e.setValue( c instanceof double[] ? Arrays.copyOf( (double[])c, n )
+                                           : Arrays.copyOf( (Object[])c, n ) );
+      }
+   }
+
+   public double[] getValues() { return values; }
+
+   public String getRefPropValueString( String name, int i ) throws PHXTypeMismatchException
+   {
+      Object o = get( name, i );
+      return o == null ? "" : o.toString();
+   }
+
+   public double getRefPropValueDouble( String name, int i ) throws PHXTypeMismatchException
+   {
+      Object c = column( name );
+      if ( c instanceof double[] )
+         return ((double[])c)[i];
+      Object o = get( name, i );
+      return o == null ? 0 : ((Number)o).doubleValue();
+   }
+
+   public long getRefPropValueLong( String name, int i ) throws PHXTypeMismatchException
+   {
+      Object c = column( name );
+      if ( c instanceof double[] )
+         return (long)((double[])c)[i];
+      Object o = get( name, i );
+      return o == null ? 0 : ((Number)o).longValue();
+   }
+
+   public boolean getRefPropValueBoolean( String name, int i ) throws PHXTypeMismatchException
+   {
+      Object o = get( name, i );
+      return o != null && (Boolean)o;
+   }
+
+   public void setRefPropValue( String name, int i, double v ) throws PHXTypeMismatchException
+   {
+      Object c = column( name );
+      if ( c instanceof double[] )
+         ((double[])c)[i] = v;
+      else
+         set( name, i, v );
+   }
+
+   public void setRefPropValue( String name, int i, long v ) throws PHXTypeMismatchException
+   {
+      Object c = column( name );
+      if ( c instanceof double[] )
+         ((double[])c)[i] = v;
+      else
+         set( name, i, v );
+   }
+
+   public void setRefPropValue( String name, int i, String v ) throws PHXTypeMismatchException
+   {
+      set( name, i, v );
+   }
+
+   public void setRefPropValue( String name, int i, boolean v ) throws PHXTypeMismatchException
+   {
+      set( name, i, v );
+   }
+
+   private Object column( String name ) throws PHXTypeMismatchException
+   {
+      Object c = props.get( name );
+      if ( c == null )
+         throw new PHXTypeMismatchException( "no ref-prop " + name );
+      return c;
+   }
+
+   private Object get( String name, int i ) throws PHXTypeMismatchException
+   {
+      Object c = column( name );
+      if ( c instanceof double[] )
+         return ((double[])c)[i];
+      return ((Object[])c)[i];
+   }
+
+   private void set( String name, int i, Object v ) throws PHXTypeMismatchException
+   {
+      Object c = column( name );
+      if ( c instanceof double[] )
+         throw new PHXTypeMismatchException( "ref-prop " + name + " is a double" );
+      ((Object[])c)[i] = v;
+   }
+}
@@ -0,0 +1,9 @@
+package com.phoenix_int.aserver.types;
+
+public class PHXTypeMismatchException extends Exception
+{
+   public PHXTypeMismatchException( String msg )
+   {
+      super( msg );
+   }
+}
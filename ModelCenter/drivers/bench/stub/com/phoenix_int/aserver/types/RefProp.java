@@ -0,0 +1,18 @@
+package com.phoenix_int.aserver.types;
+
+class RefProp implements IPHXRefPropInfo
+{
+   final String name;
+   final String type;
+
+   RefProp( String name, String type )
+   {
+      this.name = name;
+      this.type = type;
+   }
+
+   public void enumValuesFromString( String s ) {}
+   public void setTitle( String s ) {}
+   public void setDescription( String s ) {}
+   public void setInput( boolean b ) {}
+}